@@ -4,16 +4,14 @@ import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix2D;
 
 import gov.usgs.volcanoes.core.math.Butterworth;
-import gov.usgs.volcanoes.core.math.Filter;
+import gov.usgs.volcanoes.core.math.RollingWindow;
+import gov.usgs.volcanoes.core.math.SosFilter;
 import gov.usgs.volcanoes.core.time.J2kSec;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.TreeMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -363,22 +361,15 @@ public class GenericDataMatrix implements BinaryDataSet {
     }
 
     // bw.setSamplingRate(getSamplingRate());
-    bw.create();
-    Filter.filter(dBuf, bw.getSize(), bw.getXCoeffs(), bw.getYCoeffs(), bw.getGain(), 0, 0);
+    SosFilter filter = SosFilter.forButterworth(bw);
     if (zeroPhaseShift) {
-      double[] dBuf2 = new double[dBuf.length];
-      for (int i = 0, j = dBuf.length - 1; i < dBuf.length; i++, j--) {
-        dBuf2[j] = dBuf[i];
-      }
-      Filter.filter(dBuf2, bw.getSize(), bw.getXCoeffs(), bw.getYCoeffs(), bw.getGain(), 0, 0);
-
-      for (int i = 0, j = dBuf2.length - 1 - trueStart; i < data.rows(); i++, j--) {
-        data.setQuick(i, columnIndex, dBuf2[j]);
-      }
+      filter.filterZeroPhase(dBuf, 0, dBuf.length);
     } else {
-      for (int i = 0; i < data.rows(); i++) {
-        data.setQuick(i, columnIndex, dBuf[i + trueStart]);
-      }
+      filter.filter(dBuf, 0, dBuf.length);
+    }
+
+    for (int i = 0; i < data.rows(); i++) {
+      data.setQuick(i, columnIndex, dBuf[i + trueStart]);
     }
     // invalidateStatistics();
   }
@@ -389,40 +380,17 @@ public class GenericDataMatrix implements BinaryDataSet {
    * @param p period used for rolling mean
    */
   public void set2mean(int c, double p) {
-    int j = 0; // index of oldest value in window
-    double jtime = data.getQuick(0, 0); // time of oldest value in window
-    List<Integer> nans = null;
-    Meaner window = new Meaner();
-    window.add(data.getQuick(0, c));
-    int r = rows();
-    for (int i = 1; i < r; i++) {
-      double itime = data.getQuick(i, 0);
-      double ival = data.getQuick(i, c);
-      if (Double.isNaN(ival)) {
-        if (nans == null) {
-          nans = new ArrayList<Integer>();
-        }
-        nans.add(i);
-        continue;
-      }
+    set2mean(c, p, false);
+  }
 
-      window.add(ival);
-      // While oldest value is outside period, remove it
-      while (itime - jtime > p) {
-        window.removeOldest();
-        boolean keepgoing = false;
-        do {
-          keepgoing = false;
-          j++;
-          if (nans != null && nans.size() > 0 && j == nans.get(0)) {
-            nans.remove(0);
-            keepgoing = true;
-          }
-        } while (keepgoing && j < i);
-        jtime = data.getQuick(j, 0);
-      }
-      data.setQuick(i, c, window.avg());
-    }
+  /**
+   * Replace data in column c with rolling mean of period p.
+   * @param c column to change
+   * @param p period used for rolling mean
+   * @param parallel if true, split long columns across processors
+   */
+  public void set2mean(int c, double p, boolean parallel) {
+    roll(RollingWindow.Statistic.MEAN, c, p, parallel);
   }
 
   /**
@@ -431,251 +399,34 @@ public class GenericDataMatrix implements BinaryDataSet {
    * @param p period used for rolling median
    */
   public void set2median(int c, double p) {
-    int j = 0; // index of oldest value in window
-    double jtime = data.getQuick(0, 0); // time of oldest value in window
-    List<Integer> nans = null;
-    Medianer window = new Medianer();
-    window.add(data.getQuick(0, c));
-    int r = rows();
-    for (int i = 1; i < r; i++) {
-      double itime = data.getQuick(i, 0);
-      double ival = data.getQuick(i, c);
-      if (Double.isNaN(ival)) {
-        if (nans == null) {
-          nans = new ArrayList<Integer>();
-        }
-        nans.add(i);
-        continue;
-      }
-
-      window.add(ival);
-      // While oldest value is outside period, remove it
-      while (itime - jtime > p) {
-        window.removeOldest();
-        boolean keepgoing = false;
-        do {
-          keepgoing = false;
-          j++;
-          if (nans != null && nans.size() > 0 && j == nans.get(0)) {
-            nans.remove(0);
-            keepgoing = true;
-          }
-        } while (keepgoing && j < i);
-        jtime = data.getQuick(j, 0);
-      }
-      data.setQuick(i, c, window.avg());
-    }
+    set2median(c, p, false);
   }
 
-  /** 
-   * Class to maintain a FIFO of doubles & report its mean.
-   */
-  private class Meaner {
-    private LinkedList<Double> data; // the values
-    private double sum; // their sum
-
-    Meaner() {
-      data = new LinkedList<Double>();
-      sum = 0;
-    }
-
-    /** 
-     * Add val to the queue. 
-     * 
-     * @param val value to add
-     */
-    public void add(double val) {
-      data.addLast(val);
-      sum += val;
-    }
-
-    /** 
-     * Remove the oldest value from the queue.
-     * 
-     * @return value removed
-     */
-    public double removeOldest() {
-      if (data.size() > 0) {
-        Double datum = data.removeFirst();
-        sum -= datum;
-        return datum;
-      } else {
-        return Double.NaN;
-      }
-    }
-
-    /** 
-     * Mean of values in queue.
-     * 
-     * @return the mean
-     */
-    public double avg() {
-      return sum / data.size();
-    }
+  /**
+   * Replace data in column c with rolling median of period p.
+   * @param c column to change
+   * @param p period used for rolling median
+   * @param parallel if true, split long columns across processors
+   */
+  public void set2median(int c, double p, boolean parallel) {
+    roll(RollingWindow.Statistic.MEDIAN, c, p, parallel);
   }
 
-
-  /** 
-   * Class to maintain a FIFO of doubles & report its median.
+  /**
+   * Replace every value in a column but the first with a statistic of the values in the preceding
+   * period, by the times in column 0. NaN values are skipped.
    */
-  private class Medianer {
-
-    private class MultiMap {
-      private TreeMap<Double, LinkedList<Integer>> mm;
-      private TreeMap<Integer, Double> unmm;
-
-      MultiMap() {
-        mm = new TreeMap<Double, LinkedList<Integer>>();
-        unmm = new TreeMap<Integer, Double>();
-      }
-
-      protected void put(Double key, Integer val) {
-        LinkedList<Integer> entry = mm.get(key);
-        if (entry == null) {
-          entry = new LinkedList<Integer>();
-        }
-        unmm.put(val, key);
-        if (entry.size() == 0) {
-          entry.add(val);
-          mm.put(key, entry);
-          return;
-        }
-        if (val < entry.getFirst()) {
-          entry.addFirst(val);
-        } else {
-          entry.addLast(val);
-        }
-      }
-
-      protected Double lastKey() {
-        return mm.lastKey();
-      }
-
-      protected Integer removeLastIndex(Double key) {
-        LinkedList<Integer> entry = mm.get(key);
-        // entry should not be null!
-        Integer index = entry.removeLast();
-        if (entry.size() == 0) {
-          mm.remove(key);
-        }
-        unmm.remove(index);
-        return index;
-      }
-
-      protected Double firstKey() {
-        return mm.firstKey();
-      }
-
-      protected Integer removeFirstIndex(Double key) {
-        LinkedList<Integer> entry = mm.get(key);
-        // entry should not be null!
-        Integer index = entry.removeFirst();
-        if (entry.size() == 0) {
-          mm.remove(key);
-        }
-        unmm.remove(index);
-        return index;
-      }
-
-      public int size() {
-        return unmm.size();
-      }
-
-      public void addLo(Double key, Integer val, MultiMap other) {
-        if (other.size() > 0 && key >= other.firstKey()) {
-          other.put(key, val);
-          key = other.firstKey();
-          val = other.removeFirstIndex(key);
-        }
-        put(key, val);
-      }
-
-      public void addHi(Double key, Integer val, MultiMap other) {
-        if (other.size() > 0 && key <= other.lastKey()) {
-          other.put(key, val);
-          key = other.lastKey();
-          val = other.removeLastIndex(key);
-        }
-        put(key, val);
-      }
-
-      public boolean removeIndex(Integer val) {
-        Double key = unmm.remove(val);
-        if (key == null) {
-          return false;
-        }
-        List<Integer> entry = mm.get(key);
-        if (entry.size() == 1) {
-          mm.remove(key);
-        } else {
-          entry.remove(val);
-        }
-        return true;
-      }
-    }
-
-    private MultiMap loHalf; // values in lower half
-    private MultiMap hiHalf; // values in upper half
-    private int idx1;
-    private int idx2; // values window have indices idx1..idx2
-
-    Medianer() {
-      // Invariant: |loHalf| - |hiHalf| = 0 or 1
-      // All keys in loHalf <= all keys in hiHalf
-      loHalf = new MultiMap();
-      hiHalf = new MultiMap();
-      idx1 = 0;
-      idx2 = -1;
-    }
-
-    /** 
-     * Add val to the queue. 
-     * 
-     * @param val value to add
-     */
-    public void add(double val) {
-      idx2++;
-      if (loHalf.size() == hiHalf.size()) {
-        loHalf.addLo(val, idx2, hiHalf);
-      } else {
-        hiHalf.addHi(val, idx2, loHalf);
-      }
-    }
-
-    /** 
-     * Remove the oldest value from the queue.
-     * 
-     * @return value removed
-     */
-    public void removeOldest() {
-      if (!loHalf.removeIndex(idx1)) {
-        hiHalf.removeIndex(idx1);
-      }
-      idx1++;
-      int loSize = loHalf.size();
-      int hiSize = hiHalf.size();
-      if (loSize < hiSize) {
-        // Shift min of hi to lo
-        Double d = hiHalf.firstKey();
-        Integer ix = hiHalf.removeFirstIndex(d);
-        loHalf.put(d, ix);
-      } else if (loSize > hiSize + 1) {
-        // Shift max of lo to hi
-        Double d = loHalf.lastKey();
-        Integer ix = loHalf.removeLastIndex(d);
-        hiHalf.put(d, ix);
-      }
+  private void roll(RollingWindow.Statistic statistic, int c, double p, boolean parallel) {
+    int r = rows();
+    double[] times = new double[r];
+    double[] values = new double[r];
+    for (int i = 0; i < r; i++) {
+      times[i] = data.getQuick(i, 0);
+      values[i] = data.getQuick(i, c);
     }
-
-    /** Median of values in queue.
-     * 
-     * @return the median
-     */
-    public double avg() {
-      if (loHalf.size() == hiHalf.size()) {
-        return (loHalf.lastKey() + hiHalf.firstKey()) / 2;
-      }
-      return loHalf.lastKey();
+    RollingWindow.roll(statistic, values, values, times, 0, p, true, parallel);
+    for (int i = 0; i < r; i++) {
+      data.setQuick(i, c, values[i]);
     }
   }
 
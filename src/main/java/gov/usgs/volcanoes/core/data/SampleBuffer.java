@@ -0,0 +1,335 @@
+package gov.usgs.volcanoes.core.data;
+
+/**
+ * The samples of a <code>Wave</code>, held in an int, float or double array. Integer samples mark
+ * missing data with <code>Wave.NO_DATA</code>; floating point samples mark it with NaN. Either way
+ * <code>get()</code> reports a missing sample as NaN, so code reading through this class need not
+ * know which storage is in use.
+ *
+ * <p>A buffer wraps its array without copying it, so writes through either are seen by both.
+ */
+public abstract class SampleBuffer {
+
+  /**
+   * Storage type of the samples.
+   */
+  public enum Type {
+    INT, FLOAT, DOUBLE
+  }
+
+  /**
+   * Wrap an array of integer samples.
+   *
+   * @param samples the samples
+   * @return the buffer
+   */
+  public static Ints wrap(int[] samples) {
+    return new Ints(samples);
+  }
+
+  /**
+   * Wrap an array of single precision samples.
+   *
+   * @param samples the samples
+   * @return the buffer
+   */
+  public static Floats wrap(float[] samples) {
+    return new Floats(samples);
+  }
+
+  /**
+   * Wrap an array of double precision samples.
+   *
+   * @param samples the samples
+   * @return the buffer
+   */
+  public static Doubles wrap(double[] samples) {
+    return new Doubles(samples);
+  }
+
+  /**
+   * Allocate a buffer of zeros.
+   *
+   * @param type storage type
+   * @param length number of samples
+   * @return the buffer
+   */
+  public static SampleBuffer allocate(Type type, int length) {
+    switch (type) {
+      case FLOAT:
+        return new Floats(new float[length]);
+      case DOUBLE:
+        return new Doubles(new double[length]);
+      default:
+        return new Ints(new int[length]);
+    }
+  }
+
+  public abstract Type getType();
+
+  /**
+   * Gets the number of samples.
+   *
+   * @return the number of samples
+   */
+  public abstract int length();
+
+  /**
+   * Gets a sample.
+   *
+   * @param i index of the sample
+   * @return the sample, or NaN if it is missing
+   */
+  public abstract double get(int i);
+
+  /**
+   * Sets a sample. Integer storage rounds to the nearest integer.
+   *
+   * @param i index of the sample
+   * @param value the sample, or NaN if it is missing
+   */
+  public abstract void set(int i, double value);
+
+  /**
+   * Determines whether a sample is missing.
+   *
+   * @param i index of the sample
+   * @return true if the sample is missing
+   */
+  public boolean isNoData(int i) {
+    return Double.isNaN(get(i));
+  }
+
+  /**
+   * Copy a range of samples into a new buffer of the same type.
+   *
+   * @param from first sample, inclusive
+   * @param to last sample, exclusive
+   * @return the copy
+   */
+  public abstract SampleBuffer copyOfRange(int from, int to);
+
+  /**
+   * Copy samples into a double array. Missing samples are copied as NaN.
+   *
+   * @param from index of the first sample
+   * @param dst destination
+   * @param offset index in dst of the first sample
+   * @param length number of samples
+   */
+  public void copyTo(int from, double[] dst, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      dst[offset + i] = get(from + i);
+    }
+  }
+
+  /**
+   * Convert to another storage type. Conversion to integers rounds to the nearest integer.
+   *
+   * @param type storage type
+   * @return this buffer if it is already of that type, otherwise a converted copy
+   */
+  public SampleBuffer convert(Type type) {
+    if (type == getType()) {
+      return this;
+    }
+    int n = length();
+    SampleBuffer converted = allocate(type, n);
+    for (int i = 0; i < n; i++) {
+      converted.set(i, get(i));
+    }
+    return converted;
+  }
+
+  /**
+   * Gets the samples as integers, rounding if needed.
+   *
+   * @return the wrapped array if the samples are integers, otherwise a rounded copy
+   */
+  public int[] toInts() {
+    return ((Ints) convert(Type.INT)).array();
+  }
+
+  /**
+   * Gets the mean of a range of samples. Ignores missing samples.
+   *
+   * @param from first sample, inclusive
+   * @param to last sample, exclusive
+   * @return the mean, zero for an empty range, or NaN if every sample is missing
+   */
+  public double mean(int from, int to) {
+    if (to <= from) {
+      return 0;
+    }
+    double sum = 0;
+    int count = 0;
+    for (int i = from; i < to; i++) {
+      double v = get(i);
+      if (!Double.isNaN(v)) {
+        sum += v;
+        count++;
+      }
+    }
+    return sum / count;
+  }
+
+  /**
+   * Gets the mean absolute value of a range of samples. Ignores missing samples.
+   *
+   * @param from first sample, inclusive
+   * @param to last sample, exclusive
+   * @return the mean absolute value, zero for an empty range, or NaN if every sample is missing
+   */
+  public double absMean(int from, int to) {
+    if (to <= from) {
+      return 0;
+    }
+    double sum = 0;
+    int count = 0;
+    for (int i = from; i < to; i++) {
+      double v = get(i);
+      if (!Double.isNaN(v)) {
+        sum += Math.abs(v);
+        count++;
+      }
+    }
+    return sum / count;
+  }
+
+  /**
+   * Integer samples.
+   */
+  public static final class Ints extends SampleBuffer {
+    private final int[] samples;
+
+    private Ints(int[] samples) {
+      this.samples = samples;
+    }
+
+    public int[] array() {
+      return samples;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.INT;
+    }
+
+    @Override
+    public int length() {
+      return samples.length;
+    }
+
+    @Override
+    public double get(int i) {
+      int v = samples[i];
+      return v == Wave.NO_DATA ? Double.NaN : v;
+    }
+
+    @Override
+    public void set(int i, double value) {
+      samples[i] = Double.isNaN(value) ? Wave.NO_DATA : (int) Math.round(value);
+    }
+
+    @Override
+    public boolean isNoData(int i) {
+      return samples[i] == Wave.NO_DATA;
+    }
+
+    @Override
+    public SampleBuffer copyOfRange(int from, int to) {
+      int[] copy = new int[to - from];
+      System.arraycopy(samples, from, copy, 0, copy.length);
+      return new Ints(copy);
+    }
+  }
+
+  /**
+   * Single precision samples.
+   */
+  public static final class Floats extends SampleBuffer {
+    private final float[] samples;
+
+    private Floats(float[] samples) {
+      this.samples = samples;
+    }
+
+    public float[] array() {
+      return samples;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.FLOAT;
+    }
+
+    @Override
+    public int length() {
+      return samples.length;
+    }
+
+    @Override
+    public double get(int i) {
+      return samples[i];
+    }
+
+    @Override
+    public void set(int i, double value) {
+      samples[i] = (float) value;
+    }
+
+    @Override
+    public SampleBuffer copyOfRange(int from, int to) {
+      float[] copy = new float[to - from];
+      System.arraycopy(samples, from, copy, 0, copy.length);
+      return new Floats(copy);
+    }
+  }
+
+  /**
+   * Double precision samples.
+   */
+  public static final class Doubles extends SampleBuffer {
+    private final double[] samples;
+
+    private Doubles(double[] samples) {
+      this.samples = samples;
+    }
+
+    public double[] array() {
+      return samples;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.DOUBLE;
+    }
+
+    @Override
+    public int length() {
+      return samples.length;
+    }
+
+    @Override
+    public double get(int i) {
+      return samples[i];
+    }
+
+    @Override
+    public void set(int i, double value) {
+      samples[i] = value;
+    }
+
+    @Override
+    public SampleBuffer copyOfRange(int from, int to) {
+      double[] copy = new double[to - from];
+      System.arraycopy(samples, from, copy, 0, copy.length);
+      return new Doubles(copy);
+    }
+
+    @Override
+    public void copyTo(int from, double[] dst, int offset, int length) {
+      System.arraycopy(samples, from, dst, offset, length);
+    }
+  }
+}
@@ -0,0 +1,507 @@
+package gov.usgs.volcanoes.core.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A <code>SegmentedWave</code> is a gappy time series held as a list of contiguous
+ * <code>Wave</code> segments. Unlike <code>Wave.join()</code>, gaps between segments are not
+ * materialized as NO_DATA samples, so a day-long request with a long outage costs only the memory
+ * of the samples actually received.
+ *
+ * <p>Sample indices are relative to the start time of the first segment on the grid defined by
+ * the sampling rate, exactly as they would be in the equivalent joined <code>Wave</code>. Indices
+ * which fall in a gap read as NO_DATA.
+ *
+ * <p>Segments may be added in any order. Abutting and overlapping segments are coalesced into a
+ * single buffer per contiguous run the next time the wave is queried. As with
+ * <code>Wave.join()</code>, the later-starting segment takes precedence where two overlap.
+ */
+public class SegmentedWave {
+
+  private static final Comparator<Wave> START_TIME_ORDER = new Comparator<Wave>() {
+    public int compare(Wave w1, Wave w2) {
+      return Double.compare(w1.getStartTime(), w2.getStartTime());
+    }
+  };
+
+  private final List<Wave> segments;
+  private final List<Wave> pending;
+  private double samplingRate = Double.NaN;
+  private String dataType;
+
+  // cached offset, in samples from start, of each segment
+  private int[] offsets;
+
+  /**
+   * Empty constructor.
+   */
+  public SegmentedWave() {
+    segments = new ArrayList<Wave>();
+    pending = new ArrayList<Wave>();
+  }
+
+  /**
+   * Constructs a <code>SegmentedWave</code> holding a single <code>Wave</code>.
+   *
+   * @param wave the wave
+   */
+  public SegmentedWave(Wave wave) {
+    this();
+    add(wave);
+  }
+
+  /**
+   * Constructs a <code>SegmentedWave</code> from a list of <code>Wave</code>s in any order.
+   *
+   * @param waves the waves
+   */
+  public SegmentedWave(List<Wave> waves) {
+    this();
+    for (Wave wave : waves) {
+      add(wave);
+    }
+  }
+
+  /**
+   * Adds a contiguous block of samples. The buffer is not copied unless it must be coalesced with
+   * an abutting or overlapping segment. Segments are held as integers, so floating point samples
+   * are rounded into a copy.
+   *
+   * @param wave the wave to add
+   * @return false if the wave was empty or its sampling rate does not match this wave
+   */
+  public boolean add(Wave wave) {
+    if (wave == null || wave.numSamples() < 1) {
+      return false;
+    }
+
+    if (Double.isNaN(samplingRate)) {
+      samplingRate = wave.getSamplingRate();
+      dataType = wave.getDataType();
+    } else if (Math.abs(wave.getSamplingRate() - samplingRate) >= 0.001) {
+      return false;
+    }
+
+    if (wave.isFloatingPoint()) {
+      wave = new Wave(wave.getSamples().toInts(), wave.getStartTime(), wave.getSamplingRate(),
+          wave.getDataType());
+    }
+    pending.add(wave);
+    offsets = null;
+    return true;
+  }
+
+  /**
+   * Sort and coalesce pending segments.
+   */
+  private void compact() {
+    if (pending.isEmpty()) {
+      if (offsets == null) {
+        computeOffsets();
+      }
+      return;
+    }
+
+    // stable sort keeps insertion order for equal start times
+    List<Wave> all = new ArrayList<Wave>(segments.size() + pending.size());
+    all.addAll(segments);
+    all.addAll(pending);
+    pending.clear();
+    Collections.sort(all, START_TIME_ORDER);
+
+    segments.clear();
+    double period = 1 / samplingRate;
+    int runStart = 0;
+    double runEnd = all.get(0).getEndTime();
+    for (int i = 1; i <= all.size(); i++) {
+      if (i < all.size() && all.get(i).getStartTime() <= runEnd + period * 0.25) {
+        runEnd = Math.max(runEnd, all.get(i).getEndTime());
+        continue;
+      }
+      segments.add(coalesce(all.subList(runStart, i)));
+      if (i < all.size()) {
+        runStart = i;
+        runEnd = all.get(i).getEndTime();
+      }
+    }
+    computeOffsets();
+  }
+
+  /**
+   * Copy a run of abutting or overlapping waves into a single buffer.
+   *
+   * @param run waves sorted by start time
+   * @return one wave spanning the run
+   */
+  private Wave coalesce(List<Wave> run) {
+    if (run.size() == 1) {
+      return run.get(0);
+    }
+
+    double start = run.get(0).getStartTime();
+    int length = 0;
+    boolean overlap = false;
+    for (Wave wave : run) {
+      int idx = (int) Math.round((wave.getStartTime() - start) * samplingRate);
+      overlap |= idx != length;
+      length = Math.max(length, idx + wave.numSamples());
+    }
+
+    int[] buffer = new int[length];
+    if (overlap) {
+      Arrays.fill(buffer, Wave.NO_DATA);
+    }
+
+    for (Wave wave : run) {
+      int idx = (int) Math.round((wave.getStartTime() - start) * samplingRate);
+      System.arraycopy(wave.buffer, 0, buffer, idx, wave.numSamples());
+    }
+
+    Wave joined = new Wave(buffer, start, samplingRate, dataType);
+    joined.setRegistrationOffset(run.get(0).getRegistrationOffset());
+    return joined;
+  }
+
+  private void computeOffsets() {
+    offsets = new int[segments.size()];
+    if (segments.isEmpty()) {
+      return;
+    }
+    double start = segments.get(0).getStartTime();
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = (int) Math.round((segments.get(i).getStartTime() - start) * samplingRate);
+    }
+  }
+
+  /**
+   * Gets the contiguous segments in time order. Gaps lie between the returned waves.
+   *
+   * @return unmodifiable list of segments
+   */
+  public List<Wave> getSegments() {
+    compact();
+    return Collections.unmodifiableList(segments);
+  }
+
+  /**
+   * Gets the number of contiguous segments.
+   *
+   * @return segment count
+   */
+  public int numSegments() {
+    compact();
+    return segments.size();
+  }
+
+  /**
+   * Determines whether any samples have been added.
+   *
+   * @return true if there are no segments
+   */
+  public boolean isEmpty() {
+    return segments.isEmpty() && pending.isEmpty();
+  }
+
+  /**
+   * Gets the sampling rate.
+   *
+   * @return the sampling rate
+   */
+  public double getSamplingRate() {
+    return samplingRate;
+  }
+
+  /**
+   * Gets the sampling period.
+   *
+   * @return the sampling period
+   */
+  public double getSamplingPeriod() {
+    return 1 / samplingRate;
+  }
+
+  /**
+   * Gets the data type.
+   *
+   * @return the data type
+   */
+  public String getDataType() {
+    return dataType;
+  }
+
+  /**
+   * Gets the start time of the first segment.
+   *
+   * @return the start time, NaN if empty
+   */
+  public double getStartTime() {
+    compact();
+    return segments.isEmpty() ? Double.NaN : segments.get(0).getStartTime();
+  }
+
+  /**
+   * Gets the end time of the last segment. As with <code>Wave</code>, this is the time after the
+   * last sample.
+   *
+   * @return the end time, NaN if empty
+   */
+  public double getEndTime() {
+    compact();
+    return segments.isEmpty() ? Double.NaN : segments.get(segments.size() - 1).getEndTime();
+  }
+
+  /**
+   * Gets the number of samples spanned, including gaps. This is the length of the buffer
+   * <code>toWave()</code> would create.
+   *
+   * @return the number of samples
+   */
+  public int numSamples() {
+    compact();
+    if (segments.isEmpty()) {
+      return 0;
+    }
+    int last = segments.size() - 1;
+    return offsets[last] + segments.get(last).numSamples();
+  }
+
+  /**
+   * Gets the number of samples actually held.
+   *
+   * @return the number of stored samples
+   */
+  public int numStoredSamples() {
+    compact();
+    int count = 0;
+    for (Wave wave : segments) {
+      count += wave.numSamples();
+    }
+    return count;
+  }
+
+  /**
+   * Gets an estimate for the size in RAM of the stored samples.
+   *
+   * @return the approximate size in RAM of this wave in bytes
+   */
+  public int getMemorySize() {
+    return numStoredSamples() * 4;
+  }
+
+  /**
+   * Gets the sample at an index. Samples in gaps are NO_DATA.
+   *
+   * @param index sample index relative to the start time
+   * @return the sample
+   */
+  public int getSample(int index) {
+    int seg = segmentAt(index);
+    if (seg < 0) {
+      return Wave.NO_DATA;
+    }
+    return segments.get(seg).buffer[index - offsets[seg]];
+  }
+
+  /**
+   * Find the segment holding a sample index.
+   *
+   * @param index sample index relative to the start time
+   * @return the segment index or -1 if the index falls in a gap or out of range
+   */
+  private int segmentAt(int index) {
+    compact();
+    int pos = Arrays.binarySearch(offsets, index);
+    if (pos < 0) {
+      pos = -pos - 2;
+    }
+    if (pos < 0 || index - offsets[pos] >= segments.get(pos).numSamples()) {
+      return -1;
+    }
+    return pos;
+  }
+
+  /**
+   * Get index in the joined buffer closest to given time.
+   *
+   * @param j2k time in j2k
+   * @return sample index relative to the start time
+   */
+  public int getBufferIndexAtTime(double j2k) {
+    return (int) ((j2k - getStartTime()) * samplingRate);
+  }
+
+  /**
+   * Determines whether or not any segment overlaps a given time interval. Unlike the equivalent
+   * joined <code>Wave</code>, an interval which falls entirely within a gap does not overlap.
+   *
+   * @param t1 the start time of the interval
+   * @param t2 the end time of the interval
+   * @return whether or not data overlap the interval
+   */
+  public boolean overlaps(double t1, double t2) {
+    compact();
+    int first = firstSegmentEndingAfter(t1);
+    return first < segments.size() && segments.get(first).getStartTime() < t2;
+  }
+
+  /**
+   * Determines whether or not any segment overlaps a wave in time.
+   *
+   * @param wave the test wave
+   * @return whether or not data overlap the wave
+   */
+  public boolean overlaps(Wave wave) {
+    return overlaps(wave.getStartTime(), wave.getEndTime());
+  }
+
+  /**
+   * Binary search for the first segment which ends after a time.
+   *
+   * @param t time
+   * @return segment index, segments.size() if none
+   */
+  private int firstSegmentEndingAfter(double t) {
+    int lo = 0;
+    int hi = segments.size();
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (segments.get(mid).getEndTime() <= t) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Gets the part of this wave within a time interval. Only segments overlapping the interval are
+   * visited and only their overlapping samples are copied.
+   *
+   * @param t1 the start time of the subset
+   * @param t2 the end time of the subset
+   * @return the subset
+   */
+  public SegmentedWave subset(double t1, double t2) {
+    compact();
+    SegmentedWave sub = new SegmentedWave();
+    sub.samplingRate = samplingRate;
+    sub.dataType = dataType;
+    for (int i = firstSegmentEndingAfter(t1); i < segments.size(); i++) {
+      Wave wave = segments.get(i);
+      if (wave.getStartTime() >= t2) {
+        break;
+      }
+
+      int len = wave.numSamples();
+      int from = (int) Math.floor((t1 - wave.getStartTime()) * samplingRate);
+      int to = (int) Math.floor((t2 - wave.getStartTime()) * samplingRate);
+      from = Math.max(0, Math.min(len, from));
+      to = Math.max(from, Math.min(len, to));
+      if (from == to) {
+        continue;
+      }
+
+      if (from == 0 && to == len) {
+        sub.segments.add(wave);
+      } else {
+        int[] buf = new int[to - from];
+        System.arraycopy(wave.buffer, from, buf, 0, buf.length);
+        Wave part = new Wave(buf, wave.getStartTime() + from / samplingRate, samplingRate,
+            wave.getDataType());
+        part.setRegistrationOffset(wave.getRegistrationOffset());
+        sub.segments.add(part);
+      }
+    }
+    sub.computeOffsets();
+    return sub;
+  }
+
+  /**
+   * Splits this wave in half by time, creating two separate waves.
+   *
+   * @return an array of two waves
+   */
+  public SegmentedWave[] split() {
+    double mid = getStartTime() + (numSamples() / 2) / samplingRate;
+    return new SegmentedWave[] {subset(getStartTime(), mid), subset(mid, getEndTime())};
+  }
+
+  /**
+   * Splits the stored samples into a list of waves with a maximum number of samples as specified.
+   * Gaps are skipped rather than being filled with NO_DATA.
+   *
+   * @param maxSamples maximum number of samples
+   * @return a list of the split up waves
+   */
+  public List<Wave> split(int maxSamples) {
+    compact();
+    List<Wave> list = new ArrayList<Wave>();
+    for (Wave wave : segments) {
+      list.addAll(wave.split(maxSamples));
+    }
+    return list;
+  }
+
+  /**
+   * Gets a summary of the samples, counting gaps as NO_DATA. Each segment's summary is cached by
+   * the segment so this does not rescan unchanged segments.
+   *
+   * @return the statistics
+   */
+  public WaveStatistics getStatistics() {
+    compact();
+    WaveStatistics stats = WaveStatistics.EMPTY;
+    int end = 0;
+    for (int i = 0; i < segments.size(); i++) {
+      stats = stats.append(WaveStatistics.noData(offsets[i] - end));
+      stats = stats.append(segments.get(i).getStatistics());
+      end = offsets[i] + segments.get(i).numSamples();
+    }
+    return stats;
+  }
+
+  /**
+   * Materializes this wave into a single buffer with gaps filled with NO_DATA. The wave returned
+   * is always a new copy, so changing it does not change this.
+   *
+   * @return the joined wave, null if empty
+   */
+  public Wave toWave() {
+    compact();
+    if (segments.isEmpty()) {
+      return null;
+    }
+    if (segments.size() == 1) {
+      return new Wave(segments.get(0));
+    }
+
+    int[] buffer = new int[numSamples()];
+    int end = 0;
+    for (int i = 0; i < segments.size(); i++) {
+      Arrays.fill(buffer, end, offsets[i], Wave.NO_DATA);
+      Wave wave = segments.get(i);
+      System.arraycopy(wave.buffer, 0, buffer, offsets[i], wave.numSamples());
+      end = offsets[i] + wave.numSamples();
+    }
+
+    Wave first = segments.get(0);
+    Wave wave = new Wave(buffer, first.getStartTime(), samplingRate, dataType);
+    wave.setRegistrationOffset(first.getRegistrationOffset());
+    return wave;
+  }
+
+  /**
+   * Gets a <code>String</code> summary of this wave.
+   *
+   * @return the summary
+   */
+  public String toString() {
+    return String.format("SegmentedWave: startTime=%f, endTime=%f, samplingRate=%f, segments=%d",
+        getStartTime(), getEndTime(), samplingRate, numSegments());
+  }
+}
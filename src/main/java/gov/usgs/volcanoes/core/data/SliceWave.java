@@ -32,7 +32,7 @@ public class SliceWave {
   public SliceWave(Wave sw) {
     source = sw;
     position = 0;
-    limit = source.buffer.length;
+    limit = source.numSamples();
   }
 
   /**
@@ -50,7 +50,7 @@ public class SliceWave {
    * @return max and min slice data limits
    */
   public double[] getDataRange() {
-    if (dataRange == null) {
+    if (dataRange == null && !summarizeFromPyramid()) {
       deriveStatistics();
     }
 
@@ -108,7 +108,7 @@ public class SliceWave {
    * @return end time
    */
   private double getTrueEndTime() {
-    return getStartTime() + source.buffer.length * (1 / getSamplingRate());
+    return getStartTime() + source.numSamples() * (1 / getSamplingRate());
   }
 
   /**
@@ -127,8 +127,8 @@ public class SliceWave {
     position = (int) Math.round((t1 - source.getStartTime()) * getSamplingRate());
     limit = position + (int) Math.round((t2 - t1) * getSamplingRate());
 
-    if (limit > source.buffer.length) {
-      limit = source.buffer.length;
+    if (limit > source.numSamples()) {
+      limit = source.numSamples();
     }
   }
 
@@ -146,53 +146,89 @@ public class SliceWave {
    * Compute slice statistics.
    */
   private void deriveStatistics() {
-    if (source.buffer == null || source.buffer.length == 0) {
+    if (source.numSamples() == 0) {
       mean = 0;
       rsam = 0;
       max = 0;
       min = 0;
       return;
     }
-    int noDatas = 0;
-    long sum = 0;
-    long rs = 0;
-    for (int i = position; i < limit; i++) {
-      int d = source.buffer[i];
-      if (d != Wave.NO_DATA) {
-        sum += d;
-        rs += Math.abs(d);
-        min = Math.min(min, d);
-        max = Math.max(max, d);
-      } else {
-        noDatas++;
+    SampleBuffer samples = source.getSamples();
+    if (source.isFloatingPoint()) {
+      deriveFloatingStatistics(samples);
+    } else {
+      WaveStatistics stats = WaveStatistics.compute(source.buffer, position, limit);
+      if (stats.dataCount() > 0) {
+        min = stats.min();
+        max = stats.max();
       }
-    }
 
-    mean = (double) sum / (double) (samples() - noDatas);
-    rsam = (double) rs / (double) (samples() - noDatas);
+      mean = (double) stats.sum() / (double) (samples() - stats.noDataCount());
+      rsam = (double) stats.absSum() / (double) (samples() - stats.noDataCount());
+    }
     dataRange = new double[] {min, max};
 
     double xm = (limit - position + 1) / 2;
     double ssxx = 0;
     double ssxy = 0;
     for (int i = position; i < limit; i++) {
-      if (source.buffer[i] == Wave.NO_DATA) {
+      if (samples.isNoData(i)) {
         continue;
       }
-      ssxy += (i - xm) * (source.buffer[i] - mean);
+      ssxy += (i - xm) * (samples.get(i) - mean);
       ssxx += (i - xm) * (i - xm);
     }
     m = ssxy / ssxx;
     b = mean - m * xm;
   }
 
+  /**
+   * Sets the minimum, maximum and mean from the wave's pyramid, if it has one, without scanning
+   * the samples.
+   * 
+   * @return true if the pyramid was used
+   */
+  private boolean summarizeFromPyramid() {
+    if (!source.hasPyramid() || source.numSamples() == 0) {
+      return false;
+    }
+    double[] result = new double[4];
+    source.getPyramid().summarize(position, limit, result);
+    if (result[3] > 0) {
+      min = result[0];
+      max = result[1];
+    }
+    mean = result[2] / result[3];
+    dataRange = new double[] {min, max};
+    return true;
+  }
+
+  private void deriveFloatingStatistics(SampleBuffer samples) {
+    double sum = 0;
+    double absSum = 0;
+    int count = 0;
+    for (int i = position; i < limit; i++) {
+      double v = samples.get(i);
+      if (Double.isNaN(v)) {
+        continue;
+      }
+      sum += v;
+      absSum += Math.abs(v);
+      min = Math.min(min, v);
+      max = Math.max(max, v);
+      count++;
+    }
+    mean = sum / count;
+    rsam = absSum / count;
+  }
+
   /**
    * Gets the mean or bias of the samples. Ignores NO_DATA samples.
    * 
    * @return the mean or bias
    */
   public double mean() {
-    if (Double.isNaN(mean)) {
+    if (Double.isNaN(mean) && !summarizeFromPyramid()) {
       deriveStatistics();
     }
 
@@ -205,7 +241,7 @@ public class SliceWave {
    * @return the maximum value
    */
   public double max() {
-    if (max == -1E300) {
+    if (max == -1E300 && !summarizeFromPyramid()) {
       deriveStatistics();
     }
 
@@ -218,7 +254,7 @@ public class SliceWave {
    * @return the minimum value
    */
   public double min() {
-    if (min == 1E300) {
+    if (min == 1E300 && !summarizeFromPyramid()) {
       deriveStatistics();
     }
 
@@ -244,13 +280,7 @@ public class SliceWave {
    * @return whether or not this consists entirely of NO_DATA samples
    */
   public boolean isData() {
-    for (int i = 0; i < source.buffer.length; i++) {
-      if (source.buffer[i] != Wave.NO_DATA) {
-        return true;
-      }
-    }
-
-    return false;
+    return source.isData();
   }
 
   /**
@@ -260,20 +290,25 @@ public class SliceWave {
    * @return the signal array
    */
   public double[] getSignal() {
+    return getSignal(new double[samples()]);
+  }
 
-    double[] signal;
-
+  /**
+   * Fills an array with the signal from the slice starting position to the slice ending position,
+   * detrended. Callers processing many slices can reuse one array.
+   * 
+   * @param signal array of at least <code>samples()</code> elements
+   * @return the signal array
+   */
+  public double[] getSignal(double[] signal) {
     if (Double.isNaN(m) || Double.isNaN(b)) {
       deriveStatistics();
     }
     int nsamples = samples();
 
-    signal = new double[nsamples];
-
-    reset();
+    source.getSamples().copyTo(position, signal, 0, nsamples);
     for (int i = 0; i < nsamples; i++) {
-      signal[i] = next();
-      if (signal[i] == Wave.NO_DATA) {
+      if (Double.isNaN(signal[i])) {
         signal[i] = 0;
       } else {
         signal[i] -= (i + 1) * m + b;
@@ -281,7 +316,48 @@ public class SliceWave {
     }
 
     return signal;
+  }
 
+  /**
+   * Gets the minimum and maximum of the slice's samples in equal bins of time, as for
+   * <code>WavePyramid.bin()</code>. The wave's pyramid is used if it has one, so that a long slice
+   * can be binned in time proportional to the number of bins.
+   * 
+   * @param t1 start of the first bin
+   * @param width width of each bin in seconds
+   * @param min receives the minimum of each bin, or NaN for a bin without data
+   * @param max receives the maximum of each bin, or NaN for a bin without data
+   */
+  public void bin(double t1, double width, double[] min, double[] max) {
+    if (source.hasPyramid()) {
+      source.getPyramid().bin(position, limit, t1, width, min, max);
+      return;
+    }
+
+    SampleBuffer samples = source.getSamples();
+    int next = WavePyramid.firstSample(source, t1);
+    for (int i = 0; i < min.length; i++) {
+      int from = Math.max(position, next);
+      next = WavePyramid.firstSample(source, t1 + (i + 1) * width);
+      int to = Math.min(limit, next);
+      double lo = Double.NaN;
+      double hi = Double.NaN;
+      for (int j = from; j < to; j++) {
+        double v = samples.get(j);
+        if (Double.isNaN(v)) {
+          continue;
+        }
+        if (Double.isNaN(lo)) {
+          lo = v;
+          hi = v;
+        } else {
+          lo = Math.min(lo, v);
+          hi = Math.max(hi, v);
+        }
+      }
+      min[i] = lo;
+      max[i] = hi;
+    }
   }
 
   /**
@@ -307,7 +383,11 @@ public class SliceWave {
    */
   public double next() {
     if (hasNext()) {
-      return source.buffer[readPosition++];
+      if (!source.isFloatingPoint()) {
+        return source.buffer[readPosition++];
+      }
+      double value = source.getSamples().get(readPosition++);
+      return Double.isNaN(value) ? Wave.NO_DATA : value;
     } else {
       return Double.NaN;
     }
@@ -324,15 +404,18 @@ public class SliceWave {
    * @return CSV string
    */
   public String toCsv() {
-    if (source.buffer == null || source.buffer.length == 0) {
+    if (source.numSamples() == 0) {
       return "";
     }
 
+    SampleBuffer samples = source.getSamples();
     StringBuffer sb = new StringBuffer();
     double time = getStartTime();
 
     for (int i = position; i < limit; i++) {
-      sb.append(J2kSec.toDateString(time) + ',' + source.buffer[i] + '\n');
+      String value = source.isFloatingPoint() ? Double.toString(samples.get(i))
+          : Integer.toString(source.buffer[i]);
+      sb.append(J2kSec.toDateString(time) + ',' + value + '\n');
       time += (1 / getSamplingRate());
     }
 
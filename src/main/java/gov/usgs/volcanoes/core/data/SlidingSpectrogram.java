@@ -0,0 +1,248 @@
+package gov.usgs.volcanoes.core.data;
+
+import gov.usgs.volcanoes.core.math.Fft;
+import gov.usgs.volcanoes.core.math.FftPlan;
+import gov.usgs.volcanoes.core.math.Util;
+
+import java.util.Arrays;
+
+/**
+ * A spectrogram of live data, computed a column at a time as samples arrive. Columns are fixed to
+ * a grid in absolute time, so column k always covers the <code>binSize</code> samples starting at
+ * sample <code>k * (binSize - overlap)</code> counted from J2K zero, and a column once computed
+ * never changes. Each update therefore costs only the columns which its new samples complete.
+ * Columns are kept in a ring holding the most recent <code>duration</code> seconds; older columns
+ * are overwritten as new ones arrive.
+ *
+ * <p>Each column is windowed as by <code>Spectrogram</code> after removing its own mean, rather
+ * than detrending the whole view, so that a column does not depend on the samples around it.
+ * Columns which would include a gap or NO_DATA samples are not computed. A change of sampling rate
+ * discards every column.
+ */
+public class SlidingSpectrogram {
+
+  private final int nfft;
+  private final int binSize;
+  private final int step;
+  private final int nRows;
+  private final double duration;
+  private final double[] window;
+  private final FftPlan transform;
+  private final double[] bin;
+
+  private double samplingRate = Double.NaN;
+
+  // samples not yet used by every column they belong to; buffer[0] is absolute sample bufferStart
+  private double[] buffer = new double[0];
+  private int buffered;
+  private long bufferStart;
+
+  // amplitudes of column k at ring slot k % capacity, frequency bin by frequency bin
+  private int capacity;
+  private float[] columns;
+  private long[] keys;
+  private long latest = Long.MIN_VALUE;
+
+  /**
+   * Create an empty spectrogram.
+   *
+   * @param nfft FFT length
+   * @param binSize bin size in samples
+   * @param overlap overlap in samples
+   * @param beta beta value for the Kaiser window
+   * @param duration seconds of columns to keep
+   */
+  public SlidingSpectrogram(int nfft, int binSize, int overlap, double beta, double duration) {
+    if (binSize > nfft || overlap >= binSize) {
+      throw new IllegalArgumentException("Bin size must not exceed nfft and must exceed overlap");
+    }
+    this.nfft = nfft;
+    this.binSize = binSize;
+    this.duration = duration;
+    step = binSize - overlap;
+    nRows = nfft / 2 + 1;
+    window = Util.kaiser(binSize, beta);
+    transform = Fft.plan(nfft);
+    bin = new double[2 * nRows];
+  }
+
+  /**
+   * Add the next chunk of samples. Samples already added are ignored.
+   *
+   * @param chunk the samples
+   * @return the number of columns computed
+   */
+  public synchronized int add(Wave chunk) {
+    int n = chunk.numSamples();
+    if (n == 0) {
+      return 0;
+    }
+
+    double sr = chunk.getSamplingRate();
+    if (Double.isNaN(samplingRate) || Math.abs(sr - samplingRate) >= 0.001) {
+      samplingRate = sr;
+      capacity = (int) Math.ceil(duration * sr / step) + 1;
+      columns = new float[capacity * nRows];
+      keys = new long[capacity];
+      Arrays.fill(keys, Long.MIN_VALUE);
+      latest = Long.MIN_VALUE;
+      buffered = 0;
+    }
+
+    long start = Math.round(chunk.getStartTime() * samplingRate);
+    long end = bufferStart + buffered;
+    int skip = 0;
+    if (buffered > 0 && start < end) {
+      skip = (int) Math.min(n, end - start);
+    } else if (buffered == 0 || start > end) {
+      // a gap, so the buffered samples will never complete a column
+      bufferStart = start;
+      buffered = 0;
+    }
+    if (skip == n) {
+      return 0;
+    }
+
+    if (buffer.length < buffered + n - skip) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffered + n - skip, buffer.length * 2));
+    }
+    chunk.getSamples().copyTo(skip, buffer, buffered, n - skip);
+    buffered += n - skip;
+
+    int computed = 0;
+    long k = Math.floorDiv(bufferStart + step - 1, step);
+    for (; k * step + binSize <= bufferStart + buffered; k++) {
+      // back-filled columns older than the ring holds would overwrite newer ones
+      boolean held = latest == Long.MIN_VALUE || k > latest - capacity;
+      if (held && compute(k, (int) (k * step - bufferStart))) {
+        computed++;
+      }
+    }
+
+    // keep only the samples which the next column needs
+    int keep = (int) Math.max(0, k * step - bufferStart);
+    keep = Math.min(keep, buffered);
+    System.arraycopy(buffer, keep, buffer, 0, buffered - keep);
+    buffered -= keep;
+    bufferStart += keep;
+    return computed;
+  }
+
+  /**
+   * Compute the column starting at an offset into the buffer.
+   *
+   * @return false if the column includes a missing sample
+   */
+  private boolean compute(long k, int offset) {
+    double mean = 0;
+    for (int j = 0; j < binSize; j++) {
+      double v = buffer[offset + j];
+      if (Double.isNaN(v)) {
+        return false;
+      }
+      mean += v;
+    }
+    mean /= binSize;
+
+    for (int j = 0; j < binSize; j++) {
+      bin[j] = (buffer[offset + j] - mean) * window[j];
+    }
+    Arrays.fill(bin, binSize, nfft, 0);
+    transform.realForward(bin, 0, bin, 0);
+
+    int slot = (int) Math.floorMod(k, (long) capacity);
+    int col = slot * nRows;
+    for (int j = 0; j < nRows; j++) {
+      double re = bin[2 * j];
+      double im = bin[2 * j + 1];
+      columns[col + j] = (float) Math.sqrt(re * re + im * im);
+    }
+    keys[slot] = k;
+    latest = Math.max(latest, k);
+    return true;
+  }
+
+  /**
+   * Copy the amplitudes of a column.
+   *
+   * @param k column index
+   * @param amplitude receives the amplitude of each frequency bin
+   * @return false if the column is not held, in which case amplitude is unchanged
+   */
+  public synchronized boolean getColumn(long k, float[] amplitude) {
+    if (keys == null) {
+      return false;
+    }
+    int slot = (int) Math.floorMod(k, (long) capacity);
+    if (keys[slot] != k) {
+      return false;
+    }
+    System.arraycopy(columns, slot * nRows, amplitude, 0, nRows);
+    return true;
+  }
+
+  /**
+   * Gets the index of the newest column computed.
+   *
+   * @return the index, or Long.MIN_VALUE if none has been
+   */
+  public synchronized long getLatestColumn() {
+    return latest;
+  }
+
+  /**
+   * Gets the index of the column whose center is nearest a time.
+   *
+   * @param t the time
+   * @return the column index
+   */
+  public synchronized long columnAt(double t) {
+    return Math.round((t * samplingRate - binSize / 2.0) / step);
+  }
+
+  /**
+   * Gets the time of the center of a column.
+   *
+   * @param k the column index
+   * @return the time
+   */
+  public synchronized double getColumnTime(long k) {
+    return (k * step + binSize / 2.0) / samplingRate;
+  }
+
+  /**
+   * Gets the time between columns.
+   *
+   * @return seconds between columns
+   */
+  public synchronized double getColumnPeriod() {
+    return step / samplingRate;
+  }
+
+  /**
+   * Returns number of frequency bins, the length of each column.
+   */
+  public int getNFrequencyBins() {
+    return nRows;
+  }
+
+  /**
+   * Gets the sampling rate of the data.
+   *
+   * @return the sampling rate, or NaN before any samples are added
+   */
+  public synchronized double getSamplingRate() {
+    return samplingRate;
+  }
+
+  /**
+   * Discard every column and buffered sample.
+   */
+  public synchronized void reset() {
+    samplingRate = Double.NaN;
+    buffered = 0;
+    columns = null;
+    keys = null;
+    latest = Long.MIN_VALUE;
+  }
+}
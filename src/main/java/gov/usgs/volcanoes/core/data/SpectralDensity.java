@@ -0,0 +1,274 @@
+package gov.usgs.volcanoes.core.data;
+
+import gov.usgs.volcanoes.core.math.Fft;
+import gov.usgs.volcanoes.core.math.FftPlan;
+import gov.usgs.volcanoes.core.math.Spectra;
+import gov.usgs.volcanoes.core.math.Util;
+import gov.usgs.volcanoes.core.util.Parallel;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A one-sided power spectral density estimated by Welch's method: the signal is cut into
+ * overlapping segments, each is demeaned and tapered, and the periodograms of the segments are
+ * averaged. With several tapers, each segment contributes the average of its eigenspectra, which
+ * is Thomson's multitaper estimate applied segment by segment.
+ *
+ * <p>Waves are added one after another and only the samples which the next segment needs are kept
+ * between them, so days of data may be reduced without holding them all as doubles. Segments are
+ * read straight from each wave's samples, on the common fork/join pool when there are enough of
+ * them. Segments which would include a gap or NO_DATA samples are skipped.
+ *
+ * <p>The estimate is in squared counts per hertz, scaled so that integrating it over frequency
+ * gives the variance of the signal.
+ */
+public class SpectralDensity {
+
+  // periodogram work per add below which segments are not split between threads
+  private static final int MIN_PARALLEL = 1 << 18;
+
+  private final int segmentLength;
+  private final int step;
+  private final int nBins;
+  private final double[][] tapers;
+  private final FftPlan plan;
+
+  private double samplingRate = Double.NaN;
+  private final double[] sum;
+  private long segments;
+
+  // samples from the start of the next segment; tail[0] is absolute sample tailStart
+  private final double[] tail;
+  private int tailLength;
+  private long tailStart;
+
+  /**
+   * Create a Welch estimate.
+   *
+   * @param segmentLength samples in each segment, which is also the FFT length
+   * @param overlap samples shared by consecutive segments
+   * @param window taper applied to every segment, for instance from <code>Util.hann()</code> or
+   *     <code>Util.kaiser()</code>
+   */
+  public SpectralDensity(int segmentLength, int overlap, double[] window) {
+    this(segmentLength, overlap, new double[][] {window});
+  }
+
+  private SpectralDensity(int segmentLength, int overlap, double[][] tapers) {
+    if (overlap < 0 || overlap >= segmentLength) {
+      throw new IllegalArgumentException("Overlap must be less than the segment length");
+    }
+    this.segmentLength = segmentLength;
+    step = segmentLength - overlap;
+    nBins = FftPlan.spectrumLength(segmentLength);
+    plan = Fft.plan(segmentLength);
+
+    // tapers are scaled to unit energy, so one scale suits any of them
+    this.tapers = new double[tapers.length][];
+    for (int k = 0; k < tapers.length; k++) {
+      if (tapers[k].length != segmentLength) {
+        throw new IllegalArgumentException("Taper length must equal the segment length");
+      }
+      double energy = 0;
+      for (double w : tapers[k]) {
+        energy += w * w;
+      }
+      double scale = 1 / Math.sqrt(energy);
+      this.tapers[k] = new double[segmentLength];
+      for (int i = 0; i < segmentLength; i++) {
+        this.tapers[k][i] = tapers[k][i] * scale;
+      }
+    }
+
+    sum = new double[nBins];
+    tail = new double[segmentLength];
+  }
+
+  /**
+   * Create a multitaper estimate averaged over Welch segments.
+   *
+   * @param segmentLength samples in each segment, which is also the FFT length
+   * @param overlap samples shared by consecutive segments
+   * @param nw time-halfbandwidth product of the tapers
+   * @param count number of tapers
+   * @return the estimate
+   * @see Util#dpss(int, double, int)
+   */
+  public static SpectralDensity multitaper(int segmentLength, int overlap, double nw, int count) {
+    return new SpectralDensity(segmentLength, overlap, Util.dpss(segmentLength, nw, count));
+  }
+
+  /**
+   * Add the next wave. Samples already added are ignored, and a gap ends the segments in progress.
+   *
+   * @param wave the samples
+   * @return the number of segments added to the estimate
+   */
+  public synchronized int add(Wave wave) {
+    final int n = wave.numSamples();
+    if (n == 0) {
+      return 0;
+    }
+
+    double sr = wave.getSamplingRate();
+    boolean started = !Double.isNaN(samplingRate);
+    if (!started) {
+      samplingRate = sr;
+    } else if (Math.abs(sr - samplingRate) >= 0.001) {
+      throw new IllegalArgumentException(
+          "Sampling rate " + sr + " does not match the estimate's " + samplingRate);
+    }
+
+    long start = Math.round(wave.getStartTime() * samplingRate);
+    long end = tailStart + tailLength;
+    int skip = 0;
+    if (!started || start > end) {
+      // a gap, so the held samples will never complete a segment
+      tailStart = start;
+      tailLength = 0;
+    } else if (start < end) {
+      skip = (int) Math.min(n, end - start);
+    }
+    if (skip == n) {
+      return 0;
+    }
+
+    // segment i starts at offset i * step into the tail followed by the new samples
+    final SampleBuffer samples = wave.getSamples();
+    final int from = skip;
+    final int held = tailLength;
+    int available = held + n - skip;
+    final int count = available < segmentLength ? 0 : (available - segmentLength) / step + 1;
+
+    // nothing changes until every segment is done, so an interrupted add may be repeated
+    int tasks = Parallel.tasks((long) count * segmentLength * tapers.length, MIN_PARALLEL);
+    List<Accumulator> results = Parallel.split(0, count, tasks, new Parallel.Range<Accumulator>() {
+      @Override
+      public Accumulator run(int first, int last) {
+        return accumulate(samples, from, held, first, last);
+      }
+    });
+    long before = segments;
+    for (Accumulator acc : results) {
+      merge(acc);
+    }
+
+    // keep the samples from the start of the next segment, fewer than a segment's worth
+    int next = count * step;
+    int keep = available - next;
+    double[] joined = new double[keep];
+    for (int i = 0; i < keep; i++) {
+      int offset = next + i;
+      joined[i] = offset < held ? tail[offset] : samples.get(from + offset - held);
+    }
+    System.arraycopy(joined, 0, tail, 0, keep);
+    tailStart += next;
+    tailLength = keep;
+    return (int) (segments - before);
+  }
+
+  private Accumulator accumulate(SampleBuffer samples, int from, int held, int first, int last) {
+    Accumulator acc = new Accumulator();
+    for (int s = first; s < last; s++) {
+      acc.add(samples, from, held, s * step);
+    }
+    return acc;
+  }
+
+  private void merge(Accumulator acc) {
+    for (int j = 0; j < nBins; j++) {
+      sum[j] += acc.sum[j];
+    }
+    segments += acc.segments;
+  }
+
+  /**
+   * Periodograms of some segments, summed by one thread.
+   */
+  private class Accumulator {
+    private final double[] sum = new double[nBins];
+    private final double[] segment = new double[segmentLength];
+    private final double[] tapered = new double[2 * nBins];
+    private int segments;
+
+    void add(SampleBuffer samples, int from, int held, int offset) {
+      int fromTail = Math.max(0, Math.min(segmentLength, held - offset));
+      if (fromTail > 0) {
+        System.arraycopy(tail, offset, segment, 0, fromTail);
+      }
+      samples.copyTo(from + offset + fromTail - held, segment, fromTail,
+          segmentLength - fromTail);
+
+      double mean = 0;
+      for (int i = 0; i < segmentLength; i++) {
+        if (Double.isNaN(segment[i])) {
+          return;
+        }
+        mean += segment[i];
+      }
+      mean /= segmentLength;
+
+      for (double[] taper : tapers) {
+        for (int i = 0; i < segmentLength; i++) {
+          tapered[i] = (segment[i] - mean) * taper[i];
+        }
+        plan.realForward(tapered, 0, tapered, 0);
+        for (int j = 0; j < nBins; j++) {
+          double re = tapered[2 * j];
+          double im = tapered[2 * j + 1];
+          sum[j] += re * re + im * im;
+        }
+      }
+      segments++;
+    }
+  }
+
+  /**
+   * Gets the estimate so far.
+   *
+   * @return the density at each frequency from zero to Nyquist, or null if no segment has been
+   *     added
+   */
+  public synchronized Spectra getSpectra() {
+    if (segments == 0) {
+      return null;
+    }
+    double[] psd = new double[nBins];
+    double scale = 1 / (samplingRate * tapers.length * segments);
+    for (int j = 0; j < nBins; j++) {
+      // frequencies other than zero and Nyquist also stand for their negative twins
+      boolean single = j == 0 || (segmentLength % 2 == 0 && j == nBins - 1);
+      psd[j] = sum[j] * scale * (single ? 1 : 2);
+    }
+    return Spectra.fromPower(psd, samplingRate, segmentLength);
+  }
+
+  /**
+   * Gets the number of segments averaged.
+   *
+   * @return the number of segments
+   */
+  public synchronized long getSegmentCount() {
+    return segments;
+  }
+
+  /**
+   * Gets the number of tapers applied to each segment.
+   *
+   * @return 1 for a Welch estimate, otherwise the number of Slepian tapers
+   */
+  public int getTaperCount() {
+    return tapers.length;
+  }
+
+  /**
+   * Discard the estimate and any held samples.
+   */
+  public synchronized void reset() {
+    samplingRate = Double.NaN;
+    Arrays.fill(sum, 0);
+    segments = 0;
+    tailLength = 0;
+  }
+}
@@ -1,14 +1,24 @@
 package gov.usgs.volcanoes.core.data;
 
+import gov.usgs.volcanoes.core.math.Fft;
+import gov.usgs.volcanoes.core.math.FftPlan;
 import gov.usgs.volcanoes.core.math.Util;
+import gov.usgs.volcanoes.core.util.Parallel;
 
-import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+import java.util.Arrays;
 
 /**
  * An immutable class for calculating spectrograms. User defines bin size, fft
  * length, and amount of overlap. The signal is windowed using a Kaiser window
  * with user specifiable beta-value.
  * 
+ * <p>Amplitudes are held in a single float array, one row per frequency bin,
+ * which is the order in which an image of the spectrogram is drawn. Time
+ * columns are computed in tiles, on the common fork/join pool when there are
+ * enough of them, and each tile is transposed into the rows once it is done.
+ * FFT plans come from <code>Fft</code>; each task allocates its own scratch
+ * arrays.
+ * 
  * @author Peter Cervelli
  */
 
@@ -22,6 +32,9 @@ public class Spectrogram {
   public static final double DEFAULT_MULTIPLIER = 20;
   public static final double REFERENCE_AMPLITUDE = 1;
 
+  // time columns computed together before being written to the rows
+  private static final int TILE = 64;
+
   private final int samplingRate;
   private final int nfft;
   private final int binSize;
@@ -34,7 +47,7 @@ public class Spectrogram {
   private final double[] frequency;
   private final double[] time;
   private final double[] window;
-  private final double[][] spectraAmplitude;
+  private final float[] spectra;
 
   /**
    * Simple constructor that uses default values.
@@ -86,7 +99,7 @@ public class Spectrogram {
     time = computeTime();
     window = Util.kaiser(binSize, beta);
 
-    spectraAmplitude = computeSpectraAmplitude();
+    spectra = computeSpectra();
 
   }
 
@@ -202,11 +215,9 @@ public class Spectrogram {
   public double getMinSpectraAmplitude() {
 
     double min = Double.MAX_VALUE;
-    for (int i = 0; i < nRows; i++) {
-      for (int j = 0; j < nColumns; j++) {
-        if (spectraAmplitude[i][j] < min) {
-          min = spectraAmplitude[i][j];
-        }
+    for (float a : spectra) {
+      if (a < min) {
+        min = a;
       }
     }
     return min;
@@ -219,11 +230,9 @@ public class Spectrogram {
   public double getMaxSpectraAmplitude() {
 
     double max = Double.MIN_VALUE;
-    for (int i = 0; i < nRows; i++) {
-      for (int j = 0; j < nColumns; j++) {
-        if (spectraAmplitude[i][j] > max) {
-          max = spectraAmplitude[i][j];
-        }
+    for (float a : spectra) {
+      if (a > max) {
+        max = a;
       }
     }
     return max;
@@ -231,11 +240,30 @@ public class Spectrogram {
   }
 
   /**
-   * Returns an array of spectra amplitudes.
+   * Returns the spectra amplitudes in a single array, frequency bin by
+   * frequency bin. The amplitude of frequency bin i in time bin j is at
+   * <code>i * getNTimeBins() + j</code>. The array is not copied.
+   */
+  public float[] getSpectra() {
+
+    return spectra;
+
+  }
+
+  /**
+   * Returns a copy of the spectra amplitudes as an array indexed by frequency
+   * bin, then time bin.
    */
   public double[][] getSpectraAmplitude() {
 
-    return spectraAmplitude;
+    double[][] specAmp = new double[nRows][nColumns];
+    for (int i = 0; i < nRows; i++) {
+      int row = i * nColumns;
+      for (int j = 0; j < nColumns; j++) {
+        specAmp[i][j] = spectra[row + j];
+      }
+    }
+    return specAmp;
 
   }
 
@@ -260,14 +288,34 @@ public class Spectrogram {
 
     double[][] logAmp = new double[nRows][nColumns];
     for (int i = 0; i < nRows; i++) {
+      int row = i * nColumns;
       for (int j = 0; j < nColumns; j++) {
-        logAmp[i][j] = multiplier * Math.log10(spectraAmplitude[i][j] / referenceAmplitude);
+        logAmp[i][j] = multiplier * Math.log10(spectra[row + j] / referenceAmplitude);
       }
     }
 
     return logAmp;
   }
 
+  /**
+   * Returns log10 of the scaled spectra amplitudes times the specified
+   * multiplier, laid out as by <code>getSpectra()</code>.
+   * 
+   * @param multiplier
+   *            Multiplier
+   * @param referenceAmplitude
+   *            Amplitude of zero
+   */
+  public float[] getLogSpectra(double multiplier, double referenceAmplitude) {
+
+    float[] logAmp = new float[spectra.length];
+    for (int i = 0; i < spectra.length; i++) {
+      logAmp[i] = (float) (multiplier * Math.log10(spectra[i] / referenceAmplitude));
+    }
+    return logAmp;
+
+  }
+
   /**
    * Computes the frequency array.
    */
@@ -296,38 +344,69 @@ public class Spectrogram {
   }
 
   /**
-   * Computes the spectra amplitudes with the FFT.
+   * Computes the spectra amplitudes with the FFT, a tile of time columns at a
+   * time.
    */
-  private double[][] computeSpectraAmplitude() {
-
-    double[][] specAmp = new double[nRows][nColumns];
-    double[] bin = new double[nfft];
+  private float[] computeSpectra() {
 
-    int c = 0;
-    for (int i = 0; i < nColumns; i++) {
+    final float[] specAmp = new float[nRows * nColumns];
+    int tiles = (nColumns + TILE - 1) / TILE;
+    if (tiles < 2) {
+      computeTiles(specAmp, 0, tiles);
+      return specAmp;
+    }
 
-      for (int j = 0; j < binSize; j++) {
-        bin[j] = signal[c] * window[j];
-        c++;
+    Parallel.split(0, tiles, Parallel.tasks(tiles, 1), new Parallel.Range<Void>() {
+      @Override
+      public Void run(int from, int to) {
+        computeTiles(specAmp, from, to);
+        return null;
       }
-      c = c - overlap;
-
-      DoubleFFT_1D transform = new DoubleFFT_1D(nfft);
-      transform.realForward(bin);
-
-      specAmp[0][i] = Math.abs(bin[0]);
-      specAmp[nfft / 2][i] = Math.abs(bin[1]);
-      for (int j = 2; j < nfft; j = j + 2) {
-        // TODO: figure out why the next line throws an
-        // IndexOutOfBoundsExteption when nfft is set to 0 and binSize
-        // is 117
-        specAmp[j / 2][i] = Math.sqrt(bin[j] * bin[j] + bin[j + 1] * bin[j + 1]);
-        bin[j] = 0;
-        bin[j + 1] = 0;
+    });
+    return specAmp;
+
+  }
+
+  /**
+   * Computes a range of tiles into the rows of specAmp.
+   */
+  private void computeTiles(float[] specAmp, int fromTile, int toTile) {
+
+    FftPlan transform = Fft.plan(nfft);
+    double[] bin = new double[2 * nRows];
+    float[] tile = new float[TILE * nRows];
+    int step = binSize - overlap;
+
+    for (int t = fromTile; t < toTile; t++) {
+      int first = t * TILE;
+      int columns = Math.min(TILE, nColumns - first);
+
+      // each column is written contiguously into the tile
+      for (int k = 0; k < columns; k++) {
+        int c = (first + k) * step;
+        for (int j = 0; j < binSize; j++) {
+          bin[j] = signal[c + j] * window[j];
+        }
+        Arrays.fill(bin, binSize, nfft, 0);
+
+        transform.realForward(bin, 0, bin, 0);
+
+        int col = k * nRows;
+        for (int j = 0; j < nRows; j++) {
+          double re = bin[2 * j];
+          double im = bin[2 * j + 1];
+          tile[col + j] = (float) Math.sqrt(re * re + im * im);
+        }
       }
 
+      // then the tile is transposed into a run of each row
+      for (int i = 0; i < nRows; i++) {
+        int row = i * nColumns + first;
+        for (int k = 0; k < columns; k++) {
+          specAmp[row + k] = tile[k * nRows + i];
+        }
+      }
     }
-    return specAmp;
 
   }
 
@@ -0,0 +1,208 @@
+package gov.usgs.volcanoes.core.data;
+
+import gov.usgs.volcanoes.core.math.Butterworth;
+import gov.usgs.volcanoes.core.math.SosFilter;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Filters one channel of live data a chunk at a time, such as the TRACEBUF packets delivered by
+ * <code>ImportGeneric</code> or the waves returned by successive <code>WaveServer</code> requests.
+ * The filter state is carried from one chunk to the next, so each update costs only its new samples
+ * and contiguous chunks are filtered exactly as if they had been filtered whole.
+ *
+ * <p>Filtering is causal; a zero phase filter needs the future and cannot be streamed. Output is
+ * returned as double precision waves, so nothing is rounded.
+ *
+ * <p>A chunk which does not start where the last one ended, or a run of NO_DATA samples, breaks
+ * the stream. The filter then either restarts from rest or, by default, warms up as though the
+ * first sample after the break had been constant for a long time, which avoids the step transient
+ * that <code>Wave.filter()</code> pads its input to hide. Chunks which overlap samples already
+ * filtered are trimmed, and chunks wholly in the past are ignored. A change of sampling rate
+ * redesigns the filter.
+ */
+public class StreamingFilter {
+
+  /**
+   * What to do when the stream is broken.
+   */
+  public enum GapPolicy {
+    /** Restart the filter from rest. */
+    RESET,
+    /** Restart the filter settled on the first sample after the break. */
+    WARM_UP
+  }
+
+  private final Butterworth bw;
+  private final GapPolicy gapPolicy;
+
+  private SosFilter filter;
+  private double[] state;
+  private double samplingRate = Double.NaN;
+  // time of the sample after the last one filtered, NaN when the stream is broken
+  private double nextTime = Double.NaN;
+
+  /**
+   * Create a filter which warms up after breaks.
+   *
+   * @param bw filter design; its sampling rate is taken from the data
+   */
+  public StreamingFilter(Butterworth bw) {
+    this(bw, GapPolicy.WARM_UP);
+  }
+
+  /**
+   * Create a filter.
+   *
+   * @param bw filter design; its sampling rate is taken from the data
+   * @param gapPolicy what to do when the stream is broken
+   */
+  public StreamingFilter(Butterworth bw, GapPolicy gapPolicy) {
+    this.bw = new Butterworth(bw);
+    this.gapPolicy = gapPolicy;
+  }
+
+  /**
+   * Filter the next chunk of the stream. The chunk is not modified.
+   *
+   * @param chunk the samples
+   * @return the filtered samples not already returned for an earlier chunk, or null if there are
+   *     none; NO_DATA samples are NaN
+   */
+  public synchronized Wave filter(Wave chunk) {
+    int n = chunk.numSamples();
+    if (n == 0) {
+      return null;
+    }
+
+    double sr = chunk.getSamplingRate();
+    if (filter == null || Math.abs(sr - samplingRate) >= 0.001) {
+      samplingRate = sr;
+      bw.setSamplingRate(sr);
+      filter = SosFilter.forButterworth(bw);
+      state = filter.newState();
+      nextTime = Double.NaN;
+    }
+
+    double period = 1 / samplingRate;
+    double start = chunk.getStartTime();
+    int skip = 0;
+    if (!Double.isNaN(nextTime)) {
+      if (start < nextTime - period * 0.25) {
+        skip = (int) Math.round((nextTime - start) * samplingRate);
+        if (skip >= n) {
+          return null;
+        }
+      } else if (start > nextTime + period * 0.25) {
+        nextTime = Double.NaN;
+      }
+    }
+
+    double[] out = new double[n - skip];
+    chunk.getSamples().copyTo(skip, out, 0, out.length);
+
+    boolean broken = Double.isNaN(nextTime);
+    int i = 0;
+    while (i < out.length) {
+      if (Double.isNaN(out[i])) {
+        broken = true;
+        i++;
+        continue;
+      }
+      int end = i + 1;
+      while (end < out.length && !Double.isNaN(out[end])) {
+        end++;
+      }
+      if (broken) {
+        restart(out[i]);
+        broken = false;
+      }
+      filter.filter(out, i, end, state);
+      i = end;
+    }
+
+    double outStart = start + skip * period;
+    nextTime = broken ? Double.NaN : outStart + out.length * period;
+    return new Wave(out, outStart, samplingRate);
+  }
+
+  private void restart(double x) {
+    if (gapPolicy == GapPolicy.WARM_UP) {
+      filter.warmUp(state, x);
+    } else {
+      for (int i = 0; i < state.length; i++) {
+        state[i] = 0;
+      }
+    }
+  }
+
+  /**
+   * Forget the stream, so that the next chunk is treated as following a break.
+   */
+  public synchronized void reset() {
+    nextTime = Double.NaN;
+  }
+
+  /**
+   * Gets the time of the sample which would continue the stream.
+   *
+   * @return the time, or NaN if the stream is broken
+   */
+  public synchronized double getNextTime() {
+    return nextTime;
+  }
+
+  /**
+   * Streaming filters for many channels sharing one design, created as channels are first seen.
+   */
+  public static class Bank {
+    private final Butterworth bw;
+    private final GapPolicy gapPolicy;
+    private final ConcurrentHashMap<String, StreamingFilter> filters =
+        new ConcurrentHashMap<String, StreamingFilter>();
+
+    /**
+     * Create a bank.
+     *
+     * @param bw filter design; sampling rates are taken from each channel's data
+     * @param gapPolicy what to do when a channel's stream is broken
+     */
+    public Bank(Butterworth bw, GapPolicy gapPolicy) {
+      this.bw = new Butterworth(bw);
+      this.gapPolicy = gapPolicy;
+    }
+
+    /**
+     * Filter the next chunk of a channel.
+     *
+     * @param channel channel name
+     * @param chunk the samples
+     * @return the filtered samples, as by <code>StreamingFilter.filter()</code>
+     */
+    public Wave filter(String channel, Wave chunk) {
+      StreamingFilter f = filters.get(channel);
+      if (f == null) {
+        StreamingFilter created = new StreamingFilter(bw, gapPolicy);
+        f = filters.putIfAbsent(channel, created);
+        if (f == null) {
+          f = created;
+        }
+      }
+      return f.filter(chunk);
+    }
+
+    /**
+     * Forget a channel.
+     *
+     * @param channel channel name
+     */
+    public void remove(String channel) {
+      filters.remove(channel);
+    }
+
+    public Set<String> getChannels() {
+      return filters.keySet();
+    }
+  }
+}
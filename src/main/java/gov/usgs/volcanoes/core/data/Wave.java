@@ -2,16 +2,18 @@ package gov.usgs.volcanoes.core.data;
 
 import gov.usgs.volcanoes.core.math.Butterworth;
 import gov.usgs.volcanoes.core.math.FFT;
-import gov.usgs.volcanoes.core.math.Filter;
+import gov.usgs.volcanoes.core.math.Fft;
+import gov.usgs.volcanoes.core.math.RollingWindow;
+import gov.usgs.volcanoes.core.math.SosFilter;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
+import gov.usgs.volcanoes.core.util.Parallel;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,8 +22,12 @@ import org.slf4j.LoggerFactory;
  * A<code>Wave</code> is a class that handles regularly sampled time-series data like a seismic
  * waveform. This class is well suited to higher sampling rate data (>10Hz) with little or no gaps.
  * 
- * <p>All data are stored as 32-bit signed integers. The start time, as in the whole USGS Java
- * codebase, is in j2ksec (decimal seconds since Jan 1, 2000).
+ * <p>Data are normally stored as 32-bit signed integers in <code>buffer</code>. A wave may instead
+ * hold single or double precision samples, so that filtered or integrated data need not be rounded;
+ * <code>buffer</code> is then null and the samples are reached through <code>getSamples()</code>.
+ * Operations which only make sense for integers, such as <code>combine()</code>, first round the
+ * samples to integer storage. The start time, as in the whole USGS Java codebase, is in j2ksec
+ * (decimal seconds since Jan 1, 2000).
  *  
  * @author Dan Cervelli
  */
@@ -36,10 +42,17 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
   public static int NO_DATA = Integer.MIN_VALUE;
 
   /**
-   * The sample buffer. This is made public to allow quick and easy access to the raw samples.
+   * The sample buffer. This is made public to allow quick and easy access to the raw samples. For
+   * floating point samples it holds a copy rounded to integers, with NO_DATA for missing samples,
+   * which is refreshed whenever the samples change; writing to it then has no effect.
    */
   public int[] buffer;
 
+  /**
+   * Floating point samples, or null when the samples are held in <code>buffer</code>.
+   */
+  private SampleBuffer samples;
+
   /**
    * The start time of the block of samples.
    */
@@ -62,13 +75,11 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
   /** microsecond conversion. */
   protected static final double FROM_USEC = 1E-6;
 
-  // These values are cached to improved performance
-  private transient double mean = Double.NaN;
-  private transient double rsam = Double.NaN;
-  private transient int max = Integer.MIN_VALUE;
-  private transient int min = Integer.MAX_VALUE;
-  private transient int[] dataRange = null;
-  private transient int first = NO_DATA;
+  // This value is cached to improved performance
+  private transient WaveStatistics statistics;
+
+  // min/max summary for fast range queries, built on request
+  private transient WavePyramid pyramid;
 
   private String dataType;
 
@@ -85,8 +96,14 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
   public Wave(Wave wave) {
     startTime = wave.startTime;
     samplingRate = wave.samplingRate;
-    buffer = new int[wave.buffer.length];
-    System.arraycopy(wave.buffer, 0, buffer, 0, buffer.length);
+    if (wave.samples != null) {
+      samples = wave.samples.copyOfRange(0, wave.samples.length());
+      buffer = samples.toInts();
+    } else {
+      buffer = new int[wave.buffer.length];
+      System.arraycopy(wave.buffer, 0, buffer, 0, buffer.length);
+    }
+    statistics = wave.statistics;
   }
 
   /**
@@ -112,6 +129,51 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
     makeWave(b, st, sr, dt);
   }
 
+  /**
+   * Constructs a <code>Wave</code> holding single precision samples. Missing samples are NaN.
+   * 
+   * @param b the samples buffer
+   * @param st the start time
+   * @param sr the sampling rate
+   */
+  public Wave(float[] b, double st, double sr) {
+    this(SampleBuffer.wrap(b), st, sr);
+  }
+
+  /**
+   * Constructs a <code>Wave</code> holding double precision samples. Missing samples are NaN.
+   * 
+   * @param b the samples buffer
+   * @param st the start time
+   * @param sr the sampling rate
+   */
+  public Wave(double[] b, double st, double sr) {
+    this(SampleBuffer.wrap(b), st, sr);
+  }
+
+  /**
+   * Constructs a <code>Wave</code> around a buffer of samples of any type.
+   * 
+   * @param b the samples buffer
+   * @param st the start time
+   * @param sr the sampling rate
+   */
+  public Wave(SampleBuffer b, double st, double sr) {
+    makeWave(null, st, sr, dataType(b.getType()));
+    setSamples(b);
+  }
+
+  private static String dataType(SampleBuffer.Type type) {
+    switch (type) {
+      case FLOAT:
+        return "f4";
+      case DOUBLE:
+        return "f8";
+      default:
+        return "s4";
+    }
+  }
+
   /**
    * Set this <code>Wave</code> from variables.
    * 
@@ -122,9 +184,11 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    */
   public void makeWave(int[] b, double st, double sr, String dt) {
     buffer = b;
+    samples = null;
     startTime = st;
     samplingRate = sr;
     dataType = dt;
+    invalidateStatistics();
   }
 
   /**
@@ -140,6 +204,70 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
     fromBinary(bb);
   }
 
+  /**
+   * Gets the samples, whatever their storage. Integer samples are wrapped without copying.
+   * 
+   * @return the samples
+   */
+  public SampleBuffer getSamples() {
+    if (samples != null) {
+      return samples;
+    }
+    return SampleBuffer.wrap(buffer == null ? new int[0] : buffer);
+  }
+
+  /**
+   * Replaces the samples. Integer samples are placed in <code>buffer</code>.
+   * 
+   * @param b the samples
+   */
+  public void setSamples(SampleBuffer b) {
+    if (b.getType() == SampleBuffer.Type.INT) {
+      buffer = ((SampleBuffer.Ints) b).array();
+      samples = null;
+    } else {
+      samples = b;
+    }
+    invalidateStatistics();
+  }
+
+  /**
+   * Determines whether the samples are held in floating point.
+   * 
+   * @return true if <code>buffer</code> only holds a rounded copy of the samples
+   */
+  public boolean isFloatingPoint() {
+    return samples != null;
+  }
+
+  /**
+   * Converts the samples to another storage type. Converting to integers rounds each sample.
+   * 
+   * @param type the storage type
+   */
+  public void setSampleType(SampleBuffer.Type type) {
+    SampleBuffer current = getSamples();
+    if (current.getType() != type) {
+      setSamples(current.convert(type));
+    }
+  }
+
+  /**
+   * Rounds floating point samples into <code>buffer</code> before an integer-only operation.
+   */
+  private void requireInts() {
+    if (samples != null) {
+      setSampleType(SampleBuffer.Type.INT);
+    }
+  }
+
+  /**
+   * Gets the samples as integers without changing this wave's storage.
+   */
+  private int[] ints() {
+    return samples == null ? buffer : samples.toInts();
+  }
+
   /**
    * Registers the starting time to the nearest even interval based on the wave's sampling rate. The
    * offset between the original start time and the registered time is stored in
@@ -171,6 +299,15 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return whether or not this consists entirely of NO_DATA samples
    */
   public boolean isData() {
+    if (samples != null) {
+      for (int i = 0; i < samples.length(); i++) {
+        if (!samples.isNoData(i)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
     for (int i = 0; i < buffer.length; i++) {
       if (buffer[i] != NO_DATA) {
         return true;
@@ -184,11 +321,13 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * Normalize bad data values.
    */
   public void handleBadData() {
+    requireInts();
     for (int i = 0; i < buffer.length; i++) {
       if (buffer[i] == 999999) {
         buffer[i] = NO_DATA;
       }
     }
+    invalidateStatistics();
   }
 
   /**
@@ -197,9 +336,26 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @param s new size
    */
   public void trunc(int s) {
-    int[] buf = new int[s];
-    System.arraycopy(buffer, 0, buf, 0, s);
-    buffer = buf;
+    if (samples != null) {
+      samples = samples.copyOfRange(0, s);
+      buffer = samples.toInts();
+      statistics = null;
+    } else {
+      if (statistics != null) {
+        // when dropping the shorter end, remove its contribution rather than rescanning the rest
+        if (buffer.length - s < s) {
+          statistics = statistics.withoutTail(WaveStatistics.compute(buffer, s, buffer.length));
+        } else {
+          statistics = null;
+        }
+      }
+      int[] buf = new int[s];
+      System.arraycopy(buffer, 0, buf, 0, s);
+      buffer = buf;
+    }
+    if (pyramid != null) {
+      pyramid.update(s);
+    }
   }
 
   /**
@@ -208,9 +364,22 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @param m value to subtract
    */
   public void subtract(int m) {
+    if (samples != null) {
+      for (int i = 0; i < samples.length(); i++) {
+        samples.set(i, samples.get(i) - m);
+      }
+      invalidateStatistics();
+      return;
+    }
     for (int i = 0; i < buffer.length; i++) {
       buffer[i] -= m;
     }
+    if (statistics != null) {
+      statistics = statistics.shift(m);
+    }
+    if (pyramid != null) {
+      pyramid.invalidate();
+    }
   }
 
   /**
@@ -248,73 +417,104 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @see FFT
    */
   public double[][] fft() {
-    int n = buffer.length;
-    int p2 = (int) Math.ceil(Math.log((double) n) / Math.log(2));
-    int newSize = (int) Math.pow(2, p2);
-    double[][] buf = new double[newSize][2];
+    double[] buf = fastFft();
+    double[][] result = new double[buf.length / 2][];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = new double[] {buf[2 * i], buf[2 * i + 1]};
+    }
+    return result;
+  }
+
+  /**
+   * Computes the FFT of the <code>Wave</code> as <code>fft()</code> does, but into a single
+   * interleaved array, real and imaginary parts alternating, as used by <code>FFT.fastHalve()</code>
+   * and <code>FFT.fastToPowerFreq()</code>.
+   * 
+   * @return the FFT, 2n values for n complex rows
+   * @see Fft
+   */
+  public double[] fastFft() {
+    SampleBuffer s = getSamples();
+    int n = s.length();
+    int newSize = Fft.nextPowerOf2(n);
+    double[] buf = new double[2 * newSize];
     int m = (int) Math.round(mean());
 
     for (int i = 0; i < n; i++) {
-      if (buffer[i] != NO_DATA) {
-        buf[i][0] = buffer[i];
+      if (!s.isNoData(i)) {
+        buf[2 * i] = s.get(i);
       }
     }
 
     for (int i = n; i < newSize; i++) {
-      buf[i][0] = m;
+      buf[2 * i] = m;
     }
 
-    FFT.fft(buf);
+    Fft.plan(newSize).complexForward(buf, 0);
 
     return buf;
   }
 
   /**
-   * Invalidates the cached statistics. TODO: document when and why this should be called
+   * Invalidates the cached statistics and marks the pyramid, if any, for rebuilding. This must be
+   * called after modifying <code>buffer</code> directly; methods of this class which change the
+   * samples take care of it themselves. For floating point samples <code>buffer</code> is rounded
+   * again from the samples.
    */
   public void invalidateStatistics() {
-    mean = Double.NaN;
-    rsam = Double.NaN;
-    max = Integer.MIN_VALUE;
-    min = Integer.MAX_VALUE;
-    first = NO_DATA;
+    statistics = null;
+    if (pyramid != null) {
+      pyramid.invalidate();
+    }
+    if (samples != null) {
+      buffer = samples.toInts();
+    }
   }
 
   /**
-   * Scan data and compute statistic.
+   * Gets the min/max pyramid of the samples, building one and attaching it to this wave if there
+   * is none. An attached pyramid follows later changes to the samples and is used by
+   * <code>SliceWave</code> and <code>SliceWaveRenderer</code> to summarize ranges of samples
+   * without scanning them.
+   * 
+   * @return the pyramid
    */
-  private void deriveStatistics() {
-    if (buffer == null || buffer.length == 0) {
-      mean = 0;
-      rsam = 0;
-      max = 0;
-      min = 0;
-      first = 0;
-      return;
-    }
-    int noDatas = 0;
-    long sum = 0;
-    long rs = 0;
-    boolean firstSet = false;
-    for (int i = 0; i < buffer.length; i++) {
-      int d = buffer[i];
-      if (d != NO_DATA) {
-        sum += d;
-        rs += Math.abs(d);
-        min = Math.min(min, d);
-        max = Math.max(max, d);
-        if (!firstSet) {
-          first = d;
-          firstSet = true;
-        }
-      } else {
-        noDatas++;
-      }
+  public WavePyramid getPyramid() {
+    if (pyramid == null) {
+      pyramid = new WavePyramid(this);
     }
+    return pyramid;
+  }
+
+  /**
+   * Determines whether a pyramid is attached.
+   * 
+   * @return true if <code>getPyramid()</code> has been called
+   */
+  public boolean hasPyramid() {
+    return pyramid != null;
+  }
+
+  /**
+   * Detaches the pyramid, freeing its memory.
+   */
+  public void removePyramid() {
+    pyramid = null;
+  }
 
-    mean = (double) sum / (double) (buffer.length - noDatas);
-    rsam = (double) rs / (double) (buffer.length - noDatas);
-    dataRange = new int[] {min, max};
+  /**
+   * Gets a summary of the samples, scanning the buffer only if no summary is cached. Floating point
+   * samples are summarized as if rounded to integers.
+   * 
+   * @return the statistics
+   */
+  public WaveStatistics getStatistics() {
+    WaveStatistics stats = statistics;
+    if (stats == null) {
+      stats = WaveStatistics.compute(ints());
+      statistics = stats;
+    }
+    return stats;
   }
 
   /**
@@ -323,10 +523,7 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return the mean or bias
    */
   public int first() {
-    if (first == NO_DATA) {
-      deriveStatistics();
-    }
-    return first;
+    return getStatistics().first();
   }
 
   /**
@@ -335,11 +532,10 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return the mean or bias
    */
   public double mean() {
-    if (Double.isNaN(mean)) {
-      deriveStatistics();
+    if (samples != null) {
+      return samples.mean(0, samples.length());
     }
-
-    return mean;
+    return getStatistics().mean();
   }
 
   /**
@@ -348,11 +544,7 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return the maximum value
    */
   public int max() {
-    if (max == Integer.MIN_VALUE) {
-      deriveStatistics();
-    }
-
-    return max;
+    return getStatistics().max();
   }
 
   /**
@@ -361,11 +553,7 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return the minimum value
    */
   public int min() {
-    if (min == Integer.MAX_VALUE) {
-      deriveStatistics();
-    }
-
-    return min;
+    return getStatistics().min();
   }
 
   /**
@@ -374,11 +562,10 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return the RSAM value
    */
   public double rsam() {
-    if (Double.isNaN(rsam)) {
-      deriveStatistics();
+    if (samples != null) {
+      return samples.absMean(0, samples.length());
     }
-
-    return rsam;
+    return getStatistics().rsam();
   }
 
   /**
@@ -387,6 +574,16 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @param factor the value of n
    */
   public void decimate(int factor) {
+    if (samples != null) {
+      SampleBuffer buf = SampleBuffer.allocate(samples.getType(), numSamples() / factor);
+      for (int i = 0; i < buf.length(); i++) {
+        buf.set(i, samples.get(i * factor));
+      }
+      samples = buf;
+      samplingRate /= factor;
+      invalidateStatistics();
+      return;
+    }
     int[] buf = new int[numSamples() / factor];
     for (int i = 0; i < numSamples() / factor; i++) {
       buf[i] = buffer[i * factor];
@@ -394,6 +591,7 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
 
     buffer = buf;
     samplingRate /= factor;
+    invalidateStatistics();
   }
 
   /**
@@ -402,7 +600,9 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return the number of samples
    */
   public int numSamples() {
-    if (buffer == null) {
+    if (samples != null) {
+      return samples.length();
+    } else if (buffer == null) {
       return 0;
     } else {
       return buffer.length;
@@ -415,13 +615,7 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return the count of NO_DATA samples
    */
   public int numNoData() {
-    int count = 0;
-    for (int sample : buffer) {
-      if (sample == NO_DATA) {
-        count++;
-      }
-    }
-    return count;
+    return getStatistics().noDataCount();
   }
 
 
@@ -495,11 +689,7 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return an array with minimum and maximum value (in that order)
    */
   public int[] getDataRange() {
-    if (min == Integer.MAX_VALUE) {
-      deriveStatistics();
-    }
-
-    return dataRange;
+    return getStatistics().dataRange();
   }
 
   /**
@@ -569,22 +759,34 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
     Wave sw1 = new Wave();
     sw1.startTime = startTime;
     sw1.samplingRate = samplingRate;
-    int length1 = buffer.length / 2;
-    sw1.buffer = new int[length1];
-    System.arraycopy(buffer, 0, sw1.buffer, 0, length1);
+    int length1 = numSamples() / 2;
+    copySamples(sw1, 0, length1);
     sw1.dataType = dataType;
 
     Wave sw2 = new Wave();
     sw2.startTime = startTime + (double) length1 * (getSamplingPeriod());
     sw2.samplingRate = samplingRate;
-    int length2 = buffer.length / 2 + (buffer.length % 2);
-    sw2.buffer = new int[length2];
-    System.arraycopy(buffer, length1, sw2.buffer, 0, length2);
+    int length2 = numSamples() / 2 + (numSamples() % 2);
+    copySamples(sw2, length1, length2);
     sw2.dataType = dataType;
 
     return new Wave[] {sw1, sw2};
   }
 
+  /**
+   * Copy a range of samples into another wave, keeping their storage type.
+   */
+  private void copySamples(Wave dst, int from, int length) {
+    if (samples != null) {
+      dst.samples = samples.copyOfRange(from, from + length);
+      dst.buffer = dst.samples.toInts();
+    } else {
+      dst.buffer = new int[length];
+      System.arraycopy(buffer, from, dst.buffer, 0, length);
+      dst.samples = null;
+    }
+  }
+
   /**
    * Splits this wave into a list of smaller waves with a maximum number of samples as specified.
    * Used for breaking a wave into TRACEBUF-sized pieces.
@@ -593,17 +795,16 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return a list of the split up waves.
    */
   public List<Wave> split(int maxSamples) {
-    ArrayList<Wave> list = new ArrayList<Wave>(buffer.length / maxSamples + 2);
+    ArrayList<Wave> list = new ArrayList<Wave>(numSamples() / maxSamples + 2);
     double ct = startTime;
     int j = 0;
-    while (j < buffer.length) {
+    while (j < numSamples()) {
       Wave sw = new Wave();
       sw.startTime = ct;
       sw.samplingRate = samplingRate;
       sw.dataType = dataType;
-      int numSamples = Math.min(maxSamples, buffer.length - j);
-      sw.buffer = new int[numSamples];
-      System.arraycopy(buffer, j, sw.buffer, 0, numSamples);
+      int numSamples = Math.min(maxSamples, numSamples() - j);
+      copySamples(sw, j, numSamples);
       ct += (double) numSamples * (getSamplingPeriod());
       j += numSamples;
       list.add(sw);
@@ -624,7 +825,7 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
       return this;
     }
 
-    if (buffer == null || buffer.length < 1) {
+    if (numSamples() < 1) {
       return this;
     }
 
@@ -633,10 +834,9 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
     sw.samplingRate = samplingRate;
     sw.dataType = dataType;
     sw.registrationOffset = registrationOffset;
-    int samples = (int) Math.floor((t2 - t1) * samplingRate);
-    sw.buffer = new int[samples];
+    int length = (int) Math.floor((t2 - t1) * samplingRate);
     int offset = (int) Math.floor((t1 - startTime) * samplingRate);
-    System.arraycopy(buffer, offset, sw.buffer, 0, samples);
+    copySamples(sw, offset, length);
     return sw;
   }
 
@@ -656,6 +856,9 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
       return; // erase the middle -- unhandled
     }
 
+    requireInts();
+    invalidateStatistics();
+
     if (t1 <= getStartTime() && t2 >= getEndTime()) {
       // erase the whole wave
       buffer = null;
@@ -703,6 +906,9 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
       return wave;
     }
 
+    requireInts();
+    wave.requireInts();
+
     double srdiff = Math.abs(wave.getSamplingRate() - samplingRate);
     // using 0 below can be problem for sampling rates that are not integers
     boolean matching = (srdiff < 0.001);
@@ -748,9 +954,25 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
 
     System.arraycopy(rightWave.buffer, 0, newbuf, i, rightWave.buffer.length);
 
+    // abutting waves can be summarized from their parts, overlapping ones must be rescanned
+    if (statistics != null && i == leftWave.buffer.length) {
+      statistics = leftWave.getStatistics().append(rightWave.getStatistics());
+    } else {
+      statistics = null;
+    }
+
     this.buffer = newbuf;
     this.startTime = leftWave.startTime;
 
+    if (pyramid != null) {
+      if (leftWave == this) {
+        // only the samples from the right wave are new
+        pyramid.update(i);
+      } else {
+        pyramid.invalidate();
+      }
+    }
+
     return this;
   }
 
@@ -758,7 +980,7 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * Joins together a list of waves into one large wave. The list must be sorted in time-ascending
    * order of start time. Technically, as long as the first wave is the earliest and the last wave
    * ends the latest, this function will work. This function will happily create a wave with large
-   * gaps in it as well.
+   * gaps in it as well; use <code>SegmentedWave</code> to avoid allocating them.
    * 
    * @param waves the list of <code>Wave</code> s
    * @return the new joined wave
@@ -788,7 +1010,8 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
 
     for (Wave sw : waves) {
       int i = (int) Math.round((sw.getStartTime() - mint) * sr);
-      System.arraycopy(sw.buffer, 0, buffer, i, sw.buffer.length);
+      int[] b = sw.ints();
+      System.arraycopy(b, 0, buffer, i, b.length);
     }
     return new Wave(buffer, mint, sr);
   }
@@ -819,7 +1042,8 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
 
     for (Wave sw : waves) {
       int i = (int) Math.round((sw.getStartTime() - t1) * wv0.getSamplingRate());
-      System.arraycopy(sw.buffer, 0, buffer, i, sw.buffer.length);
+      int[] b = sw.ints();
+      System.arraycopy(b, 0, buffer, i, b.length);
     }
 
     return new Wave(buffer, t1, wv0.getSamplingRate());
@@ -833,11 +1057,19 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return the approximate size in RAM of this wave in bytes
    */
   public int getMemorySize() {
-    if (buffer == null) {
-      return 0;
+    int size;
+    if (samples != null) {
+      // the samples and their rounded copy in buffer
+      size = samples.length() * (samples.getType() == SampleBuffer.Type.DOUBLE ? 12 : 8);
+    } else if (buffer == null) {
+      size = 0;
     } else {
-      return buffer.length * 4;
+      size = buffer.length * 4;
+    }
+    if (pyramid != null) {
+      size += pyramid.getMemorySize();
     }
+    return size;
   }
 
 
@@ -848,6 +1080,13 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return an array of the sum at each sample
    */
   public double[] integrate() {
+    if (samples != null) {
+      double[] d = new double[samples.length()];
+      samples.copyTo(0, d, 0, d.length);
+      integrate(SampleBuffer.wrap(d));
+      return d;
+    }
+
     double[] d = new double[this.buffer.length];
     double period = getSamplingPeriod();
     double mean = mean();
@@ -860,12 +1099,45 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
     return d;
   }
 
+  /**
+   * Integrates the wave in place, as <code>integrate()</code> does, without allocating a copy for
+   * floating point samples. Integer samples are first converted to double precision. Missing
+   * samples stay missing and add nothing to the sum.
+   */
+  public void integrateInPlace() {
+    if (samples == null) {
+      setSampleType(SampleBuffer.Type.DOUBLE);
+    }
+    integrate(samples);
+    invalidateStatistics();
+  }
+
+  private void integrate(SampleBuffer s) {
+    double period = getSamplingPeriod();
+    double mean = s.mean(0, s.length());
+    double sum = 0;
+    for (int i = 0; i < s.length(); i++) {
+      double v = s.get(i);
+      if (!Double.isNaN(v)) {
+        sum += v - mean;
+        s.set(i, sum * period);
+      }
+    }
+  }
+
   /**
    * Debiases the wave. This functions subtracts the mean from every sample.
    * 
    * @return an array of the sum at each sample
    */
   public double[] removeMean() {
+    if (samples != null) {
+      double[] d = new double[samples.length()];
+      samples.copyTo(0, d, 0, d.length);
+      removeMean(SampleBuffer.wrap(d));
+      return d;
+    }
+
     double[] d = new double[this.buffer.length];
     double mean = mean();
     for (int i = 0; i < this.buffer.length; i++) {
@@ -876,45 +1148,83 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
   }
 
   /**
-   * Filter data.
+   * Debiases the wave in place, as <code>removeMean()</code> does, without allocating a copy for
+   * floating point samples. Integer samples are first converted to double precision.
+   */
+  public void removeMeanInPlace() {
+    if (samples == null) {
+      setSampleType(SampleBuffer.Type.DOUBLE);
+    }
+    removeMean(samples);
+    invalidateStatistics();
+  }
+
+  private static void removeMean(SampleBuffer s) {
+    double mean = s.mean(0, s.length());
+    for (int i = 0; i < s.length(); i++) {
+      s.set(i, s.get(i) - mean);
+    }
+  }
+
+  /**
+   * Filter data. Floating point samples keep the filter output as is; integer samples are rounded.
    * 
    * @param bw Butterworth filter to apply
    * @param zeroPhaseShift flag for no phase shift
    */
   public void filter(Butterworth bw, boolean zeroPhaseShift) {
+    SampleBuffer s = getSamples();
+    int n = s.length();
     double mean = mean();
 
-    double[] dbuf = new double[buffer.length + (int) (buffer.length * 0.5)];
-    Arrays.fill(dbuf, mean);
-    int trueStart = (int) (buffer.length * 0.25);
-    for (int i = 0; i < buffer.length; i++) {
-      if (buffer[i] != Wave.NO_DATA) {
-        dbuf[i + trueStart] = buffer[i];
+    // pad both ends with the mean to soak up the filter's start up transient
+    int length = n + (int) (n * 0.5);
+    double[] dbuf = SosFilter.workspace(length);
+    Arrays.fill(dbuf, 0, length, mean);
+    int trueStart = (int) (n * 0.25);
+    for (int i = 0; i < n; i++) {
+      if (!s.isNoData(i)) {
+        dbuf[i + trueStart] = s.get(i);
       }
     }
 
     bw.setSamplingRate(getSamplingRate());
-    bw.create();
-    Filter.filter(dbuf, bw.getSize(), bw.getXCoeffs(), bw.getYCoeffs(), bw.getGain(), 0, 0);
+    SosFilter filter = SosFilter.forButterworth(bw);
     if (zeroPhaseShift) {
-      double[] dbuf2 = new double[dbuf.length];
-      for (int i = 0, j = dbuf.length - 1; i < dbuf.length; i++, j--) {
-        dbuf2[j] = dbuf[i];
-      }
-
-      Filter.filter(dbuf2, bw.getSize(), bw.getXCoeffs(), bw.getYCoeffs(), bw.getGain(), 0, 0);
-
-      for (int i = 0, j = dbuf2.length - 1 - trueStart; i < buffer.length; i++, j--) {
-        buffer[i] = (int) Math.round(dbuf2[j]);
-      }
+      filter.filterZeroPhase(dbuf, 0, length);
     } else {
-      for (int i = 0; i < buffer.length; i++) {
-        buffer[i] = (int) Math.round(dbuf[i + trueStart]);
-      }
+      filter.filter(dbuf, 0, length);
+    }
+
+    for (int i = 0; i < n; i++) {
+      s.set(i, dbuf[i + trueStart]);
     }
     invalidateStatistics();
   }
 
+  /**
+   * Filter several waves at once on the common fork/join pool. Each wave is filtered as by
+   * <code>filter()</code>, with the filter designed for its own sampling rate.
+   * 
+   * @param waves waves to filter
+   * @param bw Butterworth filter to apply; it is not modified
+   * @param zeroPhaseShift flag for no phase shift
+   */
+  public static void filter(List<Wave> waves, Butterworth bw, final boolean zeroPhaseShift) {
+    List<Callable<Void>> work = new ArrayList<Callable<Void>>(waves.size());
+    for (final Wave wave : waves) {
+      final Butterworth copy = new Butterworth(bw);
+      work.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          wave.filter(copy, zeroPhaseShift);
+          return null;
+        }
+      });
+    }
+    Parallel.invokeAll(work);
+  }
+
   /**
    * Creates a <code>ByteBuffer</code> that wholly contains this <code>Wave</code>. This is used
    * before sending a <code>Wave</code> over a network (or potentially into a file). The
@@ -923,6 +1233,7 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return the bytes that make up the wave
    */
   public ByteBuffer toBinary() {
+    int[] buffer = ints();
     ByteBuffer bb = ByteBuffer.allocate(28 + 4 * buffer.length + 4);
     bb.putDouble(startTime);
     bb.putDouble(samplingRate);
@@ -949,6 +1260,8 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
     registrationOffset = bb.getDouble();
     int length = bb.getInt();
     buffer = new int[length];
+    samples = null;
+    invalidateStatistics();
 
     for (int i = 0; i < length; i++) {
       buffer[i] = bb.getInt();
@@ -970,12 +1283,7 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @return the summary
    */
   public String toString() {
-    int numSamples;
-    if (buffer == null) {
-      numSamples = 0;
-    } else {
-      numSamples = buffer.length;
-    }
+    int numSamples = numSamples();
 
     String tmpl =
         "Wave: startTime=%f, endTime=%f, samplingRate=%f, samples=%d\nstartDate=%s\nendDate=%s";
@@ -1023,8 +1331,13 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * Detrend this Wave. Ignore NO_DATA samples
    */
   public void detrend() {
+    if (samples != null) {
+      detrend(samples);
+      invalidateStatistics();
+      return;
+    }
 
-    double xm = buffer.length / 2;
+    double xm = (buffer.length - 1) / 2.0;
     double ym = mean();
     double ssxx = 0;
     double ssxy = 0;
@@ -1039,7 +1352,30 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
     double b = ym - m * xm;
     for (int i = 0; i < this.buffer.length; i++) {
       if (buffer[i] != NO_DATA) {
-        buffer[i] -= ((double) buffer[i] * m + b);
+        buffer[i] -= (i * m + b);
+      }
+    }
+    invalidateStatistics();
+  }
+
+  private void detrend(SampleBuffer s) {
+    double xm = (s.length() - 1) / 2.0;
+    double ym = mean();
+    double ssxx = 0;
+    double ssxy = 0;
+    for (int i = 0; i < s.length(); i++) {
+      if (!s.isNoData(i)) {
+        ssxy += (i - xm) * (s.get(i) - ym);
+        ssxx += (i - xm) * (i - xm);
+      }
+    }
+
+    double m = ssxy / ssxx;
+    double b = ym - m * xm;
+    for (int i = 0; i < s.length(); i++) {
+      double v = s.get(i);
+      if (!Double.isNaN(v)) {
+        s.set(i, v - (i * m + b));
       }
     }
   }
@@ -1059,266 +1395,71 @@ public class Wave implements BinaryDataSet, Comparable<Wave>, Cloneable {
    * @param p period used for rolling mean
    */
   public void set2mean(double p) {
-    int j = 0; // index of oldest value in window
-    double jtime = 0; // time of oldest value in window
-    Meaner window = new Meaner();
-    window.add((double) buffer[0]);
-    int r = this.buffer.length;
-    for (int i = 1; i < r; i++) {
-      double itime = i / samplingRate;
-      double ival = (double) buffer[i];
-      window.add(ival);
-      // While oldest value is outside period, remove it
-      while (itime - jtime > p) {
-        window.removeOldest();
-        j++;
-        jtime = j / samplingRate;
-      }
-      buffer[i] = (int) Math.round(window.avg());
-    }
+    set2mean(p, false);
   }
 
   /**
-   * Replace data with rolling median of period p.
+   * Replace data with rolling mean of period p.
    * 
-   * @param p period used for rolling median
+   * @param p period used for rolling mean
+   * @param parallel if true, split long waves across processors
    */
-  public void set2median(double p) {
-    int j = 0; // index of oldest value in window
-    double jtime = 0; // time of oldest value in window
-    Medianer window = new Medianer();
-    window.add((double) buffer[0]);
-    int r = this.buffer.length;
-    for (int i = 1; i < r; i++) {
-      double itime = i / samplingRate;
-      double ival = (double) buffer[i];
-      window.add(ival);
-      // While oldest value is outside period, remove it
-      while (itime - jtime > p) {
-        window.removeOldest();
-        j++;
-        jtime = j / samplingRate;
-      }
-      buffer[i] = (int) Math.round(window.avg());
-    }
+  public void set2mean(double p, boolean parallel) {
+    roll(RollingWindow.Statistic.MEAN, p, parallel);
   }
 
   /**
-   * Get index in buffer closest to given time.
+   * Replace data with rolling median of period p.
    * 
-   * @param j2k time in j2k
-   * @return index of buffer array
+   * @param p period used for rolling median
    */
-  public int getBufferIndexAtTime(double j2k) {
-    return (int) (buffer.length * (j2k - startTime) / (getEndTime() - startTime));
+  public void set2median(double p) {
+    set2median(p, false);
   }
 
   /**
-   * Class to maintain a FIFO of doubles & report its mean.
+   * Replace data with rolling median of period p.
+   * 
+   * @param p period used for rolling median
+   * @param parallel if true, split long waves across processors
    */
-  private class Meaner {
-    private LinkedList<Double> data; // the values
-    private double sum; // their sum
-
-    Meaner() {
-      data = new LinkedList<Double>();
-      sum = 0;
-    }
-
-    /**
-     * Add val to the queue.
-     * 
-     * @param val value to add
-     */
-    public void add(double val) {
-      data.addLast(val);
-      sum += val;
-    }
-
-    /**
-     * Remove the oldest value from the queue.
-     * 
-     * @return value removed
-     */
-    public double removeOldest() {
-      Double datum = data.removeFirst();
-      sum -= datum;
-      return datum;
-    }
-
-    /**
-     * Mean of values in queue.
-     * 
-     * @return the mean
-     */
-    public double avg() {
-      return sum / data.size();
-    }
+  public void set2median(double p, boolean parallel) {
+    roll(RollingWindow.Statistic.MEDIAN, p, parallel);
   }
 
   /**
-   * Class to maintain a FIFO of doubles & report its median.
+   * Replace every sample but the first with a statistic of the samples in the preceding period.
+   * Integer NO_DATA samples are included as they are; missing floating point samples are skipped.
    */
-  private class Medianer {
-
-    private class MultiMap {
-      private TreeMap<Double, LinkedList<Integer>> mm;
-      private TreeMap<Integer, Double> unmm;
-
-      MultiMap() {
-        mm = new TreeMap<Double, LinkedList<Integer>>();
-        unmm = new TreeMap<Integer, Double>();
-      }
-
-      protected void put(Double key, Integer val) {
-        LinkedList<Integer> entry = mm.get(key);
-        if (entry == null) {
-          entry = new LinkedList<Integer>();
-        }
-        unmm.put(val, key);
-        if (entry.size() == 0) {
-          entry.add(val);
-          mm.put(key, entry);
-          return;
-        }
-        if (val < entry.getFirst()) {
-          entry.addFirst(val);
-        } else {
-          entry.addLast(val);
-        }
-      }
-
-      protected Double lastKey() {
-        return mm.lastKey();
-      }
-
-      protected Integer removeLastIndex(Double key) {
-        LinkedList<Integer> entry = mm.get(key);
-        // entry should not be null!
-        Integer index = entry.removeLast();
-        if (entry.size() == 0) {
-          mm.remove(key);
-        }
-        unmm.remove(index);
-        return index;
-      }
-
-      protected Double firstKey() {
-        return mm.firstKey();
-      }
-
-      protected Integer removeFirstIndex(Double key) {
-        LinkedList<Integer> entry = mm.get(key);
-        // entry should not be null!
-        Integer index = entry.removeFirst();
-        if (entry.size() == 0) {
-          mm.remove(key);
-        }
-        unmm.remove(index);
-        return index;
-      }
-
-      public int size() {
-        return unmm.size();
-      }
-
-      public void addLo(Double key, Integer val, MultiMap other) {
-        if (other.size() > 0 && key >= other.firstKey()) {
-          other.put(key, val);
-          key = other.firstKey();
-          val = other.removeFirstIndex(key);
-        }
-        put(key, val);
-      }
-
-      public void addHi(Double key, Integer val, MultiMap other) {
-        if (other.size() > 0 && key <= other.lastKey()) {
-          other.put(key, val);
-          key = other.lastKey();
-          val = other.removeLastIndex(key);
-        }
-        put(key, val);
-      }
-
-      public boolean removeIndex(Integer val) {
-        Double key = unmm.remove(val);
-        if (key == null) {
-          return false;
-        }
-        List<Integer> entry = mm.get(key);
-        if (entry.size() == 1) {
-          mm.remove(key);
-        } else {
-          entry.remove(val);
-        }
-        return true;
+  private void roll(RollingWindow.Statistic statistic, double p, boolean parallel) {
+    if (samples != null) {
+      double[] d = new double[samples.length()];
+      samples.copyTo(0, d, 0, d.length);
+      RollingWindow.roll(statistic, d, d, null, samplingRate, p, true, parallel);
+      for (int i = 0; i < d.length; i++) {
+        samples.set(i, d[i]);
       }
-    }
-
-    private MultiMap loHalf; // values in lower half
-    private MultiMap hiHalf; // values in upper half
-    private int idx1; // values window have indices idx1..idx2
-    private int idx2;
-
-    Medianer() {
-      // Invariant: |loHalf| - |hiHalf| = 0 or 1
-      // All keys in loHalf <= all keys in hiHalf
-      loHalf = new MultiMap();
-      hiHalf = new MultiMap();
-      idx1 = 0;
-      idx2 = -1;
-    }
-
-    /**
-     * Add val to the queue.
-     * 
-     * @param val value to add
-     */
-    public void add(double val) {
-      idx2++;
-      if (loHalf.size() == hiHalf.size()) {
-        loHalf.addLo(val, idx2, hiHalf);
-      } else {
-        hiHalf.addHi(val, idx2, loHalf);
-      }
-    }
-
-    /**
-     * Remove the oldest value from the queue.
-     * 
-     * @return value removed
-     */
-    public void removeOldest() {
-      if (!loHalf.removeIndex(idx1)) {
-        hiHalf.removeIndex(idx1);
+    } else {
+      double[] d = new double[buffer.length];
+      for (int i = 0; i < d.length; i++) {
+        d[i] = buffer[i];
       }
-      idx1++;
-      int loSize = loHalf.size();
-      int hiSize = hiHalf.size();
-      if (loSize < hiSize) {
-        // Shift min of hi to lo
-        Double d = hiHalf.firstKey();
-        Integer ix = hiHalf.removeFirstIndex(d);
-        loHalf.put(d, ix);
-      } else if (loSize > hiSize + 1) {
-        // Shift max of lo to hi
-        Double d = loHalf.lastKey();
-        Integer ix = loHalf.removeLastIndex(d);
-        hiHalf.put(d, ix);
+      RollingWindow.roll(statistic, d, d, null, samplingRate, p, false, parallel);
+      for (int i = 1; i < d.length; i++) {
+        buffer[i] = (int) Math.round(d[i]);
       }
     }
+    invalidateStatistics();
+  }
 
-    /**
-     * Median of values in queue.
-     * 
-     * @return the median
-     */
-    public double avg() {
-      if (loHalf.size() == hiHalf.size()) {
-        return (loHalf.lastKey() + hiHalf.firstKey()) / 2;
-      }
-      return loHalf.lastKey();
-    }
+  /**
+   * Get index in buffer closest to given time.
+   * 
+   * @param j2k time in j2k
+   * @return index of buffer array
+   */
+  public int getBufferIndexAtTime(double j2k) {
+    return (int) (numSamples() * (j2k - startTime) / (getEndTime() - startTime));
   }
 
 }
@@ -0,0 +1,393 @@
+package gov.usgs.volcanoes.core.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A multi-resolution summary of a <code>Wave</code>. The bottom level holds the minimum, maximum,
+ * sum and count of the data samples in each block of 64 samples, and each level above it
+ * summarizes pairs of blocks from the level below, so the whole pyramid takes less than a byte per
+ * sample. Any range of samples is summarized from O(log n) blocks plus at most two partial blocks
+ * at its ends, which lets a renderer draw the min/max envelope of a week of data in time
+ * proportional to its width in pixels, and lets helicorder data be produced at any bin width
+ * without rescanning the samples.
+ *
+ * <p>A pyramid is attached to its wave by <code>Wave.getPyramid()</code>. Appending samples with
+ * <code>Wave.combine()</code> updates only the blocks at the end; other changes to the samples
+ * mark the pyramid stale, and it is rebuilt the next time it is queried. NO_DATA and NaN samples
+ * are ignored.
+ */
+public final class WavePyramid {
+  private static final int SHIFT = 6;
+  private static final int BLOCK = 1 << SHIFT;
+
+  private final Wave wave;
+
+  // per level, per block
+  private double[][] min = new double[0][];
+  private double[][] max = new double[0][];
+  private double[][] sum = new double[0][];
+  private int[][] count = new int[0][];
+
+  // blocks in use at each level
+  private int[] blocks = new int[0];
+
+  // samples summarized, or -1 if stale
+  private int size = -1;
+
+  WavePyramid(Wave wave) {
+    this.wave = wave;
+  }
+
+  /**
+   * Marks the pyramid stale.
+   */
+  synchronized void invalidate() {
+    size = -1;
+  }
+
+  /**
+   * Brings the pyramid up to date after the samples from an index onward have changed. Samples
+   * before it must be unchanged.
+   *
+   * @param from index of the first changed sample
+   */
+  synchronized void update(int from) {
+    if (size < 0) {
+      return;
+    }
+    build(Math.min(from, size));
+  }
+
+  private void current() {
+    if (size < 0) {
+      build(0);
+    }
+  }
+
+  /**
+   * Recompute every block holding samples from an index onward.
+   */
+  private void build(int from) {
+    int n = wave.numSamples();
+    int levels = 1;
+    for (int b = blocks(n); b > 1; b = (b + 1) >> 1) {
+      levels++;
+    }
+    int built = min.length;
+    if (built != levels) {
+      min = Arrays.copyOf(min, levels);
+      max = Arrays.copyOf(max, levels);
+      sum = Arrays.copyOf(sum, levels);
+      count = Arrays.copyOf(count, levels);
+      blocks = Arrays.copyOf(blocks, levels);
+    }
+
+    int dirty = from >> SHIFT;
+    for (int level = 0; level < levels; level++) {
+      int nb = level == 0 ? blocks(n) : (blocks[level - 1] + 1) >> 1;
+      if (min[level] == null || min[level].length < nb) {
+        // grow with room to spare, so that appending a packet at a time is not quadratic
+        int capacity = Math.max(nb, min[level] == null ? 0 : min[level].length * 3 / 2);
+        min[level] = copyOf(min[level], capacity);
+        max[level] = copyOf(max[level], capacity);
+        sum[level] = copyOf(sum[level], capacity);
+        count[level] = count[level] == null ? new int[capacity]
+            : Arrays.copyOf(count[level], capacity);
+      }
+      blocks[level] = nb;
+      if (level >= built) {
+        // a new top level
+        dirty = 0;
+      }
+      if (level == 0) {
+        summarizeSamples(dirty, nb, n);
+      } else {
+        summarizeBlocks(level, dirty, nb);
+      }
+      dirty >>= 1;
+    }
+    size = n;
+  }
+
+  private static double[] copyOf(double[] a, int length) {
+    return a == null ? new double[length] : Arrays.copyOf(a, length);
+  }
+
+  private static int blocks(int samples) {
+    return (samples + BLOCK - 1) >> SHIFT;
+  }
+
+  private void summarizeSamples(int fromBlock, int toBlock, int n) {
+    double[] mn = min[0];
+    double[] mx = max[0];
+    double[] sm = sum[0];
+    int[] ct = count[0];
+    int[] ints = wave.isFloatingPoint() ? null : wave.buffer;
+    SampleBuffer samples = ints == null ? wave.getSamples() : null;
+    for (int b = fromBlock; b < toBlock; b++) {
+      int from = b << SHIFT;
+      int to = Math.min(n, from + BLOCK);
+      double lo = Double.POSITIVE_INFINITY;
+      double hi = Double.NEGATIVE_INFINITY;
+      double s = 0;
+      int c = 0;
+      if (ints != null) {
+        for (int i = from; i < to; i++) {
+          int v = ints[i];
+          if (v != Wave.NO_DATA) {
+            lo = Math.min(lo, v);
+            hi = Math.max(hi, v);
+            s += v;
+            c++;
+          }
+        }
+      } else {
+        for (int i = from; i < to; i++) {
+          double v = samples.get(i);
+          if (!Double.isNaN(v)) {
+            lo = Math.min(lo, v);
+            hi = Math.max(hi, v);
+            s += v;
+            c++;
+          }
+        }
+      }
+      mn[b] = lo;
+      mx[b] = hi;
+      sm[b] = s;
+      ct[b] = c;
+    }
+  }
+
+  private void summarizeBlocks(int level, int fromBlock, int toBlock) {
+    int below = level - 1;
+    int last = blocks[below] - 1;
+    for (int b = fromBlock; b < toBlock; b++) {
+      int l = b * 2;
+      int r = Math.min(l + 1, last);
+      if (r == l) {
+        min[level][b] = min[below][l];
+        max[level][b] = max[below][l];
+        sum[level][b] = sum[below][l];
+        count[level][b] = count[below][l];
+      } else {
+        min[level][b] = Math.min(min[below][l], min[below][r]);
+        max[level][b] = Math.max(max[below][l], max[below][r]);
+        sum[level][b] = sum[below][l] + sum[below][r];
+        count[level][b] = count[below][l] + count[below][r];
+      }
+    }
+  }
+
+  /**
+   * Summarize a range of samples.
+   *
+   * @param from index of the first sample, inclusive
+   * @param to index of the last sample, exclusive
+   * @param result receives the minimum, maximum, sum and count of the data samples; the minimum
+   *     and maximum are infinite if there are none
+   */
+  synchronized void summarize(int from, int to, double[] result) {
+    current();
+    from = Math.max(0, from);
+    to = Math.min(size, to);
+    result[0] = Double.POSITIVE_INFINITY;
+    result[1] = Double.NEGATIVE_INFINITY;
+    result[2] = 0;
+    result[3] = 0;
+    if (to <= from) {
+      return;
+    }
+
+    // whole blocks of the bottom level, with loose samples at either end
+    int b0 = (from + BLOCK - 1) >> SHIFT;
+    int b1 = to >> SHIFT;
+    if (b0 >= b1) {
+      scan(from, to, result);
+      return;
+    }
+    scan(from, b0 << SHIFT, result);
+    scan(b1 << SHIFT, to, result);
+
+    // climb, taking the odd blocks left over at each end of the range
+    for (int level = 0; b0 < b1; level++) {
+      if ((b0 & 1) != 0) {
+        take(level, b0++, result);
+      }
+      if ((b1 & 1) != 0) {
+        take(level, --b1, result);
+      }
+      b0 >>= 1;
+      b1 >>= 1;
+    }
+  }
+
+  private void take(int level, int b, double[] result) {
+    result[0] = Math.min(result[0], min[level][b]);
+    result[1] = Math.max(result[1], max[level][b]);
+    result[2] += sum[level][b];
+    result[3] += count[level][b];
+  }
+
+  private void scan(int from, int to, double[] result) {
+    if (!wave.isFloatingPoint()) {
+      int[] ints = wave.buffer;
+      for (int i = from; i < to; i++) {
+        int v = ints[i];
+        if (v != Wave.NO_DATA) {
+          result[0] = Math.min(result[0], v);
+          result[1] = Math.max(result[1], v);
+          result[2] += v;
+          result[3]++;
+        }
+      }
+    } else {
+      SampleBuffer samples = wave.getSamples();
+      for (int i = from; i < to; i++) {
+        double v = samples.get(i);
+        if (!Double.isNaN(v)) {
+          result[0] = Math.min(result[0], v);
+          result[1] = Math.max(result[1], v);
+          result[2] += v;
+          result[3]++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the minimum of a range of samples.
+   *
+   * @param from index of the first sample, inclusive
+   * @param to index of the last sample, exclusive
+   * @return the minimum, or NaN if there are no data samples in the range
+   */
+  public double min(int from, int to) {
+    double[] result = new double[4];
+    summarize(from, to, result);
+    return result[3] == 0 ? Double.NaN : result[0];
+  }
+
+  /**
+   * Gets the maximum of a range of samples.
+   *
+   * @param from index of the first sample, inclusive
+   * @param to index of the last sample, exclusive
+   * @return the maximum, or NaN if there are no data samples in the range
+   */
+  public double max(int from, int to) {
+    double[] result = new double[4];
+    summarize(from, to, result);
+    return result[3] == 0 ? Double.NaN : result[1];
+  }
+
+  /**
+   * Gets the mean of a range of samples.
+   *
+   * @param from index of the first sample, inclusive
+   * @param to index of the last sample, exclusive
+   * @return the mean, or NaN if there are no data samples in the range
+   */
+  public double mean(int from, int to) {
+    double[] result = new double[4];
+    summarize(from, to, result);
+    return result[2] / result[3];
+  }
+
+  /**
+   * Gets the minimum and maximum of the samples in equal bins of time. Bin i holds the samples at
+   * times t where <code>t1 + i * width &lt;= t &lt; t1 + (i + 1) * width</code>.
+   *
+   * @param t1 start of the first bin
+   * @param width width of each bin in seconds
+   * @param min receives the minimum of each bin, or NaN for a bin without data
+   * @param max receives the maximum of each bin, or NaN for a bin without data
+   */
+  public void bin(double t1, double width, double[] min, double[] max) {
+    bin(0, Integer.MAX_VALUE, t1, width, min, max);
+  }
+
+  /**
+   * Bin the samples in a range of indices.
+   */
+  void bin(int from, int to, double t1, double width, double[] min, double[] max) {
+    double[] result = new double[4];
+    int next = firstSample(t1);
+    for (int i = 0; i < min.length; i++) {
+      int start = Math.max(from, next);
+      next = firstSample(t1 + (i + 1) * width);
+      summarize(start, Math.min(to, next), result);
+      boolean data = result[3] > 0;
+      min[i] = data ? result[0] : Double.NaN;
+      max[i] = data ? result[1] : Double.NaN;
+    }
+  }
+
+  private int firstSample(double t) {
+    return firstSample(wave, t);
+  }
+
+  /**
+   * Index of the first sample of a wave at or after a time, allowing for rounding.
+   */
+  static int firstSample(Wave wave, double t) {
+    double x = (t - wave.getStartTime()) * wave.getSamplingRate();
+    return (int) Math.max(0, Math.min(Integer.MAX_VALUE, Math.ceil(x - 1E-6)));
+  }
+
+  /**
+   * Creates helicorder data for the whole wave.
+   *
+   * @param binWidth width of each helicorder bin in seconds
+   * @return the helicorder data, or null if the wave is empty
+   */
+  public HelicorderData toHelicorder(double binWidth) {
+    return toHelicorder(wave.getStartTime(), wave.getEndTime(), binWidth);
+  }
+
+  /**
+   * Creates helicorder data for part of the wave. Bins are aligned to whole multiples of their
+   * width, as the helicorder tables are, and each row holds the start time of its bin and the
+   * minimum and maximum of its samples. Bins within the wave with no data samples hold NO_DATA.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @param binWidth width of each helicorder bin in seconds
+   * @return the helicorder data, or null if no bins overlap the wave
+   */
+  public HelicorderData toHelicorder(double t1, double t2, double binWidth) {
+    t1 = Math.max(t1, wave.getStartTime());
+    t2 = Math.min(t2, wave.getEndTime());
+    double first = Math.floor(t1 / binWidth) * binWidth;
+    int bins = (int) Math.ceil((t2 - first) / binWidth - 1E-9);
+    if (bins <= 0) {
+      return null;
+    }
+
+    double[] mn = new double[bins];
+    double[] mx = new double[bins];
+    bin(first, binWidth, mn, mx);
+    List<double[]> rows = new ArrayList<double[]>(bins);
+    for (int i = 0; i < bins; i++) {
+      boolean data = !Double.isNaN(mn[i]);
+      rows.add(new double[] {first + i * binWidth, data ? mn[i] : Wave.NO_DATA,
+          data ? mx[i] : Wave.NO_DATA});
+    }
+    return new HelicorderData(rows);
+  }
+
+  /**
+   * Gets an estimate of the size in RAM of the pyramid.
+   *
+   * @return the approximate size in bytes
+   */
+  public synchronized int getMemorySize() {
+    int bytes = 0;
+    for (int level = 0; level < min.length; level++) {
+      bytes += min[level].length * 28;
+    }
+    return bytes;
+  }
+}
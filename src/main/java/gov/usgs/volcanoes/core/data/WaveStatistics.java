@@ -0,0 +1,406 @@
+package gov.usgs.volcanoes.core.data;
+
+/**
+ * An immutable summary of the samples in a block of a <code>Wave</code> buffer. All statistics are
+ * gathered in a single pass which ignores NO_DATA samples.
+ *
+ * <p>The scan is unrolled by four with independent accumulators and uses masks rather than
+ * branches to skip NO_DATA samples, which lets the JIT keep the loop free of data-dependent jumps.
+ * Summaries of adjacent blocks can be merged without rescanning the samples.
+ */
+public final class WaveStatistics {
+
+  /** Summary of an empty or NULL buffer. */
+  public static final WaveStatistics EMPTY = new WaveStatistics(0, 0, 0, 0, 0, 0, 0, 0);
+
+  private final int count;
+  private final int noDataCount;
+  private final long sum;
+  private final double sumOfSquares;
+  private final long absSum;
+  private final int min;
+  private final int max;
+  private final int first;
+  private final int[] dataRange;
+
+  private WaveStatistics(int count, int noDataCount, long sum, double sumOfSquares, long absSum,
+      int min, int max, int first) {
+    this.count = count;
+    this.noDataCount = noDataCount;
+    this.sum = sum;
+    this.sumOfSquares = sumOfSquares;
+    this.absSum = absSum;
+    this.min = min;
+    this.max = max;
+    this.first = first;
+    dataRange = new int[] {min, max};
+  }
+
+  /**
+   * Summarize a run of NO_DATA samples, such as a gap between segments, without a buffer.
+   *
+   * @param count number of NO_DATA samples
+   * @return summary of the gap
+   */
+  public static WaveStatistics noData(int count) {
+    if (count <= 0) {
+      return EMPTY;
+    }
+    return new WaveStatistics(count, count, 0, 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE,
+        Wave.NO_DATA);
+  }
+
+  /**
+   * Summarize an entire buffer.
+   *
+   * @param buffer samples, may be null
+   * @return summary of the buffer
+   */
+  public static WaveStatistics compute(int[] buffer) {
+    if (buffer == null) {
+      return EMPTY;
+    }
+    return compute(buffer, 0, buffer.length);
+  }
+
+  /**
+   * Summarize part of a buffer.
+   *
+   * @param buffer samples
+   * @param from index of the first sample, inclusive
+   * @param to index of the last sample, exclusive
+   * @return summary of the range
+   */
+  public static WaveStatistics compute(int[] buffer, int from, int to) {
+    if (buffer == null || to <= from) {
+      return EMPTY;
+    }
+
+    final int noData = Wave.NO_DATA;
+
+    // find first sample up front so the main loop doesn't need to track it
+    int firstIdx = from;
+    while (firstIdx < to && buffer[firstIdx] == noData) {
+      firstIdx++;
+    }
+    if (firstIdx == to) {
+      return noData(to - from);
+    }
+
+    long sum0 = 0;
+    long sum1 = 0;
+    long sum2 = 0;
+    long sum3 = 0;
+    long abs0 = 0;
+    long abs1 = 0;
+    long abs2 = 0;
+    long abs3 = 0;
+    double sq0 = 0;
+    double sq1 = 0;
+    double sq2 = 0;
+    double sq3 = 0;
+    int min0 = Integer.MAX_VALUE;
+    int min1 = Integer.MAX_VALUE;
+    int min2 = Integer.MAX_VALUE;
+    int min3 = Integer.MAX_VALUE;
+    int max0 = Integer.MIN_VALUE;
+    int max1 = Integer.MIN_VALUE;
+    int max2 = Integer.MIN_VALUE;
+    int max3 = Integer.MIN_VALUE;
+    int valid0 = 0;
+    int valid1 = 0;
+    int valid2 = 0;
+    int valid3 = 0;
+
+    // leading NO_DATA samples are already known, start at the first real sample
+    int i = firstIdx;
+    int end = i + ((to - i) & ~3);
+    for (; i < end; i += 4) {
+      int d0 = buffer[i];
+      int d1 = buffer[i + 1];
+      int d2 = buffer[i + 2];
+      int d3 = buffer[i + 3];
+
+      // mask is all ones for data samples and zero for NO_DATA
+      int m0 = d0 != noData ? -1 : 0;
+      int m1 = d1 != noData ? -1 : 0;
+      int m2 = d2 != noData ? -1 : 0;
+      int m3 = d3 != noData ? -1 : 0;
+      int v0 = d0 & m0;
+      int v1 = d1 & m1;
+      int v2 = d2 & m2;
+      int v3 = d3 & m3;
+
+      sum0 += v0;
+      sum1 += v1;
+      sum2 += v2;
+      sum3 += v3;
+      abs0 += Math.abs(v0);
+      abs1 += Math.abs(v1);
+      abs2 += Math.abs(v2);
+      abs3 += Math.abs(v3);
+      sq0 += (double) v0 * v0;
+      sq1 += (double) v1 * v1;
+      sq2 += (double) v2 * v2;
+      sq3 += (double) v3 * v3;
+      min0 = Math.min(min0, v0 | (~m0 & Integer.MAX_VALUE));
+      min1 = Math.min(min1, v1 | (~m1 & Integer.MAX_VALUE));
+      min2 = Math.min(min2, v2 | (~m2 & Integer.MAX_VALUE));
+      min3 = Math.min(min3, v3 | (~m3 & Integer.MAX_VALUE));
+      max0 = Math.max(max0, v0 | (~m0 & Integer.MIN_VALUE));
+      max1 = Math.max(max1, v1 | (~m1 & Integer.MIN_VALUE));
+      max2 = Math.max(max2, v2 | (~m2 & Integer.MIN_VALUE));
+      max3 = Math.max(max3, v3 | (~m3 & Integer.MIN_VALUE));
+      valid0 -= m0;
+      valid1 -= m1;
+      valid2 -= m2;
+      valid3 -= m3;
+    }
+
+    for (; i < to; i++) {
+      int d = buffer[i];
+      int m = d != noData ? -1 : 0;
+      int v = d & m;
+      sum0 += v;
+      abs0 += Math.abs(v);
+      sq0 += (double) v * v;
+      min0 = Math.min(min0, v | (~m & Integer.MAX_VALUE));
+      max0 = Math.max(max0, v | (~m & Integer.MIN_VALUE));
+      valid0 -= m;
+    }
+
+    int valid = valid0 + valid1 + valid2 + valid3;
+    int count = to - from;
+    int min = Math.min(Math.min(min0, min1), Math.min(min2, min3));
+    int max = Math.max(Math.max(max0, max1), Math.max(max2, max3));
+
+    return new WaveStatistics(count, count - valid, sum0 + sum1 + sum2 + sum3,
+        sq0 + sq1 + sq2 + sq3, abs0 + abs1 + abs2 + abs3, min, max, buffer[firstIdx]);
+  }
+
+  /**
+   * Combine this summary with the summary of the block which immediately follows it.
+   *
+   * @param next summary of the following block
+   * @return summary of both blocks
+   */
+  public WaveStatistics append(WaveStatistics next) {
+    if (next.count == 0) {
+      return this;
+    }
+    if (count == 0) {
+      return next;
+    }
+    int f = dataCount() > 0 ? first : next.first;
+    return new WaveStatistics(count + next.count, noDataCount + next.noDataCount, sum + next.sum,
+        sumOfSquares + next.sumOfSquares, absSum + next.absSum, Math.min(min, next.min),
+        Math.max(max, next.max), f);
+  }
+
+  /**
+   * Remove the contribution of a trailing block from this summary. The result cannot be derived if
+   * the removed block may have held the extreme values, in which case NULL is returned and the
+   * remaining samples must be rescanned.
+   *
+   * @param tail summary of the trailing block being removed
+   * @return summary of the remaining samples or NULL if it cannot be derived
+   */
+  public WaveStatistics withoutTail(WaveStatistics tail) {
+    if (tail.count == 0) {
+      return this;
+    }
+    if (tail.count > count) {
+      return null;
+    }
+
+    int remaining = count - tail.count;
+    int remainingNoData = noDataCount - tail.noDataCount;
+    if (remaining == remainingNoData) {
+      return noData(remaining);
+    }
+    if (tail.dataCount() > 0 && (tail.min <= min || tail.max >= max)) {
+      return null;
+    }
+
+    return new WaveStatistics(remaining, remainingNoData, sum - tail.sum,
+        sumOfSquares - tail.sumOfSquares, absSum - tail.absSum, min, max, first);
+  }
+
+  /**
+   * Account for a constant being subtracted from every sample. This can only be done when there
+   * are no NO_DATA samples and every sample keeps its sign; otherwise NULL is returned and the
+   * samples must be rescanned.
+   *
+   * @param m value subtracted
+   * @return summary of the shifted samples or NULL if it cannot be derived
+   */
+  public WaveStatistics shift(int m) {
+    if (count == 0 || m == 0) {
+      return this;
+    }
+    if (noDataCount > 0) {
+      return null;
+    }
+
+    long newMin = (long) min - m;
+    long newMax = (long) max - m;
+    if (newMin <= Integer.MIN_VALUE || newMax > Integer.MAX_VALUE) {
+      return null;
+    }
+
+    long newSum = sum - (long) m * count;
+    long newAbsSum;
+    if (newMin >= 0) {
+      newAbsSum = newSum;
+    } else if (newMax <= 0) {
+      newAbsSum = -newSum;
+    } else {
+      return null;
+    }
+    double newSumOfSquares = sumOfSquares - 2.0 * m * sum + (double) m * m * count;
+
+    return new WaveStatistics(count, 0, newSum, newSumOfSquares, newAbsSum, (int) newMin,
+        (int) newMax, first - m);
+  }
+
+  /**
+   * Gets the number of samples summarized, including NO_DATA samples.
+   *
+   * @return the number of samples
+   */
+  public int count() {
+    return count;
+  }
+
+  /**
+   * Gets the number of NO_DATA samples.
+   *
+   * @return the count of NO_DATA samples
+   */
+  public int noDataCount() {
+    return noDataCount;
+  }
+
+  /**
+   * Gets the number of samples which are not NO_DATA.
+   *
+   * @return the count of data samples
+   */
+  public int dataCount() {
+    return count - noDataCount;
+  }
+
+  /**
+   * Gets the sum of the samples.
+   *
+   * @return the sum
+   */
+  public long sum() {
+    return sum;
+  }
+
+  /**
+   * Gets the sum of the squares of the samples.
+   *
+   * @return the sum of squares
+   */
+  public double sumOfSquares() {
+    return sumOfSquares;
+  }
+
+  /**
+   * Gets the sum of the absolute values of the samples.
+   *
+   * @return the sum of absolute values
+   */
+  public long absSum() {
+    return absSum;
+  }
+
+  /**
+   * Gets the minimum value. Integer.MAX_VALUE if there are no data samples.
+   *
+   * @return the minimum value
+   */
+  public int min() {
+    return min;
+  }
+
+  /**
+   * Gets the maximum value. Integer.MIN_VALUE if there are no data samples.
+   *
+   * @return the maximum value
+   */
+  public int max() {
+    return max;
+  }
+
+  /**
+   * Gets the first sample. NO_DATA if there are no data samples.
+   *
+   * @return the first sample
+   */
+  public int first() {
+    return first;
+  }
+
+  /**
+   * Gets the minimum and maximum values. The same array is returned on every call; do not modify
+   * it.
+   *
+   * @return an array with minimum and maximum value (in that order)
+   */
+  public int[] dataRange() {
+    return dataRange;
+  }
+
+  /**
+   * Gets the mean of the samples. NaN if there are no data samples, zero for an empty summary.
+   *
+   * @return the mean
+   */
+  public double mean() {
+    if (count == 0) {
+      return 0;
+    }
+    return (double) sum / (double) dataCount();
+  }
+
+  /**
+   * Gets the RSAM, the mean absolute value, of the samples. NaN if there are no data samples, zero
+   * for an empty summary.
+   *
+   * @return the RSAM value
+   */
+  public double rsam() {
+    if (count == 0) {
+      return 0;
+    }
+    return (double) absSum / (double) dataCount();
+  }
+
+  /**
+   * Gets the root mean square of the samples. NaN if there are no data samples.
+   *
+   * @return the RMS value
+   */
+  public double rms() {
+    return Math.sqrt(sumOfSquares / dataCount());
+  }
+
+  /**
+   * Gets the population variance of the samples. NaN if there are no data samples.
+   *
+   * @return the variance
+   */
+  public double variance() {
+    double mean = mean();
+    return Math.max(0, sumOfSquares / dataCount() - mean * mean);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("WaveStatistics: count=%d, noData=%d, mean=%f, rsam=%f, min=%d, max=%d",
+        count, noDataCount, mean(), rsam(), min, max);
+  }
+}
@@ -1,5 +1,6 @@
 package gov.usgs.volcanoes.core.data.file;
 
+import gov.usgs.volcanoes.core.data.SampleBuffer;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.quakeml.Pick;
 import gov.usgs.volcanoes.core.quakeml.Pick.Onset;
@@ -41,12 +42,18 @@ public class SacDataFile extends SeismicDataFile {
     header = sac.getHeader();
 
     // get wave data
-    Wave sw = new Wave();
-    sw.setStartTime(J2kSec.fromDate(getStartTime()));
-    sw.setSamplingRate(getSamplingRate());
-    sw.buffer = new int[sac.getY().length];
-    for (int i = 0; i < sac.getY().length; i++) {
-      sw.buffer[i] = Math.round(sac.getY()[i]);
+    float[] y = sac.getY();
+    Wave sw;
+    if (floatingPoint) {
+      sw = new Wave(y, J2kSec.fromDate(getStartTime()), getSamplingRate());
+    } else {
+      sw = new Wave();
+      sw.setStartTime(J2kSec.fromDate(getStartTime()));
+      sw.setSamplingRate(getSamplingRate());
+      sw.buffer = new int[y.length];
+      for (int i = 0; i < y.length; i++) {
+        sw.buffer[i] = Math.round(y[i]);
+      }
     }
     String channel = header.getKstnm().trim() + "$" + header.getKcmpnm().trim() + "$"
         + header.getKnetwk().trim();
@@ -132,9 +139,20 @@ public class SacDataFile extends SeismicDataFile {
    */
   public void write() throws FileNotFoundException, IOException {
     Wave wave = waves.values().iterator().next();
-    float[] y = new float[wave.buffer.length];
-    for (int i = 0; i < y.length; i++) {
-      y[i] = wave.buffer[i];
+    float[] y;
+    SampleBuffer samples = wave.getSamples();
+    if (samples.getType() == SampleBuffer.Type.FLOAT) {
+      y = ((SampleBuffer.Floats) samples).array();
+    } else if (wave.isFloatingPoint()) {
+      y = new float[samples.length()];
+      for (int i = 0; i < y.length; i++) {
+        y[i] = (float) samples.get(i);
+      }
+    } else {
+      y = new float[wave.buffer.length];
+      for (int i = 0; i < y.length; i++) {
+        y[i] = wave.buffer[i];
+      }
     }
 
     SacTimeSeries sac = new SacTimeSeries(getSacHeader(), y);
@@ -1,8 +1,12 @@
 package gov.usgs.volcanoes.core.data.file;
 
+import gov.usgs.volcanoes.core.data.SegmentedWave;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
@@ -12,13 +16,11 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TimeZone;
 
 import edu.iris.dmc.seedcodec.B1000Types;
@@ -44,16 +46,86 @@ import edu.sc.seis.seisFile.mseed.SeedRecord;
  */
 public class SeedDataFile extends SeismicDataFile {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeedDataFile.class);
+
+  private SeedRecordIndex index;
+  private boolean persistIndex;
+  private int defaultEncoding = -1;
+
   protected SeedDataFile(String fileName) {
     super(fileName, "SEED^");
   }
 
   /**
-   * Read.
+   * Keep the record index in a sidecar file, so later windowed reads of the same file need not scan
+   * it again.
+   *
+   * @param persistIndex true to write the sidecar
+   */
+  public void setPersistIndex(boolean persistIndex) {
+    this.persistIndex = persistIndex;
+  }
+
+  /**
+   * Set the encoding of indexed data records which have no blockette 1000, for full SEED volumes
+   * whose blockettes 30 do not name one. Must be set before the index is built.
+   *
+   * @param defaultEncoding encoding as numbered in blockette 1000, or -1 to skip such records
+   */
+  public void setDefaultEncoding(int defaultEncoding) {
+    this.defaultEncoding = defaultEncoding;
+  }
+
+  /**
+   * Get the record index of this file, building it on first use.
+   *
+   * @return the index
+   * @throws IOException if the file cannot be mapped
+   */
+  public synchronized SeedRecordIndex getIndex() throws IOException {
+    if (index == null) {
+      index = SeedRecordIndex.open(fileName, persistIndex, defaultEncoding);
+    }
+    return index;
+  }
+
+  /**
+   * Read one channel between two times. Only the records overlapping the window are decompressed.
+   *
+   * @param code channel name
+   * @param t1 start of the window
+   * @param t2 end of the window
+   * @throws IOException if the file cannot be read
+   */
+  public void read(String code, double t1, double t2) throws IOException {
+    SegmentedWave wave = getIndex().read(code, t1, t2);
+    if (wave != null) {
+      putSegmentedWave(code, wave);
+    }
+  }
+
+  /**
+   * Read every channel between two times. Only the records overlapping the window are decompressed.
+   *
+   * @param t1 start of the window
+   * @param t2 end of the window
+   * @throws IOException if the file cannot be read
+   */
+  public void read(double t1, double t2) throws IOException {
+    SeedRecordIndex idx = getIndex();
+    for (String code : idx.getChannels()) {
+      putSegmentedWave(code, idx.read(code, t1, t2));
+    }
+  }
+
+  /**
+   * Read. Each channel is held as segments, so gaps cost nothing until <code>getWave()</code> is
+   * called. Records whose sampling rate differs from the first record of their channel are skipped
+   * with a warning.
    */
   public void read() throws IOException {
-    Map<String, Map<Long, int[]>> samples = new HashMap<String, Map<Long, int[]>>();
-    Map<String, Float> sampleRates = new HashMap<String, Float>();
+    Map<String, SegmentedWave> samples = new HashMap<String, SegmentedWave>();
+    Map<String, Integer> skipped = new HashMap<String, Integer>();
 
     DataInputStream dis = null;
     try {
@@ -100,9 +172,9 @@ public class SeedDataFile extends SeismicDataFile {
           continue;
         }
 
-        Map<Long, int[]> parts = samples.get(code);
+        SegmentedWave parts = samples.get(code);
         if (parts == null) {
-          parts = new HashMap<Long, int[]>();
+          parts = new SegmentedWave();
           samples.put(code, parts);
         }
 
@@ -114,15 +186,21 @@ public class SeedDataFile extends SeismicDataFile {
         } else {
           sampleRate = dr.getSampleRate();
         }
-        sampleRates.put(code, sampleRate);
-        long start = btimeToDate(dh.getStartBtime()).getTime();
-        parts.put(start, extract(dr));
+        double start = J2kSec.fromDate(btimeToDate(dh.getStartBtime()));
+        if (!parts.add(new Wave(extract(dr), start, sampleRate))) {
+          Integer count = skipped.get(code);
+          skipped.put(code, count == null ? 1 : count + 1);
+        }
+      }
+
+      for (Map.Entry<String, Integer> entry : skipped.entrySet()) {
+        LOGGER.warn("{} records of {} in {} do not match its sampling rate of {}, skipped.",
+            entry.getValue(), entry.getKey(), fileName,
+            samples.get(entry.getKey()).getSamplingRate());
       }
 
       for (String code : samples.keySet()) {
-        double samplePeriod = (1000 / sampleRates.get(code));
-        Wave wave = join(code, samplePeriod, samples.get(code));
-        waves.put(code, wave);
+        putSegmentedWave(code, samples.get(code));
       }
     } catch (Throwable t) {
       t.printStackTrace();
@@ -146,33 +224,6 @@ public class SeedDataFile extends SeismicDataFile {
     dis.reset();
   }
 
-  private Wave join(String code, double samplePeriodMs, Map<Long, int[]> samples) {
-    Set<Long> times = samples.keySet();
-    long firstTime = Long.MAX_VALUE;
-    long lastTime = Long.MIN_VALUE;
-
-    for (long time : times) {
-      firstTime = Math.min(firstTime, time);
-
-      double end = time + samples.get(time).length * samplePeriodMs;
-      lastTime = Math.max(lastTime, (long) end);
-    }
-
-    int sampleCount = (int) ((lastTime - firstTime + 1) / samplePeriodMs);
-
-    int[] allSamples = new int[sampleCount];
-    Arrays.fill(allSamples, Wave.NO_DATA);
-
-    for (long time : times) {
-      int[] buf = samples.get(time);
-      int idx = (int) ((time - firstTime) / samplePeriodMs);
-      System.arraycopy(buf, 0, allSamples, idx, buf.length);
-    }
-
-    Wave wave = new Wave(allSamples, J2kSec.fromDate(new Date(firstTime)), 1000 / samplePeriodMs);
-    return wave;
-  }
-
   private int[] extract(DataRecord dr)
       throws UnsupportedCompressionType, CodecException, SeedFormatException {
     int numPts = dr.getHeader().getNumSamples();
@@ -208,8 +259,8 @@ public class SeedDataFile extends SeismicDataFile {
     }
 
     int seq = 1;
-    for (String channel : waves.keySet()) {
-      List<Wave> wavesSegments = waves.get(channel).split(512);
+    for (String channel : getChannels()) {
+      List<Wave> wavesSegments = getSegmentedWave(channel).split(512);
       for (Wave wave : wavesSegments) {
         DataHeader header = new DataHeader(seq++, 'D', false);
 
@@ -251,7 +302,7 @@ public class SeedDataFile extends SeismicDataFile {
           SteimFrameBlock data = null;
 
           try {
-            data = Steim2.encode(wave.buffer, 63);
+            data = Steim2.encode(wave.getSamples().toInts(), 63);
             record.setData(data.getEncodedData());
             record.write(dos);
           } catch (SteimException e) {
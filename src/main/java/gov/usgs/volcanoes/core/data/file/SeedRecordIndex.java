@@ -0,0 +1,922 @@
+package gov.usgs.volcanoes.core.data.file;
+
+import gov.usgs.volcanoes.core.data.SegmentedWave;
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import edu.iris.dmc.seedcodec.B1000Types;
+import edu.iris.dmc.seedcodec.Codec;
+import edu.iris.dmc.seedcodec.CodecException;
+import edu.iris.dmc.seedcodec.DecompressedData;
+
+/**
+ * A record level index of a SEED or miniSEED file. The file is memory mapped and only the fixed
+ * header and blockettes 100 and 1000 of each record are read to find the offset, channel and time
+ * span of every data record. A time window of one channel can then be read by decompressing just
+ * the records which overlap it, spread across an executor.
+ *
+ * <p>Data records of full SEED volumes may lack blockette 1000. Their length is then taken from
+ * the volume's blockette 10, and their encoding from its blockettes 30 when these name a single
+ * format which can be recognized, or else from the default encoding given when the index is
+ * opened. Records with no encoding from any of these are skipped, with a warning.
+ *
+ * <p>Building the index touches every record header, so it may be kept in a sidecar file next to
+ * the data. The sidecar is ignored once the length or modification time of the data file changes.
+ *
+ * <p>Record start times include the header's time correction unless its activity flags say the
+ * correction has already been applied.
+ *
+ * <p>Channels are named as <code>SeedDataFile</code> names them, station$channel$network with the
+ * location appended when it is not blank.
+ *
+ * <p>The file stays mapped until the index is closed. It must not be closed while a read is under
+ * way on another thread.
+ */
+public class SeedRecordIndex implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeedRecordIndex.class);
+
+  /** Appended to the data file name to name the sidecar. */
+  public static final String SIDECAR_SUFFIX = ".sidx";
+
+  /** Record length assumed when a record has no blockette 1000 and the volume no blockette 10. */
+  public static final int DEFAULT_RECORD_LENGTH = 4096;
+
+  private static final int MAGIC = 0x53494458;
+  private static final int VERSION = 3;
+
+  private static final int HEADER_LENGTH = 48;
+  private static final int IDENTITY_OFFSET = 8;
+  private static final int IDENTITY_LENGTH = 12;
+
+  // step taken to resynchronize after something which is not a record header
+  private static final int RESYNC_LENGTH = 64;
+
+  // files are mapped in regions this long, overlapping by the longest record allowed
+  private static final long REGION_SIZE = 1L << 30;
+  private static final int MAX_RECORD_EXPONENT = 20;
+  private static final int MAX_RECORD_LENGTH = 1 << MAX_RECORD_EXPONENT;
+
+  // fewer records than this are decompressed on the calling thread
+  private static final int RECORDS_PER_TASK = 32;
+
+  private final String fileName;
+  private final long fileLength;
+  private final long lastModified;
+  private final MappedByteBuffer[] regions;
+  private final Map<String, Channel> channels;
+  private long skipped;
+  private volatile boolean closed;
+
+  // for records without blockette 1000: the caller's encoding, and the record length and encoding
+  // given by the volume's control headers
+  private final int defaultEncoding;
+  private int volumeRecordLength = DEFAULT_RECORD_LENGTH;
+  private int volumeEncoding = -1;
+
+  // encodings of the data formats described by blockettes 30, -1 for one not recognized
+  private final Set<Integer> volumeFormats = new HashSet<Integer>();
+
+  private SeedRecordIndex(String fileName, int defaultEncoding) throws IOException {
+    this.fileName = fileName;
+    this.defaultEncoding = defaultEncoding;
+    final File file = new File(fileName);
+    fileLength = file.length();
+    lastModified = file.lastModified();
+    channels = new LinkedHashMap<String, Channel>();
+
+    final int n = (int) ((fileLength + REGION_SIZE - 1) / REGION_SIZE);
+    regions = new MappedByteBuffer[n];
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel fc = raf.getChannel();
+      for (int i = 0; i < n; i++) {
+        final long start = i * REGION_SIZE;
+        final long size = Math.min(fileLength - start, REGION_SIZE + MAX_RECORD_LENGTH);
+        regions[i] = fc.map(FileChannel.MapMode.READ_ONLY, start, size);
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Index a file, without reading or writing a sidecar.
+   *
+   * @param fileName the SEED file
+   * @return the index
+   * @throws IOException if the file cannot be mapped
+   */
+  public static SeedRecordIndex open(String fileName) throws IOException {
+    return open(fileName, false);
+  }
+
+  /**
+   * Index a file. If a current sidecar exists it is loaded instead of scanning the file.
+   *
+   * @param fileName the SEED file
+   * @param persist write a sidecar after scanning the file
+   * @return the index
+   * @throws IOException if the file cannot be mapped
+   */
+  public static SeedRecordIndex open(String fileName, boolean persist) throws IOException {
+    return open(fileName, persist, -1);
+  }
+
+  /**
+   * Index a file, with an encoding for data records which have no blockette 1000 when the volume
+   * does not give one. If a current sidecar exists it is loaded instead of scanning the file.
+   *
+   * @param fileName the SEED file
+   * @param persist write a sidecar after scanning the file
+   * @param defaultEncoding encoding as numbered in blockette 1000, for instance
+   *     <code>B1000Types.STEIM2</code>, or -1 for none
+   * @return the index
+   * @throws IOException if the file cannot be mapped
+   */
+  public static SeedRecordIndex open(String fileName, boolean persist, int defaultEncoding)
+      throws IOException {
+    final SeedRecordIndex index = new SeedRecordIndex(fileName, defaultEncoding);
+    final File sidecar = new File(fileName + SIDECAR_SUFFIX);
+    if (sidecar.exists() && index.load(sidecar)) {
+      return index;
+    }
+
+    index.scan();
+    if (persist) {
+      try {
+        index.save(sidecar);
+      } catch (final IOException e) {
+        LOGGER.warn("Cannot write index {}: {}", sidecar, e.getMessage());
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Gets the channels in the file, in the order first seen.
+   *
+   * @return channel names
+   */
+  public Set<String> getChannels() {
+    return Collections.unmodifiableSet(channels.keySet());
+  }
+
+  /**
+   * Gets the number of data records indexed for a channel.
+   *
+   * @param code channel name
+   * @return number of records
+   */
+  public int getRecordCount(String code) {
+    final Channel c = channels.get(code);
+    return c == null ? 0 : c.size;
+  }
+
+  /**
+   * Gets the number of records which could not be indexed because they carry no samples, no
+   * encoding, or a header which could not be understood.
+   *
+   * @return number of records skipped
+   */
+  public long getSkippedCount() {
+    return skipped;
+  }
+
+  /**
+   * Gets the earliest time held for a channel.
+   *
+   * @param code channel name
+   * @return start time, or NaN if the channel is not in the file
+   */
+  public double getStartTime(String code) {
+    final Channel c = channels.get(code);
+    return c == null || c.size == 0 ? Double.NaN : c.starts[0];
+  }
+
+  /**
+   * Gets the latest time held for a channel.
+   *
+   * @param code channel name
+   * @return end time, or NaN if the channel is not in the file
+   */
+  public double getEndTime(String code) {
+    final Channel c = channels.get(code);
+    if (c == null || c.size == 0) {
+      return Double.NaN;
+    }
+    double end = c.ends[0];
+    for (int i = 1; i < c.size; i++) {
+      end = Math.max(end, c.ends[i]);
+    }
+    return end;
+  }
+
+  /**
+   * Read part of a channel, decompressing records on the common fork join pool.
+   *
+   * @param code channel name
+   * @param t1 start of the window
+   * @param t2 end of the window
+   * @return the samples within the window, or null if the channel is not in the file
+   * @throws IOException if a record cannot be decompressed
+   */
+  public SegmentedWave read(String code, double t1, double t2) throws IOException {
+    return read(code, t1, t2, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Read part of a channel. Only records overlapping the window are decompressed.
+   *
+   * @param code channel name
+   * @param t1 start of the window
+   * @param t2 end of the window
+   * @param executor decompresses records, or null to decompress on the calling thread
+   * @return the samples within the window, or null if the channel is not in the file
+   * @throws IOException if a record cannot be decompressed
+   */
+  public SegmentedWave read(String code, double t1, double t2, ExecutorService executor)
+      throws IOException {
+    if (closed) {
+      throw new IOException(fileName + " is closed");
+    }
+    final Channel c = channels.get(code);
+    if (c == null) {
+      return null;
+    }
+
+    final long[] offsets = c.find(t1, t2);
+    final Wave[] waves = new Wave[offsets.length];
+    if (executor == null || offsets.length <= RECORDS_PER_TASK) {
+      decode(offsets, 0, offsets.length, waves);
+    } else {
+      final int tasks = Runtime.getRuntime().availableProcessors() * 4;
+      final int chunk = Math.max(RECORDS_PER_TASK, (offsets.length + tasks - 1) / tasks);
+      final List<Callable<Void>> work = new ArrayList<Callable<Void>>();
+      for (int i = 0; i < offsets.length; i += chunk) {
+        final int from = i;
+        final int to = Math.min(offsets.length, i + chunk);
+        work.add(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            decode(offsets, from, to, waves);
+            return null;
+          }
+        });
+      }
+      try {
+        for (final Future<Void> f : executor.invokeAll(work)) {
+          f.get();
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted reading " + fileName);
+      } catch (final ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+
+    final SegmentedWave parts = new SegmentedWave();
+    int mismatched = 0;
+    for (final Wave wave : waves) {
+      if (!parts.add(wave)) {
+        mismatched++;
+      }
+    }
+    if (mismatched > 0) {
+      LOGGER.warn("{} records of {} in {} do not match its sampling rate of {}, skipped.",
+          mismatched, code, fileName, parts.getSamplingRate());
+    }
+    return parts.subset(t1, t2);
+  }
+
+  /**
+   * Unmap the file. Reads after this fail.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (int i = 0; i < regions.length; i++) {
+      unmap(regions[i]);
+      regions[i] = null;
+    }
+  }
+
+  /**
+   * Release a mapping now rather than when it is collected, where the JVM allows it.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    try {
+      // Java 9 and later
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null),
+          buffer);
+      return;
+    } catch (final Exception e) {
+      // try the Java 8 way
+    }
+    try {
+      final Method cleaner = buffer.getClass().getMethod("cleaner");
+      cleaner.setAccessible(true);
+      final Object c = cleaner.invoke(buffer);
+      if (c != null) {
+        c.getClass().getMethod("clean").invoke(c);
+      }
+    } catch (final Exception e) {
+      LOGGER.debug("Cannot unmap, left for the collector: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Decompress a run of records.
+   */
+  private void decode(long[] offsets, int from, int to, Wave[] waves) throws IOException {
+    final RecordHeader h = header();
+    final Codec codec = new Codec();
+    for (int i = from; i < to; i++) {
+      final long offset = offsets[i];
+      final MappedByteBuffer region = regions[(int) (offset / REGION_SIZE)];
+      if (region == null) {
+        throw new IOException(fileName + " is closed");
+      }
+      final ByteBuffer buf = region.duplicate();
+      final int p = (int) (offset % REGION_SIZE);
+      if (!h.parse(buf, p, fileLength - offset)) {
+        throw new IOException("Record at " + offset + " of " + fileName + " has changed");
+      }
+
+      final byte[] data = new byte[h.recordLength - h.dataOffset];
+      buf.position(p + h.dataOffset);
+      buf.get(data);
+      try {
+        final DecompressedData decompressed =
+            codec.decompress(h.encoding, data, h.numSamples, h.swapData);
+        int[] samples = decompressed.getAsInt();
+        if (samples.length > h.numSamples) {
+          samples = Arrays.copyOf(samples, h.numSamples);
+        }
+        waves[i] = new Wave(samples, h.start, h.sampleRate);
+      } catch (final CodecException e) {
+        throw new IOException("Cannot decompress record at " + offset + " of " + fileName, e);
+      }
+    }
+  }
+
+  /**
+   * Walk every record header in the file.
+   */
+  private void scan() {
+    final RecordHeader h = header();
+    final byte[] identity = new byte[IDENTITY_LENGTH];
+    Channel current = null;
+    int region = -1;
+    ByteBuffer buf = null;
+    long unencoded = 0;
+
+    long pos = 0;
+    while (pos + HEADER_LENGTH <= fileLength) {
+      if (pos / REGION_SIZE != region) {
+        region = (int) (pos / REGION_SIZE);
+        buf = regions[region].duplicate();
+      }
+      final int p = (int) (pos % REGION_SIZE);
+
+      /*
+       * Seiscomp's slarchive app preallocates file space. This can result in embedded NULL space if
+       * the app exits unexpectedly, such as in response to a power interruption.
+       */
+      if (buf.get(p) == 0) {
+        pos++;
+        continue;
+      }
+
+      final byte type = buf.get(p + 6);
+      if (type == 'V' || type == 'A') {
+        control(buf, p, type, (int) Math.min(fileLength - pos, MAX_RECORD_LENGTH));
+        h.defaultRecordLength = volumeRecordLength;
+        h.defaultEncoding = encoding();
+      }
+
+      if (!h.parse(buf, p, fileLength - pos)) {
+        if (h.missingEncoding) {
+          unencoded++;
+        }
+        if (h.recordLength > 0) {
+          skipped++;
+          pos += h.recordLength;
+        } else {
+          pos += RESYNC_LENGTH;
+        }
+        continue;
+      }
+
+      // consecutive records are almost always from the same channel
+      if (current == null || !sameIdentity(buf, p, identity)) {
+        for (int i = 0; i < IDENTITY_LENGTH; i++) {
+          identity[i] = buf.get(p + IDENTITY_OFFSET + i);
+        }
+        final String code = h.code(buf, p);
+        current = channels.get(code);
+        if (current == null) {
+          current = new Channel();
+          channels.put(code, current);
+        }
+      }
+      current.add(pos, h.start, h.start + h.numSamples / h.sampleRate);
+      pos += h.recordLength;
+    }
+
+    for (final Channel c : channels.values()) {
+      c.sort();
+    }
+    if (unencoded > 0) {
+      LOGGER.warn("{} data records of {} have no blockette 1000 and no encoding from the volume, "
+          + "skipped; open the index with a default encoding to read them.", unencoded, fileName);
+    }
+  }
+
+  /**
+   * Gets the encoding of records without blockette 1000.
+   */
+  private int encoding() {
+    return volumeEncoding >= 0 ? volumeEncoding : defaultEncoding;
+  }
+
+  private RecordHeader header() {
+    final RecordHeader h = new RecordHeader();
+    h.defaultRecordLength = volumeRecordLength;
+    h.defaultEncoding = encoding();
+    return h;
+  }
+
+  /**
+   * Read the record length from the blockette 10 of a volume header, or the data formats from the
+   * blockettes 30 of an abbreviation dictionary header. Only blockettes wholly within the record
+   * are read.
+   */
+  private void control(ByteBuffer buf, int p, byte type, int limit) {
+    if (type == 'V') {
+      if (digits(buf, p + 8, 3) == 10) {
+        final int exponent = digits(buf, p + 19, 2);
+        if (exponent >= 8 && exponent <= MAX_RECORD_EXPONENT) {
+          volumeRecordLength = 1 << exponent;
+        }
+      }
+      return;
+    }
+    if (buf.get(p + 7) == '*') {
+      // continues a blockette from the previous record
+      return;
+    }
+
+    final int end = Math.min(limit, volumeRecordLength);
+    int next = 8;
+    while (next + 7 <= end) {
+      final int blockette = digits(buf, p + next, 3);
+      final int length = digits(buf, p + next + 3, 4);
+      if (blockette < 0 || length < 7 || next + length > end) {
+        break;
+      }
+      if (blockette == 30) {
+        volumeFormats.add(format(RecordHeader.ascii(buf, p + next + 7, length - 7)));
+        volumeEncoding = volumeFormats.size() == 1 && !volumeFormats.contains(-1)
+            ? volumeFormats.iterator().next() : -1;
+      }
+      next += length;
+    }
+  }
+
+  /**
+   * Recognize the encoding described by the body of a blockette 30: a name ending in a tilde, the
+   * format code, family and number of keys, then the keys, each ending in a tilde.
+   *
+   * @return the encoding as numbered in blockette 1000, or -1 if not recognized
+   */
+  static int format(String body) {
+    final int tilde = body.indexOf('~');
+    if (tilde < 0 || body.length() < tilde + 10) {
+      return -1;
+    }
+    final String name = body.substring(0, tilde).toUpperCase().replaceAll("[^A-Z0-9]", "");
+    final String family = body.substring(tilde + 5, tilde + 8).trim();
+    if ("50".equals(family) || "050".equals(family)) {
+      if (name.contains("STEIM2")) {
+        return B1000Types.STEIM2;
+      }
+      if (name.contains("STEIM1") || name.endsWith("STEIM")) {
+        return B1000Types.STEIM1;
+      }
+      return -1;
+    }
+    if ("0".equals(family) || "000".equals(family)) {
+      // the word width key of an integer format, W2 or W4
+      for (final String key : body.substring(tilde + 10).split("~")) {
+        final String k = key.trim();
+        if (k.startsWith("W2")) {
+          return B1000Types.SHORT;
+        }
+        if (k.startsWith("W4")) {
+          return B1000Types.INTEGER;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Read a run of ASCII digits.
+   *
+   * @return the number, or -1 if any character is not a digit
+   */
+  private static int digits(ByteBuffer buf, int p, int len) {
+    int n = 0;
+    for (int i = 0; i < len; i++) {
+      final int c = buf.get(p + i) - '0';
+      if (c < 0 || c > 9) {
+        return -1;
+      }
+      n = n * 10 + c;
+    }
+    return n;
+  }
+
+  private static boolean sameIdentity(ByteBuffer buf, int p, byte[] identity) {
+    for (int i = 0; i < IDENTITY_LENGTH; i++) {
+      if (buf.get(p + IDENTITY_OFFSET + i) != identity[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Write the index to a sidecar file.
+   *
+   * @param sidecar the file
+   * @throws IOException if the sidecar cannot be written
+   */
+  public void save(File sidecar) throws IOException {
+    final File tmp = new File(sidecar.getPath() + ".tmp");
+    final DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(fileLength);
+      out.writeLong(lastModified);
+      out.writeLong(skipped);
+      out.writeInt(volumeRecordLength);
+      out.writeInt(volumeEncoding);
+      out.writeInt(channels.size());
+      for (final Map.Entry<String, Channel> entry : channels.entrySet()) {
+        final Channel c = entry.getValue();
+        out.writeUTF(entry.getKey());
+        out.writeInt(c.size);
+        for (int i = 0; i < c.size; i++) {
+          out.writeLong(c.offsets[i]);
+          out.writeDouble(c.starts[i]);
+          out.writeDouble(c.ends[i]);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(tmp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Read the index from a sidecar file.
+   *
+   * @return false if the sidecar is unreadable or does not describe the current file
+   */
+  private boolean load(File sidecar) {
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != fileLength
+          || in.readLong() != lastModified) {
+        return false;
+      }
+      final long skippedRecords = in.readLong();
+      final int recordLength = in.readInt();
+      final int encoding = in.readInt();
+      final Map<String, Channel> loaded = new LinkedHashMap<String, Channel>();
+      final int n = in.readInt();
+      for (int i = 0; i < n; i++) {
+        final String code = in.readUTF();
+        final Channel c = new Channel();
+        final int size = in.readInt();
+        for (int j = 0; j < size; j++) {
+          c.add(in.readLong(), in.readDouble(), in.readDouble());
+        }
+        c.sort();
+        loaded.put(code, c);
+      }
+      channels.putAll(loaded);
+      skipped = skippedRecords;
+      volumeRecordLength = recordLength;
+      volumeEncoding = encoding;
+      return true;
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot read index {}: {}", sidecar, e.getMessage());
+      return false;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (final IOException e) {
+          LOGGER.debug("Cannot close index {}", sidecar);
+        }
+      }
+    }
+  }
+
+  /**
+   * Days from 1970-01-01 to January 1st of a year.
+   */
+  static long daysToYear(int year) {
+    final long y = year - 1;
+    return 365L * (year - 1970) + (y / 4 - 1969 / 4) - (y / 100 - 1969 / 100)
+        + (y / 400 - 1969 / 400);
+  }
+
+  /**
+   * The records of one channel, ordered by start time.
+   */
+  private static final class Channel {
+    long[] offsets = new long[64];
+    double[] starts = new double[64];
+    double[] ends = new double[64];
+    int size;
+    double maxDuration;
+    boolean sorted = true;
+
+    void add(long offset, double start, double end) {
+      if (size == offsets.length) {
+        offsets = Arrays.copyOf(offsets, size * 2);
+        starts = Arrays.copyOf(starts, size * 2);
+        ends = Arrays.copyOf(ends, size * 2);
+      }
+      if (size > 0 && start < starts[size - 1]) {
+        sorted = false;
+      }
+      offsets[size] = offset;
+      starts[size] = start;
+      ends[size] = end;
+      maxDuration = Math.max(maxDuration, end - start);
+      size++;
+    }
+
+    void sort() {
+      if (sorted) {
+        return;
+      }
+      final Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      final double[] s = starts;
+      Arrays.sort(order, new Comparator<Integer>() {
+        public int compare(Integer i1, Integer i2) {
+          return Double.compare(s[i1], s[i2]);
+        }
+      });
+      final long[] o = new long[offsets.length];
+      final double[] st = new double[starts.length];
+      final double[] e = new double[ends.length];
+      for (int i = 0; i < size; i++) {
+        o[i] = offsets[order[i]];
+        st[i] = starts[order[i]];
+        e[i] = ends[order[i]];
+      }
+      offsets = o;
+      starts = st;
+      ends = e;
+      sorted = true;
+    }
+
+    /**
+     * Gets the offsets of records overlapping a window.
+     */
+    long[] find(double t1, double t2) {
+      // no record starting before this can reach t1
+      final double earliest = t1 - maxDuration;
+      int lo = 0;
+      int hi = size;
+      while (lo < hi) {
+        final int mid = (lo + hi) >>> 1;
+        if (starts[mid] < earliest) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+
+      long[] found = new long[16];
+      int n = 0;
+      for (int i = lo; i < size && starts[i] < t2; i++) {
+        if (ends[i] > t1) {
+          if (n == found.length) {
+            found = Arrays.copyOf(found, n * 2);
+          }
+          found[n++] = offsets[i];
+        }
+      }
+      return Arrays.copyOf(found, n);
+    }
+  }
+
+  /**
+   * The parts of a record header needed to index and decompress it.
+   */
+  private static final class RecordHeader {
+    // activity flag set when the time correction is already included in the start time
+    private static final int TIME_CORRECTION_APPLIED = 0x02;
+
+    // for records without blockette 1000
+    int defaultRecordLength = DEFAULT_RECORD_LENGTH;
+    int defaultEncoding = -1;
+
+    int recordLength;
+    int dataOffset;
+    int numSamples;
+    int encoding;
+    boolean swapData;
+    boolean swapHeader;
+    boolean missingEncoding;
+    double sampleRate;
+    double start;
+
+    /**
+     * Read a record header.
+     *
+     * @param buf the mapped file
+     * @param p index of the header in buf
+     * @param remaining bytes left in the file
+     * @return false if this is not a data record which can be decompressed; recordLength is set if
+     *     it is a record which should be stepped over, and missingEncoding if it is a data record
+     *     whose encoding is unknown
+     */
+    boolean parse(ByteBuffer buf, int p, long remaining) {
+      recordLength = 0;
+      missingEncoding = false;
+      final byte type = buf.get(p + 6);
+      if (type == 'V' || type == 'A' || type == 'S' || type == 'T') {
+        // control headers of full SEED
+        recordLength = (int) Math.min(remaining, defaultRecordLength);
+        return false;
+      }
+      if (type != 'D' && type != 'R' && type != 'Q' && type != 'M') {
+        return false;
+      }
+
+      int year = buf.getShort(p + 20) & 0xffff;
+      swapHeader = year < 1900 || year > 2500;
+      if (swapHeader) {
+        year = Short.reverseBytes((short) year) & 0xffff;
+        if (year < 1900 || year > 2500) {
+          return false;
+        }
+      }
+      final int day = getShort(buf, p + 22) & 0xffff;
+      final int hour = buf.get(p + 24) & 0xff;
+      final int minute = buf.get(p + 25) & 0xff;
+      final int second = buf.get(p + 26) & 0xff;
+      final int tenthMilli = getShort(buf, p + 28) & 0xffff;
+      start = (daysToYear(year) + day - 1) * 86400.0 + hour * 3600 + minute * 60 + second
+          + tenthMilli / 10000.0 + J2kSec.UNIXZERO;
+      if ((buf.get(p + 36) & TIME_CORRECTION_APPLIED) == 0) {
+        start += getInt(buf, p + 40) / 10000.0;
+      }
+
+      numSamples = getShort(buf, p + 30) & 0xffff;
+      sampleRate = sampleRate(getShort(buf, p + 32), getShort(buf, p + 34));
+      final int blockettes = buf.get(p + 39) & 0xff;
+      dataOffset = getShort(buf, p + 44) & 0xffff;
+
+      recordLength = defaultRecordLength;
+      encoding = -1;
+      swapData = swapHeader;
+      int next = getShort(buf, p + 46) & 0xffff;
+      final long limit = Math.min(remaining, MAX_RECORD_LENGTH);
+      for (int i = 0; i < blockettes && next >= HEADER_LENGTH && next + 8 <= limit; i++) {
+        final int blockette = getShort(buf, p + next) & 0xffff;
+        if (blockette == 1000) {
+          encoding = buf.get(p + next + 4);
+          swapData = buf.get(p + next + 5) == 0;
+          final int exponent = buf.get(p + next + 6);
+          if (exponent >= 7 && exponent <= MAX_RECORD_EXPONENT) {
+            recordLength = 1 << exponent;
+          }
+        } else if (blockette == 100) {
+          sampleRate = Float.intBitsToFloat(getInt(buf, p + next + 4));
+        }
+        final int following = getShort(buf, p + next + 2) & 0xffff;
+        if (following <= next) {
+          break;
+        }
+        next = following;
+      }
+
+      if (recordLength > remaining) {
+        // truncated
+        recordLength = (int) remaining;
+        return false;
+      }
+      if (encoding < 0) {
+        encoding = defaultEncoding;
+        missingEncoding = encoding < 0 && numSamples > 0;
+      }
+      return encoding >= 0 && numSamples > 0 && sampleRate > 0 && dataOffset >= HEADER_LENGTH
+          && dataOffset < recordLength;
+    }
+
+    /**
+     * Name the channel of this record.
+     */
+    String code(ByteBuffer buf, int p) {
+      final String station = ascii(buf, p + 8, 5).trim();
+      final String location = ascii(buf, p + 13, 2);
+      final String channel = ascii(buf, p + 15, 3).trim();
+      final String network = ascii(buf, p + 18, 2).trim();
+      String code = station + "$" + channel + "$" + network;
+      if (!"  ".equals(location)) {
+        code += "$" + location;
+      }
+      return code;
+    }
+
+    private short getShort(ByteBuffer buf, int i) {
+      final short s = buf.getShort(i);
+      return swapHeader ? Short.reverseBytes(s) : s;
+    }
+
+    private int getInt(ByteBuffer buf, int i) {
+      final int n = buf.getInt(i);
+      return swapHeader ? Integer.reverseBytes(n) : n;
+    }
+
+    private static String ascii(ByteBuffer buf, int p, int len) {
+      final char[] c = new char[len];
+      for (int i = 0; i < len; i++) {
+        c[i] = (char) (buf.get(p + i) & 0xff);
+      }
+      return new String(c);
+    }
+
+    /**
+     * Sample rate from the SEED rate factor and multiplier.
+     */
+    private static double sampleRate(int factor, int multiplier) {
+      if (factor == 0 || multiplier == 0) {
+        return 0;
+      }
+      double rate = factor > 0 ? factor : -1.0 / factor;
+      rate *= multiplier > 0 ? multiplier : -1.0 / multiplier;
+      return rate;
+    }
+  }
+}
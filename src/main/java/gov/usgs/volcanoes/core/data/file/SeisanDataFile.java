@@ -4,11 +4,10 @@ import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
@@ -43,13 +42,16 @@ public class SeisanDataFile extends SeismicDataFile {
    * @see gov.usgs.plot.data.file.SeismicDataFile#read()
    */
   public void read() throws IOException {
-    FileInputStream fis = new FileInputStream(fileName);
-    BufferedInputStream buf = new BufferedInputStream(fis);
-
-    detectArchitecture(buf);
-    readEventFileHeader(buf);
-    for (int i = 0; i < channelCount; i++) {
-      readChannel(buf);
+    ByteBuffer buf = mapFile();
+    try {
+      detectArchitecture(buf);
+      buf.order(byteOrder);
+      readEventFileHeader(buf);
+      for (int i = 0; i < channelCount; i++) {
+        readChannel(buf);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated seisan file " + fileName);
     }
   }
 
@@ -57,32 +59,29 @@ public class SeisanDataFile extends SeismicDataFile {
    * length of first header line length is always 80. Infer byte order and int
    * length based on how that length is represented
    */
-  private void detectArchitecture(BufferedInputStream bis) throws IOException {
-    byte[] bytes = new byte[8];
-    bis.mark(Integer.MAX_VALUE);
-    bis.read(bytes);
-    bis.reset();
-
-    byteOrder = (bytes[0] == 0x50) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
-    boolean is64Bit = (bytes[7] == 0x50 || bytes[7] == 0x00) ? true : false;
+  private void detectArchitecture(ByteBuffer buf) throws IOException {
+    if (buf.remaining() < 8) {
+      throw new IOException("Not a seisan file: " + fileName);
+    }
+
+    byteOrder = (buf.get(0) == 0x50) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+    boolean is64Bit = (buf.get(7) == 0x50 || buf.get(7) == 0x00) ? true : false;
     machineIntLength = is64Bit ? 8 : 4;
   }
 
-  private void readEventFileHeader(BufferedInputStream bis) throws IOException {
-    String headerLine = new String(readRecord(bis));
+  private void readEventFileHeader(ByteBuffer buf) throws IOException {
+    String headerLine = new String(readRecord(buf));
     channelCount = Integer.parseInt(headerLine.substring(30, 33).trim());
-    // System.out.println("CHANNEL COUNT " + channelCount + " :" + headerLine.substring(30, 33) +
-    // ":");
 
     // skip the rest of the header lines. We don't need them.
     int numHeaderLines = 2 + ((channelCount + 2) / 3);
     for (int i = 1; i < Math.max(numHeaderLines, 12); i++) {
-      readRecord(bis);
+      skipRecord(buf);
     }
   }
 
-  private void readChannel(BufferedInputStream bis) throws IOException {
-    byte[] channelHeader = readRecord(bis);
+  private void readChannel(ByteBuffer buf) throws IOException {
+    byte[] channelHeader = readRecord(buf);
 
     String code = extractCode(channelHeader);
 
@@ -92,19 +91,30 @@ public class SeisanDataFile extends SeismicDataFile {
 
     char c = (char) channelHeader[76];
     if (c == ' ') {
-      c = 2;
+      c = '2';
+    }
+    int intLength = c - '0';
+    if (intLength != 2 && intLength != 4) {
+      throw new IOException("Unsupported seisan sample length " + c + " in " + fileName);
     }
-    int intLength = Integer.parseInt("" + c);
 
+    // samples are read straight from the record into the buffer
     int[] samples = new int[sampleCount];
     int sampleIndex = 0;
     while (sampleIndex < sampleCount) {
-      byte[] data = readRecord(bis);
-
-      for (int i = 0; i < data.length; i += intLength) {
-        byte[] b = Arrays.copyOfRange(data, i, i + intLength);
-        samples[sampleIndex++] = decodeInt(b);
+      int recordLen = beginRecord(buf);
+      int count = Math.min(recordLen / intLength, sampleCount - sampleIndex);
+      int end = buf.position() + recordLen;
+      if (intLength == 4) {
+        buf.asIntBuffer().get(samples, sampleIndex, count);
+        sampleIndex += count;
+      } else {
+        for (int i = 0; i < count; i++) {
+          samples[sampleIndex++] = buf.getShort(buf.position() + i * 2);
+        }
       }
+      buf.position(end);
+      endRecord(buf, recordLen);
     }
     waves.put(code, new Wave(samples, start, samplingRate));
   }
@@ -189,9 +199,10 @@ public class SeisanDataFile extends SeismicDataFile {
     for (String code : waves.keySet()) {
       Wave wave = waves.get(code);
       writeChannelHeader(fos, code);
-      byte[] bytes = new byte[wave.numSamples() * 4];
-      for (int i = 0; i < wave.numSamples(); i++) {
-        System.arraycopy(intAsBytes(wave.buffer[i]), 0, bytes, i * 4, 4);
+      int[] samples = wave.getSamples().toInts();
+      byte[] bytes = new byte[samples.length * 4];
+      for (int i = 0; i < samples.length; i++) {
+        System.arraycopy(intAsBytes(samples[i]), 0, bytes, i * 4, 4);
       }
       writeRecord(fos, bytes);
     }
@@ -374,16 +385,40 @@ public class SeisanDataFile extends SeismicDataFile {
 
 
   // read a single record in fortran "unformatted" form
-  private byte[] readRecord(BufferedInputStream bis) throws IOException {
-    int recordLen = readInt(bis, machineIntLength);
+  private byte[] readRecord(ByteBuffer buf) throws IOException {
+    int recordLen = beginRecord(buf);
     byte[] record = new byte[recordLen];
-    int read = bis.read(record);
+    buf.get(record);
+    endRecord(buf, recordLen);
+
+    return record;
+  }
+
 
-    if (read != readInt(bis, machineIntLength)) {
-      throw new IOException("Corrupt seisan record. Read " + read + ", expected " + recordLen);
+  private void skipRecord(ByteBuffer buf) throws IOException {
+    int recordLen = beginRecord(buf);
+    buf.position(buf.position() + recordLen);
+    endRecord(buf, recordLen);
+  }
+
+
+  // read the leading length of a record, leaving the buffer at its first byte
+  private int beginRecord(ByteBuffer buf) throws IOException {
+    int recordLen = readInt(buf);
+    if (recordLen < 0 || recordLen > buf.remaining()) {
+      throw new IOException("Corrupt seisan record. Length " + recordLen + ", "
+          + buf.remaining() + " bytes remain");
     }
+    return recordLen;
+  }
 
-    return record;
+
+  // read and check the trailing length of a record
+  private void endRecord(ByteBuffer buf, int recordLen) throws IOException {
+    int trailer = readInt(buf);
+    if (trailer != recordLen) {
+      throw new IOException("Corrupt seisan record. Read " + trailer + ", expected " + recordLen);
+    }
   }
 
 
@@ -401,21 +436,8 @@ public class SeisanDataFile extends SeismicDataFile {
   }
 
 
-  private int readInt(BufferedInputStream bis, int len) throws IOException {
-    byte[] buf = new byte[len];
-    int read = bis.read(buf);
-    if (read != len) {
-      throw new IOException("Bad int read.");
-    }
-
-    return decodeInt(buf);
-  }
-
-
-  private int decodeInt(byte[] b) {
-    ByteBuffer buffer = ByteBuffer.wrap(b);
-    buffer.order(byteOrder);
-    return (b.length == 8) ? (int) buffer.getLong() : buffer.getInt();
+  private int readInt(ByteBuffer buf) {
+    return (machineIntLength == 8) ? (int) buf.getLong() : buf.getInt();
   }
 
 
@@ -1,13 +1,18 @@
 package gov.usgs.volcanoes.core.data.file;
 
 
+import gov.usgs.volcanoes.core.data.SegmentedWave;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.quakeml.Pick;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -21,17 +26,21 @@ public abstract class SeismicDataFile {
   protected final String groupName;
   protected final String fileName;
   protected Map<String, Wave> waves;
+  // channels read as segments, materialized into waves only when requested
+  protected Map<String, SegmentedWave> segmentedWaves;
   protected Map<String, ArrayList<Pick>> picks;
   protected String network;
   protected String station;
   protected String channel;
   protected String location;
-
+  // keep samples stored as floating point in the file rather than rounding them
+  protected boolean floatingPoint;
 
   protected SeismicDataFile(String fileName, String groupName) {
     this.fileName = fileName;
     this.groupName = groupName;
     waves = new HashMap<String, Wave>();
+    segmentedWaves = new HashMap<String, SegmentedWave>();
     picks = new HashMap<String, ArrayList<Pick>>();
   }
 
@@ -39,6 +48,15 @@ public abstract class SeismicDataFile {
 
   public abstract void write() throws IOException;
 
+  /**
+   * Keep samples which the file stores as floating point, rather than rounding them to integers.
+   * Only affects formats which store floating point samples, and must be set before reading.
+   * @param floatingPoint true to keep floating point samples
+   */
+  public void setFloatingPoint(boolean floatingPoint) {
+    this.floatingPoint = floatingPoint;
+  }
+
   public void setNetwork(String network) {
     this.network = network;
   }
@@ -59,24 +77,83 @@ public abstract class SeismicDataFile {
     return groupName + fileName;
   }
 
+  /**
+   * Get the channels in this file.
+   * @return channel names
+   */
   public Set<String> getChannels() {
-    return waves.keySet();
+    if (segmentedWaves.isEmpty()) {
+      return waves.keySet();
+    }
+    Set<String> channels = new LinkedHashSet<String>(segmentedWaves.keySet());
+    channels.addAll(waves.keySet());
+    return channels;
   }
 
   public ArrayList<Pick> getPicks(String channel) {
     return picks.get(channel);
   }
 
+  /**
+   * Get a channel as a single wave with gaps filled with NO_DATA.
+   * @param channel channel name
+   * @return the wave or null if the channel is not in this file
+   */
   public Wave getWave(String channel) {
-    return waves.get(channel);
+    Wave wave = waves.get(channel);
+    if (wave == null) {
+      SegmentedWave segmented = segmentedWaves.get(channel);
+      if (segmented != null) {
+        wave = segmented.toWave();
+        waves.put(channel, wave);
+      }
+    }
+    return wave;
+  }
+
+  /**
+   * Get a channel without materializing its gaps.
+   * @param channel channel name
+   * @return the segmented wave or null if the channel is not in this file
+   */
+  public SegmentedWave getSegmentedWave(String channel) {
+    SegmentedWave segmented = segmentedWaves.get(channel);
+    if (segmented == null) {
+      Wave wave = waves.get(channel);
+      if (wave != null) {
+        segmented = new SegmentedWave(wave);
+      }
+    }
+    return segmented;
   }
 
   public String getFileName() {
     return fileName;
   }
 
+  /**
+   * Map this file into memory for reading. The mapping remains valid after this returns.
+   * @return the file contents, big endian
+   * @throws IOException if the file cannot be mapped
+   */
+  protected ByteBuffer mapFile() throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+    try {
+      FileChannel fc = raf.getChannel();
+      return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+    } finally {
+      raf.close();
+    }
+  }
+
   public void putWave(String channel, Wave wave) {
     waves.put(channel, wave);
+    segmentedWaves.remove(channel);
+  }
+
+  public void putSegmentedWave(String channel, SegmentedWave wave) {
+    segmentedWaves.put(channel, wave);
+    waves.remove(channel);
   }
 
   /**
@@ -0,0 +1,295 @@
+package gov.usgs.volcanoes.core.data.file;
+
+import gov.usgs.volcanoes.core.data.SegmentedWave;
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.util.ProgressListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads many seismic data files at once on a bounded pool of threads. Each file is opened with
+ * <code>SeismicDataFile.getFile()</code> and read on its own task; channels may either be merged by
+ * name across files, joining adjacent and overlapping waves, or handed to the caller file by file.
+ *
+ * <p>A memory budget limits how much data is held by files which have been read but not yet
+ * handed off. Before a file is read its size in memory is estimated from its length and type; once
+ * read, the estimate is replaced by the memory actually used by its waves. Readers wait while the
+ * budget is spent, except that a file is always read when nothing else is held so that a file
+ * larger than the budget cannot stall the load.
+ *
+ * <p>The budget only caps the total held when files are handed to a <code>FileHandler</code> which
+ * lets go of them. When channels are merged the result holds all of the data, so a file's share of
+ * the budget is released once it is merged; the budget then limits only what is read ahead of the
+ * merge, not the size of the result.
+ *
+ * <p>Files which cannot be read are logged and skipped, and are reported by
+ * <code>getFailedFiles()</code>.
+ */
+public class SeismicDataLoader {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeismicDataLoader.class);
+
+  /** Default memory budget, in bytes. */
+  public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+  /**
+   * Receives each file once it has been read.
+   */
+  public interface FileHandler {
+    /**
+     * Called once for each file read, one file at a time. Memory held by the file counts against
+     * the budget until this returns.
+     *
+     * @param file the file, already read
+     * @throws IOException if the file cannot be handled
+     */
+    void fileRead(SeismicDataFile file) throws IOException;
+  }
+
+  private final int threads;
+  private final long memoryBudget;
+  private final List<ProgressListener> listeners = new CopyOnWriteArrayList<ProgressListener>();
+  private final List<String> failed = new CopyOnWriteArrayList<String>();
+  private final Object handlerLock = new Object();
+
+  // bytes held by files being read or waiting to be handed off
+  private long memoryInUse;
+
+  /**
+   * Create a loader with one thread per processor and the default memory budget.
+   */
+  public SeismicDataLoader() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_MEMORY_BUDGET);
+  }
+
+  /**
+   * Create a loader.
+   *
+   * @param threads number of files to read at once
+   * @param memoryBudget bytes which may be held by files not yet handed off
+   */
+  public SeismicDataLoader(int threads, long memoryBudget) {
+    this.threads = Math.max(1, threads);
+    this.memoryBudget = memoryBudget;
+  }
+
+  public void addProgressListener(ProgressListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeProgressListener(ProgressListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Read files and merge their channels by name. The whole result is held in memory, whatever the
+   * memory budget.
+   *
+   * @param files files to read
+   * @return every channel read, in the order first seen
+   * @throws IOException if interrupted
+   */
+  public Map<String, SegmentedWave> load(Collection<File> files) throws IOException {
+    final Map<String, SegmentedWave> merged = new LinkedHashMap<String, SegmentedWave>();
+    load(files, new FileHandler() {
+      @Override
+      public void fileRead(SeismicDataFile file) {
+        for (final String channel : file.getChannels()) {
+          final SegmentedWave wave = file.getSegmentedWave(channel);
+          if (wave == null) {
+            continue;
+          }
+          SegmentedWave parts = merged.get(channel);
+          if (parts == null) {
+            parts = new SegmentedWave();
+            merged.put(channel, parts);
+          }
+          for (final Wave segment : wave.getSegments()) {
+            if (!parts.add(segment) && segment.numSamples() > 0) {
+              LOGGER.warn("Sampling rate of {} in {} does not match other files, skipped.",
+                  channel, file.getFileName());
+            }
+          }
+        }
+      }
+    });
+    return merged;
+  }
+
+  /**
+   * Read files, handing each to a handler as soon as it has been read.
+   *
+   * @param files files to read
+   * @param handler receives each file
+   * @throws IOException if interrupted or the handler fails
+   */
+  public void load(Collection<File> files, final FileHandler handler) throws IOException {
+    failed.clear();
+    final int total = files.size();
+    final AtomicInteger done = new AtomicInteger();
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(threads, Math.max(1, total)), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "SeismicDataLoader-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+
+    try {
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>(total);
+      for (final File file : files) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException, InterruptedException {
+            try {
+              readFile(file, handler);
+            } finally {
+              progress(done.incrementAndGet(), total);
+            }
+            return null;
+          }
+        }));
+      }
+
+      for (final Future<Void> f : futures) {
+        f.get();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted loading files");
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void readFile(File file, FileHandler handler) throws IOException, InterruptedException {
+    final SeismicDataFile data = SeismicDataFile.getFile(file);
+    if (data == null) {
+      LOGGER.warn("Unknown file type, skipped: {}", file);
+      failed.add(file.getPath());
+      return;
+    }
+
+    long held = estimate(file);
+    reserve(held);
+    try {
+      try {
+        data.read();
+      } catch (final IOException e) {
+        LOGGER.warn("Cannot read {}: {}", file, e.getMessage());
+        failed.add(file.getPath());
+        return;
+      } catch (final RuntimeException e) {
+        LOGGER.warn("Cannot read {}", file, e);
+        failed.add(file.getPath());
+        return;
+      }
+
+      final long used = memorySize(data);
+      adjust(used - held);
+      held = used;
+
+      synchronized (handlerLock) {
+        handler.fileRead(data);
+      }
+    } finally {
+      release(held);
+    }
+  }
+
+  /**
+   * Guess the memory a file will need once read.
+   */
+  private static long estimate(File file) {
+    final FileType type = FileType.fromFile(file);
+    // compressed formats expand to four bytes per sample
+    final int expansion = type == FileType.SEED || type == FileType.WIN ? 4 : 1;
+    return file.length() * expansion;
+  }
+
+  private static long memorySize(SeismicDataFile data) {
+    long size = 0;
+    for (final String channel : data.getChannels()) {
+      final SegmentedWave wave = data.getSegmentedWave(channel);
+      if (wave != null) {
+        size += wave.getMemorySize();
+      }
+    }
+    return size;
+  }
+
+  private synchronized void reserve(long bytes) throws InterruptedException {
+    while (memoryInUse > 0 && memoryInUse + bytes > memoryBudget) {
+      wait();
+    }
+    memoryInUse += bytes;
+  }
+
+  private synchronized void adjust(long bytes) {
+    memoryInUse += bytes;
+    if (bytes < 0) {
+      notifyAll();
+    }
+  }
+
+  private synchronized void release(long bytes) {
+    memoryInUse -= bytes;
+    notifyAll();
+  }
+
+  private void progress(int done, int total) {
+    final float portion = total == 0 ? 1 : (float) done / total;
+    for (final ProgressListener listener : listeners) {
+      listener.progressDone(portion);
+    }
+  }
+
+  /**
+   * Gets the memory held by files read but not yet handed off.
+   *
+   * @return bytes in use
+   */
+  public synchronized long getMemoryInUse() {
+    return memoryInUse;
+  }
+
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * Gets the files which could not be read by the last load.
+   *
+   * @return file names
+   */
+  public List<String> getFailedFiles() {
+    return Collections.unmodifiableList(failed);
+  }
+}
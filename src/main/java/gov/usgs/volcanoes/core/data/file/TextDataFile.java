@@ -72,8 +72,9 @@ public class TextDataFile extends SeismicDataFile {
 
     for (Wave wave : waves.values()) {
       double ct = Time.j2kToEw(wave.getStartTime());
-      for (int i = 0; i < wave.buffer.length; i++) {
-        out.println(Math.round(ct * 1000) + " " + wave.buffer[i]);
+      int[] samples = wave.getSamples().toInts();
+      for (int i = 0; i < samples.length; i++) {
+        out.println(Math.round(ct * 1000) + " " + samples[i]);
         ct += wave.getSamplingPeriod();
       }
     }
@@ -1,18 +1,17 @@
 package gov.usgs.volcanoes.core.data.file;
 
+import gov.usgs.volcanoes.core.data.SegmentedWave;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
@@ -33,9 +32,10 @@ public class WinDataFile extends SeismicDataFile {
   public static File configFile = null;
   private String timeZone = "UTC";
   private HashMap<Integer, String> channelInfo = new HashMap<Integer, String>();
-  private Map<Integer, List<ChannelData>> channelMap = new TreeMap<Integer, List<ChannelData>>();
-  private ByteBuffer converter2 = ByteBuffer.wrap(new byte[2]);
-  private ByteBuffer converter4 = ByteBuffer.wrap(new byte[4]);
+  private Map<Integer, List<Run>> channelMap = new TreeMap<Integer, List<Run>>();
+  // run currently being filled for each channel number
+  private Run[] runs = new Run[256];
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
 
   public WinDataFile(String filename) {
     super(filename, "WIN^");
@@ -45,156 +45,124 @@ public class WinDataFile extends SeismicDataFile {
     return b;
   }
 
-  private int intFromFourBytes(byte[] bites) {
-    converter4.clear();
-    converter4.mark();
-    converter4.put(bites);
-    converter4.rewind();
-    return converter4.getInt();
-  }
-
-  private int intFromThreeBytes(byte[] bites) {
-    byte pad = (byte) ((bites[0] < 0) ? -1 : 0);
-    byte[] padded = new byte[] {pad, bites[0], bites[1], bites[2]};
-    return intFromFourBytes(padded);
-  }
-
-  private short shortFromTwoBytes(byte[] bites) {
-    converter2.clear();
-    converter2.mark();
-    converter2.put(bites);
-    converter2.rewind();
-    return converter2.getShort();
-  }
-
-  private int decodeBcd(byte[] b) {
-    StringBuffer buf = new StringBuffer(b.length * 2);
-    for (int i = 0; i < b.length; ++i) {
-      buf.append((char) (((b[i] & 0xf0) >> 4) + '0'));
-      if ((i != b.length) && ((b[i] & 0xf) != 0x0A)) {
-        buf.append((char) ((b[i] & 0x0f) + '0'));
-      }
-    }
-    return Integer.parseInt(buf.toString());
+  /**
+   * Decode a two digit BCD byte.
+   */
+  private static int decodeBcd(byte b) {
+    int high = (b & 0xf0) >> 4;
+    int low = b & 0x0f;
+    return low == 0x0A ? high : high * 10 + low;
   }
 
   /**
-   * Reads the header from the given stream.
+   * Reads the header of a one second block.
    * 
-   * @param dis DataInputStream to read WIN from
-   * @throws FileNotFoundException if the file cannot be found
-   * @throws IOException if it isn't a WIN file
+   * @param c receives the header
+   * @param buf the file, positioned at the start of the block
    */
-  private void readHeader(ChannelData c, DataInputStream dis)
-      throws FileNotFoundException, IOException {
-    // read first 4 byte: file size
-    byte[] fourBytes = new byte[4];
-    byte[] oneByte = new byte[1];
-
-    dis.readFully(fourBytes);
-    c.packetSize = intFromFourBytes(fourBytes);
-
-    // read next 6 bytes: yy mm dd hh mi ss
-    dis.readFully(oneByte);
-    c.year = 2000 + decodeBcd(oneByte);
-
-    dis.readFully(oneByte);
-    c.month = decodeBcd(oneByte);
-
-    dis.readFully(oneByte);
-    c.day = decodeBcd(oneByte);
-
-    dis.readFully(oneByte);
-    c.hour = decodeBcd(oneByte);
-
-    dis.readFully(oneByte);
-    c.minute = decodeBcd(oneByte);
-
-    dis.readFully(oneByte);
-    c.second = decodeBcd(oneByte);
+  private void readHeader(ChannelData c, ByteBuffer buf) {
+    // first 4 bytes: block size
+    c.packetSize = buf.getInt();
+
+    // next 6 bytes: yy mm dd hh mi ss
+    c.year = 2000 + decodeBcd(buf.get());
+    c.month = decodeBcd(buf.get());
+    c.day = decodeBcd(buf.get());
+    c.hour = decodeBcd(buf.get());
+    c.minute = decodeBcd(buf.get());
+    c.second = decodeBcd(buf.get());
   }
 
   /**
-   * Read the data portion of WIN format from the given stream.
+   * Read the channels of a one second block, appending their samples to each channel's run.
    * 
-   * @param dis DataInputStream to read WIN from
+   * @param header header of the block
+   * @param buf the file, positioned after the block header
    * @throws IOException if it isn't a WIN file
    */
-  private void readData(final ChannelData header, final DataInputStream dis) throws IOException {
+  private void readData(ChannelData header, double start, ByteBuffer buf) throws IOException {
     int bytesRead = 10;
 
     do {
-      ChannelData c = new ChannelData(header);
-      c.inBuf = new ArrayList<Integer>();
-      byte[] oneByte = new byte[1];
-      dis.readFully(oneByte);
-
-      dis.readFully(oneByte);
-      c.channelNumber = intFromSingleByte(oneByte[0]);
-
-      dis.readFully(oneByte);
-      byte sampleRateUpperBits = (byte) (oneByte[0] & 0xF);
-      c.dataSize = intFromSingleByte(oneByte[0]) >> 4;
-
-      dis.readFully(oneByte);
-      c.samplingRate = intFromSingleByte(oneByte[0]) + (sampleRateUpperBits << 4);
-
-      byte[] fourBytes = new byte[4];
-      dis.readFully(fourBytes);
-      int accum = intFromFourBytes(fourBytes);
-
-      c.inBuf.add(accum);
+      buf.get();
+      int channelNumber = intFromSingleByte(buf.get());
+
+      // 4 bit sample size, then a 12 bit sampling rate
+      byte sizeAndRate = buf.get();
+      int dataSize = intFromSingleByte(sizeAndRate) >> 4;
+      int samplingRate = ((sizeAndRate & 0x0F) << 8) | (buf.get() & 0xFF);
+      if (samplingRate < 1) {
+        throw new IOException("Bad WIN sampling rate in " + fileName + " at " + buf.position());
+      }
 
-      float[] d = new float[(int) c.samplingRate - 1];
+      Run run = run(channelNumber, start, samplingRate);
+      int i = run.append(samplingRate);
+      int[] samples = run.buffer;
+      int accum = buf.getInt();
+      samples[i++] = accum;
+      int end = i + samplingRate - 1;
 
       bytesRead += 8;
-      if (c.dataSize == 0) {
-        for (int ix = 0; ix < ((int) c.samplingRate - 1); ix++) {
-          accum += dis.readByte();
-          c.inBuf.add(accum);
-
+      if (dataSize == 0) {
+        // 4 bit differences, two to a byte
+        while (i < end) {
+          byte b = buf.get();
+          accum += b >> 4;
+          samples[i++] = accum;
+          if (i < end) {
+            accum += (byte) (b << 4) >> 4;
+            samples[i++] = accum;
+          }
         }
-      } else if (c.dataSize == 1) {
-        for (int ix = 0; ix < ((int) c.samplingRate - 1); ix++) {
-          accum += dis.readByte();
-          c.inBuf.add(accum);
-          bytesRead++;
+        bytesRead += samplingRate / 2;
+      } else if (dataSize == 1) {
+        while (i < end) {
+          accum += buf.get();
+          samples[i++] = accum;
         }
-      } else if (c.dataSize == 2) {
-        byte[] twoBytes = new byte[2];
-        for (int ix = 0; ix < ((int) c.samplingRate - 1); ix++) {
-          dis.readFully(twoBytes);
-          accum += shortFromTwoBytes(twoBytes);
-          d[ix] = accum;
-          c.inBuf.add(accum);
-          bytesRead += 2;
+        bytesRead += samplingRate - 1;
+      } else if (dataSize == 2) {
+        while (i < end) {
+          accum += buf.getShort();
+          samples[i++] = accum;
         }
-      } else if (c.dataSize == 3) {
-        byte[] threeBytes = new byte[3];
-        for (int ix = 0; ix < ((int) c.samplingRate - 1); ix++) {
-          dis.readFully(threeBytes);
-          accum += intFromThreeBytes(threeBytes);
-          d[ix] = accum;
-          c.inBuf.add(accum);
-          bytesRead += 3;
+        bytesRead += (samplingRate - 1) * 2;
+      } else if (dataSize == 3) {
+        while (i < end) {
+          accum += (buf.get() << 16) | ((buf.get() & 0xFF) << 8) | (buf.get() & 0xFF);
+          samples[i++] = accum;
         }
-      } else if (c.dataSize == 4) {
-        for (int ix = 0; ix < ((int) c.samplingRate - 1); ix++) {
-          dis.readFully(fourBytes);
-          accum += intFromFourBytes(fourBytes);
-
-          d[ix] = accum;
-          c.inBuf.add(accum);
-          bytesRead += 4;
+        bytesRead += (samplingRate - 1) * 3;
+      } else if (dataSize == 4) {
+        while (i < end) {
+          accum += buf.getInt();
+          samples[i++] = accum;
         }
+        bytesRead += (samplingRate - 1) * 4;
+      } else {
+        throw new IOException("Bad WIN sample size in " + fileName + " at " + buf.position());
       }
-      List<ChannelData> list = channelMap.get(c.channelNumber);
+    } while (bytesRead < header.packetSize);
+  }
+
+  /**
+   * Get the run a block of a channel belongs to, starting a new run after a gap or a change of
+   * sampling rate.
+   */
+  private Run run(int channelNumber, double start, int samplingRate) {
+    int index = channelNumber & 0xff;
+    Run run = runs[index];
+    if (run == null || !run.continuedBy(start, samplingRate)) {
+      run = new Run(start, samplingRate);
+      runs[index] = run;
+      List<Run> list = channelMap.get(channelNumber);
       if (list == null) {
-        list = new ArrayList<ChannelData>();
-        channelMap.put(c.channelNumber, list);
+        list = new ArrayList<Run>();
+        channelMap.put(channelNumber, list);
       }
-      list.add(c);
-    } while (bytesRead < header.packetSize);
+      list.add(run);
+    }
+    return run;
   }
 
   /**
@@ -221,52 +189,48 @@ public class WinDataFile extends SeismicDataFile {
     }
 
     // Read WIN file
-    FileInputStream fis = new FileInputStream(fileName);
-    BufferedInputStream buf = new BufferedInputStream(fis);
-    DataInputStream dis = new DataInputStream(buf);
-    while (dis.available() != 0) {
-      ChannelData cur = new ChannelData();
-      readHeader(cur, dis);
-      readData(cur, dis);
+    channelMap.clear();
+    Arrays.fill(runs, null);
+    ByteBuffer buf = mapFile();
+    TimeZone zone = TimeZone.getTimeZone(timeZone);
+    Calendar cal = Calendar.getInstance(zone);
+    ChannelData cur = new ChannelData();
+    try {
+      while (buf.hasRemaining()) {
+        readHeader(cur, buf);
+        readData(cur, J2kSec.fromDate(getStartTime(cal, zone, cur)), buf);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated WIN file " + fileName);
     }
-    dis.close();
 
     // create wave objects
-    for (List<ChannelData> channels : channelMap.values()) {
-      List<Wave> subParts = new ArrayList<Wave>(channels.size());
-      int index = channels.get(0).channelNumber;
+    for (Map.Entry<Integer, List<Run>> entry : channelMap.entrySet()) {
+      int index = entry.getKey();
       String channel = channelInfo.get(index);
       if (channel == null) {
         channel = Integer.toString(index);
       } else {
         channel = channel.replaceAll(" ", "\\$");
       }
-      for (ChannelData c : channels) {
-        subParts.add(toWave(c));
-        Wave wave = Wave.join(subParts);
-        waves.put(channel, wave);
+      SegmentedWave parts = new SegmentedWave();
+      for (Run run : entry.getValue()) {
+        parts.add(run.toWave());
       }
+      putSegmentedWave(channel, parts);
     }
   }
 
-  private Wave toWave(ChannelData c) {
-    Wave sw = new Wave();
-    sw.setStartTime(J2kSec.fromDate(getStartTime(c)));
-    sw.setSamplingRate(c.samplingRate);
-    sw.buffer = new int[c.inBuf.size()];
-    for (int j = 0; j < c.inBuf.size(); j++) {
-      sw.buffer[j] = c.inBuf.get(j);
-    }
-    return sw;
-  }
-
   /**
    * Get start time of data.
    * 
+   * @param cal calendar reused between blocks
+   * @param zone time zone of the file
+   * @param c block header
    * @return start time of data
    */
-  private Date getStartTime(ChannelData c) {
-    Calendar cal = Calendar.getInstance(TimeZone.getTimeZone(timeZone));
+  private Date getStartTime(Calendar cal, TimeZone zone, ChannelData c) {
+    cal.setTimeZone(zone);
     cal.setTimeInMillis(0);
     cal.set(Calendar.YEAR, c.year);
     cal.set(Calendar.MONTH, c.month - 1);
@@ -274,7 +238,7 @@ public class WinDataFile extends SeismicDataFile {
     cal.set(Calendar.HOUR_OF_DAY, c.hour);
     cal.set(Calendar.MINUTE, c.minute);
     cal.set(Calendar.SECOND, c.second);
-    cal.setTimeZone(TimeZone.getTimeZone("UTC"));
+    cal.setTimeZone(UTC);
     return cal.getTime();
   }
 
@@ -300,6 +264,10 @@ public class WinDataFile extends SeismicDataFile {
     public int channelNumber;
     public int dataSize;
     public float samplingRate;
+    /**
+     * @deprecated samples are decoded straight into each channel's buffer
+     */
+    @Deprecated
     public List<Integer> inBuf;
 
     public ChannelData() {}
@@ -330,4 +298,46 @@ public class WinDataFile extends SeismicDataFile {
       return text;
     }
   }
+
+  /**
+   * Contiguous seconds of one channel, decoded into a buffer which grows as blocks arrive.
+   */
+  private static class Run {
+    private final double start;
+    private final int samplingRate;
+    private int[] buffer;
+    private int size;
+
+    Run(double start, int samplingRate) {
+      this.start = start;
+      this.samplingRate = samplingRate;
+      // room for a minute before growing
+      buffer = new int[samplingRate * 60];
+    }
+
+    boolean continuedBy(double blockStart, int rate) {
+      return rate == samplingRate
+          && Math.abs(blockStart - (start + (double) size / samplingRate)) < 0.5 / samplingRate;
+    }
+
+    /**
+     * Make room for a block.
+     * 
+     * @param count number of samples in the block
+     * @return index in the buffer of the first sample of the block
+     */
+    int append(int count) {
+      if (size + count > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + count));
+      }
+      int first = size;
+      size += count;
+      return first;
+    }
+
+    Wave toWave() {
+      return new Wave(size == buffer.length ? buffer : Arrays.copyOf(buffer, size), start,
+          samplingRate);
+    }
+  }
 }
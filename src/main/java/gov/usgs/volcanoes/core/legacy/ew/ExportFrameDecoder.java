@@ -0,0 +1,259 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Splits an Earthworm export_generic byte stream into messages. Each message is framed by STX and
+ * ETX, with ESC escaping any framing byte in the body, and may begin with an "SQ:nnn" sequence
+ * number when export_generic expects an acknowledgement.
+ *
+ * <p>The stream is read in bulk and runs of unescaped bytes are copied into the frame a block at a
+ * time. Decoding state is kept between reads, so a message may be split across any number of
+ * reads. A message longer than the maximum size is dropped and counted rather than overrunning
+ * the frame buffer.
+ */
+public class ExportFrameDecoder {
+  /**
+   * Receives decoded messages.
+   */
+  public interface FrameHandler {
+    /**
+     * Called for each complete message. The frame buffer is reused once this returns.
+     *
+     * @param frame the message, logo first, followed by a terminating zero byte
+     * @param length number of bytes in the message, including the terminating zero
+     * @param seq the sequence number, or <code>Integer.MIN_VALUE</code> if there is none
+     * @throws IOException if the message cannot be handled
+     */
+    void frame(byte[] frame, int length, int seq) throws IOException;
+  }
+
+  public static final byte STX = 2;
+  public static final byte ETX = 3;
+  public static final byte ESC = 27;
+
+  /** Largest message accepted by default, including the terminating zero. */
+  public static final int DEFAULT_MAX_MESSAGE_SIZE = 65000;
+
+  private static final int READ_BUFFER_SIZE = 65536;
+  private static final int INITIAL_FRAME_SIZE = 4096;
+  private static final int SEQ_LENGTH = 6;
+
+  // seq has not been looked for yet
+  private static final int SEQ_UNKNOWN = Integer.MAX_VALUE;
+
+  private final int maxMessageSize;
+  private final ByteBuffer readBuffer;
+  private byte[] frame;
+  private int length;
+  private int seq;
+  private boolean inFrame;
+  private boolean escape;
+  private boolean overflow;
+  private byte lastByte;
+
+  private long frameCount;
+  private long overflowCount;
+  private long bytesRead;
+
+  /**
+   * Create a decoder with the default maximum message size.
+   */
+  public ExportFrameDecoder() {
+    this(DEFAULT_MAX_MESSAGE_SIZE);
+  }
+
+  /**
+   * Create a decoder.
+   *
+   * @param maxMessageSize largest message accepted, including the terminating zero
+   */
+  public ExportFrameDecoder(int maxMessageSize) {
+    this.maxMessageSize = maxMessageSize;
+    readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    frame = new byte[Math.min(INITIAL_FRAME_SIZE, maxMessageSize)];
+    reset();
+  }
+
+  /**
+   * Forget any partial message, for instance after reconnecting.
+   */
+  public void reset() {
+    length = 0;
+    seq = SEQ_UNKNOWN;
+    inFrame = false;
+    escape = false;
+    overflow = false;
+    lastByte = 0;
+  }
+
+  /**
+   * Read whatever the channel has and decode it.
+   *
+   * @param channel the export_generic stream
+   * @param handler receives each complete message
+   * @return number of messages decoded, or -1 at the end of the stream
+   * @throws IOException if the read fails or a message cannot be handled
+   */
+  public int read(ReadableByteChannel channel, FrameHandler handler) throws IOException {
+    readBuffer.clear();
+    final int n = channel.read(readBuffer);
+    if (n == -1) {
+      return -1;
+    }
+    bytesRead += n;
+    return decode(readBuffer.array(), 0, n, handler);
+  }
+
+  /**
+   * Decode part of the stream.
+   *
+   * @param b bytes from the stream
+   * @param off index of the first byte
+   * @param len number of bytes
+   * @param handler receives each complete message
+   * @return number of messages decoded
+   * @throws IOException if a message cannot be handled
+   */
+  public int decode(byte[] b, int off, int len, FrameHandler handler) throws IOException {
+    int messages = 0;
+    final int end = off + len;
+    int i = off;
+    while (i < end) {
+      if (!inFrame) {
+        final byte c = b[i++];
+        if (c == STX && lastByte != ESC) {
+          inFrame = true;
+        }
+        lastByte = c;
+      } else if (escape) {
+        append(b, i++, 1);
+        escape = false;
+      } else {
+        int j = i;
+        while (j < end && b[j] != ESC && b[j] != ETX) {
+          j++;
+        }
+        append(b, i, j - i);
+        i = j;
+        if (i < end) {
+          if (b[i++] == ESC) {
+            escape = true;
+          } else {
+            if (finish(handler)) {
+              messages++;
+            }
+          }
+        }
+      }
+    }
+    return messages;
+  }
+
+  private void append(byte[] b, int off, int len) {
+    if (overflow || len == 0) {
+      return;
+    }
+
+    // leave room for the terminating zero
+    if (length + len >= maxMessageSize) {
+      overflow = true;
+      return;
+    }
+    if (length + len >= frame.length) {
+      int size = frame.length;
+      while (size <= length + len) {
+        size *= 2;
+      }
+      final byte[] grown = new byte[Math.min(size, maxMessageSize)];
+      System.arraycopy(frame, 0, grown, 0, length);
+      frame = grown;
+    }
+    System.arraycopy(b, off, frame, length, len);
+    length += len;
+
+    if (seq == SEQ_UNKNOWN && length >= SEQ_LENGTH) {
+      findSeq();
+    }
+  }
+
+  /**
+   * Look for a leading "SQ:nnn" and remove it from the frame.
+   */
+  private void findSeq() {
+    seq = Integer.MIN_VALUE;
+    if (frame[0] != 'S' || frame[1] != 'Q' || frame[2] != ':') {
+      return;
+    }
+
+    int n = 0;
+    boolean digits = false;
+    for (int i = 3; i < SEQ_LENGTH; i++) {
+      final byte c = frame[i];
+      if (c >= '0' && c <= '9') {
+        n = n * 10 + (c - '0');
+        digits = true;
+      } else if (c != ' ') {
+        return;
+      }
+    }
+    if (!digits) {
+      return;
+    }
+
+    seq = n;
+    length -= SEQ_LENGTH;
+    System.arraycopy(frame, SEQ_LENGTH, frame, 0, length);
+  }
+
+  private boolean finish(FrameHandler handler) throws IOException {
+    final boolean complete = !overflow;
+    if (complete) {
+      frame[length++] = 0;
+      if (seq == SEQ_UNKNOWN) {
+        seq = Integer.MIN_VALUE;
+      }
+      frameCount++;
+    } else {
+      overflowCount++;
+    }
+
+    final int s = seq;
+    final int n = length;
+    reset();
+    lastByte = ETX;
+    if (complete) {
+      handler.frame(frame, n, s);
+    }
+    return complete;
+  }
+
+  /**
+   * Gets the number of messages decoded.
+   *
+   * @return message count
+   */
+  public long getFrameCount() {
+    return frameCount;
+  }
+
+  /**
+   * Gets the number of messages dropped for exceeding the maximum size.
+   *
+   * @return dropped message count
+   */
+  public long getOverflowCount() {
+    return overflowCount;
+  }
+
+  /**
+   * Gets the number of bytes read by <code>read()</code>.
+   *
+   * @return byte count
+   */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+}
@@ -10,15 +10,14 @@ import gov.usgs.volcanoes.core.util.ByteUtil;
 import gov.usgs.volcanoes.core.util.Retriable;
 import gov.usgs.volcanoes.core.util.UtilException;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -28,6 +27,12 @@ import java.util.logging.Logger;
 /**
  * Stub for writing programs that communicate with Earthworm export_generic.
  *
+ * <p>The stream is read in bulk and split into messages by an {@link ExportFrameDecoder}. By
+ * default listeners are called on the thread reading the socket. <code>setDispatchRingSize()</code>
+ * hands messages to listeners through a {@link MessageRing} instead, so each listener runs on its
+ * own thread and a slow listener cannot hold up reading the socket; export_generic drops clients
+ * which fall behind. A listener which falls a whole ring behind skips the messages it missed.
+ *
  * @author Dan Cervelli
  */
 public class ImportGeneric extends Thread {
@@ -118,10 +123,12 @@ public class ImportGeneric extends Thread {
     }
   }
 
-  private static final byte ESC = 27;
-  private static final byte ETX = 3;
+  private static final byte ETX = ExportFrameDecoder.ETX;
+
+  private static final byte STX = ExportFrameDecoder.STX;
 
-  private static final byte STX = 2;
+  /** Suggested number of messages held for listeners which fall behind. */
+  public static final int DEFAULT_DISPATCH_RING_SIZE = 4096;
 
   public static void main(String[] args) {
     if (args.length == 2) {
@@ -158,7 +165,13 @@ public class ImportGeneric extends Thread {
   protected Logger logger;
   protected int maxRetries = 3;
 
-  protected byte[] msgBuf;// = new byte[65000];
+  // the most recent message read, valid until the next is read
+  protected byte[] msgBuf;
+
+  protected ExportFrameDecoder decoder;
+  protected int dispatchRingSize = 0;
+  protected MessageRing ring;
+  protected ExportFrameDecoder.FrameHandler frameHandler;
 
   protected boolean needReconnect;
   protected int port;
@@ -169,7 +182,7 @@ public class ImportGeneric extends Thread {
   protected volatile boolean shutdown = false;
   protected Socket socket;
 
-  protected DataInputStream socketIn;
+  protected ReadableByteChannel socketChannel;
 
   protected DataOutputStream socketOut;
 
@@ -179,7 +192,8 @@ public class ImportGeneric extends Thread {
 
   public ImportGeneric() {
     super("ImportGeneric");
-    msgBuf = new byte[65000];
+    msgBuf = new byte[ExportFrameDecoder.DEFAULT_MAX_MESSAGE_SIZE];
+    decoder = new ExportFrameDecoder();
     logger = Logger.getLogger("gov.usgs.earthworm");
     listeners = new HashMap<>();
   }
@@ -197,6 +211,62 @@ public class ImportGeneric extends Thread {
       listeners.put(type, list);
     }
     list.add(ml);
+
+    if (dispatchRingSize > 0) {
+      if (ring == null) {
+        ring = new MessageRing(dispatchRingSize);
+      }
+      ring.subscribe(type, ml);
+    }
+  }
+
+  /**
+   * Set the number of messages held for listeners, or 0, the default, to call listeners on the
+   * thread reading the socket. Must be called before any listener is added.
+   *
+   * @param size ring size, a power of two such as <code>DEFAULT_DISPATCH_RING_SIZE</code>, or 0
+   */
+  public void setDispatchRingSize(int size) {
+    dispatchRingSize = size;
+  }
+
+  /**
+   * Take over messages as they are decoded from the stream, before they are parsed. The handler
+   * may pass messages it does not want to <code>handleFrame()</code>.
+   *
+   * @param handler the handler, or null to parse and dispatch every message
+   */
+  public void setFrameHandler(ExportFrameDecoder.FrameHandler handler) {
+    frameHandler = handler;
+  }
+
+  /**
+   * Parse a message decoded from the stream and dispatch it to listeners.
+   *
+   * @param frame the message
+   * @param length number of bytes in the message
+   * @param seq the sequence number
+   * @throws IOException if the message cannot be parsed
+   */
+  public void handleFrame(byte[] frame, int length, int seq) throws IOException {
+    msgBuf = frame;
+    final Message msg = MessageFactory.createMessage(frame, length, seq);
+    dispatchMessage(msg);
+  }
+
+  /**
+   * Gets a summary of listener progress, formatted for the console.
+   *
+   * @return the summary
+   */
+  public String getDispatchStatistics() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Read %d bytes, %d messages, %d oversized messages dropped\n",
+        decoder.getBytesRead(), decoder.getFrameCount(), decoder.getOverflowCount()));
+    if (ring != null) {
+      sb.append(ring.getStatisticsString());
+    }
+    return sb.toString();
   }
 
   public void close() {
@@ -210,7 +280,7 @@ public class ImportGeneric extends Thread {
       removeListener(MessageType.TYPE_HEARTBEAT, expectedHeartbeat);
       socketOut.close();
       socketWriter.close();
-      socketIn.close();
+      socketChannel.close();
       socket.close();
     } catch (final IOException e) {
       logger.severe("ImportGeneric.close() IOException: " + e.getMessage());
@@ -230,7 +300,9 @@ public class ImportGeneric extends Thread {
           socket.setSoTimeout(timeout);
           socketOut = new DataOutputStream(socket.getOutputStream());
           socketWriter = new PrintWriter(socket.getOutputStream());
-          socketIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+          // a channel over the stream, unlike a SocketChannel, honors the socket timeout
+          socketChannel = Channels.newChannel(socket.getInputStream());
+          decoder.reset();
           logger.fine("ImportGeneric connected.");
           result = new Boolean(true);
           heartbeat = new HeartbeatThread();
@@ -276,7 +348,18 @@ public class ImportGeneric extends Thread {
     return b != null && b.booleanValue();
   }
 
+  /**
+   * Deliver a message to the listeners for its type, through the ring if there is one. Called on
+   * the thread reading the socket.
+   *
+   * @param msg the message
+   */
   public void dispatchMessage(Message msg) {
+    if (ring != null) {
+      ring.publish(msg);
+      return;
+    }
+
     final List<MessageListener> list = listeners.get(msg.logo.getType());
     if (list != null) {
 
@@ -323,13 +406,24 @@ public class ImportGeneric extends Thread {
     }
 
     list.remove(ml);
+    if (ring != null) {
+      ring.unsubscribe(type, ml);
+    }
   }
 
-  // TODO: prevent buffer overflows.
   @Override
   public void run() {
-    // logger.fine("Starting listener thread.");
-    byte lastByte = ESC;
+    final ExportFrameDecoder.FrameHandler handler = new ExportFrameDecoder.FrameHandler() {
+      @Override
+      public void frame(byte[] frame, int length, int seq) throws IOException {
+        if (frameHandler != null) {
+          frameHandler.frame(frame, length, seq);
+        } else {
+          handleFrame(frame, length, seq);
+        }
+      }
+    };
+
     while (!shutdown) {
       try {
         if (needReconnect) {
@@ -342,50 +436,10 @@ public class ImportGeneric extends Thread {
           continue;
         }
 
-        boolean start = false;
-
-        try {
-          final byte b = socketIn.readByte();
-          if (b == STX) {
-            if (lastByte != ESC) {
-              start = true;
-            } else {
-              lastByte = b;
-            }
-          }
-        } catch (final EOFException e) {
+        if (decoder.read(socketChannel, handler) == -1) {
           needReconnect = true;
         }
 
-        if (start) {
-          int i = 0;
-          int seq = Integer.MAX_VALUE;
-          boolean done = false;
-          boolean escape = false;
-          while (!done) {
-            final byte b3 = socketIn.readByte();
-            if (!escape && b3 == ETX) {
-              done = true;
-            } else if (!escape && b3 == ESC) {
-              escape = true;
-            } else {
-              msgBuf[i++] = b3;
-              escape = false;
-            }
-
-            // check for sequence number and reset index if found
-            if (i == 6 && seq == Integer.MAX_VALUE) {
-              seq = findSeq(new String(msgBuf, 0, 6));
-              if (seq != Integer.MIN_VALUE) {
-                i = 0;
-              }
-            }
-          }
-          // message done
-          msgBuf[i++] = 0;
-          final Message msg = MessageFactory.createMessage(msgBuf, i, seq);
-          dispatchMessage(msg);
-        }
         if (shutdown) {
           close();
         }
@@ -398,6 +452,9 @@ public class ImportGeneric extends Thread {
         outOfMemoryErrorOccurred(e);
       }
     }
+    if (ring != null) {
+      ring.shutdown();
+    }
   }
 
   public void sendAck(int seq) {
@@ -416,7 +473,7 @@ public class ImportGeneric extends Thread {
     }
   }
 
-  public void sendMsg(MessageLogo l, String s) throws IOException {
+  public synchronized void sendMsg(MessageLogo l, String s) throws IOException {
     final byte[] b = new byte[50];
     b[0] = STX;
     final byte[] lb = l.toDataStreamBytes();
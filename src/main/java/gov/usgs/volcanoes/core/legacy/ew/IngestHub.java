@@ -0,0 +1,431 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import gov.usgs.volcanoes.core.legacy.ew.message.Message;
+import gov.usgs.volcanoes.core.legacy.ew.message.MessageFactory;
+import gov.usgs.volcanoes.core.legacy.ew.message.MessageType;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBufView;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Merges redundant export_generic feeds into a single stream of messages. Several
+ * <code>ImportGeneric</code> connections feed the hub; TRACEBUF and TRACEBUF2 packets are
+ * identified by SCNL and first sample time straight from the decoded frame, so a packet which has
+ * already arrived on another feed is dropped before it is parsed. Surviving packets are parsed
+ * once and handed to listeners through a {@link MessageRing}.
+ *
+ * <p>With a reorder window, packets are held for that long after they arrive and released in
+ * first sample time order for each channel, so a packet delayed on one feed is put back in
+ * sequence. Packets arriving after a later packet on the same channel has been released are still
+ * delivered and are counted as late.
+ *
+ * <p>Each channel remembers the first sample times of its most recent packets in a small sorted
+ * array of longs, so duplicate detection allocates nothing per packet.
+ *
+ * <p>Other messages, such as heartbeats, are left to the <code>ImportGeneric</code> they arrived
+ * on.
+ */
+public class IngestHub {
+  private static final Logger LOGGER = LoggerFactory.getLogger(IngestHub.class);
+
+  /** Default number of packets remembered for each channel. */
+  public static final int DEFAULT_DEDUP_CAPACITY = 512;
+
+  private static final int LOGO_LENGTH = 9;
+
+  private static final Comparator<Pending> BY_TIME = new Comparator<Pending>() {
+    public int compare(Pending p1, Pending p2) {
+      return Long.compare(p1.time, p2.time);
+    }
+  };
+
+  private final long reorderWindow;
+  private final int dedupCapacity;
+  private final MessageRing ring;
+  private final Object publishLock = new Object();
+  private final List<ImportGeneric> sources = new CopyOnWriteArrayList<ImportGeneric>();
+  private final ConcurrentHashMap<ChannelKey, ChannelState> channels =
+      new ConcurrentHashMap<ChannelKey, ChannelState>();
+
+  private final ThreadLocal<Probe> probes = new ThreadLocal<Probe>() {
+    @Override
+    protected Probe initialValue() {
+      return new Probe();
+    }
+  };
+
+  private final LongAdder received = new LongAdder();
+  private final LongAdder duplicates = new LongAdder();
+  private final LongAdder late = new LongAdder();
+  private final LongAdder delivered = new LongAdder();
+
+  private volatile boolean running;
+  private Thread flusher;
+
+  /**
+   * Create a hub.
+   *
+   * @param reorderWindowMillis how long to hold packets for reordering, or 0 to deliver at once
+   */
+  public IngestHub(long reorderWindowMillis) {
+    this(reorderWindowMillis, DEFAULT_DEDUP_CAPACITY, ImportGeneric.DEFAULT_DISPATCH_RING_SIZE);
+  }
+
+  /**
+   * Create a hub.
+   *
+   * @param reorderWindowMillis how long to hold packets for reordering, or 0 to deliver at once
+   * @param dedupCapacity number of packets remembered for each channel
+   * @param ringSize number of messages held for listeners, a power of two
+   */
+  public IngestHub(long reorderWindowMillis, int dedupCapacity, int ringSize) {
+    reorderWindow = reorderWindowMillis;
+    this.dedupCapacity = dedupCapacity;
+    ring = new MessageRing(ringSize);
+  }
+
+  /**
+   * Take TRACEBUF and TRACEBUF2 packets from a feed.
+   *
+   * @param source the feed
+   */
+  public void addSource(final ImportGeneric source) {
+    source.setFrameHandler(new ExportFrameDecoder.FrameHandler() {
+      @Override
+      public void frame(byte[] frame, int length, int seq) throws IOException {
+        if (!ingest(frame, length, seq)) {
+          source.handleFrame(frame, length, seq);
+        }
+      }
+    });
+    sources.add(source);
+  }
+
+  /**
+   * Deliver merged messages of a type to a listener on its own thread.
+   *
+   * @param type type of message, or null for all
+   * @param listener the listener
+   */
+  public void addListener(MessageType type, MessageListener listener) {
+    ring.subscribe(type, listener);
+  }
+
+  public void removeListener(MessageType type, MessageListener listener) {
+    ring.unsubscribe(type, listener);
+  }
+
+  /**
+   * Connect every feed and begin releasing held packets.
+   */
+  public synchronized void start() {
+    running = true;
+    if (reorderWindow > 0 && flusher == null) {
+      flusher = new Thread("IngestHub-flusher") {
+        @Override
+        public void run() {
+          final long interval = Math.max(1, reorderWindow / 4);
+          while (running) {
+            try {
+              Thread.sleep(interval);
+              flush(System.currentTimeMillis(), false);
+            } catch (final InterruptedException e) {
+            } catch (final RuntimeException e) {
+              LOGGER.error("Exception releasing packets.", e);
+            }
+          }
+        }
+      };
+      flusher.setDaemon(true);
+      flusher.start();
+    }
+
+    for (final ImportGeneric source : sources) {
+      source.connect();
+    }
+  }
+
+  /**
+   * Disconnect every feed, deliver any held packets, and stop the listeners.
+   */
+  public synchronized void shutdown() {
+    running = false;
+    for (final ImportGeneric source : sources) {
+      source.shutdown();
+    }
+    if (flusher != null) {
+      flusher.interrupt();
+      flusher = null;
+    }
+    flush(0, true);
+    ring.shutdown();
+  }
+
+  /**
+   * Take a packet from a feed.
+   *
+   * @return false if the message is not a trace packet and should be handled by the feed
+   */
+  boolean ingest(byte[] frame, int length, int seq) throws IOException {
+    final int type = logoType(frame);
+    final boolean isTraceBuf2 = type == MessageType.TYPE_TRACEBUF2.getType();
+    if (!isTraceBuf2 && type != MessageType.TYPE_TRACEBUF.getType()) {
+      return false;
+    }
+    if (length < LOGO_LENGTH + TraceBufView.HEADER_LENGTH) {
+      return false;
+    }
+    received.increment();
+
+    final Probe probe = probes.get();
+    if (probe.frame != frame) {
+      probe.frame = frame;
+      probe.buffer = ByteBuffer.wrap(frame);
+    }
+    final TraceBufView view = probe.view.wrap(probe.buffer, LOGO_LENGTH, isTraceBuf2);
+    final ChannelState state = getChannel(
+        probe.key.set(view.station(), view.channel(), view.network(), view.location()));
+    final long time = view.firstSampleTimeMicros();
+
+    synchronized (state) {
+      if (!state.times.add(time)) {
+        duplicates.increment();
+        return true;
+      }
+    }
+
+    final Message msg = MessageFactory.createMessage(frame, length, seq);
+    synchronized (state) {
+      if (reorderWindow > 0) {
+        state.pending.add(new Pending(time, System.currentTimeMillis(), msg));
+      } else {
+        release(state, time, msg);
+      }
+    }
+    return true;
+  }
+
+  private ChannelState getChannel(ChannelKey probe) {
+    ChannelState state = channels.get(probe);
+    if (state == null) {
+      final ChannelState created = new ChannelState(dedupCapacity);
+      state = channels.putIfAbsent(probe.copy(), created);
+      if (state == null) {
+        state = created;
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Release held packets which have waited out the reorder window.
+   *
+   * @param now current time in milliseconds
+   * @param all release every held packet
+   */
+  void flush(long now, boolean all) {
+    for (final ChannelState state : channels.values()) {
+      synchronized (state) {
+        Pending p;
+        while ((p = state.pending.peek()) != null && (all || now - p.arrival >= reorderWindow)) {
+          state.pending.poll();
+          release(state, p.time, p.msg);
+        }
+      }
+    }
+  }
+
+  private void release(ChannelState state, long time, Message msg) {
+    if (time < state.lastReleased) {
+      late.increment();
+    } else {
+      state.lastReleased = time;
+    }
+    synchronized (publishLock) {
+      ring.publish(msg);
+    }
+    delivered.increment();
+  }
+
+  private static int logoType(byte[] frame) {
+    int type = 0;
+    for (int i = 6; i < LOGO_LENGTH; i++) {
+      final byte b = frame[i];
+      if (b >= '0' && b <= '9') {
+        type = type * 10 + (b - '0');
+      } else if (b != ' ') {
+        return -1;
+      }
+    }
+    return type;
+  }
+
+  public long getReceivedCount() {
+    return received.sum();
+  }
+
+  public long getDuplicateCount() {
+    return duplicates.sum();
+  }
+
+  public long getLateCount() {
+    return late.sum();
+  }
+
+  public long getDeliveredCount() {
+    return delivered.sum();
+  }
+
+  public int getChannelCount() {
+    return channels.size();
+  }
+
+  /**
+   * Gets a summary of ingest statistics, formatted for the console.
+   *
+   * @return the summary
+   */
+  public String getStatisticsString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(String.format(
+        "Ingest: %d feeds, %d channels, %d received, %d duplicates, %d late, %d delivered\n",
+        sources.size(), channels.size(), getReceivedCount(), getDuplicateCount(), getLateCount(),
+        getDeliveredCount()));
+    sb.append(ring.getStatisticsString());
+    return sb.toString();
+  }
+
+  /**
+   * Recently seen first sample times, in microseconds, kept sorted in a window of a larger array.
+   * Packets mostly arrive in order, so an insert rarely moves more than a few entries, and the
+   * oldest entry is dropped by moving the start of the window.
+   */
+  static final class TimeIndex {
+    private final long[] times;
+    private final int capacity;
+    private int start;
+    private int end;
+
+    TimeIndex(int capacity) {
+      this.capacity = capacity;
+      times = new long[capacity * 2];
+    }
+
+    /**
+     * Remember a time.
+     *
+     * @param time the time
+     * @return false if the time was already present
+     */
+    boolean add(long time) {
+      int i = Arrays.binarySearch(times, start, end, time);
+      if (i >= 0) {
+        return false;
+      }
+      i = -i - 1;
+
+      if (end - start == capacity) {
+        if (i == start) {
+          // older than anything remembered
+          return true;
+        }
+        start++;
+      }
+      if (end == times.length) {
+        System.arraycopy(times, start, times, 0, end - start);
+        i -= start;
+        end -= start;
+        start = 0;
+      }
+      System.arraycopy(times, i, times, i + 1, end - i);
+      times[i] = time;
+      end++;
+      return true;
+    }
+
+    int size() {
+      return end - start;
+    }
+  }
+
+  /**
+   * A channel identified by its interned codes.
+   */
+  static final class ChannelKey {
+    private String station;
+    private String channel;
+    private String network;
+    private String location;
+    private int hash;
+
+    ChannelKey set(String s, String c, String n, String l) {
+      station = s;
+      channel = c;
+      network = n;
+      location = l;
+      hash = ((s.hashCode() * 31 + c.hashCode()) * 31 + n.hashCode()) * 31
+          + (l == null ? 0 : l.hashCode());
+      return this;
+    }
+
+    ChannelKey copy() {
+      return new ChannelKey().set(station, channel, network, location);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ChannelKey)) {
+        return false;
+      }
+      final ChannelKey k = (ChannelKey) o;
+      return hash == k.hash && station.equals(k.station) && channel.equals(k.channel)
+          && network.equals(k.network)
+          && (location == null ? k.location == null : location.equals(k.location));
+    }
+  }
+
+  private static final class ChannelState {
+    final TimeIndex times;
+    final PriorityQueue<Pending> pending = new PriorityQueue<Pending>(8, BY_TIME);
+    long lastReleased = Long.MIN_VALUE;
+
+    ChannelState(int capacity) {
+      times = new TimeIndex(capacity);
+    }
+  }
+
+  private static final class Pending {
+    final long time;
+    final long arrival;
+    final Message msg;
+
+    Pending(long time, long arrival, Message msg) {
+      this.time = time;
+      this.arrival = arrival;
+      this.msg = msg;
+    }
+  }
+
+  private static final class Probe {
+    final TraceBufView view = new TraceBufView();
+    final ChannelKey key = new ChannelKey();
+    byte[] frame;
+    ByteBuffer buffer;
+  }
+}
@@ -1,42 +1,126 @@
 package gov.usgs.volcanoes.core.legacy.ew;
 
+import gov.usgs.volcanoes.core.data.Scnl;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A class that holds the information from an Earthworm Wave Server MENU
  * request.
  *
+ * <p>Items are indexed by SCNL for constant time lookup and by time span so channels with data in
+ * a given window can be found without a scan. A menu can be updated from a fresh MENU reply with
+ * <code>update()</code>, which reuses the items of entries that have not changed.
+ *
  * @author Dan Cervelli
  */
 public class Menu {
   private static final String MENU_DELIMITER = "  ";
   private boolean isScnl;
   private final List<MenuItem> items;
+  private final Map<Scnl, MenuItem> index;
+  private final Map<String, MenuItem> entries;
+  // channel names as written by MenuItem.getSCNSCNL("$")
+  private final Set<String> channels;
+
+  // interval index, built on first use
+  private MenuItem[] byStart;
+  private double[] maxEnd;
 
   public Menu(String menu) {
+    this(menu, null);
+  }
+
+  private Menu(String menu, Menu previous) {
     isScnl = false;
     items = new ArrayList<>();
-    parseMenu(menu);
+    index = new HashMap<>();
+    entries = new HashMap<>();
+    channels = new HashSet<>();
+    parseMenu(menu, previous);
   }
 
-  public boolean channelExists(String channel) {
-    for (int i = 0; i < items.size(); i++) {
-      final MenuItem mi = items.get(i);
-      if (mi.getSCNSCNL("$").equals(channel)) {
-        return true;
+  /**
+   * Parse a new MENU reply from the same server. Entries which are unchanged since this menu was
+   * parsed are not parsed again; the new menu shares their items.
+   *
+   * @param menu the MENU reply
+   * @return the new menu
+   */
+  public Menu update(String menu) {
+    return new Menu(menu, this);
+  }
+
+  /**
+   * Compare this menu to an older one.
+   *
+   * @param older the older menu, may be null
+   * @return the differences
+   */
+  public MenuDiff diff(Menu older) {
+    final List<MenuItem> added = new ArrayList<>();
+    final List<MenuItem> changed = new ArrayList<>();
+    final List<MenuItem> removed = new ArrayList<>();
+
+    for (final Map.Entry<Scnl, MenuItem> entry : index.entrySet()) {
+      final MenuItem old = older == null ? null : older.index.get(entry.getKey());
+      if (old == null) {
+        added.add(entry.getValue());
+      } else if (old != entry.getValue() && !sameEntry(old, entry.getValue())) {
+        changed.add(entry.getValue());
+      }
+    }
+
+    if (older != null) {
+      for (final Map.Entry<Scnl, MenuItem> entry : older.index.entrySet()) {
+        if (!index.containsKey(entry.getKey())) {
+          removed.add(entry.getValue());
+        }
       }
     }
-    return false;
+
+    return new MenuDiff(added, changed, removed);
+  }
+
+  private static boolean sameEntry(MenuItem a, MenuItem b) {
+    return a.pin == b.pin && a.startTime == b.startTime && a.endTime == b.endTime
+        && a.dataType.equals(b.dataType);
+  }
+
+  public boolean channelExists(String channel) {
+    return channels.contains(channel);
+  }
+
+  /**
+   * Gets the item for a channel.
+   *
+   * @param scnl the channel
+   * @return the item or null if the channel is not in the menu
+   */
+  public MenuItem getItem(Scnl scnl) {
+    return index.get(scnl);
   }
 
   @Deprecated
   public MenuItem getItem(SCN scn) {
+    final MenuItem mi = index.get(new Scnl(scn.station, scn.channel, scn.network));
+    if (mi != null) {
+      return mi;
+    }
+
+    // SCN matches any location
     for (int i = 0; i < items.size(); i++) {
-      final MenuItem mi = items.get(i);
-      if (mi.isSCN(scn.station, scn.channel, scn.network)) {
-        return mi;
+      final MenuItem item = items.get(i);
+      if (item.isSCN(scn.station, scn.channel, scn.network)) {
+        return item;
       }
     }
     return null;
@@ -46,6 +130,33 @@ public class Menu {
     return items;
   }
 
+  /**
+   * Gets the items with data between two times.
+   *
+   * @param t1 start time in earthworm time
+   * @param t2 end time in earthworm time
+   * @return items whose time span overlaps [t1, t2], ordered by start time
+   */
+  public List<MenuItem> getItems(double t1, double t2) {
+    buildIntervalIndex();
+    final List<MenuItem> list = new ArrayList<>();
+    findOverlapping(0, byStart.length, t1, t2, list);
+    return list;
+  }
+
+  /**
+   * Check whether the server has data for a channel between two times.
+   *
+   * @param scnl the channel
+   * @param t1 start time in earthworm time
+   * @param t2 end time in earthworm time
+   * @return true if the channel's time span overlaps [t1, t2]
+   */
+  public boolean hasData(Scnl scnl, double t1, double t2) {
+    final MenuItem mi = index.get(scnl);
+    return mi != null && mi.startTime <= t2 && mi.endTime >= t1;
+  }
+
   public List<MenuItem> getSortedItems() {
     final List<MenuItem> list = new ArrayList<>(items);
     Collections.sort(list);
@@ -60,13 +171,22 @@ public class Menu {
     return items.size();
   }
 
-  private void parseMenu(String menu) {
+  private void parseMenu(String menu, Menu previous) {
     // ignore starting delimiter
     menu = menu.substring(menu.indexOf(MENU_DELIMITER) + 2);
 
     final String[] entries = menu.split(MENU_DELIMITER);
     for (final String entry : entries) {
-      items.add(new MenuItem(entry));
+      MenuItem mi = previous == null ? null : previous.entries.get(entry);
+      if (mi == null) {
+        mi = new MenuItem(entry);
+      }
+      items.add(mi);
+      this.entries.put(entry, mi);
+      channels.add(mi.getSCNSCNL("$"));
+      if (!index.containsKey(mi.getScnl())) {
+        index.put(mi.getScnl(), mi);
+      }
     }
 
     if (items.get(0).location != null) {
@@ -74,6 +194,56 @@ public class Menu {
     }
   }
 
+  /**
+   * Sort items by start time and record, for each node of the implicit binary tree over the sorted
+   * array, the latest end time beneath it.
+   */
+  private synchronized void buildIntervalIndex() {
+    if (byStart != null) {
+      return;
+    }
+
+    final MenuItem[] sorted = items.toArray(new MenuItem[items.size()]);
+    Arrays.sort(sorted, new Comparator<MenuItem>() {
+      public int compare(MenuItem a, MenuItem b) {
+        return Double.compare(a.startTime, b.startTime);
+      }
+    });
+    maxEnd = new double[sorted.length];
+    buildMaxEnd(sorted, 0, sorted.length);
+    byStart = sorted;
+  }
+
+  private double buildMaxEnd(MenuItem[] sorted, int lo, int hi) {
+    if (lo >= hi) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    final int mid = (lo + hi) >>> 1;
+    final double max = Math.max(sorted[mid].endTime,
+        Math.max(buildMaxEnd(sorted, lo, mid), buildMaxEnd(sorted, mid + 1, hi)));
+    maxEnd[mid] = max;
+    return max;
+  }
+
+  private void findOverlapping(int lo, int hi, double t1, double t2, List<MenuItem> list) {
+    if (lo >= hi) {
+      return;
+    }
+    final int mid = (lo + hi) >>> 1;
+    if (maxEnd[mid] < t1) {
+      return;
+    }
+    findOverlapping(lo, mid, t1, t2, list);
+    final MenuItem mi = byStart[mid];
+    if (mi.startTime > t2) {
+      return;
+    }
+    if (mi.endTime >= t1) {
+      list.add(mi);
+    }
+    findOverlapping(mid + 1, hi, t1, t2, list);
+  }
+
   @Override
   public String toString() {
     final StringBuilder sb = new StringBuilder();
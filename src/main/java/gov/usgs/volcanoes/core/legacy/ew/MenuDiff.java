@@ -0,0 +1,62 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The differences between two Earthworm Wave Server menus.
+ */
+public class MenuDiff {
+  private final List<MenuItem> added;
+  private final List<MenuItem> changed;
+  private final List<MenuItem> removed;
+
+  MenuDiff(List<MenuItem> added, List<MenuItem> changed, List<MenuItem> removed) {
+    this.added = Collections.unmodifiableList(added);
+    this.changed = Collections.unmodifiableList(changed);
+    this.removed = Collections.unmodifiableList(removed);
+  }
+
+  /**
+   * Gets items for channels which are new.
+   *
+   * @return new items
+   */
+  public List<MenuItem> getAdded() {
+    return added;
+  }
+
+  /**
+   * Gets the current items for channels whose entry has changed, usually because the time span has
+   * grown.
+   *
+   * @return changed items
+   */
+  public List<MenuItem> getChanged() {
+    return changed;
+  }
+
+  /**
+   * Gets the old items for channels which are gone.
+   *
+   * @return removed items
+   */
+  public List<MenuItem> getRemoved() {
+    return removed;
+  }
+
+  /**
+   * Check whether the menus are the same.
+   *
+   * @return true if nothing was added, changed, or removed
+   */
+  public boolean isEmpty() {
+    return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("MenuDiff: added=%d, changed=%d, removed=%d", added.size(),
+        changed.size(), removed.size());
+  }
+}
@@ -1,5 +1,6 @@
 package gov.usgs.volcanoes.core.legacy.ew;
 
+import gov.usgs.volcanoes.core.data.Scnl;
 import gov.usgs.volcanoes.core.time.Ew;
 
 import java.text.SimpleDateFormat;
@@ -20,6 +21,7 @@ public class MenuItem implements Comparable<MenuItem> {
   public final int pin;
   public final double startTime;
   public final String station;
+  private final Scnl scnl;
 
   public MenuItem(String item) {
     final String[] ss = item.split(" ");
@@ -38,6 +40,7 @@ public class MenuItem implements Comparable<MenuItem> {
       endTime = Double.parseDouble(ss[6]);
       dataType = ss[7];
     }
+    scnl = new Scnl(station, channel, network, location == null ? Scnl.DEFAULT_LOCATION : location);
   }
 
   @Override
@@ -45,6 +48,15 @@ public class MenuItem implements Comparable<MenuItem> {
     return getSCN("_").compareTo(omi.getSCN("_"));
   }
 
+  /**
+   * Gets the channel as a SCNL. A SCN item has the default location.
+   *
+   * @return the SCNL
+   */
+  public Scnl getScnl() {
+    return scnl;
+  }
+
   public String getSCN(String d) {
     return station + d + channel + d + network;
   }
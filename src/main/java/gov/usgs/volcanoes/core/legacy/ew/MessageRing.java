@@ -0,0 +1,255 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import gov.usgs.volcanoes.core.legacy.ew.message.Message;
+import gov.usgs.volcanoes.core.legacy.ew.message.MessageType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands messages from the thread reading an Earthworm stream to listeners running on their own
+ * threads. Messages are published into a fixed ring of slots by a single producer and every
+ * subscriber follows the ring with its own cursor, so a slow listener delays only itself.
+ *
+ * <p>The producer never waits. A subscriber which falls a whole ring behind skips ahead to the
+ * oldest message still held and counts what it missed; lag is therefore bounded by the ring's
+ * capacity and is reported for each subscriber.
+ */
+public class MessageRing {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MessageRing.class);
+
+  private final Message[] slots;
+  private final int mask;
+  private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+
+  // number of messages published; written only by the producer
+  private volatile long published;
+
+  /**
+   * Create a ring.
+   *
+   * @param capacity number of slots, a power of two
+   */
+  public MessageRing(int capacity) {
+    if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+    }
+    slots = new Message[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * Gets the number of slots.
+   *
+   * @return capacity
+   */
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  /**
+   * Publish a message. Must only be called from one thread.
+   *
+   * @param msg the message
+   */
+  public void publish(Message msg) {
+    final long n = published;
+    slots[(int) (n & mask)] = msg;
+    published = n + 1;
+    for (final Subscriber s : subscribers) {
+      s.wake();
+    }
+  }
+
+  /**
+   * Start delivering messages of a type to a listener on a new thread. Delivery begins with the
+   * next message published.
+   *
+   * @param type type of message to deliver, or null for all messages
+   * @param listener the listener
+   * @return the subscriber
+   */
+  public Subscriber subscribe(MessageType type, MessageListener listener) {
+    final Subscriber s = new Subscriber(type, listener);
+    subscribers.add(s);
+    s.start();
+    return s;
+  }
+
+  /**
+   * Stop delivering messages of a type to a listener.
+   *
+   * @param type the type given to <code>subscribe()</code>
+   * @param listener the listener
+   */
+  public void unsubscribe(MessageType type, MessageListener listener) {
+    for (final Subscriber s : subscribers) {
+      if (s.listener == listener && s.type == type) {
+        s.kill();
+      }
+    }
+  }
+
+  /**
+   * Stop every subscriber.
+   */
+  public void shutdown() {
+    for (final Subscriber s : subscribers) {
+      s.kill();
+    }
+  }
+
+  /**
+   * Gets the current subscribers.
+   *
+   * @return the subscribers
+   */
+  public List<Subscriber> getSubscribers() {
+    return subscribers;
+  }
+
+  /**
+   * Gets a summary of each subscriber's progress, formatted for the console.
+   *
+   * @return the summary
+   */
+  public String getStatisticsString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Dispatch ring: %d slots, %d published\n", slots.length, published));
+    for (final Subscriber s : subscribers) {
+      sb.append(String.format("  %-24s %-18s lag %d (max %d), %d delivered, %d dropped\n",
+          s.getName(), s.type, s.getLag(), s.getMaxLag(), s.getDelivered(), s.getDropped()));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Follows the ring on its own thread and delivers messages to one listener.
+   */
+  public final class Subscriber extends Thread {
+    private final MessageType type;
+    private final MessageListener listener;
+    private volatile long cursor;
+    private volatile boolean running = true;
+    private volatile boolean parked;
+
+    private volatile long delivered;
+    private volatile long dropped;
+    private volatile long maxLag;
+
+    Subscriber(MessageType type, MessageListener listener) {
+      super("MessageRing-" + (type == null ? "ALL" : type.toString()) + "-"
+          + listener.getClass().getName());
+      this.type = type;
+      this.listener = listener;
+      cursor = published;
+      setDaemon(true);
+    }
+
+    void wake() {
+      if (parked) {
+        LockSupport.unpark(this);
+      }
+    }
+
+    void kill() {
+      running = false;
+      subscribers.remove(this);
+      LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+      final int capacity = slots.length;
+      while (running) {
+        long available = published;
+        if (available == cursor) {
+          parked = true;
+          if (published == cursor && running) {
+            LockSupport.park(this);
+          }
+          parked = false;
+          continue;
+        }
+
+        long lag = available - cursor;
+        if (lag > maxLag) {
+          maxLag = lag;
+        }
+
+        // the slot after the newest may already be being overwritten
+        if (lag >= capacity) {
+          final long skip = lag - capacity + 1;
+          dropped += skip;
+          cursor += skip;
+          LOGGER.warn("{} fell behind, dropped {} messages.", getName(), skip);
+        }
+
+        final Message msg = slots[(int) (cursor & mask)];
+        if (published - cursor >= capacity) {
+          // lapped while reading
+          continue;
+        }
+        cursor++;
+
+        if (type == null || msg.logo.getType() == type) {
+          try {
+            listener.messageReceived(msg);
+          } catch (final RuntimeException e) {
+            LOGGER.error("Listener failed on {}.", msg, e);
+          }
+          delivered++;
+        }
+      }
+    }
+
+    /**
+     * Gets the listener.
+     *
+     * @return the listener
+     */
+    public MessageListener getListener() {
+      return listener;
+    }
+
+    /**
+     * Gets the number of messages published but not yet seen by this subscriber.
+     *
+     * @return current lag
+     */
+    public long getLag() {
+      return Math.max(0, published - cursor);
+    }
+
+    /**
+     * Gets the largest lag seen.
+     *
+     * @return largest lag
+     */
+    public long getMaxLag() {
+      return maxLag;
+    }
+
+    /**
+     * Gets the number of messages delivered.
+     *
+     * @return delivered count
+     */
+    public long getDelivered() {
+      return delivered;
+    }
+
+    /**
+     * Gets the number of messages missed because this subscriber fell a whole ring behind.
+     *
+     * @return dropped count
+     */
+    public long getDropped() {
+      return dropped;
+    }
+  }
+}
@@ -2,6 +2,7 @@ package gov.usgs.volcanoes.core.legacy.ew;
 
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBufAssembler;
 import gov.usgs.volcanoes.core.legacy.net.InternetClient;
 import gov.usgs.volcanoes.core.util.Retriable;
 import gov.usgs.volcanoes.core.util.UtilException;
@@ -11,6 +12,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.List;
@@ -23,6 +25,10 @@ import java.util.List;
 public class WaveServer extends InternetClient {
   private static final Logger LOGGER = LoggerFactory.getLogger(WaveServer.class);
 
+  // most recent menu of each format, so unchanged entries need not be parsed again
+  private Menu lastMenu;
+  private Menu lastMenuScnl;
+
   /**
    * Method for constructing a WaveServer client class
    * 
@@ -62,7 +68,8 @@ public class WaveServer extends InternetClient {
             connect();
           writeString("MENU: " + reqID + "\n");
           String info = readString();
-          result = new Menu(info);
+          result = lastMenu == null ? new Menu(info) : lastMenu.update(info);
+          lastMenu = result;
           return true;
         } catch (Exception e) {
           LOGGER.warn("getMenu() IOException: {}", e.getMessage());
@@ -96,7 +103,8 @@ public class WaveServer extends InternetClient {
             connect();
           writeString("MENU: " + reqID + " SCNL\n");
           info = readString();
-          result = new Menu(info);
+          result = lastMenuScnl == null ? new Menu(info) : lastMenuScnl.update(info);
+          lastMenuScnl = result;
           return true;
         } catch (Exception e) {
           e.printStackTrace();
@@ -208,11 +216,29 @@ public class WaveServer extends InternetClient {
     return ret;
   }
 
-  public Wave getRawData(String station, String comp, String network, String location, double start,
-      double end) {
+  /**
+   * Decodes the tracebuf bytes of a reply.
+   */
+  private interface ReplyDecoder<T> {
+    T decode(byte[] buf, boolean isTb2) throws IOException;
+  }
 
-    List<TraceBuf> tbs = getTraceBufs(station, comp, network, location, start, end);
-    return TraceBuf.traceBufToWave(tbs);
+  /**
+   * Fetch a wave. Samples are decoded from the reply directly into the wave buffer, without
+   * creating a TraceBuf for each packet.
+   */
+  public Wave getRawData(final String station, final String comp, final String network,
+      String location, double start, double end) {
+    return getRaw(station, comp, network, location, start, end, new ReplyDecoder<Wave>() {
+      public Wave decode(byte[] buf, boolean isTb2) throws IOException {
+        TraceBufAssembler assembler = new TraceBufAssembler();
+        assembler.addAll(new DataInputStream(new ByteArrayInputStream(buf)), isTb2);
+        if (assembler.getOverlapCount() > 0 || assembler.getRejectedCount() > 0)
+          LOGGER.debug("{} overlapping and {} rejected tracebufs in {} {} {}",
+              assembler.getOverlapCount(), assembler.getRejectedCount(), station, comp, network);
+        return assembler.getWave();
+      }
+    });
   }
 
   public Wave getRawData(String station, String comp, String network, double start, double end) {
@@ -221,9 +247,32 @@ public class WaveServer extends InternetClient {
 
   public List<TraceBuf> getTraceBufs(final String station, final String comp, final String network,
       final String location, final double start, final double end) {
-    List<TraceBuf> ret = null;
-    Retriable<List<TraceBuf>> rt =
-        new Retriable<List<TraceBuf>>("WaveServer.getTraceBufs()", maxRetries) {
+    return getRaw(station, comp, network, location, start, end,
+        new ReplyDecoder<List<TraceBuf>>() {
+          public List<TraceBuf> decode(byte[] buf, boolean isTb2) throws IOException {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buf));
+            List<TraceBuf> tbs = new ArrayList<TraceBuf>(100);
+            while (dis.available() > 0) {
+              TraceBuf tb = new TraceBuf();
+              tb.processBytes(dis, isTb2);
+              tbs.add(tb);
+            }
+            return tbs;
+          }
+        });
+  }
+
+  /**
+   * Issue a GETSCNRAW or GETSCNLRAW request and decode the raw tracebuf bytes of the reply. A reply
+   * which cannot be decoded is retried like any other failure.
+   * 
+   * @return the decoded reply or null if no data are available
+   */
+  private <T> T getRaw(final String station, final String comp, final String network,
+      final String location, final double start, final double end, final ReplyDecoder<T> decoder) {
+    T ret = null;
+    Retriable<T> rt =
+        new Retriable<T>("WaveServer.getTraceBufs()", maxRetries) {
           public void attemptFix() {
             close();
           }
@@ -236,11 +285,9 @@ public class WaveServer extends InternetClient {
               int lengthIndex = 9;
               String cmd = "GETSCNRAW: GS ";
               String loc = null;
-              boolean isTb2 = false;
               if (location != null) {
                 cmd = "GETSCNLRAW: GS ";
                 loc = location;
-                isTb2 = true;
                 spanIndex++;
                 lengthIndex++;
               }
@@ -264,16 +311,7 @@ public class WaveServer extends InternetClient {
               if (!ss[spanIndex].equals("F"))
                 return true;
               int bytes = Integer.parseInt(ss[lengthIndex]);
-              byte[] buf = readBinary(bytes);
-
-              DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buf));
-              List<TraceBuf> tbs = new ArrayList<TraceBuf>(100);
-              while (dis.available() > 0) {
-                TraceBuf tb = new TraceBuf();
-                tb.processBytes(dis, isTb2);
-                tbs.add(tb);
-              }
-              result = tbs;
+              result = decoder.decode(readBinary(bytes), location != null);
               return true;
             } catch (SocketTimeoutException e) {
               LOGGER.warn("getTraceBufs() timeout.");
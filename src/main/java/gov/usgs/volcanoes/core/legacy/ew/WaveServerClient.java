@@ -0,0 +1,815 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBufAssembler;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBufView;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A non-blocking client for Earthworm Wave Servers. Unlike {@link WaveServer}, which makes one
+ * blocking request at a time over a single socket, this client keeps a small pool of connections
+ * to each server and pipelines several requests on each connection, so fetching many channels
+ * costs little more than a single round trip.
+ *
+ * <p>All network I/O is done by one selector thread. Replies to GETSCNRAW and GETSCNLRAW requests
+ * are decoded as they arrive, straight from the socket buffer into a {@link TraceBufAssembler},
+ * and results are delivered as <code>CompletableFuture</code>s. As with <code>WaveServer</code>, a
+ * request for which the server has no data completes with null.
+ *
+ * <p>Futures are completed, and host names resolved, on a small pool of daemon threads rather than
+ * the selector thread, so slow callbacks or name lookups do not hold up other requests.
+ *
+ * <p>A connection which fails or which stalls for longer than the timeout is closed. Requests which
+ * were outstanding on it are reissued on another connection, up to the retry limit, after which
+ * their futures complete exceptionally. A reply which cannot be parsed, or which holds a reply line
+ * or packet too long to buffer, fails its own request at once and closes the connection.
+ */
+public class WaveServerClient implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(WaveServerClient.class);
+
+  private static final int DEFAULT_CONNECTIONS = 4;
+  private static final int DEFAULT_PIPELINE_DEPTH = 8;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  // largest tracebuf packet accepted
+  private static final int MAX_PACKET_SIZE = 1024 * 1024;
+  // largest reply line accepted; MENU replies list every channel on one line
+  private static final int MAX_LINE_SIZE = 16 * 1024 * 1024;
+  private static final int SELECT_INTERVAL = 1000;
+
+  private final int connectionsPerHost;
+  private final int pipelineDepth;
+  private volatile int timeout = 15000;
+  private volatile int maxRetries = 3;
+
+  private final Selector selector;
+  private final Thread ioThread;
+  private final ConcurrentLinkedQueue<Request<?>> submitted =
+      new ConcurrentLinkedQueue<Request<?>>();
+  // work handed back to the I/O thread
+  private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private final ExecutorService executor;
+  private volatile boolean closed;
+
+  // owned by the I/O thread
+  private final Map<String, Host> hosts = new HashMap<String, Host>();
+  private final TraceBufView view = new TraceBufView();
+  private long nextId;
+
+  /**
+   * Constructor.
+   *
+   * @throws IOException if a selector cannot be opened
+   */
+  public WaveServerClient() throws IOException {
+    this(DEFAULT_CONNECTIONS, DEFAULT_PIPELINE_DEPTH);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param connectionsPerHost most connections to open to any one server
+   * @param pipelineDepth most requests outstanding on any one connection
+   * @throws IOException if a selector cannot be opened
+   */
+  public WaveServerClient(int connectionsPerHost, int pipelineDepth) throws IOException {
+    this.connectionsPerHost = Math.max(1, connectionsPerHost);
+    this.pipelineDepth = Math.max(1, pipelineDepth);
+    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "WaveServerClient-worker");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    selector = Selector.open();
+    ioThread = new Thread(new Runnable() {
+      public void run() {
+        ioLoop();
+      }
+    }, "WaveServerClient");
+    ioThread.setDaemon(true);
+    ioThread.start();
+  }
+
+  /**
+   * Set the time a connection may go without progress before it is abandoned.
+   *
+   * @param ms timeout in milliseconds
+   */
+  public void setTimeout(int ms) {
+    timeout = ms;
+  }
+
+  /**
+   * Set the number of times a request is reissued after its connection fails.
+   *
+   * @param mr retry limit
+   */
+  public void setMaxRetries(int mr) {
+    maxRetries = mr;
+  }
+
+  /**
+   * Fetch a wave with GETSCNLRAW, or GETSCNRAW if location is null.
+   *
+   * @param server "host:port" of the wave server
+   * @param station station
+   * @param comp channel
+   * @param network network
+   * @param location location, may be null
+   * @param start start time in earthworm time
+   * @param end end time in earthworm time
+   * @return future wave, completing with null if no data are available
+   */
+  public CompletableFuture<Wave> getRawData(String server, String station, String comp,
+      String network, String location, double start, double end) {
+    return submit(server, new WaveRequest(station, comp, network, location, start, end));
+  }
+
+  /**
+   * Fetch a wave with GETSCNRAW.
+   *
+   * @param server "host:port" of the wave server
+   * @param station station
+   * @param comp channel
+   * @param network network
+   * @param start start time in earthworm time
+   * @param end end time in earthworm time
+   * @return future wave, completing with null if no data are available
+   */
+  public CompletableFuture<Wave> getRawData(String server, String station, String comp,
+      String network, double start, double end) {
+    return getRawData(server, station, comp, network, null, start, end);
+  }
+
+  /**
+   * Fetch a server's SCN menu.
+   *
+   * @param server "host:port" of the wave server
+   * @return future menu
+   */
+  public CompletableFuture<Menu> getMenu(String server) {
+    return submit(server, new MenuRequest(false));
+  }
+
+  /**
+   * Fetch a server's SCNL menu.
+   *
+   * @param server "host:port" of the wave server
+   * @return future menu
+   */
+  public CompletableFuture<Menu> getMenuSCNL(String server) {
+    return submit(server, new MenuRequest(true));
+  }
+
+  /**
+   * Close every connection and stop the I/O thread. Outstanding requests complete exceptionally.
+   */
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    selector.wakeup();
+    try {
+      ioThread.join(timeout);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    executor.shutdown();
+  }
+
+  private <T> CompletableFuture<T> submit(String server, Request<T> request) {
+    request.server = server;
+    request.executor = executor;
+    submitted.add(request);
+    if (closed && submitted.remove(request)) {
+      request.future.completeExceptionally(new IOException("client closed"));
+    } else {
+      selector.wakeup();
+    }
+    return request.future;
+  }
+
+  private void accept(Request<?> request) {
+    Host host = hosts.get(request.server);
+    if (host == null) {
+      try {
+        host = new Host(request.server);
+      } catch (RuntimeException e) {
+        request.fail(new IllegalArgumentException("Bad server: " + request.server, e));
+        return;
+      }
+      hosts.put(request.server, host);
+    }
+    host.waiting.add(request);
+    host.dispatch();
+  }
+
+  private void ioLoop() {
+    try {
+      while (!closed) {
+        selector.select(SELECT_INTERVAL);
+
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+
+        Request<?> request;
+        while ((request = submitted.poll()) != null) {
+          accept(request);
+        }
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          Connection conn = (Connection) key.attachment();
+          try {
+            if (key.isConnectable()) {
+              conn.finishConnect();
+            }
+            if (key.isValid() && key.isWritable()) {
+              conn.write();
+            }
+            if (key.isValid() && key.isReadable()) {
+              conn.read();
+            }
+          } catch (IOException e) {
+            conn.fail(e);
+          }
+        }
+
+        checkTimeouts();
+      }
+    } catch (IOException e) {
+      LOGGER.warn("I/O loop failed: {}", e.getMessage());
+    } catch (ClosedSelectorException e) {
+      // closing
+    } finally {
+      shutdown();
+    }
+  }
+
+  private void checkTimeouts() {
+    long now = System.currentTimeMillis();
+    for (Host host : hosts.values()) {
+      for (Connection conn : new ArrayList<Connection>(host.connections)) {
+        if (conn.isBusy() && now - conn.lastActivity > timeout) {
+          conn.fail(new SocketTimeoutException(host + " timed out"));
+        }
+      }
+    }
+  }
+
+  private void shutdown() {
+    closed = true;
+    IOException e = new IOException("client closed");
+    for (Host host : hosts.values()) {
+      for (Connection conn : host.connections) {
+        conn.closeChannel();
+        for (Request<?> request : conn.inFlight) {
+          request.fail(e);
+        }
+      }
+      for (Request<?> request : host.waiting) {
+        request.fail(e);
+      }
+    }
+    Request<?> request;
+    while ((request = submitted.poll()) != null) {
+      request.fail(e);
+    }
+    try {
+      selector.close();
+    } catch (IOException ex) {
+      // Do nothing
+    }
+  }
+
+  /**
+   * A wave server and its connections.
+   */
+  private final class Host {
+    final String name;
+    final String hostName;
+    final int port;
+    final List<Connection> connections = new ArrayList<Connection>();
+    final ArrayDeque<Request<?>> waiting = new ArrayDeque<Request<?>>();
+    InetSocketAddress address;
+    boolean resolving;
+
+    Host(String server) {
+      name = server;
+      String[] hp = server.split(":");
+      hostName = hp[0];
+      port = Integer.parseInt(hp[1]);
+      if (port < 0 || port > 0xFFFF) {
+        throw new IllegalArgumentException("port out of range: " + port);
+      }
+    }
+
+    /**
+     * Look up the host name on a worker thread, then carry on dispatching on the I/O thread.
+     */
+    void resolve() {
+      resolving = true;
+      executor.execute(new Runnable() {
+        public void run() {
+          final InetSocketAddress resolved = new InetSocketAddress(hostName, port);
+          tasks.add(new Runnable() {
+            public void run() {
+              resolving = false;
+              if (resolved.isUnresolved()) {
+                UnknownHostException e = new UnknownHostException(hostName);
+                LOGGER.warn("{}/connect() IOException: {}", Host.this, e.getMessage());
+                for (Request<?> request : waiting) {
+                  request.fail(e);
+                }
+                waiting.clear();
+                // look the name up again for later requests
+                hosts.remove(name);
+              } else {
+                address = resolved;
+                dispatch();
+              }
+            }
+          });
+          selector.wakeup();
+        }
+      });
+    }
+
+    /**
+     * Hand waiting requests to the least loaded connection, opening connections as needed.
+     */
+    void dispatch() {
+      if (address == null) {
+        if (!resolving && !waiting.isEmpty()) {
+          resolve();
+        }
+        return;
+      }
+      while (!waiting.isEmpty()) {
+        Connection best = null;
+        for (Connection conn : connections) {
+          if (best == null || conn.inFlight.size() < best.inFlight.size()) {
+            best = conn;
+          }
+        }
+
+        if ((best == null || best.inFlight.size() >= pipelineDepth)
+            && connections.size() < connectionsPerHost) {
+          try {
+            best = new Connection(this);
+            connections.add(best);
+          } catch (IOException e) {
+            LOGGER.warn("{}/connect() IOException: {}", this, e.getMessage());
+            for (Request<?> request : waiting) {
+              request.fail(e);
+            }
+            waiting.clear();
+            return;
+          }
+        }
+
+        if (best == null || best.inFlight.size() >= pipelineDepth) {
+          return;
+        }
+        best.send(waiting.poll());
+      }
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * A single pipelined connection. Replies arrive in the order requests were sent.
+   */
+  private final class Connection {
+    final Host host;
+    final SocketChannel channel;
+    final SelectionKey key;
+    final ArrayDeque<Request<?>> inFlight = new ArrayDeque<Request<?>>();
+    final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+    ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    long lastActivity = System.currentTimeMillis();
+    boolean connected;
+
+    // reply body being received for the head request
+    long bodyRemaining = -1;
+    // bytes of a partial reply line already searched for its end
+    int lineScanned;
+
+    Connection(Host host) throws IOException {
+      this.host = host;
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      connected = channel.connect(host.address);
+      key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT,
+          this);
+      LOGGER.debug("{}/connection opened.", host);
+    }
+
+    boolean isBusy() {
+      return !connected || !inFlight.isEmpty();
+    }
+
+    void send(Request<?> request) {
+      if (inFlight.isEmpty()) {
+        lastActivity = System.currentTimeMillis();
+      }
+      String id = "R" + (nextId++);
+      request.id = id;
+      inFlight.add(request);
+      output.add(ByteBuffer.wrap(request.command(id).getBytes(StandardCharsets.US_ASCII)));
+      if (connected) {
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+      }
+    }
+
+    void finishConnect() throws IOException {
+      if (channel.finishConnect()) {
+        connected = true;
+        lastActivity = System.currentTimeMillis();
+        key.interestOps(SelectionKey.OP_READ | (output.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+      }
+    }
+
+    void write() throws IOException {
+      while (!output.isEmpty()) {
+        ByteBuffer buf = output.peek();
+        channel.write(buf);
+        if (buf.hasRemaining()) {
+          return;
+        }
+        output.poll();
+      }
+      key.interestOps(SelectionKey.OP_READ);
+    }
+
+    void read() throws IOException {
+      int n = channel.read(input);
+      if (n < 0) {
+        throw new IOException("connection closed by server");
+      }
+      if (n == 0) {
+        return;
+      }
+      lastActivity = System.currentTimeMillis();
+
+      input.flip();
+      while (!inFlight.isEmpty()) {
+        if (bodyRemaining < 0) {
+          if (!readHeader()) {
+            break;
+          }
+        } else if (!readBody()) {
+          break;
+        }
+      }
+      input.compact();
+      if (!input.hasRemaining()) {
+        grow();
+      } else if (input.position() == 0 && input.capacity() > READ_BUFFER_SIZE) {
+        // give back the room taken by a large reply
+        input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+      }
+
+      // completed replies make room in the pipeline
+      host.dispatch();
+    }
+
+    /**
+     * Consume a reply line if a whole one has arrived.
+     */
+    private boolean readHeader() throws IOException {
+      int start = input.position();
+      int end = start + lineScanned;
+      int limit = input.limit();
+      while (end < limit && input.get(end) != '\n') {
+        end++;
+      }
+      if (end == limit) {
+        lineScanned = end - start;
+        return false;
+      }
+      lineScanned = 0;
+
+      byte[] line = new byte[end - start];
+      input.get(line);
+      input.get(); // newline
+      String reply = new String(line, StandardCharsets.US_ASCII);
+
+      Request<?> request = inFlight.peek();
+      if (!reply.startsWith(request.id + " ")) {
+        throw new IOException("Unexpected reply to " + request.id + ": " + reply);
+      }
+
+      try {
+        bodyRemaining = request.header(reply);
+      } catch (RuntimeException e) {
+        throw new IOException("Can't parse server response: " + reply);
+      }
+      if (bodyRemaining <= 0) {
+        bodyRemaining = -1;
+        inFlight.poll();
+        request.complete();
+      }
+      return true;
+    }
+
+    /**
+     * Consume whole tracebufs from the reply body.
+     */
+    private boolean readBody() throws IOException {
+      WaveRequest request = (WaveRequest) inFlight.peek();
+      while (bodyRemaining > 0) {
+        int available = input.remaining();
+        if (bodyRemaining < TraceBufView.HEADER_LENGTH) {
+          // trailing bytes too short to be a packet
+          int skip = (int) Math.min(available, bodyRemaining);
+          input.position(input.position() + skip);
+          bodyRemaining -= skip;
+          if (bodyRemaining > 0) {
+            return false;
+          }
+          break;
+        }
+        if (available < TraceBufView.HEADER_LENGTH) {
+          return false;
+        }
+
+        view.wrap(input, input.position(), request.isTraceBuf2);
+        int length = view.length();
+        if (length < TraceBufView.HEADER_LENGTH || length > bodyRemaining
+            || length > MAX_PACKET_SIZE) {
+          throw corrupt("Bad tracebuf length " + length + " in reply to " + request.id);
+        }
+        if (available < length) {
+          return false;
+        }
+
+        request.assembler.add(view);
+        input.position(input.position() + length);
+        bodyRemaining -= length;
+      }
+
+      bodyRemaining = -1;
+      inFlight.poll();
+      request.complete();
+      return true;
+    }
+
+    /**
+     * Double the read buffer once it fills without holding a whole reply line or packet.
+     */
+    private void grow() throws IOException {
+      // packets are limited by the length check, so only a reply line can need more
+      int max = bodyRemaining < 0 ? MAX_LINE_SIZE : MAX_PACKET_SIZE;
+      if (input.capacity() >= max) {
+        throw corrupt("Reply exceeds " + max + " bytes without a whole line or packet");
+      }
+      ByteBuffer bigger = ByteBuffer.allocate(Math.min(max, input.capacity() * 2));
+      input.flip();
+      bigger.put(input);
+      input = bigger;
+    }
+
+    /**
+     * Fail the request whose reply is being read, rather than reissue it, as the server will likely
+     * send the same reply again.
+     *
+     * @param message what is wrong with the reply
+     * @return an exception with which to close the connection
+     */
+    private IOException corrupt(String message) {
+      IOException e = new IOException(message);
+      bodyRemaining = -1;
+      lineScanned = 0;
+      Request<?> request = inFlight.poll();
+      if (request != null) {
+        request.fail(e);
+      }
+      return e;
+    }
+
+    void fail(IOException e) {
+      LOGGER.warn("{}/connection failed: {}", host, e.getMessage());
+      closeChannel();
+      host.connections.remove(this);
+
+      // reissue outstanding requests in their original order
+      Iterator<Request<?>> it = inFlight.descendingIterator();
+      while (it.hasNext()) {
+        Request<?> request = it.next();
+        if (++request.attempts > maxRetries) {
+          request.fail(e);
+        } else {
+          request.reset();
+          host.waiting.addFirst(request);
+        }
+      }
+      inFlight.clear();
+      host.dispatch();
+    }
+
+    void closeChannel() {
+      key.cancel();
+      try {
+        channel.close();
+        LOGGER.debug("{}/connection closed.", host);
+      } catch (IOException e) {
+        LOGGER.warn("{}/close() IOException: {}", host, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * A request and the future it completes.
+   *
+   * @param <T> result type
+   */
+  private abstract static class Request<T> {
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    Executor executor;
+    String server;
+    String id;
+    int attempts;
+
+    /**
+     * Complete the future off the I/O thread, so callbacks run by the future cannot stall it.
+     *
+     * @param result the result
+     */
+    void succeed(final T result) {
+      run(new Runnable() {
+        public void run() {
+          future.complete(result);
+        }
+      });
+    }
+
+    /**
+     * Complete the future exceptionally off the I/O thread.
+     *
+     * @param e the failure
+     */
+    void fail(final Throwable e) {
+      run(new Runnable() {
+        public void run() {
+          future.completeExceptionally(e);
+        }
+      });
+    }
+
+    private void run(Runnable completion) {
+      try {
+        executor.execute(completion);
+      } catch (RejectedExecutionException e) {
+        // closed
+        completion.run();
+      }
+    }
+
+    /**
+     * Build the request line.
+     *
+     * @param id request id echoed by the server
+     * @return the request
+     */
+    abstract String command(String id);
+
+    /**
+     * Handle the reply line.
+     *
+     * @param reply the reply line
+     * @return number of bytes following the reply line
+     */
+    abstract long header(String reply);
+
+    /**
+     * Complete the future once the whole reply has been read.
+     */
+    abstract void complete();
+
+    /**
+     * Discard any partial reply before the request is reissued.
+     */
+    void reset() {}
+  }
+
+  private static final class MenuRequest extends Request<Menu> {
+    private final boolean scnl;
+    private Menu menu;
+
+    MenuRequest(boolean scnl) {
+      this.scnl = scnl;
+    }
+
+    String command(String id) {
+      return "MENU: " + id + (scnl ? " SCNL" : "") + "\n";
+    }
+
+    long header(String reply) {
+      menu = new Menu(reply);
+      return 0;
+    }
+
+    void complete() {
+      succeed(menu);
+    }
+  }
+
+  private static final class WaveRequest extends Request<Wave> {
+    private final String station;
+    private final String comp;
+    private final String network;
+    private final String location;
+    private final double start;
+    private final double end;
+    final boolean isTraceBuf2;
+    TraceBufAssembler assembler;
+
+    WaveRequest(String station, String comp, String network, String location, double start,
+        double end) {
+      this.station = station;
+      this.comp = comp;
+      this.network = network;
+      this.location = location;
+      this.start = start;
+      this.end = end;
+      isTraceBuf2 = location != null;
+    }
+
+    String command(String id) {
+      String cmd = isTraceBuf2 ? "GETSCNLRAW: " : "GETSCNRAW: ";
+      return cmd + id + " " + station + " " + comp + " " + network + " "
+          + (isTraceBuf2 ? location + " " : "") + start + " " + end + "\n";
+    }
+
+    long header(String reply) {
+      int spanIndex = isTraceBuf2 ? 6 : 5;
+      int lengthIndex = spanIndex + 4;
+      String[] ss = reply.split(" ");
+      if (ss.length <= spanIndex || !ss[spanIndex].equals("F")) {
+        return 0;
+      }
+      if (ss.length <= lengthIndex) {
+        LOGGER.warn("Can't parse server response: {}", reply);
+        return 0;
+      }
+      assembler = new TraceBufAssembler();
+      return Long.parseLong(ss[lengthIndex]);
+    }
+
+    void complete() {
+      Wave wave = assembler == null ? null : assembler.getWave();
+      if (assembler != null
+          && (assembler.getOverlapCount() > 0 || assembler.getRejectedCount() > 0)) {
+        LOGGER.debug("{} overlapping and {} rejected tracebufs in {} {} {}",
+            assembler.getOverlapCount(), assembler.getRejectedCount(), station, comp, network);
+      }
+      succeed(wave);
+    }
+
+    void reset() {
+      assembler = null;
+    }
+  }
+}
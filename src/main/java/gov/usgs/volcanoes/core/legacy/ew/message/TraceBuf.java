@@ -1,5 +1,6 @@
 package gov.usgs.volcanoes.core.legacy.ew.message;
 
+import gov.usgs.volcanoes.core.data.SegmentedWave;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.core.util.ByteUtil;
@@ -10,7 +11,9 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
@@ -114,7 +117,7 @@ public class TraceBuf extends Message {
 
   /**
    * Creates a TraceBuf from a Wave. This is useful for putting non- Earthworm
-   * data in a Winston database.
+   * data in a Winston database. Floating point samples are rounded.
    * 
    * @param code
    *            '$' separated SCNL
@@ -122,7 +125,7 @@ public class TraceBuf extends Message {
    *            the wave
    */
   public TraceBuf(String code, Wave sw) {
-    data = sw.buffer;
+    data = sw.getSamples().toInts();
     samplingPeriod = Math.round(TO_USEC / sw.getSamplingRate());
     firstSampleTime = Math.round(Time.j2kToEw(sw.getStartTime()) * TO_USEC);
     pin = -1;
@@ -221,24 +224,39 @@ public class TraceBuf extends Message {
    */
   protected int[] readData(DataInputStream in) throws IOException {
     int[] data = new int[numSamples];
+    readData(in, data, 0);
+    return data;
+  }
+
+  /**
+   * Read samples from stream directly into a caller-supplied array.
+   * 
+   * @param in
+   *            the input stream
+   * @param dest
+   *            the destination array
+   * @param offset
+   *            index in <code>dest</code> of the first sample
+   * @throws IOException
+   */
+  protected void readData(DataInputStream in, int[] dest, int offset) throws IOException {
     boolean swap = dataType.charAt(0) == 'i';
     boolean isShort = (dataType.charAt(1) == '2');
+    int end = offset + numSamples;
 
     // yes cumbersome, but it works with a single pass
     if (isShort && swap)
-      for (int i = 0; i < numSamples; i++)
-        data[i] = ByteUtil.swap(in.readShort());
+      for (int i = offset; i < end; i++)
+        dest[i] = ByteUtil.swap(in.readShort());
     else if (isShort)
-      for (int i = 0; i < numSamples; i++)
-        data[i] = in.readShort();
+      for (int i = offset; i < end; i++)
+        dest[i] = in.readShort();
     else if (swap)
-      for (int i = 0; i < numSamples; i++)
-        data[i] = ByteUtil.swap(in.readInt());
+      for (int i = offset; i < end; i++)
+        dest[i] = ByteUtil.swap(in.readInt());
     else
-      for (int i = 0; i < numSamples; i++)
-        data[i] = in.readInt();
-
-    return data;
+      for (int i = offset; i < end; i++)
+        dest[i] = in.readInt();
   }
 
   /**
@@ -254,6 +272,21 @@ public class TraceBuf extends Message {
    * @throws IOException
    */
   public void processBytes(DataInputStream in, boolean isTraceBuf2) throws IOException {
+    processHeader(in, isTraceBuf2);
+    data = readData(in);
+  }
+
+  /**
+   * Fills the header fields based on raw message data, leaving the stream
+   * positioned at the first sample.
+   * 
+   * @param in
+   *            the input stream
+   * @param isTraceBuf2
+   *            whether this is a TRACEBUF2
+   * @throws IOException
+   */
+  protected void processHeader(DataInputStream in, boolean isTraceBuf2) throws IOException {
 
     this.isTraceBuf2 = isTraceBuf2;
     pin = in.readInt();
@@ -289,8 +322,6 @@ public class TraceBuf extends Message {
 
     firstSampleTime = Math.round(startTime * TO_USEC);
     samplingPeriod = Math.round(TO_USEC / samplingRate);
-
-    data = readData(in);
   }
 
   /**
@@ -299,25 +330,32 @@ public class TraceBuf extends Message {
    * registered time is stored in <code>registrationOffset</code>.
    */
   public void register() {
-    long dif = firstSampleTime % samplingPeriod;
+    registrationOffset = registered(firstSampleTime, samplingPeriod) - firstSampleTime;
+    firstSampleTime += registrationOffset;
+  }
+
+  /**
+   * Round a time to the nearest sample of a sampling grid.
+   */
+  private static long registered(long time, long samplingPeriod) {
+    long dif = time % samplingPeriod;
     if (dif >= samplingPeriod / 2)
-      registrationOffset = samplingPeriod - dif;
+      return time + samplingPeriod - dif;
     else
-      registrationOffset = -dif;
-
-    firstSampleTime += registrationOffset;
+      return time - dif;
   }
 
   /**
-   * Converts a list of time-ordered, non-overlapping <code>TraceBuf</code>s
-   * into a <code>Wave</code>. Skips tracebufs whose sampling rate does not
-   * match the first tracebuf. Starting time will be rounded to the nearest
-   * even interval based on the wave's sampling rate.
+   * Converts a list of <code>TraceBuf</code>s into a <code>Wave</code>. The
+   * list need not be sorted; where tracebufs overlap, the later one in time
+   * order wins. Skips tracebufs whose sampling rate does not match the first
+   * tracebuf. Starting time will be rounded to the nearest even interval based
+   * on the wave's sampling rate.
    * 
    * Work with timestamps as microseconds to avoid rounding errors.
    * 
    * @param traceBufs
-   *            the <code>TraceBuf</code>s (must be sorted in time order)
+   *            the <code>TraceBuf</code>s
    * 
    * @return the wave
    */
@@ -326,67 +364,64 @@ public class TraceBuf extends Message {
     if (traceBufs == null || traceBufs.size() <= 0)
       return null;
 
-    // get rid of all the bad stuff, except gaps
-    normalize(traceBufs);
-
-    final TraceBuf firstTraceBuf = traceBufs.get(0);
-    final TraceBuf lastTraceBuf = traceBufs.get(traceBufs.size() - 1);
-
-    long samplingPeriod = firstTraceBuf.samplingPeriod;
-    long lastSampleTime =
-        lastTraceBuf.firstSampleTime + ((lastTraceBuf.numSamples - 1) * samplingPeriod);
-
-    int numSamples = (int) ((lastSampleTime - firstTraceBuf.firstSampleTime) / samplingPeriod + 1);
-    int[] buffer = new int[numSamples];
-    Arrays.fill(buffer, Wave.NO_DATA);
-
-    int sampleIndex = 0;
-    long lastSampleTimeSeen = firstTraceBuf.firstSampleTime - samplingPeriod;
-
-    long lastStart = 0;
-    int lastCount = 0;
+    final long samplingPeriod = traceBufs.get(0).samplingPeriod;
+    List<TraceBuf> sorted = new ArrayList<TraceBuf>(traceBufs.size());
+    long firstSampleTime = Long.MAX_VALUE;
+    long lastSampleTime = Long.MIN_VALUE;
     for (TraceBuf tb : traceBufs) {
-      while (lastSampleTimeSeen + samplingPeriod < tb.firstSampleTime) {
-        sampleIndex++;
-        lastSampleTimeSeen += tb.samplingPeriod;
+      if (tb.samplingPeriod == samplingPeriod) {
+        sorted.add(tb);
+        // where the packet will be once the assembler registers it
+        long start = registered(tb.firstSampleTime, samplingPeriod);
+        firstSampleTime = Math.min(firstSampleTime, start);
+        lastSampleTime = Math.max(lastSampleTime, start + (tb.numSamples - 1) * samplingPeriod);
       }
+    }
+    Collections.sort(sorted, START_ORDER);
 
-      // assume more recent samples are more correct samples
-      if (tb.firstSampleTime <= lastSampleTimeSeen) {
-        int overlap = (int) ((lastSampleTimeSeen - tb.firstSampleTime) / samplingPeriod + 1);
-        System.err.println(
-            "Overlapping tracebuf found in " + tb.toWinstonString() + ". Overlap count=" + overlap);
-        System.err.println(lastStart + " + (" + lastCount + " - 1) * " + samplingPeriod + " - "
-            + tb.firstSampleTime + " = "
-            + (lastStart + (lastCount - 1) * samplingPeriod - tb.firstSampleTime));
-        System.err.println("count " + tb.numSamples + " : rate " + tb.samplingRate()
-            + " : duration " + ((tb.samplingPeriod * tb.numSamples)));
-        sampleIndex -= overlap;
-      }
+    int numSamples = (int) ((lastSampleTime - firstSampleTime) / samplingPeriod + 1);
+    TraceBufAssembler assembler = new TraceBufAssembler(numSamples);
+    for (TraceBuf tb : sorted)
+      assembler.add(tb);
 
-      // this shouldn't happen
-      if (sampleIndex + tb.numSamples > buffer.length) {
-        System.err.println("Too many samples in " + tb.toWinstonString()
-            + ". Variable sampling rate no supported.");
-        continue;
-      }
-
-      for (int j = 0; j < tb.numSamples; j++)
-        buffer[sampleIndex++] = tb.data[j];
+    return assembler.getWave();
+  }
 
-      lastSampleTimeSeen = tb.firstSampleTime + ((tb.numSamples - 1) * samplingPeriod);
-      lastStart = tb.firstSampleTime;
-      lastCount = tb.numSamples;
+  private static final Comparator<TraceBuf> START_ORDER = new Comparator<TraceBuf>() {
+    @Override
+    public int compare(TraceBuf a, TraceBuf b) {
+      return Long.compare(a.firstSampleTime, b.firstSampleTime);
     }
+  };
 
-    Wave wave =
-        new Wave(buffer, (firstTraceBuf.firstSampleTime * FROM_USEC), firstTraceBuf.samplingRate());
-    wave.setRegistrationOffset(firstTraceBuf.registrationOffset);
+  /**
+   * Converts a list of <code>TraceBuf</code>s into a <code>SegmentedWave</code>. Unlike
+   * <code>traceBufToWave()</code> gaps are not filled, so memory is proportional to the samples
+   * received rather than the time spanned. The list need not be sorted. Skips tracebufs whose
+   * sampling rate does not match the first tracebuf.
+   * 
+   * @param traceBufs
+   *            the <code>TraceBuf</code>s
+   * 
+   * @return the wave
+   */
+  public static SegmentedWave traceBufToSegmentedWave(List<TraceBuf> traceBufs) {
+    // Nothing in, nothing out
+    if (traceBufs == null || traceBufs.size() <= 0)
+      return null;
+
+    normalize(traceBufs);
+
+    SegmentedWave wave = new SegmentedWave();
+    for (TraceBuf tb : traceBufs) {
+      Wave sw = new Wave(tb.data, tb.firstSampleTime * FROM_USEC, tb.samplingRate());
+      sw.setRegistrationOffset(tb.registrationOffset * FROM_USEC);
+      wave.add(sw);
+    }
 
     return wave;
   }
 
-
   /**
    * Cleanup a list of tracebufs
    * 
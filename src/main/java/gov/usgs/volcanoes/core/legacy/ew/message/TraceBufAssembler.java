@@ -0,0 +1,327 @@
+package gov.usgs.volcanoes.core.legacy.ew.message;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Assembles a stream of <code>TraceBuf</code>s into a single <code>Wave</code>.
+ * Packet positions are computed arithmetically from their registered start times, so gaps cost
+ * O(1) regardless of length, and samples are copied in blocks. Samples may be read straight from a
+ * raw TRACEBUF byte stream, such as a GETSCNRAW reply, or from a {@link TraceBufView} without
+ * creating a <code>TraceBuf</code> per packet.
+ *
+ * <p>Packets need not arrive in time order; one which starts before those already assembled
+ * moves them along the buffer, so time-ordered packets are cheapest. Packets whose sampling rate
+ * does not match the first packet are rejected. Where packets overlap, the more recent packet is
+ * assumed to be more correct. Gaps, overlaps and rejections are counted and may also be reported
+ * to a {@link Listener}.
+ *
+ * <p>Timestamps are in earthworm time, as with <code>TraceBuf.traceBufToWave()</code>.
+ */
+public class TraceBufAssembler {
+
+  /**
+   * Receives notice of irregularities as packets are assembled.
+   */
+  public interface Listener {
+    /**
+     * Called when a packet does not abut the samples already assembled.
+     *
+     * @param tb the packet on the far side of the gap
+     * @param samples number of missing samples
+     */
+    void gap(TraceBuf tb, int samples);
+
+    /**
+     * Called when a packet overlaps samples already assembled.
+     *
+     * @param tb the overlapping packet
+     * @param samples number of samples overwritten
+     */
+    void overlap(TraceBuf tb, int samples);
+
+    /**
+     * Called when a packet is discarded.
+     *
+     * @param tb the discarded packet
+     */
+    void rejected(TraceBuf tb);
+  }
+
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private int[] buffer;
+  private int length;
+
+  private long firstSampleTime;
+  private long samplingPeriod;
+  private long registrationOffset;
+  private boolean started;
+
+  private int gapCount;
+  private long gapSamples;
+  private int overlapCount;
+  private long overlapSamples;
+  private int rejectedCount;
+
+  private Listener listener;
+
+  // scratch header used when reading raw bytes
+  private final TraceBuf header = new TraceBuf();
+
+  /**
+   * Constructor.
+   */
+  public TraceBufAssembler() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param expectedSamples number of samples expected, used to size the buffer
+   */
+  public TraceBufAssembler(int expectedSamples) {
+    buffer = new int[Math.max(1, expectedSamples)];
+    Arrays.fill(buffer, Wave.NO_DATA);
+  }
+
+  /**
+   * Set a listener to be told of gaps, overlaps, and rejected packets.
+   *
+   * @param listener the listener, may be null
+   */
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Add a packet. The packet is registered to the sampling grid as a side effect.
+   *
+   * @param tb the packet
+   */
+  public void add(TraceBuf tb) {
+    int index = place(tb);
+    if (index >= 0) {
+      System.arraycopy(tb.data, 0, buffer, index, tb.numSamples);
+    }
+  }
+
+  /**
+   * Add every packet in a raw TRACEBUF or TRACEBUF2 byte stream, decoding samples directly into
+   * the assembly buffer.
+   *
+   * @param in stream of packets
+   * @param isTraceBuf2 whether the packets are TRACEBUF2
+   * @throws IOException if the stream is truncated
+   */
+  public void addAll(DataInputStream in, boolean isTraceBuf2) throws IOException {
+    while (in.available() > 0) {
+      header.processHeader(in, isTraceBuf2);
+      int index = place(header);
+      if (index >= 0) {
+        header.readData(in, buffer, index);
+      } else {
+        in.skipBytes(header.numSamples * (header.dataType.charAt(1) == '2' ? 2 : 4));
+      }
+    }
+  }
+
+  /**
+   * Add a packet held in a buffer, decoding samples directly into the assembly buffer. The view may
+   * be re-wrapped as soon as this returns.
+   *
+   * @param view the packet
+   */
+  public void add(TraceBufView view) {
+    view.readHeader(header);
+    int index = place(header);
+    if (index >= 0) {
+      view.copySamples(buffer, index);
+    }
+  }
+
+  /**
+   * Register a packet and work out where it goes, making room for it.
+   *
+   * @param tb the packet
+   * @return buffer index of the first sample or -1 if the packet is rejected
+   */
+  private int place(TraceBuf tb) {
+    if (tb.numSamples <= 0) {
+      return -1;
+    }
+
+    tb.register();
+    if (!started) {
+      firstSampleTime = tb.firstSampleTime;
+      samplingPeriod = tb.samplingPeriod;
+      registrationOffset = tb.registrationOffset;
+      started = true;
+    } else if (tb.samplingPeriod != samplingPeriod) {
+      reject(tb);
+      return -1;
+    }
+
+    if (tb.firstSampleTime < firstSampleTime) {
+      return prepend(tb);
+    }
+
+    long offset = (tb.firstSampleTime - firstSampleTime) / samplingPeriod;
+    if (offset + tb.numSamples > Integer.MAX_VALUE) {
+      reject(tb);
+      return -1;
+    }
+
+    int index = (int) offset;
+    if (index > length && length > 0) {
+      gap(tb, index - length);
+    } else if (index < length) {
+      // assume more recent samples are more correct samples
+      overlap(tb, Math.min(length, index + tb.numSamples) - index);
+    }
+
+    ensureCapacity(index + tb.numSamples);
+    length = Math.max(length, index + tb.numSamples);
+    return index;
+  }
+
+  /**
+   * Make room for a packet which starts before the samples already assembled by moving them along
+   * the buffer.
+   *
+   * @param tb the packet, registered
+   * @return 0 or -1 if the packet is rejected
+   */
+  private int prepend(TraceBuf tb) {
+    long shift = (firstSampleTime - tb.firstSampleTime) / samplingPeriod;
+    if (shift + Math.max(length, tb.numSamples) > Integer.MAX_VALUE) {
+      reject(tb);
+      return -1;
+    }
+
+    int n = (int) shift;
+    if (n > tb.numSamples) {
+      gap(tb, n - tb.numSamples);
+    } else if (n < tb.numSamples) {
+      overlap(tb, Math.min(tb.numSamples, n + length) - n);
+    }
+
+    ensureCapacity(n + Math.max(length, tb.numSamples));
+    System.arraycopy(buffer, 0, buffer, n, length);
+    Arrays.fill(buffer, 0, Math.min(n, length), Wave.NO_DATA);
+    length = Math.max(n + length, tb.numSamples);
+    firstSampleTime = tb.firstSampleTime;
+    registrationOffset = tb.registrationOffset;
+    return 0;
+  }
+
+  private void gap(TraceBuf tb, int samples) {
+    gapCount++;
+    gapSamples += samples;
+    if (listener != null) {
+      listener.gap(tb, samples);
+    }
+  }
+
+  private void overlap(TraceBuf tb, int samples) {
+    overlapCount++;
+    overlapSamples += samples;
+    if (listener != null) {
+      listener.overlap(tb, samples);
+    }
+  }
+
+  private void reject(TraceBuf tb) {
+    rejectedCount++;
+    if (listener != null) {
+      listener.rejected(tb);
+    }
+  }
+
+  private void ensureCapacity(int needed) {
+    if (needed <= buffer.length) {
+      return;
+    }
+    int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(needed, buffer.length * 2L));
+    int oldCapacity = buffer.length;
+    buffer = Arrays.copyOf(buffer, capacity);
+    Arrays.fill(buffer, oldCapacity, capacity, Wave.NO_DATA);
+  }
+
+  /**
+   * Gets the assembled wave. Starting time will be rounded to the nearest even interval based on
+   * the wave's sampling rate. The wave may share the assembly buffer, so no more packets should be
+   * added afterwards.
+   *
+   * @return the wave or null if no packets were accepted
+   */
+  public Wave getWave() {
+    if (!started) {
+      return null;
+    }
+
+    int[] samples = buffer.length == length ? buffer : Arrays.copyOf(buffer, length);
+    Wave wave = new Wave(samples, firstSampleTime * TraceBuf.FROM_USEC,
+        1 / (samplingPeriod * TraceBuf.FROM_USEC));
+    wave.setRegistrationOffset(registrationOffset * TraceBuf.FROM_USEC);
+    return wave;
+  }
+
+  /**
+   * Gets the number of samples assembled so far, including gaps.
+   *
+   * @return sample count
+   */
+  public int numSamples() {
+    return length;
+  }
+
+  /**
+   * Gets the number of gaps between packets.
+   *
+   * @return gap count
+   */
+  public int getGapCount() {
+    return gapCount;
+  }
+
+  /**
+   * Gets the total number of samples missing in gaps.
+   *
+   * @return missing sample count
+   */
+  public long getGapSamples() {
+    return gapSamples;
+  }
+
+  /**
+   * Gets the number of packets which overlapped earlier ones.
+   *
+   * @return overlap count
+   */
+  public int getOverlapCount() {
+    return overlapCount;
+  }
+
+  /**
+   * Gets the total number of samples overwritten by overlapping packets.
+   *
+   * @return overwritten sample count
+   */
+  public long getOverlapSamples() {
+    return overlapSamples;
+  }
+
+  /**
+   * Gets the number of packets rejected.
+   *
+   * @return rejected packet count
+   */
+  public int getRejectedCount() {
+    return rejectedCount;
+  }
+}
@@ -0,0 +1,375 @@
+package gov.usgs.volcanoes.core.legacy.ew.message;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A flyweight view of a TYPE_TRACEBUF or TYPE_TRACEBUF2 message held in a <code>ByteBuffer</code>,
+ * which may be heap or direct. Nothing is copied when a message is wrapped; header fields are
+ * decoded on request with absolute reads and samples may be read through an <code>IntBuffer</code>
+ * or copied in bulk into a caller-supplied array. A single view is meant to be re-wrapped around
+ * each message as it arrives, so a receive loop need not allocate per packet.
+ *
+ * <p>The byte order of the message is taken from the first character of the data type field,
+ * <code>i</code> for Intel or <code>s</code> for Sun, and applied with
+ * <code>ByteBuffer.order()</code>. This changes the order of the wrapped buffer.
+ *
+ * <p>Station, channel, network, and location codes are interned in a table shared by all views,
+ * so repeated codes are returned as the same <code>String</code> without decoding.
+ *
+ * <p>Views are not thread safe and are only valid until the underlying buffer is reused.
+ */
+public class TraceBufView {
+
+  /** Length of the message header. */
+  public static final int HEADER_LENGTH = 64;
+
+  private static final int PIN = 0;
+  private static final int NUM_SAMPLES = 4;
+  private static final int START_TIME = 8;
+  private static final int END_TIME = 16;
+  private static final int SAMPLING_RATE = 24;
+  private static final int STATION = 32;
+  private static final int NETWORK = 39;
+  private static final int CHANNEL = 48;
+  private static final int LOCATION = 52;
+  private static final int DATA_TYPE = 57;
+  private static final int QUALITY = 60;
+
+  private static final CodeTable CODES = new CodeTable(1024);
+
+  private ByteBuffer buffer;
+  private int offset;
+  private boolean isTraceBuf2;
+  private boolean isShort;
+
+  /**
+   * Point this view at a message. Only the data type field is read.
+   *
+   * @param buffer buffer holding the message
+   * @param offset absolute index in <code>buffer</code> of the first header byte
+   * @param isTraceBuf2 whether this is a TRACEBUF2
+   * @return this view
+   */
+  public TraceBufView wrap(ByteBuffer buffer, int offset, boolean isTraceBuf2) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.isTraceBuf2 = isTraceBuf2;
+
+    byte order = buffer.get(offset + DATA_TYPE);
+    buffer.order(order == 'i' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    isShort = buffer.get(offset + DATA_TYPE + 1) == '2';
+    return this;
+  }
+
+  /**
+   * Point this view at a message starting at the current position of a buffer.
+   *
+   * @param buffer buffer holding the message
+   * @param isTraceBuf2 whether this is a TRACEBUF2
+   * @return this view
+   */
+  public TraceBufView wrap(ByteBuffer buffer, boolean isTraceBuf2) {
+    return wrap(buffer, buffer.position(), isTraceBuf2);
+  }
+
+  /**
+   * Gets whether this is a TRACEBUF2.
+   *
+   * @return true if TRACEBUF2
+   */
+  public boolean isTraceBuf2() {
+    return isTraceBuf2;
+  }
+
+  /**
+   * Gets the channel pin.
+   *
+   * @return the pin
+   */
+  public int pin() {
+    return buffer.getInt(offset + PIN);
+  }
+
+  /**
+   * Gets the sample count.
+   *
+   * @return the sample count
+   */
+  public int numSamples() {
+    return buffer.getInt(offset + NUM_SAMPLES);
+  }
+
+  /**
+   * Gets the timestamp of the first sample as it appears in the message.
+   *
+   * @return the first sample time in earthworm time
+   */
+  public double startTime() {
+    return buffer.getDouble(offset + START_TIME);
+  }
+
+  /**
+   * Gets the timestamp of the last sample as it appears in the message.
+   *
+   * @return the last sample time in earthworm time
+   */
+  public double endTime() {
+    return buffer.getDouble(offset + END_TIME);
+  }
+
+  /**
+   * Gets the sampling rate.
+   *
+   * @return the sampling rate
+   */
+  public double samplingRate() {
+    return buffer.getDouble(offset + SAMPLING_RATE);
+  }
+
+  /**
+   * Gets the start time in epoch microseconds, rounded as <code>TraceBuf</code> does.
+   *
+   * @return the first sample time
+   */
+  public long firstSampleTimeMicros() {
+    return Math.round(startTime() * TraceBuf.TO_USEC);
+  }
+
+  /**
+   * Gets the sample period in microseconds, rounded as <code>TraceBuf</code> does.
+   *
+   * @return the sample period
+   */
+  public long samplingPeriodMicros() {
+    return Math.round(TraceBuf.TO_USEC / samplingRate());
+  }
+
+  /**
+   * Gets the station code.
+   *
+   * @return the station
+   */
+  public String station() {
+    return CODES.get(buffer, offset + STATION, 7);
+  }
+
+  /**
+   * Gets the network code.
+   *
+   * @return the network
+   */
+  public String network() {
+    return CODES.get(buffer, offset + NETWORK, 9);
+  }
+
+  /**
+   * Gets the channel code.
+   *
+   * @return the channel
+   */
+  public String channel() {
+    return CODES.get(buffer, offset + CHANNEL, isTraceBuf2 ? 4 : 9);
+  }
+
+  /**
+   * Gets the location code. As with <code>TraceBuf</code>, a TRACEBUF or a location of
+   * <code>--</code> gives null.
+   *
+   * @return the location or null
+   */
+  public String location() {
+    if (!isTraceBuf2) {
+      return null;
+    }
+    String location = CODES.get(buffer, offset + LOCATION, 3);
+    return "--".equals(location) ? null : location;
+  }
+
+  /**
+   * Gets the data type: i2, i4, s2, or s4.
+   *
+   * @return the data type
+   */
+  public String dataType() {
+    return CODES.get(buffer, offset + DATA_TYPE, 3);
+  }
+
+  /**
+   * Gets the quality flag.
+   *
+   * @return the quality
+   */
+  public String quality() {
+    return CODES.get(buffer, offset + QUALITY, 2);
+  }
+
+  /**
+   * Gets the number of bytes used by each sample.
+   *
+   * @return 2 or 4
+   */
+  public int bytesPerSample() {
+    return isShort ? 2 : 4;
+  }
+
+  /**
+   * Gets the length of the message, header and samples.
+   *
+   * @return length in bytes
+   */
+  public int length() {
+    return HEADER_LENGTH + numSamples() * bytesPerSample();
+  }
+
+  /**
+   * Gets the samples as a view of the underlying buffer. Only four byte data types can be viewed
+   * this way; two byte samples must be copied with <code>copySamples()</code>.
+   *
+   * @return the samples or null if the data type is i2 or s2
+   */
+  public IntBuffer samples() {
+    if (isShort) {
+      return null;
+    }
+    ByteBuffer data = buffer.duplicate();
+    int start = offset + HEADER_LENGTH;
+    data.limit(start + numSamples() * 4).position(start);
+    return data.slice().order(buffer.order()).asIntBuffer();
+  }
+
+  /**
+   * Copies the samples, widening two byte samples, into a caller-supplied array.
+   *
+   * @param dest the destination array
+   * @param destOffset index in <code>dest</code> of the first sample
+   * @return the number of samples copied
+   */
+  public int copySamples(int[] dest, int destOffset) {
+    final ByteBuffer buf = buffer;
+    final int count = numSamples();
+    int pos = offset + HEADER_LENGTH;
+    int end = destOffset + count;
+
+    if (isShort) {
+      for (int i = destOffset; i < end; i++, pos += 2) {
+        dest[i] = buf.getShort(pos);
+      }
+    } else {
+      for (int i = destOffset; i < end; i++, pos += 4) {
+        dest[i] = buf.getInt(pos);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Decodes this message into a standalone <code>TraceBuf</code>.
+   *
+   * @return the TraceBuf
+   */
+  public TraceBuf toTraceBuf() {
+    TraceBuf tb = new TraceBuf();
+    readHeader(tb);
+    tb.data = new int[tb.numSamples];
+    copySamples(tb.data, 0);
+    return tb;
+  }
+
+  /**
+   * Decodes the header of this message into an existing <code>TraceBuf</code>, leaving its samples
+   * untouched.
+   *
+   * @param tb the TraceBuf to fill
+   */
+  void readHeader(TraceBuf tb) {
+    tb.isTraceBuf2 = isTraceBuf2;
+    tb.pin = pin();
+    tb.numSamples = numSamples();
+    tb.station = station();
+    tb.network = network();
+    tb.channel = channel();
+    tb.location = location();
+    tb.dataType = dataType();
+    tb.quality = quality();
+    tb.firstSampleTime = firstSampleTimeMicros();
+    tb.samplingPeriod = samplingPeriodMicros();
+    tb.registrationOffset = 0;
+  }
+
+  @Override
+  public String toString() {
+    String location = location();
+    return String.format("TRACEBUF%s: %s %s %s %s, %d, %s, %.4f -> %.4f", isTraceBuf2 ? "2" : "",
+        station(), channel(), network(), location != null ? location : "--", numSamples(),
+        dataType(), startTime(), endTime());
+  }
+
+  /**
+   * A fixed size, direct mapped table of decoded header codes. A hit compares the raw bytes in
+   * place and allocates nothing; a miss replaces the slot. Entries are immutable, so unsynchronized
+   * sharing between threads can only cost an extra decode.
+   */
+  private static final class CodeTable {
+
+    private static final class Entry {
+      final byte[] raw;
+      final String code;
+
+      Entry(byte[] raw, String code) {
+        this.raw = raw;
+        this.code = code;
+      }
+    }
+
+    private final Entry[] entries;
+    private final int mask;
+
+    CodeTable(int size) {
+      entries = new Entry[size];
+      mask = size - 1;
+    }
+
+    String get(ByteBuffer buffer, int index, int maxLength) {
+      // fields are NUL terminated or padded
+      int length = 0;
+      int hash = maxLength;
+      while (length < maxLength) {
+        byte b = buffer.get(index + length);
+        if (b == 0) {
+          break;
+        }
+        hash = 31 * hash + b;
+        length++;
+      }
+
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      Entry entry = entries[slot];
+      if (entry != null && matches(entry.raw, buffer, index, length)) {
+        return entry.code;
+      }
+
+      byte[] raw = new byte[length];
+      for (int i = 0; i < length; i++) {
+        raw[i] = buffer.get(index + i);
+      }
+      String code = new String(raw, StandardCharsets.ISO_8859_1).trim().intern();
+      entries[slot] = new Entry(raw, code);
+      return code;
+    }
+
+    private static boolean matches(byte[] raw, ByteBuffer buffer, int index, int length) {
+      if (raw.length != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (raw[i] != buffer.get(index + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
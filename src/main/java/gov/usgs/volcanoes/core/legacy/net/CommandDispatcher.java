@@ -0,0 +1,290 @@
+package gov.usgs.volcanoes.core.legacy.net;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs commands for a <code>Server</code> on an executor so the selector thread never waits for a
+ * free <code>CommandHandler</code>. Commands are queued and <code>dispatch()</code> returns at
+ * once; when the queue is full the command is rejected rather than stalling every other client.
+ *
+ * <p>Commands from a single connection run one at a time, in the order they arrived. Each command
+ * borrows a handler from the server's pool and runs on the executor's thread through
+ * <code>CommandHandler.execute()</code>, so existing <code>Command</code>s and handlers work
+ * unchanged.
+ *
+ * <p>Time spent queued and time spent executing are recorded separately.
+ */
+public class CommandDispatcher {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CommandDispatcher.class);
+
+  private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+    public long applyAsLong(long left, long right) {
+      return Math.max(left, right);
+    }
+  };
+
+  private final Server server;
+  private final ExecutorService executor;
+  private final int maxQueued;
+
+  // commands waiting or running, by connection; a connection is present while it is being drained
+  private final Map<SocketChannel, ArrayDeque<Task>> queues =
+      new HashMap<SocketChannel, ArrayDeque<Task>>();
+  private final AtomicInteger queued = new AtomicInteger();
+
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder waitNanos = new LongAdder();
+  private final LongAdder executeNanos = new LongAdder();
+  private final LongAccumulator maxWaitNanos = new LongAccumulator(MAX, 0);
+  private final LongAccumulator maxExecuteNanos = new LongAccumulator(MAX, 0);
+
+  /**
+   * Create a dispatcher with a fixed pool of daemon threads, one per command handler. Create it
+   * once the server's handlers have been added.
+   *
+   * @param server the server whose handlers run commands
+   * @param maxQueued most commands waiting to run before new commands are rejected
+   */
+  public CommandDispatcher(Server server, int maxQueued) {
+    this(server, Executors.newFixedThreadPool(Math.max(1, server.getMaxPoolSize()),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "CommandDispatcher-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          }
+        }), maxQueued);
+  }
+
+  /**
+   * Create a dispatcher which runs commands on the given executor. Commands wait for a free
+   * handler, so there is no benefit in more threads than the server has handlers.
+   *
+   * @param server the server whose handlers run commands
+   * @param executor executor to run commands on
+   * @param maxQueued most commands waiting to run before new commands are rejected
+   */
+  public CommandDispatcher(Server server, ExecutorService executor, int maxQueued) {
+    this.server = server;
+    this.executor = executor;
+    this.maxQueued = maxQueued;
+  }
+
+  /**
+   * Queue a command.
+   *
+   * @param channel the connection the command came from
+   * @param key the connection's selection key
+   * @param command the command
+   * @return false if the command was rejected
+   */
+  public boolean dispatch(SocketChannel channel, SelectionKey key, String command) {
+    if (queued.incrementAndGet() > maxQueued) {
+      queued.decrementAndGet();
+      rejected.increment();
+      return false;
+    }
+
+    Task task = new Task(channel, key, command);
+    boolean start = false;
+    synchronized (queues) {
+      ArrayDeque<Task> queue = queues.get(channel);
+      if (queue == null) {
+        queue = new ArrayDeque<Task>();
+        queues.put(channel, queue);
+        start = true;
+      }
+      queue.add(task);
+    }
+
+    if (start) {
+      try {
+        executor.execute(new Drainer(channel));
+      } catch (RejectedExecutionException e) {
+        synchronized (queues) {
+          ArrayDeque<Task> queue = queues.remove(channel);
+          queued.addAndGet(-queue.size());
+        }
+        rejected.increment();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Task next(SocketChannel channel) {
+    synchronized (queues) {
+      ArrayDeque<Task> queue = queues.get(channel);
+      Task task = queue.poll();
+      if (task == null) {
+        queues.remove(channel);
+      }
+      return task;
+    }
+  }
+
+  private void run(Task task) {
+    CommandHandler handler = server.checkoutCommandHandler();
+    long start = System.nanoTime();
+    long wait = start - task.queuedAt;
+    waitNanos.add(wait);
+    maxWaitNanos.accumulate(wait);
+
+    try {
+      handler.execute(task.channel, task.key, task.command);
+    } catch (Exception e) {
+      LOGGER.error("Unhandled exception in command dispatch.", e);
+    } finally {
+      server.addCommandHandler(handler);
+      long execute = System.nanoTime() - start;
+      executeNanos.add(execute);
+      maxExecuteNanos.accumulate(execute);
+      completed.increment();
+    }
+  }
+
+  /**
+   * Stop accepting commands and wait for queued commands to finish.
+   *
+   * @param timeoutMillis how long to wait
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void shutdown(long timeoutMillis) throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Gets the number of commands waiting to run or running.
+   *
+   * @return queue depth
+   */
+  public int getQueueDepth() {
+    return queued.get();
+  }
+
+  /**
+   * Gets the number of commands run.
+   *
+   * @return completed count
+   */
+  public long getCompletedCount() {
+    return completed.sum();
+  }
+
+  /**
+   * Gets the number of commands rejected because the queue was full.
+   *
+   * @return rejected count
+   */
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  /**
+   * Gets the mean time commands spent waiting to run.
+   *
+   * @return mean wait in milliseconds
+   */
+  public double getMeanWaitMillis() {
+    long n = completed.sum();
+    return n == 0 ? 0 : waitNanos.sum() / 1E6 / n;
+  }
+
+  /**
+   * Gets the longest time a command spent waiting to run.
+   *
+   * @return longest wait in milliseconds
+   */
+  public double getMaxWaitMillis() {
+    return maxWaitNanos.get() / 1E6;
+  }
+
+  /**
+   * Gets the mean time commands spent executing.
+   *
+   * @return mean execution time in milliseconds
+   */
+  public double getMeanExecuteMillis() {
+    long n = completed.sum();
+    return n == 0 ? 0 : executeNanos.sum() / 1E6 / n;
+  }
+
+  /**
+   * Gets the longest time a command spent executing.
+   *
+   * @return longest execution time in milliseconds
+   */
+  public double getMaxExecuteMillis() {
+    return maxExecuteNanos.get() / 1E6;
+  }
+
+  /**
+   * Gets a summary of dispatch statistics, formatted for the console.
+   *
+   * @return the summary
+   */
+  public String getStatisticsString() {
+    return String.format(
+        "Dispatch queue:             %d/%d, %d completed, %d rejected\n"
+            + "Queue wait (ms):            mean %.2f, max %.2f\n"
+            + "Execution (ms):             mean %.2f, max %.2f\n",
+        getQueueDepth(), maxQueued, getCompletedCount(), getRejectedCount(), getMeanWaitMillis(),
+        getMaxWaitMillis(), getMeanExecuteMillis(), getMaxExecuteMillis());
+  }
+
+  private static final class Task {
+    final SocketChannel channel;
+    final SelectionKey key;
+    final String command;
+    final long queuedAt;
+
+    Task(SocketChannel channel, SelectionKey key, String command) {
+      this.channel = channel;
+      this.key = key;
+      this.command = command;
+      queuedAt = System.nanoTime();
+    }
+  }
+
+  /**
+   * Runs a connection's commands until its queue is empty.
+   */
+  private final class Drainer implements Runnable {
+    private final SocketChannel channel;
+
+    Drainer(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    public void run() {
+      Task task;
+      while ((task = next(channel)) != null) {
+        try {
+          CommandDispatcher.this.run(task);
+        } finally {
+          queued.decrementAndGet();
+        }
+      }
+    }
+  }
+}
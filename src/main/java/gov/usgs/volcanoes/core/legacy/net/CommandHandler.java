@@ -53,6 +53,43 @@ abstract public class CommandHandler extends Thread {
     // logger.log(Level.INFO, "Command: " + cmd);
     channel = ch;
     selectionKey = key;
+    Command command = findCommand(cmd);
+    if (command != null) {
+      executeCommand = command;
+      executeCommandInfo = cmd;
+    }
+
+    notify();
+  }
+
+  /**
+   * Run a command on the calling thread rather than on this handler's thread. Used by
+   * <code>CommandDispatcher</code>; the caller must have checked this handler out of the server's
+   * pool and is responsible for returning it.
+   *
+   * @param ch the connection the command came from
+   * @param key the connection's selection key
+   * @param cmd the command
+   */
+  protected synchronized void execute(SocketChannel ch, SelectionKey key, String cmd) {
+    channel = ch;
+    selectionKey = key;
+    try {
+      Command command = findCommand(cmd);
+      if (command != null)
+        runCommand(command, cmd);
+    } finally {
+      connections.endCommand(ch);
+    }
+  }
+
+  /**
+   * Look up the command named in a command string. Handles quit, which has no command.
+   *
+   * @param cmd the command string
+   * @return the command or null
+   */
+  private Command findCommand(String cmd) {
     String cmdName = "";
     int indexSpace = cmd.indexOf(' ');
     int indexColon = cmd.indexOf(':');
@@ -74,16 +111,25 @@ abstract public class CommandHandler extends Thread {
     }
 
     Command command = getCommand(cmdName);
-    if (command != null) {
-      executeCommand = command;
-      executeCommandInfo = cmd;
-    }
     // quit is special, it has no Command class.
-    else if (cmdName.equalsIgnoreCase("quit")) {
+    if (command == null && cmdName.equalsIgnoreCase("quit")) {
       closeConnection();
     }
+    return command;
+  }
 
-    notify();
+  private void runCommand(Command command, String commandInfo) {
+    String commandLine = commandInfo;
+    int eol = commandLine.indexOf('\n');
+    if (eol != -1)
+      commandLine = commandLine.substring(0, eol);
+
+    CodeTimer ct = new CodeTimer(commandLine);
+    command.doCommand(commandInfo, channel);
+    ct.stop();
+    if (slowCommandTime > 0 && ct.getRunTimeMillis() > slowCommandTime)
+      LOGGER.info("{}", String.format(Server.getHost(channel) + "/slow command (%1.2f ms) "
+              + commandLine, ct.getRunTimeMillis()));
   }
 
   public void closeConnection() {
@@ -99,17 +145,7 @@ abstract public class CommandHandler extends Thread {
 
       if (executeCommand != null) {
         try {
-          String commandLine = executeCommandInfo;
-          int eol = commandLine.indexOf('\n');
-          if (eol != -1)
-            commandLine = commandLine.substring(0, eol);
-
-          CodeTimer ct = new CodeTimer(commandLine);
-          executeCommand.doCommand(executeCommandInfo, channel);
-          ct.stop();
-          if (slowCommandTime > 0 && ct.getRunTimeMillis() > slowCommandTime)
-            LOGGER.info("{}", String.format(Server.getHost(channel) + "/slow command (%1.2f ms) "
-                    + commandLine, ct.getRunTimeMillis()));
+          runCommand(executeCommand, executeCommandInfo);
         } catch (Exception e) {
           e.printStackTrace();
           LOGGER.error("Unhandled exception in main CommandHandler loop.", e);
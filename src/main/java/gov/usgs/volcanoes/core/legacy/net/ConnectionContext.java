@@ -0,0 +1,196 @@
+package gov.usgs.volcanoes.core.legacy.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * The state a reactor-mode <code>Server</code> keeps for each connection: the buffer commands are
+ * read into and the output that could not be written without blocking.
+ *
+ * <p>Writes may come from any thread. Whatever the socket will not take at once is queued and
+ * written by the connection's reactor thread when the socket becomes writable, so a slow client
+ * never holds a command handler in a write loop. The number of bytes queued is reported to
+ * <code>Connections</code> so slow consumers show up in the connection listing.
+ */
+public class ConnectionContext {
+  /** Most output queued for a connection; writers wait for the queue to drain below this. */
+  public static final int MAX_OUTSTANDING = 1 << 20;
+
+  final SocketChannel channel;
+  final Reactor reactor;
+  SelectionKey key;
+
+  /** Bytes read but not yet consumed, in write mode. Only touched by the reactor thread. */
+  ByteBuffer input;
+
+  /** Bytes of <code>input</code> already known not to hold a newline. */
+  int scanned;
+
+  private final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+  private long outstanding;
+  private boolean closed;
+
+  ConnectionContext(SocketChannel channel, Reactor reactor, ByteBuffer input) {
+    this.channel = channel;
+    this.reactor = reactor;
+    this.input = input;
+  }
+
+  /**
+   * Gets the connection.
+   *
+   * @return the channel
+   */
+  public SocketChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * Write a buffer without blocking. Whatever the socket does not take at once is copied and
+   * queued, so the caller may reuse the buffer as soon as this returns.
+   *
+   * @param bb bytes to write; the buffer is drained
+   * @return number of bytes accepted, written or queued
+   * @throws IOException if the connection has failed
+   */
+  public int write(ByteBuffer bb) throws IOException {
+    return (int) write(new ByteBuffer[] {bb});
+  }
+
+  /**
+   * Write several buffers with a single gathering write, for instance a header and a binary
+   * payload. Whatever the socket does not take at once is copied and queued. No more than
+   * <code>MAX_OUTSTANDING</code> bytes are ever queued; the caller waits for the reactor to drain
+   * the queue, so a client which is slow to read slows the command writing to it instead of
+   * filling the heap.
+   *
+   * @param srcs bytes to write; the buffers are drained
+   * @return number of bytes accepted, written or queued
+   * @throws IOException if the connection has failed or is closed while waiting
+   */
+  public synchronized long write(ByteBuffer[] srcs) throws IOException {
+    long accepted = remaining(srcs);
+    long left = accepted;
+    while (left > 0) {
+      awaitDrain();
+      if (output.isEmpty()) {
+        long n;
+        while (left > 0 && (n = channel.write(srcs)) > 0) {
+          left -= n;
+        }
+      }
+
+      if (left > 0) {
+        ByteBuffer copy = copy(srcs, (int) Math.min(left, MAX_OUTSTANDING - outstanding));
+        output.add(copy);
+        outstanding += copy.remaining();
+        left -= copy.remaining();
+        report();
+        reactor.interestWrite(this);
+      }
+    }
+    return accepted;
+  }
+
+  private void awaitDrain() throws IOException {
+    while (!closed && outstanding >= MAX_OUTSTANDING) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted waiting for slow client");
+      }
+    }
+    if (closed) {
+      throw new IOException("connection closed");
+    }
+  }
+
+  private static long remaining(ByteBuffer[] srcs) {
+    long n = 0;
+    for (ByteBuffer bb : srcs) {
+      n += bb.remaining();
+    }
+    return n;
+  }
+
+  /**
+   * Copy the next bytes from a sequence of buffers, advancing them.
+   */
+  private static ByteBuffer copy(ByteBuffer[] srcs, int length) {
+    ByteBuffer copy = ByteBuffer.allocate(length);
+    for (ByteBuffer bb : srcs) {
+      if (!copy.hasRemaining()) {
+        break;
+      }
+      if (bb.remaining() <= copy.remaining()) {
+        copy.put(bb);
+      } else {
+        ByteBuffer part = bb.duplicate();
+        part.limit(part.position() + copy.remaining());
+        copy.put(part);
+        bb.position(part.position());
+      }
+    }
+    copy.flip();
+    return copy;
+  }
+
+  /**
+   * Write queued output. Called by the reactor thread when the socket is writable.
+   *
+   * @return true if the queue has been emptied
+   * @throws IOException if the connection has failed
+   */
+  synchronized boolean flush() throws IOException {
+    try {
+      while (!output.isEmpty()) {
+        ByteBuffer bb = output.peek();
+        outstanding -= channel.write(bb);
+        if (bb.hasRemaining()) {
+          return false;
+        }
+        output.poll();
+      }
+      return true;
+    } finally {
+      report();
+      if (outstanding < MAX_OUTSTANDING) {
+        notifyAll();
+      }
+    }
+  }
+
+  private void report() {
+    reactor.server.connections.outstanding(channel, outstanding);
+  }
+
+  /**
+   * Gets the number of bytes accepted for writing but not yet taken by the socket.
+   *
+   * @return queued byte count
+   */
+  public synchronized long getOutstandingBytes() {
+    return outstanding;
+  }
+
+  /**
+   * Discard queued output and refuse further writes.
+   *
+   * @return true the first time this is called
+   */
+  synchronized boolean close() {
+    if (closed) {
+      return false;
+    }
+    closed = true;
+    output.clear();
+    outstanding = 0;
+    notifyAll();
+    return true;
+  }
+}
@@ -4,15 +4,23 @@ import gov.usgs.volcanoes.core.time.Time;
 
 import java.nio.channels.SocketChannel;
 import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- *
+ * Statistics for a single connection. Counters may be updated from any thread without locking;
+ * use <code>snapshot()</code> to get a consistent copy for display or sorting.
  *
  * @author Dan Cervelli
  */
 public class ConnectionStatistics {
+  private static final AtomicLongFieldUpdater<ConnectionStatistics> NUM_BYTES_RECEIVED =
+      AtomicLongFieldUpdater.newUpdater(ConnectionStatistics.class, "numBytesReceived");
+  private static final AtomicLongFieldUpdater<ConnectionStatistics> NUM_BYTES_SENT =
+      AtomicLongFieldUpdater.newUpdater(ConnectionStatistics.class, "numBytesSent");
+
   public enum SortOrder {
-    ADDRESS, CONNECT_TIME, LAST_REQUEST_TIME, RX_BYTES, TX_BYTES, INDEX;
+    ADDRESS, CONNECT_TIME, LAST_REQUEST_TIME, RX_BYTES, TX_BYTES, OUTSTANDING, INDEX;
 
     public static SortOrder parse(char c) {
       switch (Character.toUpperCase(c)) {
@@ -27,6 +35,8 @@ public class ConnectionStatistics {
           return RX_BYTES;
         case 'T':
           return TX_BYTES;
+        case 'O':
+          return OUTSTANDING;
         case 'I':
           return INDEX;
       }
@@ -37,22 +47,98 @@ public class ConnectionStatistics {
   public String address;
   public long index;
   public long connectTime;
-  public long lastRequestTime;
-  public long numBytesReceived;
-  public long numBytesSent;
-  private String lastCommand;
-  private boolean runningCommand;
-  private long commandStart;
-  public boolean isTraced;
+  // the sort key of the registry's idle index, so only changed while out of the index
+  private volatile long requestTime;
+  /** Bytes accepted for writing that the client has not yet taken. */
+  public volatile long numBytesOutstanding;
+  private final LongAdder bytesReceived = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  /**
+   * @deprecated copy of {@link #getLastRequestTime()}; writing it has no effect
+   */
+  @Deprecated
+  public volatile long lastRequestTime;
+  /**
+   * @deprecated copy of {@link #getNumBytesReceived()}; writing it has no effect
+   */
+  @Deprecated
+  public volatile long numBytesReceived;
+  /**
+   * @deprecated copy of {@link #getNumBytesSent()}; writing it has no effect
+   */
+  @Deprecated
+  public volatile long numBytesSent;
+  private volatile String lastCommand;
+  private volatile boolean runningCommand;
+  private volatile long commandStart;
+  public volatile boolean isTraced;
+
+  // registry whose idle index holds this connection, null once removed
+  private Connections owner;
 
   public ConnectionStatistics(SocketChannel ch) {
     channel = ch;
+    connectTime = System.currentTimeMillis();
+    requestTime = connectTime;
+    lastRequestTime = connectTime;
     runningCommand = false;
     isTraced = false;
   }
 
+  private ConnectionStatistics(ConnectionStatistics cs) {
+    channel = cs.channel;
+    address = cs.address;
+    index = cs.index;
+    connectTime = cs.connectTime;
+    requestTime = cs.requestTime;
+    lastRequestTime = requestTime;
+    numBytesOutstanding = cs.numBytesOutstanding;
+    bytesReceived.add(cs.bytesReceived.sum());
+    bytesSent.add(cs.bytesSent.sum());
+    numBytesReceived = bytesReceived.sum();
+    numBytesSent = bytesSent.sum();
+    lastCommand = cs.lastCommand;
+    runningCommand = cs.runningCommand;
+    commandStart = cs.commandStart;
+    isTraced = cs.isTraced;
+  }
+
+  /**
+   * Gets a copy of these statistics which will not change.
+   *
+   * @return the copy
+   */
+  public ConnectionStatistics snapshot() {
+    return new ConnectionStatistics(this);
+  }
+
   public void touch() {
-    lastRequestTime = System.currentTimeMillis();
+    long now = System.currentTimeMillis();
+    if (now == requestTime)
+      return;
+
+    synchronized (this) {
+      if (owner != null) {
+        owner.unindex(this);
+        requestTime = now;
+        owner.index(this);
+      } else
+        requestTime = now;
+      lastRequestTime = now;
+    }
+  }
+
+  /**
+   * Gets the time of the most recent request, or of connection if there has been none.
+   *
+   * @return time in milliseconds since the epoch
+   */
+  public long getLastRequestTime() {
+    return requestTime;
+  }
+
+  synchronized void setOwner(Connections connections) {
+    owner = connections;
   }
 
   public void beginCommand(String command) {
@@ -71,20 +157,52 @@ public class ConnectionStatistics {
   }
 
   public void read(int nb) {
-    numBytesReceived += nb;
+    bytesReceived.add(nb);
+    raise(NUM_BYTES_RECEIVED, bytesReceived.sum());
   }
 
   public void sent(int nb) {
-    numBytesSent += nb;
+    bytesSent.add(nb);
+    raise(NUM_BYTES_SENT, bytesSent.sum());
+  }
+
+  // never lower a copied counter, so the last sum taken, which sees every update, is the one kept
+  private void raise(AtomicLongFieldUpdater<ConnectionStatistics> field, long sum) {
+    long seen;
+    while ((seen = field.get(this)) < sum && !field.compareAndSet(this, seen, sum))
+      ;
+  }
+
+  /**
+   * Gets the number of bytes read from the connection.
+   *
+   * @return bytes received
+   */
+  public long getNumBytesReceived() {
+    return bytesReceived.sum();
+  }
+
+  /**
+   * Gets the number of bytes written to the connection.
+   *
+   * @return bytes sent
+   */
+  public long getNumBytesSent() {
+    return bytesSent.sum();
+  }
+
+  public void outstanding(long nb) {
+    numBytesOutstanding = nb;
   }
 
   public static String getHeaderString() {
-    return "[A]ddress        [C]onnect time         [L]ast time            [R]X bytes  [T]X bytes  [I]ndex\n";
+    return "[A]ddress        [C]onnect time         [L]ast time            [R]X bytes  [T]X bytes  [O]utstanding [I]ndex\n";
   }
 
   public String getConnectionString() {
-    String s = String.format("%-16s %-22s %-22s %-11d %-11d %-11d", address, Time.toDateString(connectTime),
-        Time.toDateString(lastRequestTime), numBytesReceived, numBytesSent, index);
+    String s = String.format("%-16s %-22s %-22s %-11d %-11d %-13d %-11d", address,
+        Time.toDateString(connectTime), Time.toDateString(requestTime), getNumBytesReceived(),
+        getNumBytesSent(), numBytesOutstanding, index);
     return s;
   }
 
@@ -111,19 +229,22 @@ public class ConnectionStatistics {
             cmp = cs1.address.compareTo(cs2.address);
             break;
           case LAST_REQUEST_TIME:
-            cmp = (int) (cs1.lastRequestTime - cs2.lastRequestTime);
+            cmp = Long.compare(cs1.requestTime, cs2.requestTime);
             break;
           case CONNECT_TIME:
-            cmp = (int) (cs1.connectTime - cs2.connectTime);
+            cmp = Long.compare(cs1.connectTime, cs2.connectTime);
             break;
           case RX_BYTES:
-            cmp = (int) (cs1.numBytesReceived - cs2.numBytesReceived);
+            cmp = Long.compare(cs1.getNumBytesReceived(), cs2.getNumBytesReceived());
             break;
           case TX_BYTES:
-            cmp = (int) (cs1.numBytesSent - cs2.numBytesSent);
+            cmp = Long.compare(cs1.getNumBytesSent(), cs2.getNumBytesSent());
+            break;
+          case OUTSTANDING:
+            cmp = Long.compare(cs1.numBytesOutstanding, cs2.numBytesOutstanding);
             break;
           case INDEX:
-            cmp = (int) (cs1.index - cs2.index);
+            cmp = Long.compare(cs1.index, cs2.index);
             break;
 
         }
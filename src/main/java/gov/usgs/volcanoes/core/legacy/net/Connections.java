@@ -4,25 +4,55 @@ import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A singleton class meant to hold the connection parameters for a daemon
  *
+ * <p>The registry is safe for concurrent use without a global lock. Connections are also kept in
+ * order of last request time so the least recently used or idle connections can be found without
+ * a scan. Reports are built from snapshots and do not hold up the selector or command handlers.
+ *
  * @author Tom Parker
  *
  */
 public class Connections {
-  private Map<SocketChannel, ConnectionStatistics> connectionStats = Collections.synchronizedMap(new HashMap<SocketChannel, ConnectionStatistics>());
-  private long connectionIndex = 0;
-  private int maxConnections = 20;
+  /**
+   * A position in the idle index. Keys never change once indexed, as the skip list may still
+   * compare against a removed node; a connection moves by removing its key and adding a new one.
+   */
+  private static final class IdleKey implements Comparable<IdleKey> {
+    private final long lastRequestTime;
+    private final long index;
+
+    IdleKey(long lastRequestTime, long index) {
+      this.lastRequestTime = lastRequestTime;
+      this.index = index;
+    }
+
+    IdleKey(ConnectionStatistics cs) {
+      this(cs.getLastRequestTime(), cs.index);
+    }
 
-  private Connections() {
-    connectionStats = Collections.synchronizedMap(new HashMap<SocketChannel, ConnectionStatistics>());
+    public int compareTo(IdleKey other) {
+      int cmp = Long.compare(lastRequestTime, other.lastRequestTime);
+      return cmp != 0 ? cmp : Long.compare(index, other.index);
+    }
   }
 
+  private final ConcurrentHashMap<SocketChannel, ConnectionStatistics> connectionStats =
+      new ConcurrentHashMap<SocketChannel, ConnectionStatistics>();
+  private final ConcurrentSkipListMap<IdleKey, ConnectionStatistics> idle =
+      new ConcurrentSkipListMap<IdleKey, ConnectionStatistics>();
+  private final AtomicLong connectionIndex = new AtomicLong();
+  private volatile int maxConnections = 20;
+
+  private Connections() {}
+
   public static Connections getInstance() {
     return ConnectionsHolder.instance;
   }
@@ -36,21 +66,85 @@ public class Connections {
   }
 
   public Map<SocketChannel, ConnectionStatistics> getConnections() {
-    return connectionStats;
+    return Collections.unmodifiableMap(connectionStats);
   }
 
   public ConnectionStatistics getConnectionStatistics(SocketChannel channel) {
-    ConnectionStatistics cs = connectionStats.get(channel);
+    ConnectionStatistics cs = get(channel);
     if (cs == null) {
-      cs = new ConnectionStatistics(channel);
-      cs.address = getHost(channel);
-      cs.index = connectionIndex++;
-      cs.connectTime = System.currentTimeMillis();
-      connectionStats.put(channel, cs);
+      ConnectionStatistics created = new ConnectionStatistics(channel);
+      created.address = getHost(channel);
+      created.index = connectionIndex.getAndIncrement();
+      cs = connectionStats.putIfAbsent(channel, created);
+      if (cs == null) {
+        cs = created;
+        synchronized (cs) {
+          // unless it was removed already
+          if (connectionStats.get(channel) == cs) {
+            idle.put(new IdleKey(cs), cs);
+            cs.setOwner(this);
+          }
+        }
+      }
     }
     return cs;
   }
 
+  /**
+   * Take a connection out of the idle index before its last request time changes. Called with the
+   * statistics locked.
+   */
+  void unindex(ConnectionStatistics cs) {
+    idle.remove(new IdleKey(cs));
+  }
+
+  /**
+   * Put a connection back in the idle index. Called with the statistics locked.
+   */
+  void index(ConnectionStatistics cs) {
+    idle.put(new IdleKey(cs), cs);
+  }
+
+  /**
+   * Gets the connection which has gone longest without a request.
+   *
+   * @return the connection or null if there are none
+   */
+  public SocketChannel getLeastRecentlyUsed() {
+    Map.Entry<IdleKey, ConnectionStatistics> first = idle.firstEntry();
+    return first != null ? first.getValue().channel : null;
+  }
+
+  /**
+   * Gets the connections which have not made a request recently, least recently used first.
+   *
+   * @param idleLimit idle time in milliseconds
+   * @return connections idle for longer than idleLimit
+   */
+  public List<SocketChannel> getIdleConnections(long idleLimit) {
+    long cutoff = System.currentTimeMillis() - idleLimit;
+    List<SocketChannel> channels = new ArrayList<SocketChannel>();
+    for (ConnectionStatistics cs : idle.headMap(new IdleKey(cutoff, Long.MIN_VALUE)).values())
+      channels.add(cs.channel);
+    return channels;
+  }
+
+  /**
+   * Gets a copy of every connection's statistics.
+   *
+   * @return unchanging copies, in no particular order
+   */
+  public List<ConnectionStatistics> getSnapshot() {
+    List<ConnectionStatistics> css = new ArrayList<ConnectionStatistics>(connectionStats.size());
+    for (ConnectionStatistics cs : connectionStats.values())
+      css.add(cs.snapshot());
+    return css;
+  }
+
+  private ConnectionStatistics get(SocketChannel channel) {
+    return channel == null ? null : connectionStats.get(channel);
+  }
+
   public static String getHost(SocketChannel channel) {
     String addr;
 
@@ -71,23 +165,35 @@ public class Connections {
   }
 
   public void remove(SocketChannel channel) {
-    connectionStats.remove(channel);
+    ConnectionStatistics cs = channel == null ? null : connectionStats.remove(channel);
+    if (cs != null) {
+      synchronized (cs) {
+        idle.remove(new IdleKey(cs));
+        cs.setOwner(null);
+      }
+    }
   }
 
   public void sent(SocketChannel channel, int bytesSent) {
-    ConnectionStatistics cs = connectionStats.get(channel);
+    ConnectionStatistics cs = get(channel);
     if (cs != null)
       cs.sent(bytesSent);
   }
 
+  public void outstanding(SocketChannel channel, long bytesOutstanding) {
+    ConnectionStatistics cs = get(channel);
+    if (cs != null)
+      cs.outstanding(bytesOutstanding);
+  }
+
   public void read(SocketChannel channel, int bytesRead) {
-    ConnectionStatistics cs = connectionStats.get(channel);
+    ConnectionStatistics cs = get(channel);
     if (cs != null)
       cs.read(bytesRead);
   }
 
   public void beginCommand(SocketChannel channel, String commandString) {
-    ConnectionStatistics cs = connectionStats.get(channel);
+    ConnectionStatistics cs = get(channel);
     if (cs != null)
       cs.beginCommand(commandString);
   }
@@ -98,8 +204,7 @@ public class Connections {
       col = s.charAt(1);
     boolean desc = s.endsWith("-");
 
-    List<ConnectionStatistics> css = new ArrayList<ConnectionStatistics>(connectionStats.size());
-    css.addAll(connectionStats.values());
+    List<ConnectionStatistics> css = getSnapshot();
 
     Collections.sort(css, ConnectionStatistics.getComparator(ConnectionStatistics.SortOrder.parse(col), desc));
     StringBuffer sb = new StringBuffer();
@@ -109,7 +214,17 @@ public class Connections {
       sb.append(cs.getConnectionString() + "\n");
     }
     sb.append(ConnectionStatistics.getHeaderString());
-    sb.append("\n\nOpen client connections:    " + connectionStats.size() + "/" + maxConnections + "\n");
+    sb.append("\n\nOpen client connections:    " + css.size() + "/" + maxConnections + "\n");
+
+    int slow = 0;
+    long outstanding = 0;
+    for (ConnectionStatistics cs : css) {
+      if (cs.numBytesOutstanding > 0) {
+        slow++;
+        outstanding += cs.numBytesOutstanding;
+      }
+    }
+    sb.append("Outstanding output:         " + outstanding + " bytes to " + slow + " connections\n");
 
     return(sb.toString());
   }
@@ -120,8 +235,7 @@ public class Connections {
       col = s.charAt(1);
     boolean desc = s.endsWith("-");
 
-    List<ConnectionStatistics> css = new ArrayList<ConnectionStatistics>(connectionStats.size());
-    css.addAll(connectionStats.values());
+    List<ConnectionStatistics> css = getSnapshot();
 
     Collections.sort(css, ConnectionStatistics.getComparator(ConnectionStatistics.SortOrder.parse(col), desc));
     StringBuffer sb = new StringBuffer();
@@ -154,8 +268,7 @@ public class Connections {
   }
 
   public void toggleTrace(int index) {
-    for (SocketChannel sc : connectionStats.keySet()) {
-      ConnectionStatistics cs = connectionStats.get(sc);
+    for (ConnectionStatistics cs : connectionStats.values()) {
       if (cs.index == index)
         cs.isTraced = cs.isTraced ? false : true;
     }
@@ -163,12 +276,12 @@ public class Connections {
   }
 
   public boolean isTraced(SocketChannel channel) {
-    ConnectionStatistics cs = connectionStats.get(channel);
-    return cs.isTraced;
+    ConnectionStatistics cs = get(channel);
+    return cs != null && cs.isTraced;
   }
 
   public void endCommand(SocketChannel channel) {
-    ConnectionStatistics cs = connectionStats.get(channel);
+    ConnectionStatistics cs = get(channel);
     if (cs != null)
       cs.endCommand();
   }
@@ -1,14 +1,19 @@
 package gov.usgs.volcanoes.core.legacy.net;
 
+import gov.usgs.volcanoes.core.legacy.util.Pool;
+
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,33 +35,184 @@ import org.slf4j.LoggerFactory;
  */
 public class NetTools
 {
-  private int currentBufferSize = 2048;
+  /**
+   * Size of the buffer text is encoded into. Responses of any length are
+   * encoded and written a chunk at a time.
+   */
+  public static final int CHUNK_SIZE = 16384;
+
+  private static final long SELECT_TIMEOUT = 1000;
 
   public CharsetEncoder encoder = Charset.forName("US-ASCII").newEncoder();
   public CharsetDecoder decoder = Charset.forName("US-ASCII").newDecoder();
 
-  private CharBuffer charBuffer;
-  private ByteBuffer outBuffer;
-
   private static final Logger LOGGER = LoggerFactory.getLogger(NetTools.class);
 
+  // a NetTools is shared by every command handler, so each thread encodes into its own chunk
+  private final ThreadLocal<WriteState> writeState = new ThreadLocal<WriteState>()
+  {
+    protected WriteState initialValue()
+    {
+      return new WriteState();
+    }
+  };
+
+  // selectors writers have finished waiting with, so each stall need not open one
+  private final Pool<Selector> selectors = new Pool<Selector>();
+
   private Server server;
 
   public NetTools()
-  {
-    reallocate();
-  }
+  {}
 
   public void setServer(Server s)
   {
     server = s;
   }
 
-  private void reallocate()
+  /**
+   * Find the first occurrence of a byte in part of a buffer. Eight bytes are
+   * tested at a time with a SWAR zero-byte test, so a long line costs an
+   * eighth of the comparisons of a byte-by-byte scan.
+   *
+   * @param bb the buffer; its position, limit and byte order are not used
+   * @param from index of the first byte to check
+   * @param to index after the last byte to check
+   * @param b the byte to find
+   * @return index of the byte or -1 if it is not present
+   */
+  public static int indexOf(ByteBuffer bb, int from, int to, byte b)
+  {
+    final long pattern = (b & 0xffL) * 0x0101010101010101L;
+    int i = from;
+    for (; i + 8 <= to; i += 8)
+    {
+      // non-zero only if some byte of the word matches, whatever the byte order
+      long x = bb.getLong(i) ^ pattern;
+      if (((x - 0x0101010101010101L) & ~x & 0x8080808080808080L) != 0)
+      {
+        for (int j = i; j < i + 8; j++)
+          if (bb.get(j) == b)
+            return j;
+      }
+    }
+    for (; i < to; i++)
+      if (bb.get(i) == b)
+        return i;
+    return -1;
+  }
+
+  /**
+   * Write buffers to a channel. If the server is in reactor mode whatever
+   * the socket will not take at once is queued for the reactor to write.
+   * Otherwise the calling thread waits for the socket to become writable,
+   * and the bytes it is waiting to write are reported to
+   * <code>Connections</code> as outstanding. The selector used to wait is
+   * taken only when the socket is full, from a pool shared by the writers,
+   * and handed back before returning.
+   */
+  private long write(ByteBuffer[] srcs, SocketChannel channel) throws IOException
   {
-    currentBufferSize *= 2;
-    charBuffer = CharBuffer.allocate(currentBufferSize);
-    outBuffer = ByteBuffer.allocateDirect(currentBufferSize * 2);
+    ConnectionContext context = server == null ? null : server.getConnectionContext(channel);
+    if (context != null)
+      return context.write(srcs);
+
+    long length = 0;
+    for (ByteBuffer bb : srcs)
+      length += bb.remaining();
+
+    long totalBytes = 0;
+    Selector selector = null;
+    try
+    {
+      while (totalBytes < length)
+      {
+        long n = channel.write(srcs);
+        totalBytes += n;
+        if (n == 0 && totalBytes < length)
+        {
+          if (selector == null)
+          {
+            selector = selectors.poll();
+            if (selector == null)
+              selector = Selector.open();
+          }
+          awaitWritable(channel, selector, length - totalBytes);
+        }
+      }
+    }
+    finally
+    {
+      if (selector != null)
+      {
+        selectors.checkin(selector);
+        if (server != null)
+          server.connections.outstanding(channel, 0);
+      }
+    }
+    return totalBytes;
+  }
+
+  private void awaitWritable(SocketChannel channel, Selector selector, long outstanding)
+      throws IOException
+  {
+    if (server != null)
+      server.connections.outstanding(channel, outstanding);
+
+    SelectionKey key = channel.register(selector, SelectionKey.OP_WRITE);
+    try
+    {
+      while (selector.select(SELECT_TIMEOUT) == 0)
+      {
+        if (!channel.isOpen())
+          throw new ClosedChannelException();
+      }
+    }
+    finally
+    {
+      key.cancel();
+      selector.selectedKeys().clear();
+      // deregister now so the channel can be registered again
+      selector.selectNow();
+    }
+  }
+
+  /**
+   * Number of pooled selectors, for tests.
+   */
+  int idleSelectors()
+  {
+    return selectors.size();
+  }
+
+  /**
+   * Encode characters a chunk at a time and write each chunk.
+   */
+  private int writeChars(CharBuffer cb, SocketChannel channel) throws IOException
+  {
+    WriteState state = writeState.get();
+    CharsetEncoder enc = state.encoder;
+    ByteBuffer chunk = state.chunk;
+
+    enc.reset();
+    int totalBytes = 0;
+    boolean done = false;
+    while (!done)
+    {
+      chunk.clear();
+      CoderResult cr = enc.encode(cb, chunk, true);
+      if (cr.isUnderflow())
+      {
+        cr = enc.flush(chunk);
+        done = cr.isUnderflow();
+      }
+      if (cr.isError())
+        cr.throwException();
+
+      chunk.flip();
+      totalBytes += write(new ByteBuffer[] { chunk }, channel);
+    }
+    return totalBytes;
   }
 
   public int writeCharBuffer(CharBuffer cb, SocketChannel channel)
@@ -65,14 +221,7 @@ public class NetTools
     try
     {
       cb.flip();
-      outBuffer.clear();
-      while (outBuffer.capacity() < cb.limit())
-        reallocate();
-
-      outBuffer.put(encoder.encode(cb));
-      outBuffer.flip();
-      while (outBuffer.hasRemaining())
-        totalBytes += channel.write(outBuffer);
+      totalBytes = writeChars(cb, channel);
     }
     catch (ClosedChannelException e)
     {}
@@ -87,22 +236,44 @@ public class NetTools
 
   public int writeByteBuffer(ByteBuffer bb, SocketChannel channel)
   {
-    int totalBytes = 0;
+    return (int) writeByteBuffers(new ByteBuffer[] { bb }, channel);
+  }
+
+  /**
+   * Write several buffers with gathering writes, for instance a text header
+   * followed by a binary payload, without first copying them together.
+   *
+   * @param bbs the buffers; each is drained
+   * @param channel the channel
+   * @return number of bytes written
+   */
+  public long writeByteBuffers(ByteBuffer[] bbs, SocketChannel channel)
+  {
+    long length = 0;
+    for (ByteBuffer bb : bbs)
+      length += bb.remaining();
+
     SocketAddress remote = null;
     try
     {
       remote = channel.socket().getRemoteSocketAddress();
-      while (bb.hasRemaining())
-        totalBytes += channel.write(bb);
+      write(bbs, channel);
     }
     catch (ClosedChannelException e)
     {}
     catch (IOException e)
     {
-      LOGGER.error("Could not write byte buffer for {}. Wrote {}, {} bytes remaining", remote, totalBytes, bb.remaining(), e);
+      long remaining = 0;
+      for (ByteBuffer bb : bbs)
+        remaining += bb.remaining();
+      LOGGER.error("Could not write byte buffer for {}. Wrote {}, {} bytes remaining", remote, length - remaining, remaining, e);
     }
+
+    long totalBytes = length;
+    for (ByteBuffer bb : bbs)
+      totalBytes -= bb.remaining();
     if (server != null)
-      server.recordSent(channel, totalBytes);
+      server.recordSent(channel, (int) totalBytes);
     return totalBytes;
   }
 
@@ -113,18 +284,7 @@ public class NetTools
     int totalBytes = 0;
     try
     {
-      while (s.length() >= charBuffer.capacity())
-        reallocate();
-
-      charBuffer.clear();
-      outBuffer.clear();
-
-      charBuffer.put(s);
-      charBuffer.flip();
-      outBuffer.put(encoder.encode(charBuffer));
-      outBuffer.flip();
-      while (outBuffer.hasRemaining())
-        totalBytes += channel.write(outBuffer);
+      totalBytes = writeChars(CharBuffer.wrap(s), channel);
     }
     catch (ClosedChannelException e)
     {}
@@ -136,4 +296,10 @@ public class NetTools
       server.recordSent(channel, totalBytes);
     return totalBytes;
   }
+
+  private static class WriteState
+  {
+    final CharsetEncoder encoder = Charset.forName("US-ASCII").newEncoder();
+    final ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+  }
 }
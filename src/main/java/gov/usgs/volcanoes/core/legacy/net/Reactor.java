@@ -0,0 +1,151 @@
+package gov.usgs.volcanoes.core.legacy.net;
+
+import gov.usgs.volcanoes.core.legacy.util.Pool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A selector thread serving a share of a <code>Server</code>'s connections. Each connection reads
+ * into its own pooled direct buffer and queued output is written when the socket is writable.
+ *
+ * <p>Selector state is only changed on this thread; other threads queue the change and wake the
+ * selector.
+ */
+class Reactor extends Thread {
+  private static final Logger LOGGER = LoggerFactory.getLogger(Reactor.class);
+
+  /** Size of each connection's pooled read buffer. */
+  static final int BUFFER_SIZE = 8192;
+
+  /** Most a connection's read buffer may grow to, which bounds the length of a command. */
+  static final int MAX_COMMAND_SIZE = 1 << 20;
+
+  final Server server;
+  private final Selector selector;
+  private final Pool<ByteBuffer> buffers;
+  private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+  Reactor(Server server, String name, Pool<ByteBuffer> buffers) throws IOException {
+    this.server = server;
+    this.buffers = buffers;
+    selector = Selector.open();
+    setName(name);
+    setDaemon(true);
+  }
+
+  /**
+   * Start serving a newly accepted connection.
+   *
+   * @param channel the connection, in non-blocking mode
+   */
+  void register(final SocketChannel channel) {
+    submit(new Runnable() {
+      public void run() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null)
+          buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ConnectionContext context = new ConnectionContext(channel, Reactor.this, buffer);
+        try {
+          context.key = channel.register(selector, SelectionKey.OP_READ, context);
+          server.addConnectionContext(context);
+        } catch (ClosedChannelException e) {
+          // dropped before it could be registered
+          buffers.checkin(buffer);
+        }
+      }
+    });
+  }
+
+  /**
+   * Ask to be told when a connection can take more output.
+   *
+   * @param context the connection
+   */
+  void interestWrite(final ConnectionContext context) {
+    submit(new Runnable() {
+      public void run() {
+        SelectionKey key = context.key;
+        if (key != null && key.isValid())
+          key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+      }
+    });
+  }
+
+  /**
+   * Stop serving a connection which has been closed and reclaim its buffer.
+   *
+   * @param context the connection
+   */
+  void release(final ConnectionContext context) {
+    if (!context.close())
+      return;
+
+    submit(new Runnable() {
+      public void run() {
+        if (context.key != null)
+          context.key.cancel();
+        if (context.input != null) {
+          // buffers grown for a long command are not kept
+          if (context.input.capacity() == BUFFER_SIZE) {
+            context.input.clear();
+            buffers.checkin(context.input);
+          }
+          context.input = null;
+        }
+      }
+    });
+  }
+
+  private void submit(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  public void run() {
+    while (true) {
+      try {
+        selector.select();
+
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+          task.run();
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          ConnectionContext context = (ConnectionContext) key.attachment();
+          if (!key.isValid() || context == null || context.input == null)
+            continue;
+
+          try {
+            if (key.isWritable() && context.flush())
+              key.interestOps(SelectionKey.OP_READ);
+            if (key.isValid() && key.isReadable()) {
+              server.connections.getConnectionStatistics(context.channel).touch();
+              server.processRead(context);
+            }
+          } catch (CancelledKeyException e) {
+            // closed by another thread
+          } catch (IOException e) {
+            server.closeConnection(context.channel, key);
+          }
+        }
+      } catch (IOException e) {
+        LOGGER.error("Fatal exception.", e);
+        return;
+      }
+    }
+  }
+}
@@ -16,13 +16,15 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,18 +49,34 @@ public class Server {
   protected long connectionIndex = 0;
 
   private Pool<CommandHandler> commandHandlerPool;
+  private CommandDispatcher commandDispatcher;
+
+  // reactor mode
+  private static final int REACTOR_MAX_QUEUED = 1024;
+  protected int readerThreads = 0;
+  private Reactor[] reactors;
+  private final Pool<ByteBuffer> readBuffers = new Pool<ByteBuffer>();
+  private final Map<SocketChannel, ConnectionContext> contexts =
+      new ConcurrentHashMap<SocketChannel, ConnectionContext>();
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Server.class);
+  private static final AtomicLongFieldUpdater<Server> TOTAL_BYTES_SENT =
+      AtomicLongFieldUpdater.newUpdater(Server.class, "totalBytesSent");
   protected int maxReadHandlers = -1;
 
   protected Connections connections = Connections.getInstance();
 
   protected boolean dropOldest = true;
 
-  protected long totalBytesSent = 0;
+  // recorded by every command handler at once
+  private final LongAdder bytesSent = new LongAdder();
+
+  // copy of bytesSent for subclasses, raised to the latest sum on every send
+  protected volatile long totalBytesSent = 0;
 
   protected Server() {
     commandHandlerPool = new Pool<CommandHandler>();
+    netTools.setServer(this);
   }
 
   protected Server(InetAddress a, int p) {
@@ -79,6 +97,60 @@ public class Server {
     return commandHandlerPool.size();
   }
 
+  /**
+   * Gets the number of command handlers the server has been given, busy or not. Unlike
+   * <code>getPoolSize()</code> this does not fall while commands are running.
+   *
+   * @return most handlers ever available at once, or 0 if none have been added
+   */
+  public int getMaxPoolSize() {
+    return Math.max(0, maxReadHandlers);
+  }
+
+  CommandHandler checkoutCommandHandler() {
+    return commandHandlerPool.checkout();
+  }
+
+  /**
+   * Serve connections from several selector threads instead of one. The listening thread only
+   * accepts connections, which are shared among the readers by connection index. Each connection
+   * reads into its own pooled buffer, and output the socket cannot take at once is queued and
+   * written when the socket is writable rather than in a busy loop. Commands always go through a
+   * <code>CommandDispatcher</code>, so a reader never waits for a handler and commands pipelined
+   * on one connection run in order; one is created if none has been set. Must be called before
+   * <code>startListening()</code>.
+   *
+   * @param n number of reader threads, or 0 for a single selector thread
+   */
+  protected void setReaderThreads(int n) {
+    readerThreads = n;
+  }
+
+  /**
+   * Gets the reactor-mode state of a connection.
+   *
+   * @param channel the connection
+   * @return the context or null if not in reactor mode or the connection is closed
+   */
+  public ConnectionContext getConnectionContext(SocketChannel channel) {
+    return contexts.get(channel);
+  }
+
+  void addConnectionContext(ConnectionContext context) {
+    contexts.put(context.channel, context);
+  }
+
+  /**
+   * Run commands through a dispatcher instead of handing them directly to a pooled
+   * <code>CommandHandler</code>. Without a dispatcher the selector thread waits whenever every
+   * handler is busy.
+   *
+   * @param dispatcher the dispatcher, or null to hand commands to handlers directly
+   */
+  protected void setCommandDispatcher(CommandDispatcher dispatcher) {
+    commandDispatcher = dispatcher;
+  }
+
   public static String getHost(SocketChannel channel) {
     String addr;
 
@@ -119,6 +191,9 @@ public class Server {
     try {
 
       connections.remove(channel);
+      ConnectionContext context = channel == null ? null : contexts.remove(channel);
+      if (context != null)
+        context.reactor.release(context);
       if (channel != null && channel.isOpen())
         channel.close();
       if (selectionKey != null) {
@@ -135,6 +210,12 @@ public class Server {
   }
 
   protected void dispatchCommand(SocketChannel channel, SelectionKey key, String s) {
+    if (commandDispatcher != null) {
+      if (!commandDispatcher.dispatch(channel, key, s))
+        rejectCommand(channel, key, s);
+      return;
+    }
+
     CodeTimer ct = new CodeTimer("getReadHandler");
     CommandHandler ch = commandHandlerPool.checkout();
     ct.stop();
@@ -143,8 +224,36 @@ public class Server {
     ch.doCommand(channel, key, s);
   }
 
+  /**
+   * Called when the command dispatcher's queue is full. The client would otherwise wait
+   * indefinitely for a reply, so the connection is closed.
+   *
+   * @param channel the connection the command came from
+   * @param key the connection's selection key
+   * @param s the command
+   */
+  protected void rejectCommand(SocketChannel channel, SelectionKey key, String s) {
+    LOGGER.warn("{}/command rejected, dispatch queue full.", getHost(channel));
+    connections.endCommand(channel);
+    closeConnection(channel, key);
+  }
+
+  /**
+   * Gets the number of bytes sent to all connections.
+   *
+   * @return bytes sent
+   */
+  public long getTotalBytesSent() {
+    return bytesSent.sum();
+  }
+
   public void recordSent(SocketChannel channel, int nb) {
-    totalBytesSent += nb;
+    bytesSent.add(nb);
+    // never lower the copy, so the last sum taken, which sees every send, is the one kept
+    long sum = bytesSent.sum();
+    long seen;
+    while ((seen = totalBytesSent) < sum && !TOTAL_BYTES_SENT.compareAndSet(this, seen, sum))
+      ;
     connections.sent(channel, nb);
   }
 
@@ -221,6 +330,136 @@ public class Server {
       closeConnection(channel, selectionKey);
   }
 
+  /**
+   * Read commands from a connection in reactor mode. Every complete command in the connection's
+   * buffer is dispatched; a partial command is kept for next time.
+   *
+   * @param context the connection
+   */
+  protected void processRead(ConnectionContext context) {
+    SocketChannel channel = context.channel;
+    ByteBuffer buffer = context.input;
+    boolean close = false;
+    try {
+      int bytesRead = channel.read(buffer);
+      if (bytesRead == -1)
+        close = true;
+      else {
+        connections.read(channel, bytesRead);
+        int start = 0;
+        int end = buffer.position();
+        int length;
+        while ((length = commandLength(context, start, end)) > 0) {
+          // plain commands lose their newline, HTTP requests are kept whole
+          boolean http = isHTTP(buffer, start, end);
+          String commandString = asciiString(buffer, start, http ? length : length - 1);
+          start += length;
+
+          if (connections.isTraced(channel)) {
+            SocketAddress s = channel.socket().getRemoteSocketAddress();
+            if (s != null)
+              LOGGER.warn("{}: {}", s, commandString);
+          }
+          connections.beginCommand(channel, commandString);
+          dispatchCommand(channel, context.key, commandString);
+        }
+
+        if (start > 0) {
+          buffer.flip();
+          buffer.position(start);
+          buffer.compact();
+        }
+
+        if (!buffer.hasRemaining()) {
+          if (buffer.capacity() >= Reactor.MAX_COMMAND_SIZE) {
+            LOGGER.error("Buffer overflow on read.  Possible malicious attack?");
+            close = true;
+          } else {
+            // a long command, such as an HTTP POST
+            ByteBuffer bigger =
+                ByteBuffer.allocate(Math.min(Reactor.MAX_COMMAND_SIZE, buffer.capacity() * 2));
+            buffer.flip();
+            bigger.put(buffer);
+            context.input = bigger;
+          }
+        }
+      }
+    } catch (IOException e) {
+      close = true;
+    } catch (Exception e) {
+      LOGGER.error("Unhandled exception.", e);
+      close = true;
+    }
+    if (close)
+      closeConnection(channel, context.key);
+  }
+
+  /**
+   * Find the length of the first complete command in a connection's buffer. A command is a single
+   * line, or for HTTP the request line, headers, blank line and any content.
+   *
+   * @return length including the terminating newline, or -1 if the command is incomplete
+   */
+  private int commandLength(ConnectionContext context, int start, int end) {
+    ByteBuffer buffer = context.input;
+    int eol = NetTools.indexOf(buffer, start + context.scanned, end, (byte) '\n');
+    if (eol == -1) {
+      context.scanned = end - start;
+      return -1;
+    }
+    context.scanned = 0;
+
+    if (!isHTTP(buffer, start, end))
+      return eol + 1 - start;
+
+    int contentLength = 0;
+    int lineStart = eol + 1;
+    while (true) {
+      int next = NetTools.indexOf(buffer, lineStart, end, (byte) '\n');
+      if (next == -1)
+        return -1;
+
+      int lineLength = next - lineStart;
+      if (lineLength > 0 && buffer.get(next - 1) == '\r')
+        lineLength--;
+
+      if (lineLength == 0) {
+        int total = next + 1 - start + contentLength;
+        return (end - start >= total) ? total : -1;
+      }
+
+      String header = asciiString(buffer, lineStart, lineLength);
+      if (header.regionMatches(true, 0, "Content-Length:", 0, 15))
+        contentLength = Integer.parseInt(header.substring(15).trim());
+      lineStart = next + 1;
+    }
+  }
+
+  private static boolean isHTTP(ByteBuffer buffer, int start, int end) {
+    return startsWith(buffer, start, end, "GET ") || startsWith(buffer, start, end, "POST ");
+  }
+
+  private static boolean startsWith(ByteBuffer buffer, int start, int end, String prefix) {
+    if (end - start < prefix.length())
+      return false;
+    for (int i = 0; i < prefix.length(); i++)
+      if (buffer.get(start + i) != prefix.charAt(i))
+        return false;
+    return true;
+  }
+
+  private static String asciiString(ByteBuffer buffer, int start, int length) {
+    if (buffer.hasArray())
+      return new String(buffer.array(), buffer.arrayOffset() + start, length,
+          StandardCharsets.US_ASCII);
+
+    byte[] bytes = new byte[length];
+    ByteBuffer view = buffer.duplicate();
+    view.position(start);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+
   /**
    * Move a full line from one buffer to another
    *
@@ -289,7 +528,9 @@ public class Server {
     StringBuffer sb = new StringBuffer();
     sb.append(connections.printConnections(s));
     sb.append("Available command handlers: " + commandHandlerPool.size() + "/" + maxReadHandlers + "\n");
-    sb.append("Total bytes sent:           " + StringUtils.numBytesToString(totalBytesSent) + "\n");
+    sb.append("Total bytes sent:           " + StringUtils.numBytesToString(getTotalBytesSent()) + "\n");
+    if (commandDispatcher != null)
+      sb.append(commandDispatcher.getStatisticsString());
 
     System.out.println(sb);
   }
@@ -298,6 +539,8 @@ public class Server {
     StringBuffer sb = new StringBuffer();
     sb.append(connections.printCommands(s));
     sb.append("\nAvailable command handlers: " + commandHandlerPool.size() + "/" + maxReadHandlers + "\n");
+    if (commandDispatcher != null)
+      sb.append(commandDispatcher.getStatisticsString());
 
     System.out.println(sb);
   }
@@ -308,29 +551,12 @@ public class Server {
 
   public void dropConnections(long idleLimit) {
     LOGGER.info("Dropping connections.");
-    List<SocketChannel> channels = new ArrayList<SocketChannel>(connections.connectionCount());
-    // must move current connections to a list so that they can be dropped
-    Map<SocketChannel, ConnectionStatistics> connectionStats = connections.getConnections();
-    for (SocketChannel sc : connectionStats.keySet()) {
-      ConnectionStatistics cs = connectionStats.get(sc);
-      if (System.currentTimeMillis() - cs.lastRequestTime > idleLimit)
-        channels.add(sc);
-    }
-
-    for (SocketChannel sc : channels)
+    for (SocketChannel sc : connections.getIdleConnections(idleLimit))
       closeConnection(sc, null);
   }
 
   public void dropOldestConnection() {
-    long least = Long.MAX_VALUE;
-    SocketChannel lc = null;
-    Map<SocketChannel, ConnectionStatistics> connectionStats = connections.getConnections();
-    for (ConnectionStatistics cs : connectionStats.values()) {
-      if (cs.lastRequestTime < least) {
-        least = cs.lastRequestTime;
-        lc = cs.channel;
-      }
-    }
+    SocketChannel lc = connections.getLeastRecentlyUsed();
     if (lc != null)
       closeConnection(lc, null);
   }
@@ -344,6 +570,53 @@ public class Server {
     }
   }
 
+  /**
+   * Accept a connection, applying the connection limit.
+   *
+   * @param selKey the server socket's key
+   * @return the connection in non-blocking mode or null if it was not accepted
+   * @throws IOException if the connection cannot be configured
+   */
+  private SocketChannel accept(SelectionKey selKey) throws IOException {
+    ServerSocketChannel ssChannel = (ServerSocketChannel) selKey.channel();
+
+    // Why are wee seeing null pointers here?
+    SocketChannel channel = ssChannel.accept();
+    if (channel == null) {
+      System.err.println("channel is null in net.Server.startListening.");
+      return null;
+    }
+    Socket socket = channel.socket();
+
+    if (socket == null) {
+      System.err.println("socket is null in net.Server.startListening.");
+      return null;
+    }
+    socket.setKeepAlive(keepalive);
+    socket.setTcpNoDelay(true);
+
+    ConnectionStatistics cs = connections.getConnectionStatistics(channel);
+    cs.touch();
+    if (connections.getMaxConnections() != 0
+        && connections.getNumConnections() > connections.getMaxConnections()) {
+      if (dropOldest) {
+        LOGGER.error("Max connections reached, dropped least recently used connection.");
+        dropOldestConnection();
+      } else {
+        LOGGER.error("Max connections reached, rejected connection.");
+        channel.close();
+        // DO NOT PASS selKey to closeConnection, it
+        // will break the server.
+        closeConnection(channel, null);
+        return null;
+      }
+    }
+    log(Level.DEBUG, String.format("Connection accepted: %d/%d",
+        connections.getNumConnections(), connections.getMaxConnections()), channel);
+    channel.configureBlocking(false);
+    return channel;
+  }
+
   protected void startListening() {
     if (commandHandlerPool.size() <= 0 || serverPort == -1)
       return;
@@ -363,6 +636,17 @@ public class Server {
 
       serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
+      if (readerThreads > 0) {
+        if (commandDispatcher == null)
+          commandDispatcher = new CommandDispatcher(this, REACTOR_MAX_QUEUED);
+        reactors = new Reactor[readerThreads];
+        for (int i = 0; i < readerThreads; i++) {
+          reactors[i] = new Reactor(this, name + "-reader-" + i, readBuffers);
+          reactors[i].start();
+        }
+        LOGGER.info("reading with {} selector threads.", readerThreads);
+      }
+
       LOGGER.info("listening on port {}.", serverPort);
 
       while (true) {
@@ -385,43 +669,15 @@ public class Server {
               continue;
 
             if (selKey.isAcceptable()) {
-              ServerSocketChannel ssChannel = (ServerSocketChannel) selKey.channel();
-
-              // Why are wee seeing null pointers here?
-              SocketChannel channel = ssChannel.accept();
-              if (channel == null) {
-                System.err.println("channel is null in net.Server.startListening.");
+              SocketChannel channel = accept(selKey);
+              if (channel == null)
                 continue;
-              }
-              Socket socket = channel.socket();
 
-              if (socket == null) {
-                System.err.println("socket is null in net.Server.startListening.");
-                continue;
-              }
-              socket.setKeepAlive(keepalive);
-              socket.setTcpNoDelay(true);
-
-              ConnectionStatistics cs = connections.getConnectionStatistics(channel);
-              cs.touch();
-              if (connections.getMaxConnections() != 0
-                  && connections.getNumConnections() > connections.getMaxConnections()) {
-                if (dropOldest) {
-                  LOGGER.error("Max connections reached, dropped least recently used connection.");
-                  dropOldestConnection();
-                } else {
-                  LOGGER.error("Max connections reached, rejected connection.");
-                  channel.close();
-                  // DO NOT PASS selKey to closeConnection, it
-                  // will break the server.
-                  closeConnection(channel, null);
-                  continue;
-                }
-              }
-              log(Level.DEBUG, String.format("Connection accepted: %d/%d",
-                  connections.getNumConnections(), connections.getMaxConnections()), channel);
-              channel.configureBlocking(false);
-              channel.register(selector, SelectionKey.OP_READ);
+              if (reactors != null) {
+                long index = connections.getConnectionStatistics(channel).index;
+                reactors[(int) (index % reactors.length)].register(channel);
+              } else
+                channel.register(selector, SelectionKey.OP_READ);
             }
 
             if (selKey.isValid() && selKey.isReadable()) {
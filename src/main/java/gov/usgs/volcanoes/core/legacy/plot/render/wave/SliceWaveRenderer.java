@@ -1,5 +1,6 @@
 package gov.usgs.volcanoes.core.legacy.plot.render.wave;
 
+import gov.usgs.volcanoes.core.data.SegmentedWave;
 import gov.usgs.volcanoes.core.data.SliceWave;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.legacy.plot.decorate.DefaultFrameDecorator;
@@ -18,7 +19,10 @@ import java.awt.Stroke;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * A renderer for slice of wave time series.
@@ -27,6 +31,7 @@ import java.util.Date;
  */
 public class SliceWaveRenderer extends FrameRenderer {
   protected SliceWave wave;
+  protected SegmentedWave segmentedWave;
 
   protected boolean removeBias = false;
   protected boolean drawSamples = false;
@@ -146,6 +151,16 @@ public class SliceWaveRenderer extends FrameRenderer {
    */
   public void setWave(SliceWave w) {
     wave = w;
+    segmentedWave = null;
+  }
+
+  /**
+   * Set gappy wave to render. Only segments within the view times are visited.
+   * @param w wave to render
+   */
+  public void setWave(SegmentedWave w) {
+    segmentedWave = w;
+    wave = null;
   }
 
   /**
@@ -164,7 +179,11 @@ public class SliceWaveRenderer extends FrameRenderer {
    * @param timeZone
    */
   public void setViewTimes(String timeZone) {
-    setViewTimes(wave.getStartTime(), wave.getEndTime(), timeZone);
+    if (segmentedWave != null) {
+      setViewTimes(segmentedWave.getStartTime(), segmentedWave.getEndTime(), timeZone);
+    } else {
+      setViewTimes(wave.getStartTime(), wave.getEndTime(), timeZone);
+    }
   }
 
   /**
@@ -305,44 +324,57 @@ public class SliceWaveRenderer extends FrameRenderer {
 
     g.clip(new Rectangle(graphX + 1, graphY + 1, graphWidth - 1, graphHeight - 1));
 
-    double st = wave.getStartTime();
-    double step = 1 / wave.getSamplingRate();
-    wave.reset();
+    List<SliceWave> slices = getSlices();
+    double step;
+    if (segmentedWave == null) {
+      step = 1 / wave.getSamplingRate();
+    } else {
+      step = segmentedWave.getSamplingPeriod();
+    }
 
     double bias;
     if (removeBias) {
-      bias = wave.mean();
+      bias = mean(slices);
     } else {
       bias = 0;
     }
 
     g.setColor(color);
 
-    double ns = (double) wave.samples() * (viewEndTime - viewStartTime)
-        / (wave.getEndTime() - wave.getStartTime());
-    double spp = ns / (double) graphWidth;
+    double spp;
+    if (segmentedWave == null) {
+      double ns = (double) wave.samples() * (viewEndTime - viewStartTime)
+          / (wave.getEndTime() - wave.getStartTime());
+      spp = ns / (double) graphWidth;
+    } else {
+      spp = (viewEndTime - viewStartTime) / step / (double) graphWidth;
+    }
     Rectangle2D.Double box = new Rectangle2D.Double();
     if (spp < 50.0) {
-      GeneralPath gp = new GeneralPath();
-
-      double y = wave.next();
-      gp.moveTo((float) getXPixel(st), (float) (getYPixel(y - bias)));
-      float lastY = (float) getYPixel(y - bias);
-      while (wave.hasNext()) {
-        st += step;
-        y = wave.next();
-        if (y == Wave.NO_DATA) {
-          gp.moveTo((float) getXPixel(st), lastY);
-        } else {
-          lastY = (float) getYPixel(y - bias);
-          gp.lineTo((float) getXPixel(st), lastY);
-          if (drawSamples && (1 / spp) > 2.0) {
-            box.setRect((float) getXPixel(st) - 1.5, lastY - 1.5, 3, 3);
-            g.draw(box);
+      for (SliceWave slice : slices) {
+        double st = slice.getStartTime();
+        slice.reset();
+        GeneralPath gp = new GeneralPath();
+
+        double y = slice.next();
+        gp.moveTo((float) getXPixel(st), (float) (getYPixel(y - bias)));
+        float lastY = (float) getYPixel(y - bias);
+        while (slice.hasNext()) {
+          st += step;
+          y = slice.next();
+          if (y == Wave.NO_DATA) {
+            gp.moveTo((float) getXPixel(st), lastY);
+          } else {
+            lastY = (float) getYPixel(y - bias);
+            gp.lineTo((float) getXPixel(st), lastY);
+            if (drawSamples && (1 / spp) > 2.0) {
+              box.setRect((float) getXPixel(st) - 1.5, lastY - 1.5, 3, 3);
+              g.draw(box);
+            }
           }
         }
+        g.draw(gp);
       }
-      g.draw(gp);
     } else {
       double[][] spans = new double[graphWidth + 1][];
       for (int i = 0; i < spans.length; i++) {
@@ -351,17 +383,38 @@ public class SliceWaveRenderer extends FrameRenderer {
 
       double span = viewEndTime - viewStartTime;
 
-      wave.reset();
       double y;
       int i;
-      while (wave.hasNext()) {
-        y = wave.next();
-        i = (int) (((st - viewStartTime) / span) * graphWidth + 0.5);
-        if (i >= 0 && i < spans.length && y != Wave.NO_DATA) {
-          spans[i][0] = Math.min(y, spans[i][0]);
-          spans[i][1] = Math.max(y, spans[i][1]);
+      double[] binMin = null;
+      double[] binMax = null;
+      for (SliceWave slice : slices) {
+        if (slice.getWave().hasPyramid()) {
+          // each pixel takes the samples nearest it, without visiting them
+          if (binMin == null) {
+            binMin = new double[spans.length];
+            binMax = new double[spans.length];
+          }
+          double width = span / graphWidth;
+          slice.bin(viewStartTime - width / 2, width, binMin, binMax);
+          for (i = 0; i < spans.length; i++) {
+            if (!Double.isNaN(binMin[i])) {
+              spans[i][0] = Math.min(binMin[i], spans[i][0]);
+              spans[i][1] = Math.max(binMax[i], spans[i][1]);
+            }
+          }
+          continue;
+        }
+        double st = slice.getStartTime();
+        slice.reset();
+        while (slice.hasNext()) {
+          y = slice.next();
+          i = (int) (((st - viewStartTime) / span) * graphWidth + 0.5);
+          if (i >= 0 && i < spans.length && y != Wave.NO_DATA) {
+            spans[i][0] = Math.min(y, spans[i][0]);
+            spans[i][1] = Math.max(y, spans[i][1]);
+          }
+          st += step;
         }
-        st += step;
       }
 
       Line2D.Double line = new Line2D.Double();
@@ -400,4 +453,47 @@ public class SliceWaveRenderer extends FrameRenderer {
     g.setStroke(origStroke);
     g.setColor(origColor);
   }
+
+  /**
+   * Get the slices to draw. A single slice unless rendering a segmented wave, in which case there
+   * is one slice per segment within the view times.
+   * @return slices to draw
+   */
+  protected List<SliceWave> getSlices() {
+    if (segmentedWave == null) {
+      return Collections.singletonList(wave);
+    }
+
+    List<SliceWave> slices = new ArrayList<SliceWave>();
+    for (Wave segment : segmentedWave.getSegments()) {
+      if (segment.overlaps(viewStartTime, viewEndTime)) {
+        SliceWave slice = new SliceWave(segment);
+        slice.setSlice(Math.max(viewStartTime, segment.getStartTime()),
+            Math.min(viewEndTime, segment.getEndTime()));
+        slices.add(slice);
+      }
+    }
+    return slices;
+  }
+
+  /**
+   * Mean of data samples across slices.
+   * @param slices slices
+   * @return the mean
+   */
+  private double mean(List<SliceWave> slices) {
+    if (slices.size() == 1) {
+      return slices.get(0).mean();
+    }
+    double sum = 0;
+    long count = 0;
+    for (SliceWave slice : slices) {
+      double mean = slice.mean();
+      if (!Double.isNaN(mean)) {
+        sum += mean * slice.samples();
+        count += slice.samples();
+      }
+    }
+    return sum / count;
+  }
 }
@@ -31,6 +31,7 @@ import cern.colt.matrix.DoubleMatrix2D;
  */
 public class SpectraRenderer extends MatrixRenderer {
   private SliceWave wave;
+  private Spectra spectra;
 
   private double minFreq;
   private double maxFreq;
@@ -77,6 +78,15 @@ public class SpectraRenderer extends MatrixRenderer {
     wave = sw;
   }
 
+  /**
+   * Set an estimate to render, such as one from <code>SpectralDensity</code>, instead of the
+   * spectrum of the slice.
+   * @param s the estimate, or null to render the slice again
+   */
+  public void setSpectra(Spectra s) {
+    spectra = s;
+  }
+
   /**
    * Set graph title.
    * @param t title
@@ -137,16 +147,19 @@ public class SpectraRenderer extends MatrixRenderer {
 
     decorator.update();
 
-    int nfft = (int) Util.getPreviousPowerOf2(wave.samples());
-    Spectra spectra = new Spectra(wave.getSignal(), wave.getSamplingRate(), nfft);
+    Spectra spectra = this.spectra;
+    if (spectra == null) {
+      int nfft = (int) Util.getPreviousPowerOf2(wave.samples());
+      spectra = new Spectra(wave.getSignal(), wave.getSamplingRate(), nfft);
+    }
 
     DoubleMatrix2D dm = DoubleFactory2D.dense.make(spectra.getMatrix(logPower, logFreq));
 
     setData(dm);
     setVisible(0, false);
 
-    double minf = Math.max(minFreq, wave.getSamplingRate() / nfft);
-    double maxf = Math.min(maxFreq, wave.getNyquist());
+    double minf = Math.max(minFreq, spectra.getSamplingRate() / spectra.getNfft());
+    double maxf = Math.min(maxFreq, spectra.getSamplingRate() / 2);
 
     double x1 = logFreq ? Math.log10(minf) : minf;
     double x2 = logFreq ? Math.log10(maxf) : maxf;
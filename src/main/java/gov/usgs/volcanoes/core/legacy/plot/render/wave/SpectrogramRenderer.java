@@ -1,6 +1,7 @@
 package gov.usgs.volcanoes.core.legacy.plot.render.wave;
 
 import gov.usgs.volcanoes.core.data.SliceWave;
+import gov.usgs.volcanoes.core.data.SlidingSpectrogram;
 import gov.usgs.volcanoes.core.data.Spectrogram;
 import gov.usgs.volcanoes.core.legacy.plot.color.Jet2;
 import gov.usgs.volcanoes.core.legacy.plot.color.Spectrum;
@@ -65,7 +66,17 @@ public class SpectrogramRenderer extends ImageDataRenderer {
   protected String channelTitle;
   protected Date date;
 
-  private double[][] powerBuffer;
+  // power by frequency bin, then time bin
+  private float[] powerBuffer;
+
+  private SlidingSpectrogram sliding;
+
+  // state of imgBuffer when drawn from a sliding spectrogram
+  private long imageFirstColumn;
+  private long imageDrawnThrough;
+  private boolean imageLogPower;
+  private double imageMinPower;
+  private double imageMaxPower;
 
   /**
    * Default constructor.
@@ -164,6 +175,9 @@ public class SpectrogramRenderer extends ImageDataRenderer {
       createDefaultFrameDecorator();
     }
     decorator.update();
+    if (sliding != null) {
+      return updateSliding();
+    }
     wave.setSlice(viewStartTime, viewEndTime);
 
     double[] signal = wave.getSignal();
@@ -176,13 +190,14 @@ public class SpectrogramRenderer extends ImageDataRenderer {
         (int) (binSize * overlap), 5);
 
     if (logPower) {
-      powerBuffer = spectrogram.getLogSpectraAmplitude();
+      powerBuffer = spectrogram.getLogSpectra(Spectrogram.DEFAULT_MULTIPLIER,
+          Spectrogram.REFERENCE_AMPLITUDE);
     } else {
-      powerBuffer = spectrogram.getSpectraAmplitude();
+      powerBuffer = spectrogram.getSpectra();
     }
 
-    int imgXSize = powerBuffer.length;
-    int imgYSize = powerBuffer[0].length;
+    int imgXSize = spectrogram.getNFrequencyBins();
+    int imgYSize = spectrogram.getNTimeBins();
 
     imgBuffer = new byte[imgXSize * imgYSize];
 
@@ -194,7 +209,7 @@ public class SpectrogramRenderer extends ImageDataRenderer {
       for (int i = 0; i < imgXSize; i++) {
         for (int j = 0; j < imgYSize; j++) {
 
-          double power = powerBuffer[i][j];
+          double power = powerBuffer[i * imgYSize + j];
           if (power == Double.NEGATIVE_INFINITY || power == Double.POSITIVE_INFINITY
               || power == 1E300 | power == -1E300) {
             continue;
@@ -212,8 +227,9 @@ public class SpectrogramRenderer extends ImageDataRenderer {
     int counter = 0;
     double index;
     for (int i = imgXSize - 1; i >= 0; i--) {
+      int row = i * imgYSize;
       for (int j = 0; j < imgYSize; j++) {
-        index = slope * powerBuffer[i][j] + intercept;
+        index = slope * powerBuffer[row + j] + intercept;
         if (index < 0) {
           index = 0;
         } else if (index > 254) {
@@ -242,12 +258,136 @@ public class SpectrogramRenderer extends ImageDataRenderer {
   }
 
   /**
-   * Return powerBuffer.
+   * Draw the view from a sliding spectrogram. Columns already drawn are scrolled into place and
+   * only those which have arrived since the last update are drawn, unless the image size or
+   * scale has changed. Auto scaling depends on every column, so it redraws them all.
+   * 
+   * @return minimum and maximum power
+   */
+  private double[] updateSliding() {
+    double sr = sliding.getSamplingRate();
+    long first = sliding.columnAt(viewStartTime);
+    long last = sliding.columnAt(viewEndTime);
+    if (Double.isNaN(sr) || last < first) {
+      return new double[] {minPower, maxPower};
+    }
+    int rows = sliding.getNFrequencyBins();
+    int width = (int) (last - first + 1);
+    float[] amplitude = new float[rows];
+
+    if (autoScale) {
+      maxPower = -Double.MAX_VALUE;
+      minPower = Double.MAX_VALUE;
+      for (long k = first; k <= last; k++) {
+        if (!sliding.getColumn(k, amplitude)) {
+          continue;
+        }
+        for (int i = 0; i < rows; i++) {
+          double power = power(amplitude[i]);
+          if (!Double.isInfinite(power)) {
+            maxPower = Math.max(maxPower, power);
+            minPower = Math.min(minPower, power);
+          }
+        }
+      }
+    }
+
+    long from = first;
+    if (imgBuffer != null && imgBuffer.length == width * rows && imageLogPower == logPower
+        && imageMinPower == minPower && imageMaxPower == maxPower && first >= imageFirstColumn
+        && first - imageFirstColumn < width) {
+      int shift = (int) (first - imageFirstColumn);
+      if (shift > 0) {
+        for (int y = 0; y < rows; y++) {
+          System.arraycopy(imgBuffer, y * width + shift, imgBuffer, y * width, width - shift);
+        }
+      }
+      from = Math.max(first, imageDrawnThrough + 1);
+    } else if (imgBuffer == null || imgBuffer.length != width * rows) {
+      imgBuffer = new byte[width * rows];
+      mis = new MemoryImageSource(width, rows, spectrum.palette, imgBuffer, 0, width);
+    }
+
+    // Maps the range of power values to [0 254] (255/-1 is transparent).
+    double slope = 254 / (maxPower - minPower);
+    double intercept = -slope * minPower;
+    for (long k = from; k <= last; k++) {
+      int x = (int) (k - first);
+      if (!sliding.getColumn(k, amplitude)) {
+        for (int y = 0; y < rows; y++) {
+          imgBuffer[y * width + x] = -1;
+        }
+        continue;
+      }
+      for (int i = 0; i < rows; i++) {
+        double index = slope * power(amplitude[i]) + intercept;
+        if (index < 0) {
+          index = 0;
+        } else if (index > 254) {
+          index = 254;
+        }
+        imgBuffer[(rows - 1 - i) * width + x] = (byte) index;
+      }
+    }
+    imageFirstColumn = first;
+    imageDrawnThrough = Math.min(last, sliding.getLatestColumn());
+    imageLogPower = logPower;
+    imageMinPower = minPower;
+    imageMaxPower = maxPower;
+
+    im = Toolkit.getDefaultToolkit().createImage(mis);
+
+    double nyquist = sr / 2;
+    double period = sliding.getColumnPeriod();
+    this.setImage(im);
+    this.setDataExtents(sliding.getColumnTime(first) - period / 2,
+        sliding.getColumnTime(last) + period / 2, 0, nyquist);
+    this.setExtents(viewStartTime, viewEndTime, Math.max(minFreq, nyquist / (rows - 1)), maxFreq);
+    decorator.decorate(this);
+
+    double[] power = {minPower, maxPower};
+    return power;
+  }
+
+  private double power(float amplitude) {
+    if (logPower) {
+      return Spectrogram.DEFAULT_MULTIPLIER
+          * Math.log10(amplitude / Spectrogram.REFERENCE_AMPLITUDE);
+    }
+    return amplitude;
+  }
+
+  /**
+   * Draw from a live spectrogram, which the caller keeps fed with samples, rather than computing
+   * a spectrogram of the whole view on each update. The wave, nfft, bin size and overlap are then
+   * unused.
+   * 
+   * @param sliding the spectrogram, or null to compute from the wave again
+   */
+  public void setSlidingSpectrogram(SlidingSpectrogram sliding) {
+    this.sliding = sliding;
+    imgBuffer = null;
+    mis = null;
+  }
+
+  /**
+   * Return a copy of powerBuffer, indexed by frequency bin, then time bin.
    * 
    * @return powerBuffer
    */
   public double[][] getPowerBuffer() {
-    return powerBuffer;
+    if (powerBuffer == null) {
+      return null;
+    }
+    int rows = spectrogram.getNFrequencyBins();
+    int columns = spectrogram.getNTimeBins();
+    double[][] power = new double[rows][columns];
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < columns; j++) {
+        power[i][j] = powerBuffer[i * columns + j];
+      }
+    }
+    return power;
   }
 
   /**
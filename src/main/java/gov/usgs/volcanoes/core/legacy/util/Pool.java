@@ -54,6 +54,16 @@ public class Pool<E>
     }
   }
 
+  /**
+   * Removes from pool first entered object and returns it, without waiting
+   * if the pool is empty
+   * @return pooled object or null if the pool is empty
+   */
+  public E poll()
+  {
+    return queue.poll();
+  }
+
   /**
    * Getter for pool size
    * @return Current pool size
@@ -0,0 +1,273 @@
+package gov.usgs.volcanoes.core.math;
+
+import java.util.Arrays;
+
+/**
+ * Transforms needing no other library. Powers of two use an iterative radix-2 transform whose
+ * twiddle factors and bit-reversal permutation are tabulated when the plan is made, rather than
+ * recomputed by recurrence on every call as <code>FFT.fft()</code> does. Other lengths use
+ * Bluestein's algorithm, which turns the transform into a convolution computed with a power of two
+ * at least twice as long.
+ *
+ * <p>Real transforms of even length n run a complex transform of length n / 2 on the samples taken
+ * in pairs and then separate the spectra of the even and odd samples, which halves the work.
+ */
+class BuiltInFft implements FftBackend {
+
+  @Override
+  public String getName() {
+    return "built-in";
+  }
+
+  @Override
+  public FftPlan createPlan(int n) {
+    return Fft.isPowerOf2(n) ? new Radix2(n) : new Bluestein(n);
+  }
+
+  /**
+   * The real transform shared by both kinds of plan.
+   */
+  private abstract static class Plan extends FftPlan {
+    // half-length plan and twiddle factors for the even-length real transform, made on first use
+    private volatile RealSplit split;
+
+    // scratch for the odd-length real transform
+    private final ThreadLocal<double[]> scratch = new ThreadLocal<double[]>();
+
+    Plan(int n) {
+      super(n);
+    }
+
+    @Override
+    public void realForward(double[] in, int inOffset, double[] out, int outOffset) {
+      if (n == 1) {
+        out[outOffset] = in[inOffset];
+        out[outOffset + 1] = 0;
+      } else if (n % 2 == 0) {
+        if (in != out || inOffset != outOffset) {
+          System.arraycopy(in, inOffset, out, outOffset, n);
+        }
+        realSplit().apply(out, outOffset);
+      } else {
+        double[] a = scratch.get();
+        if (a == null) {
+          a = new double[2 * n];
+          scratch.set(a);
+        }
+        for (int i = 0; i < n; i++) {
+          a[2 * i] = in[inOffset + i];
+          a[2 * i + 1] = 0;
+        }
+        complexForward(a, 0);
+        System.arraycopy(a, 0, out, outOffset, 2 * spectrumLength(n));
+      }
+    }
+
+    private RealSplit realSplit() {
+      RealSplit s = split;
+      if (s == null) {
+        s = new RealSplit(n);
+        split = s;
+      }
+      return s;
+    }
+  }
+
+  private static class RealSplit {
+    private final FftPlan half;
+    private final double[] wr;
+    private final double[] wi;
+
+    RealSplit(int n) {
+      int h = n / 2;
+      half = Fft.plan(Fft.BUILT_IN, h);
+      wr = new double[h / 2 + 1];
+      wi = new double[h / 2 + 1];
+      for (int k = 0; k < wr.length; k++) {
+        wr[k] = Math.cos(2 * Math.PI * k / n);
+        wi[k] = -Math.sin(2 * Math.PI * k / n);
+      }
+    }
+
+    /**
+     * Transform n real values at a[off] into n / 2 + 1 complex values in place.
+     */
+    void apply(double[] a, int off) {
+      int h = half.size();
+      // the samples taken in pairs are already h interleaved complex values
+      half.complexForward(a, off);
+
+      double z0r = a[off];
+      double z0i = a[off + 1];
+      a[off] = z0r + z0i;
+      a[off + 1] = 0;
+      a[off + 2 * h] = z0r - z0i;
+      a[off + 2 * h + 1] = 0;
+
+      for (int k = 1; k <= h / 2; k++) {
+        int p = off + 2 * k;
+        int q = off + 2 * (h - k);
+        double ar = a[p];
+        double ai = a[p + 1];
+        double cr = a[q];
+        double ci = a[q + 1];
+
+        // spectra of the even and odd samples
+        double er = (ar + cr) / 2;
+        double ei = (ai - ci) / 2;
+        double or = (ai + ci) / 2;
+        double oi = (cr - ar) / 2;
+
+        double tr = wr[k] * or - wi[k] * oi;
+        double ti = wr[k] * oi + wi[k] * or;
+        a[p] = er + tr;
+        a[p + 1] = ei + ti;
+        a[q] = er - tr;
+        a[q + 1] = ti - ei;
+      }
+    }
+  }
+
+  private static class Radix2 extends Plan {
+    private final double[] wr;
+    private final double[] wi;
+    private final int[] swap;
+
+    Radix2(int n) {
+      super(n);
+      wr = new double[n / 2];
+      wi = new double[n / 2];
+      for (int k = 0; k < n / 2; k++) {
+        wr[k] = Math.cos(2 * Math.PI * k / n);
+        wi[k] = -Math.sin(2 * Math.PI * k / n);
+      }
+
+      // pairs of indices exchanged by the bit-reversal permutation
+      int bits = Integer.numberOfTrailingZeros(n);
+      int count = 0;
+      int[] pairs = new int[n];
+      for (int i = 0; i < n; i++) {
+        int j = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        if (i < j) {
+          pairs[count++] = i;
+          pairs[count++] = j;
+        }
+      }
+      swap = Arrays.copyOf(pairs, count);
+    }
+
+    @Override
+    public void complexForward(double[] a, int offset) {
+      for (int s = 0; s < swap.length; s += 2) {
+        int i = offset + 2 * swap[s];
+        int j = offset + 2 * swap[s + 1];
+        double t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+        t = a[i + 1];
+        a[i + 1] = a[j + 1];
+        a[j + 1] = t;
+      }
+
+      int end = offset + 2 * n;
+      if (n >= 2) {
+        for (int p = offset; p < end; p += 4) {
+          double tr = a[p + 2];
+          double ti = a[p + 3];
+          a[p + 2] = a[p] - tr;
+          a[p + 3] = a[p + 1] - ti;
+          a[p] += tr;
+          a[p + 1] += ti;
+        }
+      }
+
+      for (int size = 4; size <= n; size <<= 1) {
+        int half = size >> 1;
+        int stride = n / size;
+        for (int i = offset; i < end; i += 2 * size) {
+          for (int j = 0, k = 0; j < half; j++, k += stride) {
+            int p = i + 2 * j;
+            int q = p + 2 * half;
+            double xr = a[q];
+            double xi = a[q + 1];
+            double tr = wr[k] * xr - wi[k] * xi;
+            double ti = wr[k] * xi + wi[k] * xr;
+            a[q] = a[p] - tr;
+            a[q + 1] = a[p + 1] - ti;
+            a[p] += tr;
+            a[p + 1] += ti;
+          }
+        }
+      }
+    }
+  }
+
+  private static class Bluestein extends Plan {
+    private final int m;
+    private final FftPlan inner;
+    private final double[] chirpR;
+    private final double[] chirpI;
+    private final double[] filter;
+    private final ThreadLocal<double[]> scratch = new ThreadLocal<double[]>();
+
+    Bluestein(int n) {
+      super(n);
+      m = Fft.nextPowerOf2(2 * n - 1);
+      inner = Fft.plan(Fft.BUILT_IN, m);
+
+      // w[k] = exp(-i pi k^2 / n), with k^2 reduced mod 2n to keep the argument accurate
+      chirpR = new double[n];
+      chirpI = new double[n];
+      for (int k = 0; k < n; k++) {
+        long k2 = (long) k * k % (2L * n);
+        chirpR[k] = Math.cos(Math.PI * k2 / n);
+        chirpI[k] = -Math.sin(Math.PI * k2 / n);
+      }
+
+      // transform of conj(w), wrapped around so it can be convolved circularly; scaled by 1 / m so
+      // the inverse transform needs no scaling
+      filter = new double[2 * m];
+      filter[0] = chirpR[0] / m;
+      filter[1] = -chirpI[0] / m;
+      for (int k = 1; k < n; k++) {
+        filter[2 * k] = filter[2 * (m - k)] = chirpR[k] / m;
+        filter[2 * k + 1] = filter[2 * (m - k) + 1] = -chirpI[k] / m;
+      }
+      inner.complexForward(filter, 0);
+    }
+
+    @Override
+    public void complexForward(double[] a, int offset) {
+      double[] b = scratch.get();
+      if (b == null) {
+        b = new double[2 * m];
+        scratch.set(b);
+      }
+
+      for (int k = 0; k < n; k++) {
+        double xr = a[offset + 2 * k];
+        double xi = a[offset + 2 * k + 1];
+        b[2 * k] = xr * chirpR[k] - xi * chirpI[k];
+        b[2 * k + 1] = xr * chirpI[k] + xi * chirpR[k];
+      }
+      Arrays.fill(b, 2 * n, 2 * m, 0);
+      inner.complexForward(b, 0);
+
+      // multiply by the filter and conjugate, so that a forward transform performs the inverse
+      for (int i = 0; i < 2 * m; i += 2) {
+        double br = b[i];
+        double bi = b[i + 1];
+        b[i] = br * filter[i] - bi * filter[i + 1];
+        b[i + 1] = -(br * filter[i + 1] + bi * filter[i]);
+      }
+      inner.complexForward(b, 0);
+
+      for (int k = 0; k < n; k++) {
+        double cr = b[2 * k];
+        double ci = -b[2 * k + 1];
+        a[offset + 2 * k] = cr * chirpR[k] - ci * chirpI[k];
+        a[offset + 2 * k + 1] = cr * chirpI[k] + ci * chirpR[k];
+      }
+    }
+  }
+}
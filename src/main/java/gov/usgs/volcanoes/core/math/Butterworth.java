@@ -2,6 +2,8 @@ package gov.usgs.volcanoes.core.math;
 
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 
+import java.util.Arrays;
+
 /**
  * A class for doing Butterworth filters.
  * 
@@ -60,6 +62,8 @@ public class Butterworth {
   private Complex fcGain;
   private double[] xCoeffs;
   private double[] yCoeffs;
+  // coefficients are current for the parameters
+  private boolean created;
 
   public Butterworth() {
     this(FilterType.BANDPASS, 4, 100, 1, 10);
@@ -79,6 +83,7 @@ public class Butterworth {
     corner1 = Double.parseDouble(cf.getString("corner1"));
     corner2 = Double.parseDouble(cf.getString("corner2"));
     samplingRate = Double.parseDouble(cf.getString("samplingRate"));
+    created = false;
   }
 
   public void save(ConfigFile cf, String prefix) {
@@ -95,12 +100,19 @@ public class Butterworth {
     samplingRate = sr;
     corner1 = c1;
     corner2 = c2;
+    created = false;
   }
 
   public void setSamplingRate(double s) {
+    if (s != samplingRate)
+      created = false;
     samplingRate = s;
   }
 
+  public double getSamplingRate() {
+    return samplingRate;
+  }
+
   public int getOrder() {
     return order;
   }
@@ -117,7 +129,12 @@ public class Butterworth {
     return corner2;
   }
 
+  /**
+   * Designs the filter. Does nothing if the parameters have not changed since the last call.
+   */
   public void create() {
+    if (created)
+      return;
     sPlane = new PZRep(order * 2);
     zPlane = new PZRep(order * 2);
     rawAlpha1 = corner1 / samplingRate;
@@ -127,6 +144,35 @@ public class Butterworth {
     normalize();
     computeZ();
     expandPoly();
+    created = true;
+  }
+
+  /**
+   * Gets the z-plane poles. Only valid after create().
+   */
+  Complex[] getPoles() {
+    return Arrays.copyOf(zPlane.poles, zPlane.numPoles);
+  }
+
+  /**
+   * Gets the z-plane zeros. Only valid after create().
+   */
+  Complex[] getZeros() {
+    return Arrays.copyOf(zPlane.zeros, zPlane.numZeros);
+  }
+
+  /**
+   * Gets the point on the unit circle at which the gain is normalized to one.
+   */
+  Complex getReferencePoint() {
+    switch (type) {
+      case HIGHPASS:
+        return new Complex(-1.0, 0);
+      case BANDPASS:
+        return Complex.expj(2 * Math.PI * 0.5 * (rawAlpha1 + rawAlpha2));
+      default:
+        return new Complex(1.0, 0);
+    }
   }
 
   public double[] getXCoeffs() {
@@ -142,122 +142,29 @@ public class FFT {
   }
 
 
+  /** Does the FFT on an interleaved complex data array in place, through
+   * the plan for its length from <code>Fft</code>.
+   * @param array the data, real and imaginary parts alternating
+   */
   public static void fft(double[] array) {
-    double u_r, u_i, w_r, w_i, t_r, t_i;
-    int ln, nv2, k, l, le, le1, j, ip, i, n, p, q;
-
-    n = array.length / 2;
-    ln = (int) (Math.log((double) n) / Math.log(2) + 0.5);
-    nv2 = n / 2;
-    j = 1;
-
-    for (i = 1; i < n; i++) {
-      if (i < j) {
-        t_r = array[2 * (i - 1)];
-        t_i = array[2 * (i - 1) + 1];
-
-        array[2 * (i - 1)] = array[2 * (j - 1)];
-        array[2 * (i - 1) + 1] = array[2 * (j - 1) + 1];
-
-        array[2 * (j - 1)] = t_r;
-        array[2 * (j - 1) + 1] = t_i;
-      }
-      k = nv2;
-      while (k < j) {
-        j = j - k;
-        k = k / 2;
-      }
-      j = j + k;
-    }
-
-    for (l = 1; l <= ln; l++) /* loops thru stages */
-    {
-      le = (int) (Math.exp((double) l * Math.log(2)) + 0.5);
-      le1 = le / 2;
-      u_r = 1.0;
-      u_i = 0.0;
-      w_r = Math.cos(Math.PI / (double) le1);
-      w_i = -Math.sin(Math.PI / (double) le1);
-      for (j = 1; j <= le1; j++) /* loops thru 1/2 twiddle values per stage */
-      {
-        for (i = j, p = 2 * (i - 1); i <= n; i += le, p +=
-            2 * le) /* loops thru points per 1/2 twiddle */
-        {
-          ip = i + le1;
-          q = 2 * (ip - 1);
-
-          t_r = array[q] * u_r - u_i * array[q + 1];
-          t_i = array[q + 1] * u_r + u_i * array[q];
-
-          array[q] = array[p] - t_r;
-          array[q + 1] = array[p + 1] - t_i;
-
-          array[p] = array[p] + t_r;
-          array[p + 1] = array[p + 1] + t_i;
-        }
-        t_r = u_r * w_r - w_i * u_i;
-        u_i = w_r * u_i + w_i * u_r;
-        u_r = t_r;
-      }
-    }
+    Fft.plan(array.length / 2).complexForward(array, 0);
   }
 
-  /** Does the FFT on a data array, the array must be a power of 2 in length.
-   * Put the source data in the real part of the array.  The FFT is performed
-   * in place.
+  /** Does the FFT on a data array of any length.  Put the source data in the
+   * real part of the array.  The FFT is performed in place.
    * @param array the data
    */
   public static void fft(double[][] array) {
-    double u_r, u_i, w_r, w_i, t_r, t_i;
-    int ln, nv2, k, l, le, le1, j, ip, i, n;
-
-    n = array.length;
-    ln = (int) (Math.log((double) n) / Math.log(2) + 0.5);
-    nv2 = n / 2;
-    j = 1;
-    for (i = 1; i < n; i++) {
-      if (i < j) {
-        t_r = array[i - 1][0];
-        t_i = array[i - 1][1];
-        array[i - 1][0] = array[j - 1][0];
-        array[i - 1][1] = array[j - 1][1];
-        array[j - 1][0] = t_r;
-        array[j - 1][1] = t_i;
-      }
-      k = nv2;
-      while (k < j) {
-        j = j - k;
-        k = k / 2;
-      }
-      j = j + k;
+    int n = array.length;
+    double[] buf = new double[2 * n];
+    for (int i = 0; i < n; i++) {
+      buf[2 * i] = array[i][0];
+      buf[2 * i + 1] = array[i][1];
     }
-
-    for (l = 1; l <= ln; l++) /* loops thru stages */
-    {
-      le = (int) (Math.exp((double) l * Math.log(2)) + 0.5);
-      le1 = le / 2;
-      u_r = 1.0;
-      u_i = 0.0;
-      w_r = Math.cos(Math.PI / (double) le1);
-      w_i = -Math.sin(Math.PI / (double) le1);
-      for (j = 1; j <= le1; j++) /* loops thru 1/2 twiddle values per stage */
-      {
-        for (i = j; i <= n; i += le) /* loops thru points per 1/2 twiddle */
-        {
-          ip = i + le1;
-          t_r = array[ip - 1][0] * u_r - u_i * array[ip - 1][1];
-          t_i = array[ip - 1][1] * u_r + u_i * array[ip - 1][0];
-
-          array[ip - 1][0] = array[i - 1][0] - t_r;
-          array[ip - 1][1] = array[i - 1][1] - t_i;
-
-          array[i - 1][0] = array[i - 1][0] + t_r;
-          array[i - 1][1] = array[i - 1][1] + t_i;
-        }
-        t_r = u_r * w_r - w_i * u_i;
-        u_i = w_r * u_i + w_i * u_r;
-        u_r = t_r;
-      }
+    Fft.plan(n).complexForward(buf, 0);
+    for (int i = 0; i < n; i++) {
+      array[i][0] = buf[2 * i];
+      array[i][1] = buf[2 * i + 1];
     }
   }
 
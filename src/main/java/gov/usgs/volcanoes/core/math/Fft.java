@@ -0,0 +1,167 @@
+package gov.usgs.volcanoes.core.math;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The transform service. Every FFT in this library goes through a plan from here, so twiddle
+ * tables and other setup are computed once per length and backend and then shared between threads
+ * and callers.
+ *
+ * <p>Two backends are provided. <code>JTRANSFORMS</code>, the default, wraps JTransforms.
+ * <code>BUILT_IN</code> needs no other library: it is a radix-2 transform with precomputed tables
+ * for powers of two, and Bluestein's algorithm on top of it for other lengths.
+ *
+ * <p>Only the most recently used plans are kept, so that a long-running program which meets many
+ * lengths does not hold a table for each of them. A plan already obtained stays usable after it
+ * leaves the cache.
+ */
+public final class Fft {
+
+  /** Radix-2 and Bluestein transforms written here. */
+  public static final FftBackend BUILT_IN = new BuiltInFft();
+
+  /** JTransforms. */
+  public static final FftBackend JTRANSFORMS = new JTransformsFft();
+
+  /** Number of plans cached. */
+  static final int MAX_PLANS = 32;
+
+  // most recently used last; guarded by itself
+  private static final Map<Key, FftPlan> PLANS = new LinkedHashMap<Key, FftPlan>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, FftPlan> eldest) {
+      return size() > MAX_PLANS;
+    }
+  };
+
+  private static volatile FftBackend defaultBackend = JTRANSFORMS;
+
+  private Fft() {}
+
+  /**
+   * Gets a plan from the default backend.
+   *
+   * @param n transform length
+   * @return the plan
+   */
+  public static FftPlan plan(int n) {
+    return plan(defaultBackend, n);
+  }
+
+  /**
+   * Gets a plan, creating it if it is not cached.
+   *
+   * @param backend the backend
+   * @param n transform length
+   * @return the plan
+   */
+  public static FftPlan plan(FftBackend backend, int n) {
+    Key key = new Key(backend, n);
+    synchronized (PLANS) {
+      FftPlan plan = PLANS.get(key);
+      if (plan != null) {
+        return plan;
+      }
+    }
+
+    // created outside the lock, as a long plan takes a while and may itself need shorter ones
+    FftPlan plan = backend.createPlan(n);
+    synchronized (PLANS) {
+      FftPlan cached = PLANS.get(key);
+      if (cached != null) {
+        return cached;
+      }
+      PLANS.put(key, plan);
+    }
+    return plan;
+  }
+
+  /**
+   * Drop a plan from the cache, for a caller finished with an unusual length.
+   *
+   * @param backend the backend
+   * @param n transform length
+   */
+  public static void release(FftBackend backend, int n) {
+    synchronized (PLANS) {
+      PLANS.remove(new Key(backend, n));
+    }
+  }
+
+  /**
+   * Gets the backend used by <code>plan(int)</code>.
+   *
+   * @return the backend
+   */
+  public static FftBackend getDefaultBackend() {
+    return defaultBackend;
+  }
+
+  /**
+   * Sets the backend used by <code>plan(int)</code>.
+   *
+   * @param backend the backend
+   */
+  public static void setDefaultBackend(FftBackend backend) {
+    if (backend == null) {
+      throw new IllegalArgumentException("backend must not be null");
+    }
+    defaultBackend = backend;
+  }
+
+  /**
+   * Discard every cached plan.
+   */
+  public static void clearPlans() {
+    synchronized (PLANS) {
+      PLANS.clear();
+    }
+  }
+
+  /**
+   * Tells whether a length is a power of two.
+   *
+   * @param n the length
+   * @return true if n is a power of two
+   */
+  public static boolean isPowerOf2(int n) {
+    return n > 0 && (n & (n - 1)) == 0;
+  }
+
+  /**
+   * Gets the smallest power of two at least as large as a length.
+   *
+   * @param n the length
+   * @return the power of two
+   */
+  public static int nextPowerOf2(int n) {
+    return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+  }
+
+  private static final class Key {
+    private final FftBackend backend;
+    private final int n;
+
+    Key(FftBackend backend, int n) {
+      this.backend = backend;
+      this.n = n;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return backend == k.backend && n == k.n;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * backend.hashCode() + n;
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package gov.usgs.volcanoes.core.math;
+
+/**
+ * An implementation of the discrete Fourier transform. Backends create plans; <code>Fft</code>
+ * caches them, so a backend need not.
+ */
+public interface FftBackend {
+
+  /**
+   * Gets a short name for the backend.
+   *
+   * @return the name
+   */
+  String getName();
+
+  /**
+   * Create a plan for transforms of one length.
+   *
+   * @param n the length, which need not be a power of two
+   * @return the plan
+   */
+  FftPlan createPlan(int n);
+}
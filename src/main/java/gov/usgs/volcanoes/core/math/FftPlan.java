@@ -0,0 +1,154 @@
+package gov.usgs.volcanoes.core.math;
+
+import gov.usgs.volcanoes.core.util.Parallel;
+
+/**
+ * A discrete Fourier transform of one length, with whatever tables it needs computed once. Plans
+ * are obtained from <code>Fft.plan()</code>, are immutable and may be shared between threads.
+ *
+ * <p>Complex data are interleaved in flat arrays, real part then imaginary part, rather than held
+ * as <code>double[n][2]</code>. The forward transform uses <code>exp(-2 pi i j k / n)</code>, as
+ * <code>FFT.fft()</code> and JTransforms do, and is not scaled.
+ *
+ * <p>The spectrum of n real samples is returned as its <code>n / 2 + 1</code> non-negative
+ * frequencies, interleaved, so the bins at zero and at the Nyquist frequency have imaginary parts
+ * of zero instead of being packed together as JTransforms packs them.
+ */
+public abstract class FftPlan {
+
+  // values per batch below which a batch is not split between threads
+  private static final int MIN_PARALLEL = 1 << 16;
+
+  protected final int n;
+
+  protected FftPlan(int n) {
+    if (n < 1) {
+      throw new IllegalArgumentException("FFT length must be positive: " + n);
+    }
+    this.n = n;
+  }
+
+  /**
+   * Gets the length of the transform.
+   *
+   * @return the number of points
+   */
+  public int size() {
+    return n;
+  }
+
+  /**
+   * Gets the number of complex values in the spectrum of a real signal of a given length.
+   *
+   * @param n signal length
+   * @return <code>n / 2 + 1</code>
+   */
+  public static int spectrumLength(int n) {
+    return n / 2 + 1;
+  }
+
+  /**
+   * Transform n complex values in place.
+   *
+   * @param a interleaved complex values
+   * @param offset index of the first real part
+   */
+  public abstract void complexForward(double[] a, int offset);
+
+  /**
+   * Inverse transform n complex values in place.
+   *
+   * @param a interleaved complex values
+   * @param offset index of the first real part
+   * @param scale if true, divide by n so that the inverse undoes the forward transform
+   */
+  public void complexInverse(double[] a, int offset, boolean scale) {
+    int end = offset + 2 * n;
+    for (int i = offset + 1; i < end; i += 2) {
+      a[i] = -a[i];
+    }
+    complexForward(a, offset);
+    double s = scale ? 1.0 / n : 1.0;
+    for (int i = offset; i < end; i += 2) {
+      a[i] *= s;
+      a[i + 1] *= -s;
+    }
+  }
+
+  /**
+   * Transform n real values.
+   *
+   * @param in the signal, which is not modified
+   * @param inOffset index of the first sample
+   * @param out receives <code>spectrumLength(n)</code> interleaved complex values; may be
+   *     <code>in</code> if the ranges do not overlap, or start at the same index
+   * @param outOffset index of the first real part
+   */
+  public abstract void realForward(double[] in, int inOffset, double[] out, int outOffset);
+
+  /**
+   * Transform n real values.
+   *
+   * @param in the signal, which is not modified
+   * @return <code>spectrumLength(n)</code> interleaved complex values
+   */
+  public double[] realForward(double[] in) {
+    double[] out = new double[2 * spectrumLength(n)];
+    realForward(in, 0, out, 0);
+    return out;
+  }
+
+  /**
+   * Transform a batch of complex signals of n values each, in place, on the common fork/join pool
+   * when the batch is large.
+   *
+   * @param a the signals, one after the other, interleaved
+   * @param count number of signals
+   */
+  public void complexForwardBatch(final double[] a, int count) {
+    final int stride = 2 * n;
+    batch(count, new Batch() {
+      @Override
+      public void run(int from, int to) {
+        for (int i = from; i < to; i++) {
+          complexForward(a, i * stride);
+        }
+      }
+    });
+  }
+
+  /**
+   * Transform a batch of real signals of n values each, on the common fork/join pool when the
+   * batch is large.
+   *
+   * @param in the signals, one after the other
+   * @param out receives the spectra, <code>2 * spectrumLength(n)</code> values apart
+   * @param count number of signals
+   */
+  public void realForwardBatch(final double[] in, final double[] out, int count) {
+    final int outStride = 2 * spectrumLength(n);
+    batch(count, new Batch() {
+      @Override
+      public void run(int from, int to) {
+        for (int i = from; i < to; i++) {
+          realForward(in, i * n, out, i * outStride);
+        }
+      }
+    });
+  }
+
+  private interface Batch {
+    void run(int from, int to);
+  }
+
+  private void batch(int count, final Batch batch) {
+    Parallel.split(0, count, Parallel.tasks((long) count * n, MIN_PARALLEL),
+        new Parallel.Range<Void>() {
+          @Override
+          public Void run(int from, int to) {
+            batch.run(from, to);
+            return null;
+          }
+        });
+  }
+}
@@ -0,0 +1,392 @@
+package gov.usgs.volcanoes.core.math;
+
+import gov.usgs.volcanoes.core.util.Parallel;
+
+import java.util.Arrays;
+
+/**
+ * The Goertzel algorithm for many frequencies at once. Each sample is read once and fed to the
+ * recurrence of every frequency, so a bank of fifty tones costs one pass over the signal rather
+ * than fifty. Coefficients and the optional Hamming window are computed when the bank is made and
+ * the signal is never modified. Power is <code>|X(f)|^2</code>, as from
+ * <code>Goertzel.goertzel()</code>, over blocks of a fixed length; the window, when used, spans
+ * the block.
+ *
+ * <p>Banks are immutable and may be shared by any number of channels and threads. Each
+ * <code>Sliding</code> obtained from a bank tracks the power over the most recent block of one
+ * channel, updated sample by sample with the sliding DFT.
+ */
+public class GoertzelBank {
+
+  // samples windowed at a time into scratch
+  private static final int CHUNK = 1024;
+
+  // work per batch below which channels are not split between threads
+  private static final int MIN_PARALLEL = 1 << 18;
+
+  // Hamming window coefficients; the window is A - B cos(2 pi i / (length - 1))
+  private static final double A = 0.54;
+  private static final double B = 0.46;
+
+  private final double[] frequencies;
+  private final double samplingRate;
+  private final int length;
+  private final double[] window;
+  private final double[] coeff;
+
+  // for the sliding DFT: each frequency, and with a window its neighbours a window bin away
+  private final int nComponents;
+  private final double[] componentCoeff;
+  private final double[] rotR;
+  private final double[] rotI;
+  private final double[] lastR;
+  private final double[] lastI;
+
+  /**
+   * Create a bank.
+   *
+   * @param frequencies frequencies to evaluate, in Hz
+   * @param samplingRate sampling rate of the signals, in Hz
+   * @param length samples in each block
+   * @param hamming if true, apply a Hamming window to each block
+   */
+  public GoertzelBank(double[] frequencies, double samplingRate, int length, boolean hamming) {
+    if (length < 2) {
+      throw new IllegalArgumentException("Block length must be at least 2");
+    }
+    this.frequencies = frequencies.clone();
+    this.samplingRate = samplingRate;
+    this.length = length;
+    window = hamming ? Util.hamming(length) : null;
+
+    int nf = frequencies.length;
+    coeff = new double[nf];
+    for (int f = 0; f < nf; f++) {
+      coeff[f] = 2 * Math.cos(2 * Math.PI * frequencies[f] / samplingRate);
+    }
+
+    nComponents = hamming ? 3 * nf : nf;
+    componentCoeff = new double[nComponents];
+    rotR = new double[nComponents];
+    rotI = new double[nComponents];
+    lastR = new double[nComponents];
+    lastI = new double[nComponents];
+    double delta = 2 * Math.PI / (length - 1);
+    for (int c = 0; c < nComponents; c++) {
+      double theta = 2 * Math.PI * frequencies[c % nf] / samplingRate;
+      if (hamming) {
+        theta += (c / nf - 1) * delta;
+      }
+      componentCoeff[c] = 2 * Math.cos(theta);
+      rotR[c] = Math.cos(theta);
+      rotI[c] = Math.sin(theta);
+      lastR[c] = Math.cos(theta * (length - 1));
+      lastI[c] = -Math.sin(theta * (length - 1));
+    }
+  }
+
+  /**
+   * Gets the frequencies evaluated.
+   *
+   * @return the frequencies, in Hz
+   */
+  public double[] getFrequencies() {
+    return frequencies.clone();
+  }
+
+  /**
+   * Gets the sampling rate.
+   *
+   * @return the sampling rate, in Hz
+   */
+  public double getSamplingRate() {
+    return samplingRate;
+  }
+
+  /**
+   * Gets the block length.
+   *
+   * @return samples in each block
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Evaluate one block.
+   *
+   * @param signal the samples
+   * @param offset index of the first sample of the block
+   * @param power receives the power at each frequency
+   */
+  public void power(double[] signal, int offset, double[] power) {
+    checkLength(signal.length - offset);
+    run(new DoubleSource(signal, offset), power);
+  }
+
+  /**
+   * Evaluate the first block of a signal.
+   *
+   * @param signal the samples, at least <code>getLength()</code> of them
+   * @return the power at each frequency
+   */
+  public double[] power(int[] signal) {
+    checkLength(signal.length);
+    double[] power = new double[frequencies.length];
+    run(new IntSource(signal), power);
+    return power;
+  }
+
+  /**
+   * Evaluate the first block of each of several channels, on the common fork/join pool when there
+   * is enough work.
+   *
+   * @param channels the samples of each channel, at least <code>getLength()</code> of them
+   * @return the power at each frequency, one row per channel
+   */
+  public double[][] power(final int[][] channels) {
+    for (int[] channel : channels) {
+      checkLength(channel.length);
+    }
+    final double[][] power = new double[channels.length][frequencies.length];
+    int tasks =
+        Parallel.tasks((long) channels.length * length * frequencies.length, MIN_PARALLEL);
+    Parallel.split(0, channels.length, tasks, new Parallel.Range<Void>() {
+      @Override
+      public Void run(int from, int to) {
+        for (int c = from; c < to; c++) {
+          GoertzelBank.this.run(new IntSource(channels[c]), power[c]);
+        }
+        return null;
+      }
+    });
+    return power;
+  }
+
+  /**
+   * Create a sliding evaluator for one channel.
+   *
+   * @return the evaluator, empty
+   */
+  public Sliding slide() {
+    return new Sliding();
+  }
+
+  private interface Source {
+    void copy(int from, double[] dst, int n);
+  }
+
+  private static final class DoubleSource implements Source {
+    private final double[] signal;
+    private final int offset;
+
+    DoubleSource(double[] signal, int offset) {
+      this.signal = signal;
+      this.offset = offset;
+    }
+
+    @Override
+    public void copy(int from, double[] dst, int n) {
+      System.arraycopy(signal, offset + from, dst, 0, n);
+    }
+  }
+
+  private static final class IntSource implements Source {
+    private final int[] signal;
+
+    IntSource(int[] signal) {
+      this.signal = signal;
+    }
+
+    @Override
+    public void copy(int from, double[] dst, int n) {
+      for (int i = 0; i < n; i++) {
+        dst[i] = signal[from + i];
+      }
+    }
+  }
+
+  private void checkLength(int available) {
+    if (available < length) {
+      throw new IllegalArgumentException(
+          "Block of " + length + " samples needs more than the " + available + " given");
+    }
+  }
+
+  private void run(Source source, double[] power) {
+    int nf = frequencies.length;
+    double[] s1 = new double[nf];
+    double[] s2 = new double[nf];
+    double[] x = new double[Math.min(CHUNK, length)];
+    for (int i = 0; i < length; i += CHUNK) {
+      int n = Math.min(CHUNK, length - i);
+      source.copy(i, x, n);
+      if (window != null) {
+        for (int j = 0; j < n; j++) {
+          x[j] *= window[i + j];
+        }
+      }
+      recur(x, n, coeff, s1, s2);
+    }
+    for (int f = 0; f < nf; f++) {
+      power[f] = s2[f] * s2[f] + s1[f] * s1[f] - coeff[f] * s1[f] * s2[f];
+    }
+  }
+
+  /**
+   * Run the Goertzel recurrence of every coefficient over some samples.
+   */
+  private static void recur(double[] x, int n, double[] coeff, double[] s1, double[] s2) {
+    int nc = coeff.length;
+    for (int i = 0; i < n; i++) {
+      double v = x[i];
+      for (int c = 0; c < nc; c++) {
+        double s = v + coeff[c] * s1[c] - s2[c];
+        s2[c] = s1[c];
+        s1[c] = s;
+      }
+    }
+  }
+
+  /**
+   * The power over the most recent block of one channel. Each new sample updates the complex
+   * transform of every frequency in constant time; with a window, the transform at each frequency
+   * is combined with those one window bin to either side, which is exact for a Hamming window. The
+   * transforms are recomputed from the held block once per block length of samples, so that
+   * rounding errors in the recurrence do not grow.
+   *
+   * <p>Not thread-safe; use one per channel.
+   */
+  public class Sliding {
+    private final double[] block = new double[length];
+    private int position;
+    private long count;
+    private int sinceRecompute;
+    private final double[] xr = new double[nComponents];
+    private final double[] xi = new double[nComponents];
+    private final double[] x = new double[length];
+    private final double[] s1 = new double[nComponents];
+    private final double[] s2 = new double[nComponents];
+
+    private Sliding() {}
+
+    /**
+     * Add samples.
+     *
+     * @param samples the samples
+     * @param offset index of the first
+     * @param n number of samples
+     */
+    public void add(double[] samples, int offset, int n) {
+      if (n >= length) {
+        // the new samples replace the whole block
+        System.arraycopy(samples, offset + n - length, block, 0, length);
+        replace(n);
+        return;
+      }
+      for (int i = 0; i < n; i++) {
+        add(samples[offset + i]);
+      }
+    }
+
+    /**
+     * Add samples.
+     *
+     * @param samples the samples
+     */
+    public void add(int[] samples) {
+      if (samples.length >= length) {
+        new IntSource(samples).copy(samples.length - length, block, length);
+        replace(samples.length);
+        return;
+      }
+      for (int sample : samples) {
+        add(sample);
+      }
+    }
+
+    private void replace(int n) {
+      position = 0;
+      count += n;
+      recompute();
+    }
+
+    /**
+     * Add one sample.
+     *
+     * @param sample the sample
+     */
+    public void add(double sample) {
+      double oldest = block[position];
+      block[position] = sample;
+      position = (position + 1) % length;
+      count++;
+
+      if (count < length) {
+        return;
+      }
+      if (count == length || ++sinceRecompute >= length) {
+        recompute();
+        return;
+      }
+
+      // X <- e^(i theta) (X - oldest) + sample e^(-i theta (length - 1))
+      for (int c = 0; c < nComponents; c++) {
+        double r = xr[c] - oldest;
+        double i = xi[c];
+        xr[c] = rotR[c] * r - rotI[c] * i + sample * lastR[c];
+        xi[c] = rotR[c] * i + rotI[c] * r + sample * lastI[c];
+      }
+    }
+
+    private void recompute() {
+      System.arraycopy(block, position, x, 0, length - position);
+      System.arraycopy(block, 0, x, length - position, position);
+      Arrays.fill(s1, 0);
+      Arrays.fill(s2, 0);
+      recur(x, length, componentCoeff, s1, s2);
+
+      // y = s1 - e^(-i theta) s2 is the sum of x[m] e^(i theta (length - 1 - m)); X, referred to
+      // the start of the block, is y e^(-i theta (length - 1))
+      for (int c = 0; c < nComponents; c++) {
+        double yr = s1[c] - rotR[c] * s2[c];
+        double yi = rotI[c] * s2[c];
+        xr[c] = yr * lastR[c] - yi * lastI[c];
+        xi[c] = yr * lastI[c] + yi * lastR[c];
+      }
+      sinceRecompute = 0;
+    }
+
+    /**
+     * Tells whether a whole block has been added.
+     *
+     * @return true once <code>getLength()</code> samples have been added
+     */
+    public boolean isFull() {
+      return count >= length;
+    }
+
+    /**
+     * Gets the power over the most recent block.
+     *
+     * @param power receives the power at each frequency, or NaN until the block is full
+     */
+    public void getPower(double[] power) {
+      int nf = frequencies.length;
+      if (!isFull()) {
+        Arrays.fill(power, 0, nf, Double.NaN);
+        return;
+      }
+      for (int f = 0; f < nf; f++) {
+        double r = xr[f];
+        double i = xi[f];
+        if (window != null) {
+          // the window is A - (B / 2) (e^(i delta m) + e^(-i delta m))
+          r = A * xr[nf + f] - B / 2 * (xr[f] + xr[2 * nf + f]);
+          i = A * xi[nf + f] - B / 2 * (xi[f] + xi[2 * nf + f]);
+        }
+        power[f] = r * r + i * i;
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package gov.usgs.volcanoes.core.math;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+
+/**
+ * Transforms from JTransforms. Its real transform packs the last bin into the imaginary part of
+ * the first, so plans unpack it.
+ */
+class JTransformsFft implements FftBackend {
+
+  @Override
+  public String getName() {
+    return "JTransforms";
+  }
+
+  @Override
+  public FftPlan createPlan(int n) {
+    return new Plan(n);
+  }
+
+  private static class Plan extends FftPlan {
+    private final ThreadLocal<DoubleFFT_1D> transform = new ThreadLocal<DoubleFFT_1D>() {
+      @Override
+      protected DoubleFFT_1D initialValue() {
+        return new DoubleFFT_1D(n);
+      }
+    };
+
+    Plan(int n) {
+      super(n);
+    }
+
+    @Override
+    public void complexForward(double[] a, int offset) {
+      transform.get().complexForward(a, offset);
+    }
+
+    @Override
+    public void complexInverse(double[] a, int offset, boolean scale) {
+      transform.get().complexInverse(a, offset, scale);
+    }
+
+    @Override
+    public void realForward(double[] in, int inOffset, double[] out, int outOffset) {
+      if (in != out || inOffset != outOffset) {
+        System.arraycopy(in, inOffset, out, outOffset, n);
+      }
+      if (n == 1) {
+        out[outOffset + 1] = 0;
+        return;
+      }
+      transform.get().realForward(out, outOffset);
+
+      // for even n a[1] is Re[n/2], for odd n it is Im[(n-1)/2]; both belong at a[n]
+      out[outOffset + n] = out[outOffset + 1];
+      out[outOffset + 1] = 0;
+      if (n % 2 == 0) {
+        out[outOffset + n + 1] = 0;
+      }
+    }
+  }
+}
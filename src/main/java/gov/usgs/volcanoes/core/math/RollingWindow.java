@@ -0,0 +1,427 @@
+package gov.usgs.volcanoes.core.math;
+
+import gov.usgs.volcanoes.core.util.Parallel;
+
+/**
+ * A first in, first out window of samples which reports a statistic of the samples it holds.
+ * Samples are kept in primitive ring buffers, so nothing is boxed. The mean is kept as a running
+ * sum and costs amortized O(1) per sample; the median is kept in two heaps, the lower half in a
+ * max-heap and the upper half in a min-heap, which track each sample's position so that the oldest
+ * sample can be removed directly in O(log n).
+ *
+ * <p>Samples are ordered as by <code>Double.compare()</code>, so NaN sorts above every number.
+ */
+public abstract class RollingWindow {
+
+  /**
+   * The statistic reported by a window.
+   */
+  public enum Statistic {
+    MEAN, MEDIAN
+  }
+
+  // samples per task below which a parallel roll is not split
+  private static final int MIN_CHUNK = 1 << 16;
+
+  /**
+   * Create an empty window.
+   *
+   * @param statistic the statistic to report
+   * @return the window
+   */
+  public static RollingWindow create(Statistic statistic) {
+    return statistic == Statistic.MEDIAN ? new Median() : new Mean();
+  }
+
+  /**
+   * Add a sample as the newest in the window.
+   *
+   * @param x the sample
+   */
+  public abstract void add(double x);
+
+  /**
+   * Remove the oldest sample in the window.
+   *
+   * @return the sample removed
+   */
+  public abstract double removeOldest();
+
+  /**
+   * Gets the statistic of the samples in the window. For an even number of samples the median is
+   * the mean of the middle two.
+   *
+   * @return the statistic
+   */
+  public abstract double value();
+
+  public abstract int size();
+
+  public abstract void clear();
+
+  /**
+   * Replace each sample with the statistic of a window ending at that sample and reaching back no
+   * more than a period before it. The first sample is left as it is. Times must not decrease.
+   *
+   * <p>In parallel, the samples are split into chunks and each chunk's window is first filled from
+   * the samples before it, so the result is the same as rolling serially, except that means may
+   * differ in the last bits from summing in another order.
+   *
+   * @param statistic the statistic
+   * @param in samples
+   * @param out receives the results; may be <code>in</code>
+   * @param times sample times, or null for samples <code>1 / samplingRate</code> apart from zero
+   * @param samplingRate sampling rate used when times are null
+   * @param period longest time between the first and last samples of a window
+   * @param skipNaN if true, NaN samples are left out of windows and left as they are
+   * @param parallel if true, roll long inputs on the common fork/join pool
+   */
+  public static void roll(final Statistic statistic, double[] in, final double[] out,
+      final double[] times, final double samplingRate, final double period, final boolean skipNaN,
+      boolean parallel) {
+    final int n = in.length;
+    final int first = nextValid(in, 0, skipNaN);
+    if (first >= n) {
+      return;
+    }
+
+    int tasks = parallel ? Parallel.tasks(n, MIN_CHUNK) : 1;
+    if (tasks <= 1) {
+      roll(statistic, in, out, times, samplingRate, period, skipNaN, first, first + 1, n);
+      return;
+    }
+
+    // chunks read samples before their start, so they must not see earlier chunks' results
+    final double[] src = in == out ? in.clone() : in;
+    Parallel.split(first + 1, n, tasks, new Parallel.Range<Void>() {
+      @Override
+      public Void run(int from, int to) {
+        roll(statistic, src, out, times, samplingRate, period, skipNaN, first, from, to);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Roll over samples from..to, first filling the window as it stood before from.
+   */
+  private static void roll(Statistic statistic, double[] in, double[] out, double[] times,
+      double samplingRate, double period, boolean skipNaN, int first, int from, int to) {
+    RollingWindow window = create(statistic);
+
+    // fill the window with the valid samples before from which are within period of it
+    double start = time(times, samplingRate, from);
+    int lo = first;
+    int hi = from;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (start - time(times, samplingRate, mid) > period) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    // index of the oldest sample in the window, or of the next one added if it is empty
+    int j = nextValid(in, lo, skipNaN);
+    for (int k = j; k < from; k = nextValid(in, k + 1, skipNaN)) {
+      window.add(in[k]);
+    }
+
+    for (int i = from; i < to; i++) {
+      double x = in[i];
+      if (skipNaN && Double.isNaN(x)) {
+        continue;
+      }
+      window.add(x);
+      double t = time(times, samplingRate, i);
+      while (t - time(times, samplingRate, j) > period) {
+        window.removeOldest();
+        j = nextValid(in, j + 1, skipNaN);
+      }
+      out[i] = window.value();
+    }
+  }
+
+  private static int nextValid(double[] in, int i, boolean skipNaN) {
+    if (skipNaN) {
+      while (i < in.length && Double.isNaN(in[i])) {
+        i++;
+      }
+    }
+    return i;
+  }
+
+  private static double time(double[] times, double samplingRate, int i) {
+    return times == null ? i / samplingRate : times[i];
+  }
+
+  /**
+   * Running mean over a ring buffer. Only finite samples are summed and the others are counted, so
+   * a NaN or infinite sample affects the mean only while it is in the window. The sum is rebuilt
+   * from the ring once as many samples have left as the ring holds, so rounding errors from adding
+   * and removing cannot build up.
+   */
+  private static final class Mean extends RollingWindow {
+    private double[] values = new double[16];
+    private int head;
+    private int size;
+    private double sum;
+    private int nans;
+    private int positiveInfinities;
+    private int negativeInfinities;
+    // samples removed since the sum was last rebuilt
+    private int removed;
+
+    @Override
+    public void add(double x) {
+      if (size == values.length) {
+        double[] grown = new double[values.length * 2];
+        int tail = values.length - head;
+        System.arraycopy(values, head, grown, 0, tail);
+        System.arraycopy(values, 0, grown, tail, head);
+        values = grown;
+        head = 0;
+      }
+      values[(head + size) & (values.length - 1)] = x;
+      size++;
+      count(x, 1);
+    }
+
+    @Override
+    public double removeOldest() {
+      double x = values[head];
+      head = (head + 1) & (values.length - 1);
+      size--;
+      count(x, -1);
+      if (++removed >= values.length) {
+        rebuild();
+      }
+      return x;
+    }
+
+    private void count(double x, int sign) {
+      if (Double.isNaN(x)) {
+        nans += sign;
+      } else if (x == Double.POSITIVE_INFINITY) {
+        positiveInfinities += sign;
+      } else if (x == Double.NEGATIVE_INFINITY) {
+        negativeInfinities += sign;
+      } else {
+        sum += sign * x;
+      }
+    }
+
+    private void rebuild() {
+      removed = 0;
+      sum = 0;
+      for (int i = 0; i < size; i++) {
+        double x = values[(head + i) & (values.length - 1)];
+        if (!Double.isNaN(x) && !Double.isInfinite(x)) {
+          sum += x;
+        }
+      }
+    }
+
+    @Override
+    public double value() {
+      if (nans > 0 || (positiveInfinities > 0 && negativeInfinities > 0)) {
+        return Double.NaN;
+      } else if (positiveInfinities > 0) {
+        return Double.POSITIVE_INFINITY;
+      } else if (negativeInfinities > 0) {
+        return Double.NEGATIVE_INFINITY;
+      }
+      return sum / size;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void clear() {
+      head = 0;
+      size = 0;
+      sum = 0;
+      nans = 0;
+      positiveInfinities = 0;
+      negativeInfinities = 0;
+      removed = 0;
+    }
+  }
+
+  /**
+   * Running median over a ring buffer indexed by two heaps of ring slots. The lower heap holds the
+   * same number of samples as the upper heap, or one more.
+   */
+  private static final class Median extends RollingWindow {
+    private double[] values = new double[16];
+    private int head;
+    private int size;
+
+    // heaps of ring slots
+    private int[] lo = new int[16];
+    private int[] hi = new int[16];
+    private int loSize;
+    private int hiSize;
+
+    // position of each slot: index in lo, or -1 - index in hi
+    private int[] where = new int[16];
+
+    @Override
+    public void add(double x) {
+      if (size == values.length) {
+        grow();
+      }
+      int slot = (head + size) & (values.length - 1);
+      values[slot] = x;
+      size++;
+      if (loSize == 0 || Double.compare(x, values[lo[0]]) <= 0) {
+        lo[loSize] = slot;
+        siftUp(lo, loSize++, true);
+      } else {
+        hi[hiSize] = slot;
+        siftUp(hi, hiSize++, false);
+      }
+      rebalance();
+    }
+
+    @Override
+    public double removeOldest() {
+      int slot = head;
+      double x = values[slot];
+      head = (head + 1) & (values.length - 1);
+      size--;
+      int w = where[slot];
+      if (w >= 0) {
+        removeAt(lo, --loSize, w, true);
+      } else {
+        removeAt(hi, --hiSize, -1 - w, false);
+      }
+      rebalance();
+      return x;
+    }
+
+    @Override
+    public double value() {
+      if (loSize == hiSize) {
+        return (values[lo[0]] + values[hi[0]]) / 2;
+      }
+      return values[lo[0]];
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void clear() {
+      head = 0;
+      size = 0;
+      loSize = 0;
+      hiSize = 0;
+    }
+
+    private void rebalance() {
+      if (loSize > hiSize + 1) {
+        int slot = lo[0];
+        removeAt(lo, --loSize, 0, true);
+        hi[hiSize] = slot;
+        siftUp(hi, hiSize++, false);
+      } else if (hiSize > loSize) {
+        int slot = hi[0];
+        removeAt(hi, --hiSize, 0, false);
+        lo[loSize] = slot;
+        siftUp(lo, loSize++, true);
+      }
+    }
+
+    /**
+     * Whether slot a belongs above slot b in a heap.
+     */
+    private boolean above(int a, int b, boolean max) {
+      int c = Double.compare(values[a], values[b]);
+      return max ? c > 0 : c < 0;
+    }
+
+    private void place(int[] heap, int pos, int slot, boolean max) {
+      heap[pos] = slot;
+      where[slot] = max ? pos : -1 - pos;
+    }
+
+    private void siftUp(int[] heap, int pos, boolean max) {
+      int slot = heap[pos];
+      while (pos > 0) {
+        int parent = (pos - 1) >> 1;
+        if (!above(slot, heap[parent], max)) {
+          break;
+        }
+        place(heap, pos, heap[parent], max);
+        pos = parent;
+      }
+      place(heap, pos, slot, max);
+    }
+
+    private void siftDown(int[] heap, int heapSize, int pos, boolean max) {
+      int slot = heap[pos];
+      while (true) {
+        int child = 2 * pos + 1;
+        if (child >= heapSize) {
+          break;
+        }
+        if (child + 1 < heapSize && above(heap[child + 1], heap[child], max)) {
+          child++;
+        }
+        if (!above(heap[child], slot, max)) {
+          break;
+        }
+        place(heap, pos, heap[child], max);
+        pos = child;
+      }
+      place(heap, pos, slot, max);
+    }
+
+    /**
+     * Remove the entry at pos from a heap which has already been shrunk to heapSize.
+     */
+    private void removeAt(int[] heap, int heapSize, int pos, boolean max) {
+      if (pos == heapSize) {
+        return;
+      }
+      heap[pos] = heap[heapSize];
+      siftDown(heap, heapSize, pos, max);
+      siftUp(heap, pos, max);
+    }
+
+    /**
+     * Double the ring, moving every sample to slot index from its age so the heaps stay valid.
+     */
+    private void grow() {
+      int capacity = values.length * 2;
+      double[] grownValues = new double[capacity];
+      int[] moved = new int[values.length];
+      for (int i = 0; i < size; i++) {
+        int slot = (head + i) & (values.length - 1);
+        grownValues[i] = values[slot];
+        moved[slot] = i;
+      }
+      int[] grownLo = new int[capacity];
+      int[] grownHi = new int[capacity];
+      where = new int[capacity];
+      for (int i = 0; i < loSize; i++) {
+        grownLo[i] = moved[lo[i]];
+        where[grownLo[i]] = i;
+      }
+      for (int i = 0; i < hiSize; i++) {
+        grownHi[i] = moved[hi[i]];
+        where[grownHi[i]] = -1 - i;
+      }
+      values = grownValues;
+      lo = grownLo;
+      hi = grownHi;
+      head = 0;
+    }
+  }
+}
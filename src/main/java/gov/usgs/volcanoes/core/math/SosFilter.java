@@ -0,0 +1,341 @@
+package gov.usgs.volcanoes.core.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An IIR filter run as a cascade of second-order sections. Compared with <code>Filter</code>,
+ * which evaluates the whole transfer function as one high order difference equation, the
+ * sections stay numerically stable for narrow bands and high orders, and each section's two state
+ * variables live in locals for the length of the pass rather than being shifted through history
+ * arrays every sample.
+ *
+ * <p>Data are filtered in place. A zero phase pass filters forward, then backward over the same
+ * array, so no reversed copy is made. A forward pass may also carry its state from one call to the
+ * next, so a stream can be filtered a piece at a time with the same result as filtering it whole.
+ *
+ * <p>Designs made from a <code>Butterworth</code> are cached by type, order, corners and sampling
+ * rate, so repeatedly filtering with the same settings designs the filter once. Instances are
+ * immutable and may be shared between threads.
+ */
+public final class SosFilter {
+  private static final int MAX_CACHED = 256;
+
+  // work arrays larger than this are not kept between calls
+  private static final int MAX_WORKSPACE = 1 << 20;
+
+  private static final ConcurrentHashMap<Design, SosFilter> CACHE =
+      new ConcurrentHashMap<Design, SosFilter>();
+
+  private static final ThreadLocal<double[]> WORKSPACE = new ThreadLocal<double[]>();
+
+  private static final Comparator<Complex> BY_REAL = new Comparator<Complex>() {
+    public int compare(Complex c1, Complex c2) {
+      return Double.compare(c1.re, c2.re);
+    }
+  };
+
+  // b0, b1, b2, a1, a2 for each section
+  private final double[] coeffs;
+  private final int sections;
+
+  private SosFilter(double[] coeffs) {
+    this.coeffs = coeffs;
+    sections = coeffs.length / 5;
+  }
+
+  /**
+   * Gets the filter designed by a <code>Butterworth</code>. The Butterworth is not modified.
+   *
+   * @param bw filter parameters, including the sampling rate
+   * @return the filter
+   */
+  public static SosFilter forButterworth(Butterworth bw) {
+    Design key = new Design(bw);
+    SosFilter filter = CACHE.get(key);
+    if (filter == null) {
+      filter = design(bw);
+      if (CACHE.size() >= MAX_CACHED) {
+        CACHE.clear();
+      }
+      CACHE.put(key, filter);
+    }
+    return filter;
+  }
+
+  private static SosFilter design(Butterworth bw) {
+    Butterworth copy = new Butterworth(bw);
+    copy.create();
+    List<Complex[]> polePairs = pair(copy.getPoles());
+    Complex[] zeros = copy.getZeros();
+    Arrays.sort(zeros, BY_REAL);
+
+    // pairing the smallest zero with the largest gives a bandpass section one zero at each end
+    double[] coeffs = new double[polePairs.size() * 5];
+    int lo = 0;
+    int hi = zeros.length - 1;
+    for (int s = 0; s < polePairs.size(); s++) {
+      Complex[] poles = polePairs.get(s);
+      Complex[] z = poles.length == 2 ? new Complex[] {zeros[lo++], zeros[hi--]}
+          : new Complex[] {zeros[lo++]};
+      setSection(coeffs, s, z, poles);
+    }
+
+    // scale every section equally so that the cascade has unit gain at the reference point
+    Complex ref = copy.getReferencePoint();
+    double gain = 1;
+    for (int s = 0; s < polePairs.size(); s++) {
+      gain *= response(coeffs, s, ref).mag();
+    }
+    double scale = Math.pow(gain, -1.0 / polePairs.size());
+    for (int s = 0; s < polePairs.size(); s++) {
+      coeffs[s * 5] *= scale;
+      coeffs[s * 5 + 1] *= scale;
+      coeffs[s * 5 + 2] *= scale;
+    }
+    return new SosFilter(coeffs);
+  }
+
+  /**
+   * Group poles into conjugate pairs, then pairs of real poles, then a single real pole if one is
+   * left over.
+   */
+  private static List<Complex[]> pair(Complex[] poles) {
+    List<Complex[]> pairs = new ArrayList<Complex[]>();
+    List<Complex> real = new ArrayList<Complex>();
+    for (Complex p : poles) {
+      if (Math.abs(p.im) < 1E-10) {
+        real.add(p);
+      } else if (p.im > 0) {
+        pairs.add(new Complex[] {p, p.conj()});
+      }
+    }
+    for (int i = 0; i < real.size(); i += 2) {
+      if (i + 1 < real.size()) {
+        pairs.add(new Complex[] {real.get(i), real.get(i + 1)});
+      } else {
+        pairs.add(new Complex[] {real.get(i)});
+      }
+    }
+    return pairs;
+  }
+
+  private static void setSection(double[] coeffs, int s, Complex[] zeros, Complex[] poles) {
+    int i = s * 5;
+    coeffs[i] = 1;
+    if (zeros.length == 2) {
+      coeffs[i + 1] = -(zeros[0].re + zeros[1].re);
+      coeffs[i + 2] = zeros[0].mult(zeros[1]).re;
+      coeffs[i + 3] = -(poles[0].re + poles[1].re);
+      coeffs[i + 4] = poles[0].mult(poles[1]).re;
+    } else {
+      coeffs[i + 1] = -zeros[0].re;
+      coeffs[i + 3] = -poles[0].re;
+    }
+  }
+
+  private static Complex response(double[] coeffs, int s, Complex z) {
+    int i = s * 5;
+    Complex zi = new Complex(1.0, 0).divide(z);
+    Complex zi2 = zi.mult(zi);
+    Complex top = new Complex(coeffs[i], 0).plus(zi.mult(coeffs[i + 1]))
+        .plus(zi2.mult(coeffs[i + 2]));
+    Complex bottom = new Complex(1.0, 0).plus(zi.mult(coeffs[i + 3])).plus(zi2.mult(coeffs[i + 4]));
+    return top.divide(bottom);
+  }
+
+  /**
+   * Gets the number of second-order sections.
+   *
+   * @return the number of sections
+   */
+  public int getSectionCount() {
+    return sections;
+  }
+
+  /**
+   * Gets the magnitude of the frequency response.
+   *
+   * @param frequency frequency as a fraction of the sampling rate
+   * @return the gain
+   */
+  public double getGain(double frequency) {
+    Complex z = Complex.expj(2 * Math.PI * frequency);
+    double gain = 1;
+    for (int s = 0; s < sections; s++) {
+      gain *= response(coeffs, s, z).mag();
+    }
+    return gain;
+  }
+
+  /**
+   * Filter a range of samples forward, in place, starting from rest.
+   *
+   * @param data samples
+   * @param from first sample, inclusive
+   * @param to last sample, exclusive
+   */
+  public void filter(double[] data, int from, int to) {
+    filter(data, from, to, newState());
+  }
+
+  /**
+   * Filter a range of samples forward, in place, continuing from and updating a state.
+   *
+   * @param data samples
+   * @param from first sample, inclusive
+   * @param to last sample, exclusive
+   * @param state state from <code>newState()</code>
+   */
+  public void filter(double[] data, int from, int to, double[] state) {
+    for (int s = 0; s < sections; s++) {
+      int c = s * 5;
+      double b0 = coeffs[c];
+      double b1 = coeffs[c + 1];
+      double b2 = coeffs[c + 2];
+      double a1 = coeffs[c + 3];
+      double a2 = coeffs[c + 4];
+      double z1 = state[s * 2];
+      double z2 = state[s * 2 + 1];
+      for (int i = from; i < to; i++) {
+        double x = data[i];
+        double y = b0 * x + z1;
+        z1 = b1 * x - a1 * y + z2;
+        z2 = b2 * x - a2 * y;
+        data[i] = y;
+      }
+      state[s * 2] = z1;
+      state[s * 2 + 1] = z2;
+    }
+  }
+
+  /**
+   * Creates a state at rest, for filtering a stream in pieces.
+   *
+   * @return the state
+   */
+  public double[] newState() {
+    return new double[sections * 2];
+  }
+
+  /**
+   * Sets a state to where it would settle after a long run of a constant input, so that a stream
+   * starting at that value begins without a step transient.
+   *
+   * @param state state to set
+   * @param x the input
+   */
+  public void warmUp(double[] state, double x) {
+    for (int s = 0; s < sections; s++) {
+      int c = s * 5;
+      double b0 = coeffs[c];
+      double b1 = coeffs[c + 1];
+      double b2 = coeffs[c + 2];
+      double a1 = coeffs[c + 3];
+      double a2 = coeffs[c + 4];
+      double y = x * (b0 + b1 + b2) / (1 + a1 + a2);
+      state[s * 2] = y - b0 * x;
+      state[s * 2 + 1] = b2 * x - a2 * y;
+      x = y;
+    }
+  }
+
+  /**
+   * Filter a range of samples backward, in place, starting from rest at the last sample.
+   *
+   * @param data samples
+   * @param from first sample, inclusive
+   * @param to last sample, exclusive
+   */
+  public void filterReverse(double[] data, int from, int to) {
+    for (int s = 0; s < sections; s++) {
+      int c = s * 5;
+      double b0 = coeffs[c];
+      double b1 = coeffs[c + 1];
+      double b2 = coeffs[c + 2];
+      double a1 = coeffs[c + 3];
+      double a2 = coeffs[c + 4];
+      double z1 = 0;
+      double z2 = 0;
+      for (int i = to - 1; i >= from; i--) {
+        double x = data[i];
+        double y = b0 * x + z1;
+        z1 = b1 * x - a1 * y + z2;
+        z2 = b2 * x - a2 * y;
+        data[i] = y;
+      }
+    }
+  }
+
+  /**
+   * Filter a range of samples forward and then backward, in place, cancelling the phase shift.
+   *
+   * @param data samples
+   * @param from first sample, inclusive
+   * @param to last sample, exclusive
+   */
+  public void filterZeroPhase(double[] data, int from, int to) {
+    filter(data, from, to);
+    filterReverse(data, from, to);
+  }
+
+  /**
+   * Gets a work array for the calling thread, reused between calls unless it is very large. The
+   * contents are undefined.
+   *
+   * @param length minimum length
+   * @return the array
+   */
+  public static double[] workspace(int length) {
+    double[] work = WORKSPACE.get();
+    if (work == null || work.length < length) {
+      work = new double[length];
+      if (length <= MAX_WORKSPACE) {
+        WORKSPACE.set(work);
+      }
+    }
+    return work;
+  }
+
+  /**
+   * The parameters which determine a Butterworth design.
+   */
+  private static final class Design {
+    private final Butterworth.FilterType type;
+    private final int order;
+    private final double corner1;
+    private final double corner2;
+    private final double samplingRate;
+
+    Design(Butterworth bw) {
+      type = bw.getType();
+      order = bw.getOrder();
+      corner1 = bw.getCorner1();
+      corner2 = bw.getCorner2();
+      samplingRate = bw.getSamplingRate();
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = type == null ? 0 : type.hashCode();
+      hash = hash * 31 + order;
+      hash = hash * 31 + Double.valueOf(corner1).hashCode();
+      hash = hash * 31 + Double.valueOf(corner2).hashCode();
+      return hash * 31 + Double.valueOf(samplingRate).hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Design)) {
+        return false;
+      }
+      Design d = (Design) o;
+      return type == d.type && order == d.order && Double.compare(corner1, d.corner1) == 0
+          && Double.compare(corner2, d.corner2) == 0
+          && Double.compare(samplingRate, d.samplingRate) == 0;
+    }
+  }
+}
@@ -1,7 +1,5 @@
 package gov.usgs.volcanoes.core.math;
 
-import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
-
 public class Spectra {
 
   private final int nfft; // FFT length
@@ -12,34 +10,15 @@ public class Spectra {
   public final int length;
 
   public Spectra(double[] signal, double sr, int nf) {
+    this(sr, nf, amplitude(signal, nf));
+  }
+
+  private Spectra(double sr, int nf, double[] p) {
 
     samplingRate = sr;
     nfft = nf;
-
-    double[] transform = new double[nfft];
-    System.arraycopy(signal, 0, transform, 0, Math.min(transform.length, signal.length));
-    DoubleFFT_1D FFT = new DoubleFFT_1D(nfft);
-    FFT.realForward(transform);
-
-    boolean odd = nfft % 2 != 0;
-
-    if (odd)
-      length = (nfft + 1) / 2;
-    else
-      length = nfft / 2 + 1;
-
-    power = new double[length];
-    power[0] = Math.abs(transform[0]);
-
-    for (int i = 2; i < nfft - 1; i += 2) {
-      power[i / 2] = Math.sqrt(transform[i] * transform[i] + transform[i + 1] * transform[i + 1]);
-    }
-    if (odd && length > 1) {
-      power[length - 1] =
-          Math.sqrt(transform[1] * transform[1] + transform[nfft - 1] * transform[nfft - 1]);
-    } else {
-      power[length - 1] = Math.abs(transform[1]);
-    }
+    length = p.length;
+    power = p;
 
     frequency = new double[length];
     double delta = samplingRate / nfft;
@@ -48,6 +27,39 @@ public class Spectra {
 
   }
 
+  /**
+   * Wraps an estimate computed elsewhere, such as a power spectral density, so that it can be
+   * queried and plotted like a single spectrum.
+   * 
+   * @param power one value for each of the <code>nfft / 2 + 1</code> frequencies from zero to
+   *     Nyquist
+   * @param sr sampling rate
+   * @param nf FFT length from which the estimate was made
+   * @return the spectra
+   */
+  public static Spectra fromPower(double[] power, double sr, int nf) {
+    if (power.length != FftPlan.spectrumLength(nf)) {
+      throw new IllegalArgumentException(
+          "Expected " + FftPlan.spectrumLength(nf) + " values, not " + power.length);
+    }
+    return new Spectra(sr, nf, power.clone());
+  }
+
+  private static double[] amplitude(double[] signal, int nfft) {
+    int length = FftPlan.spectrumLength(nfft);
+    double[] transform = new double[2 * length];
+    System.arraycopy(signal, 0, transform, 0, Math.min(nfft, signal.length));
+    Fft.plan(nfft).realForward(transform, 0, transform, 0);
+
+    double[] amplitude = new double[length];
+    for (int i = 0; i < length; i++) {
+      double re = transform[2 * i];
+      double im = transform[2 * i + 1];
+      amplitude[i] = Math.sqrt(re * re + im * im);
+    }
+    return amplitude;
+  }
+
   /**
    * Returns the minimum value of the "power" array.
    */
@@ -149,4 +149,191 @@ public class Util {
     return window;
   }
 
+  /** Computes a symmetric Hann window.
+   * @param windowLength length of the window
+   * @return the window
+   */
+  public static double[] hann(int windowLength) {
+    return cosineWindow(windowLength, 0.5);
+  }
+
+  /** Computes a symmetric Hamming window.
+   * @param windowLength length of the window
+   * @return the window
+   */
+  public static double[] hamming(int windowLength) {
+    return cosineWindow(windowLength, 0.54);
+  }
+
+  private static double[] cosineWindow(int windowLength, double a0) {
+    double[] window = new double[windowLength];
+    if (windowLength == 1) {
+      window[0] = 1;
+      return window;
+    }
+    for (int i = 0; i < windowLength; i++) {
+      window[i] = a0 - (1 - a0) * Math.cos(2 * Math.PI * i / (windowLength - 1));
+    }
+    return window;
+  }
+
+  /** Computes discrete prolate spheroidal sequences, the Slepian tapers used
+   * by multitaper spectral estimates. Each is an eigenvector of the
+   * tridiagonal matrix of Slepian (1978), found by bisection on its Sturm
+   * sequence and then inverse iteration, so that long tapers cost O(n) each.
+   * Tapers have unit energy, and follow the sign convention of Percival and
+   * Walden (1993): symmetric tapers sum to a positive value and antisymmetric
+   * ones start positive.
+   * @param windowLength length of each taper
+   * @param nw time-halfbandwidth product, usually from 2 to 4
+   * @param count number of tapers, usually no more than 2 * nw - 1
+   * @return the tapers, in order of decreasing concentration
+   */
+  public static double[][] dpss(int windowLength, double nw, int count) {
+    int n = windowLength;
+    double w = nw / n;
+    double[] diag = new double[n];
+    double[] off = new double[n];
+    for (int i = 0; i < n; i++) {
+      diag[i] = Math.pow((n - 1 - 2 * i) / 2.0, 2) * Math.cos(2 * Math.PI * w);
+      off[i] = i * (double) (n - i) / 2;
+    }
+
+    // Gershgorin bounds on the eigenvalues
+    double lo = Double.MAX_VALUE;
+    double hi = -Double.MAX_VALUE;
+    for (int i = 0; i < n; i++) {
+      double r = off[i] + (i + 1 < n ? off[i + 1] : 0);
+      lo = Math.min(lo, diag[i] - r);
+      hi = Math.max(hi, diag[i] + r);
+    }
+    double tiny = Math.ulp(Math.max(Math.abs(lo), Math.abs(hi))) * n;
+
+    double[][] tapers = new double[count][n];
+    for (int k = 0; k < count; k++) {
+      // the (n - 1 - k)th smallest eigenvalue
+      double a = lo;
+      double b = hi;
+      for (int iter = 0; iter < 200 && b - a > tiny; iter++) {
+        double mid = (a + b) / 2;
+        if (sturmCount(diag, off, mid) > n - 1 - k) {
+          b = mid;
+        } else {
+          a = mid;
+        }
+      }
+      double lambda = (a + b) / 2;
+
+      double[] v = tapers[k];
+      for (int i = 0; i < n; i++) {
+        v[i] = Math.sin(Math.PI * (k + 1) * (i + 1) / (n + 1));
+      }
+      for (int iter = 0; iter < 4; iter++) {
+        solveShifted(diag, off, lambda, tiny, v);
+        for (int j = 0; j < k; j++) {
+          double dot = 0;
+          for (int i = 0; i < n; i++) {
+            dot += v[i] * tapers[j][i];
+          }
+          for (int i = 0; i < n; i++) {
+            v[i] -= dot * tapers[j][i];
+          }
+        }
+        double norm = 0;
+        for (int i = 0; i < n; i++) {
+          norm += v[i] * v[i];
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < n; i++) {
+          v[i] /= norm;
+        }
+      }
+
+      double sign = 0;
+      for (int i = 0; i < n; i++) {
+        sign += k % 2 == 0 ? v[i] : (n - 1 - 2 * i) * v[i];
+      }
+      if (sign < 0) {
+        for (int i = 0; i < n; i++) {
+          v[i] = -v[i];
+        }
+      }
+    }
+    return tapers;
+  }
+
+  /**
+   * Counts the eigenvalues of a symmetric tridiagonal matrix less than x.
+   */
+  private static int sturmCount(double[] diag, double[] off, double x) {
+    int count = 0;
+    double q = 1;
+    for (int i = 0; i < diag.length; i++) {
+      q = diag[i] - x - (i == 0 ? 0 : off[i] * off[i] / q);
+      if (q == 0) {
+        q = Double.MIN_NORMAL;
+      }
+      if (q < 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Solves (T - lambda I) y = v in place for a symmetric tridiagonal T, by
+   * Gaussian elimination with partial pivoting. Pivots which vanish, as they
+   * may since lambda is an eigenvalue, are replaced by tiny.
+   */
+  private static void solveShifted(double[] diag, double[] off, double lambda, double tiny,
+      double[] v) {
+    int n = diag.length;
+    double[] d = new double[n];
+    double[] du = new double[n];
+    double[] du2 = new double[n];
+    double[] dl = new double[n];
+    for (int i = 0; i < n; i++) {
+      d[i] = diag[i] - lambda;
+      if (i + 1 < n) {
+        du[i] = off[i + 1];
+        dl[i] = off[i + 1];
+      }
+    }
+
+    for (int i = 0; i < n - 1; i++) {
+      if (Math.abs(d[i]) >= Math.abs(dl[i])) {
+        if (d[i] == 0) {
+          d[i] = tiny;
+        }
+        double fact = dl[i] / d[i];
+        d[i + 1] -= fact * du[i];
+        v[i + 1] -= fact * v[i];
+      } else {
+        double fact = d[i] / dl[i];
+        d[i] = dl[i];
+        double temp = d[i + 1];
+        d[i + 1] = du[i] - fact * temp;
+        if (i + 2 < n) {
+          du2[i] = du[i + 1];
+          du[i + 1] = -fact * du2[i];
+        }
+        du[i] = temp;
+        temp = v[i];
+        v[i] = v[i + 1];
+        v[i + 1] = temp - fact * v[i + 1];
+      }
+    }
+    if (d[n - 1] == 0) {
+      d[n - 1] = tiny;
+    }
+
+    v[n - 1] /= d[n - 1];
+    if (n > 1) {
+      v[n - 2] = (v[n - 2] - du[n - 2] * v[n - 1]) / d[n - 2];
+    }
+    for (int i = n - 3; i >= 0; i--) {
+      v[i] = (v[i] - du[i] * v[i + 1] - du2[i] * v[i + 2]) / d[i];
+    }
+  }
+
 }
@@ -0,0 +1,161 @@
+package gov.usgs.volcanoes.core.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Split work on a range of indices between tasks on the common fork/join pool.
+ *
+ * <p>A caller which is interrupted while waiting gets a <code>CancellationException</code>, with
+ * its interrupt status still set, rather than results some of which were never computed.
+ */
+public final class Parallel {
+
+  private Parallel() {}
+
+  /**
+   * Work on a range of indices.
+   *
+   * @param <T> result of one range
+   */
+  public interface Range<T> {
+    /**
+     * Do the work for some indices.
+     *
+     * @param from first index
+     * @param to index after the last
+     * @return the result for these indices
+     */
+    T run(int from, int to);
+  }
+
+  /**
+   * Choose a number of tasks: four per processor, but none smaller than a minimum.
+   *
+   * @param work total work, in any unit
+   * @param minWork least work worth a task of its own, in the same unit
+   * @return number of tasks, 1 or less when the work should not be split
+   */
+  public static int tasks(long work, long minWork) {
+    return (int) Math.min(Runtime.getRuntime().availableProcessors() * 4L, work / minWork);
+  }
+
+  /**
+   * Run a range of indices as consecutive pieces. With one task or fewer, or fewer than two
+   * indices, the whole range runs on the calling thread.
+   *
+   * @param <T> result of one piece
+   * @param from first index
+   * @param to index after the last
+   * @param tasks number of pieces
+   * @param range the work
+   * @return the result of each piece, in order of index
+   * @throws CancellationException if interrupted while waiting for the pieces
+   */
+  public static <T> List<T> split(int from, int to, int tasks, final Range<T> range) {
+    int count = to - from;
+    tasks = Math.min(tasks, count);
+    if (tasks <= 1) {
+      return Collections.singletonList(range.run(from, to));
+    }
+
+    int chunk = (count + tasks - 1) / tasks;
+    List<Callable<T>> work = new ArrayList<Callable<T>>(tasks);
+    for (int i = from; i < to; i += chunk) {
+      final int first = i;
+      final int last = Math.min(to, i + chunk);
+      work.add(new Callable<T>() {
+        @Override
+        public T call() {
+          return range.run(first, last);
+        }
+      });
+    }
+    return invokeAll(work);
+  }
+
+  /**
+   * Run tasks on the common fork/join pool and wait for all of them. An unchecked exception thrown
+   * by a task is rethrown as it was; a checked one is wrapped in a <code>RuntimeException</code>.
+   * Either way, and on interrupt, tasks not yet finished are cancelled.
+   *
+   * @param <T> result of one task
+   * @param work the tasks
+   * @return the result of each task, in order
+   * @throws CancellationException if interrupted before or while waiting for the tasks
+   */
+  public static <T> List<T> invokeAll(List<? extends Callable<T>> work) {
+    List<Task<T>> tasks = new ArrayList<Task<T>>(work.size());
+    List<Future<T>> futures = new ArrayList<Future<T>>(work.size());
+    List<T> results = new ArrayList<T>(work.size());
+    try {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      // submitted one by one, as the pool's own invokeAll() does not stop for an interrupt
+      for (Callable<T> callable : work) {
+        Task<T> task = new Task<T>(callable);
+        tasks.add(task);
+        futures.add(ForkJoinPool.commonPool().submit(task));
+      }
+      for (Future<T> f : futures) {
+        results.add(f.get());
+      }
+    } catch (InterruptedException e) {
+      cancel(futures);
+      Thread.currentThread().interrupt();
+      CancellationException cancelled = new CancellationException("Interrupted");
+      cancelled.initCause(e);
+      throw cancelled;
+    } catch (ExecutionException e) {
+      cancel(futures);
+      // the pool may report a copy of the exception, so throw the task's own
+      Throwable cause = tasks.get(results.size()).failure;
+      if (cause == null) {
+        cause = e.getCause();
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+    return results;
+  }
+
+  private static <T> void cancel(List<Future<T>> futures) {
+    for (Future<T> f : futures) {
+      f.cancel(true);
+    }
+  }
+
+  /**
+   * A task which remembers what it threw.
+   */
+  private static final class Task<T> implements Callable<T> {
+    private final Callable<T> callable;
+    private volatile Throwable failure;
+
+    Task(Callable<T> callable) {
+      this.callable = callable;
+    }
+
+    @Override
+    public T call() throws Exception {
+      try {
+        return callable.call();
+      } catch (Throwable t) {
+        failure = t;
+        throw t;
+      }
+    }
+  }
+}
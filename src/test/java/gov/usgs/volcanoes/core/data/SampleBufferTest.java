@@ -0,0 +1,183 @@
+package gov.usgs.volcanoes.core.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SampleBufferTest {
+
+  private static final double DELTA = 1E-9;
+
+  /**
+   *
+   */
+  @Test
+  public void when_intNoData_then_readAsNaN() {
+    SampleBuffer b = SampleBuffer.wrap(new int[] {1, Wave.NO_DATA, 3});
+
+    assertEquals(SampleBuffer.Type.INT, b.getType());
+    assertEquals(1, b.get(0), DELTA);
+    assertTrue(Double.isNaN(b.get(1)));
+    assertTrue(b.isNoData(1));
+    assertFalse(b.isNoData(2));
+    assertEquals(2, b.mean(0, 3), DELTA);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_setIntFromDouble_then_rounded() {
+    int[] samples = new int[3];
+    SampleBuffer b = SampleBuffer.wrap(samples);
+    b.set(0, 1.6);
+    b.set(1, -2.5);
+    b.set(2, Double.NaN);
+
+    assertArrayEquals(new int[] {2, -2, Wave.NO_DATA}, samples);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_converted_then_valuesKept() {
+    SampleBuffer b = SampleBuffer.wrap(new double[] {1.25, Double.NaN, -3.5});
+
+    assertSame(b, b.convert(SampleBuffer.Type.DOUBLE));
+
+    SampleBuffer f = b.convert(SampleBuffer.Type.FLOAT);
+    assertEquals(SampleBuffer.Type.FLOAT, f.getType());
+    assertEquals(1.25, f.get(0), DELTA);
+    assertTrue(f.isNoData(1));
+
+    assertArrayEquals(new int[] {1, Wave.NO_DATA, -3}, b.toInts());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_copied_then_independent() {
+    float[] samples = {1, 2, 3, 4};
+    SampleBuffer b = SampleBuffer.wrap(samples);
+    SampleBuffer copy = b.copyOfRange(1, 3);
+    samples[1] = 20;
+
+    assertEquals(2, copy.length());
+    assertEquals(2, copy.get(0), DELTA);
+
+    double[] dst = new double[3];
+    b.copyTo(2, dst, 1, 2);
+    assertArrayEquals(new double[] {0, 3, 4}, dst, DELTA);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_floatWave_then_samplesNotRounded() {
+    Wave wave = new Wave(new float[] {0.25f, 0.5f, Float.NaN, 1.25f}, 0, 1);
+
+    assertTrue(wave.isFloatingPoint());
+    // buffer keeps a rounded copy for callers reading it directly
+    assertArrayEquals(new int[] {0, 1, Wave.NO_DATA, 1}, wave.buffer);
+    assertEquals(4, wave.numSamples());
+    assertEquals(32, wave.getMemorySize());
+    assertEquals(2 / 3.0, wave.mean(), DELTA);
+    assertTrue(wave.isData());
+
+    Wave half = wave.subset(1, 3);
+    assertTrue(half.isFloatingPoint());
+    assertEquals(0.5, half.getSamples().get(0), DELTA);
+    assertArrayEquals(new int[] {1, Wave.NO_DATA}, half.buffer);
+
+    wave.subtract(1);
+    assertArrayEquals(new int[] {-1, 0, Wave.NO_DATA, 0}, wave.buffer);
+    wave.trunc(2);
+    assertArrayEquals(new int[] {-1, 0}, new Wave(wave).buffer);
+    wave = new Wave(new float[] {0.25f, 0.5f, Float.NaN, 1.25f}, 0, 1);
+
+    wave.setSampleType(SampleBuffer.Type.INT);
+    assertFalse(wave.isFloatingPoint());
+    assertArrayEquals(new int[] {0, 1, Wave.NO_DATA, 1}, wave.buffer);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_integratedInPlace_then_matchesIntegrate() {
+    int[] samples = {3, -1, 4, 1, -5, 9, 2, -6};
+    Wave wave = new Wave(samples, 0, 2);
+    double[] expected = wave.integrate();
+
+    wave.integrateInPlace();
+    assertTrue(wave.isFloatingPoint());
+    assertArrayEquals(expected, ((SampleBuffer.Doubles) wave.getSamples()).array(), DELTA);
+
+    Wave debiased = new Wave(new int[] {1, 2, 3, 6}, 0, 1);
+    expected = debiased.removeMean();
+    debiased.removeMeanInPlace();
+    assertArrayEquals(expected, ((SampleBuffer.Doubles) debiased.getSamples()).array(), DELTA);
+    assertEquals(0, debiased.mean(), DELTA);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_sliceOfFloatWave_then_signalUnrounded() {
+    Wave wave = new Wave(new double[] {0.5, Double.NaN, 0.5, 0.5}, 0, 1);
+    SliceWave slice = new SliceWave(wave);
+
+    assertEquals(0.5, slice.mean(), DELTA);
+    assertEquals(0.5, slice.max(), DELTA);
+
+    slice.reset();
+    assertEquals(0.5, slice.next(), DELTA);
+    assertEquals(Wave.NO_DATA, slice.next(), DELTA);
+
+    double[] signal = slice.getSignal(new double[4]);
+    assertEquals(0, signal[1], DELTA);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_floatWaveAddedToSegmentedWave_then_rounded() {
+    Wave wave = new Wave(new float[] {1.4f, 2.6f}, 0, 1);
+    SegmentedWave sw = new SegmentedWave(wave);
+
+    assertEquals(1, sw.getSample(0));
+    assertEquals(3, sw.getSample(1));
+    assertTrue(wave.isFloatingPoint());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_rampDetrended_then_zero() {
+    double[] ramp = new double[10];
+    int[] intRamp = new int[10];
+    for (int i = 0; i < ramp.length; i++) {
+      ramp[i] = 3 + 2.5 * i;
+      intRamp[i] = 30 + 20 * i;
+    }
+
+    Wave wave = new Wave(ramp, 0, 1);
+    wave.detrend();
+    assertArrayEquals(new double[10], ((SampleBuffer.Doubles) wave.getSamples()).array(), DELTA);
+    assertArrayEquals(new int[10], wave.buffer);
+
+    Wave ints = new Wave(intRamp, 0, 1);
+    ints.detrend();
+    assertArrayEquals(new int[10], ints.buffer);
+  }
+}
@@ -0,0 +1,99 @@
+package gov.usgs.volcanoes.core.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SegmentedWaveTest {
+
+  private static final double DELTA = 1E-9;
+
+  private static Wave wave(double start, int... samples) {
+    return new Wave(samples, start, 1);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_abuttingSegmentsAdded_then_coalesced() {
+    SegmentedWave sw = new SegmentedWave();
+    sw.add(wave(3, 4, 5, 6));
+    sw.add(wave(0, 1, 2, 3));
+    sw.add(wave(10, 11, 12));
+
+    assertEquals(2, sw.numSegments());
+    assertEquals(0, sw.getStartTime(), DELTA);
+    assertEquals(12, sw.getEndTime(), DELTA);
+    assertEquals(12, sw.numSamples());
+    assertEquals(8, sw.numStoredSamples());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_materialized_then_matchJoin() {
+    List<Wave> waves = new ArrayList<Wave>();
+    waves.add(wave(0, 1, 2, 3));
+    waves.add(wave(6, 7, 8));
+    SegmentedWave sw = new SegmentedWave(waves);
+
+    int[] expected = new int[] {1, 2, 3, Wave.NO_DATA, Wave.NO_DATA, Wave.NO_DATA, 7, 8};
+    assertArrayEquals(expected, sw.toWave().buffer);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], sw.getSample(i));
+    }
+
+    WaveStatistics stats = sw.getStatistics();
+    assertEquals(3, stats.noDataCount());
+    assertEquals(21.0 / 5, stats.mean(), DELTA);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_subsetInGap_then_empty() {
+    SegmentedWave sw = new SegmentedWave();
+    sw.add(wave(0, 1, 2, 3));
+    sw.add(wave(100, 7, 8));
+
+    assertFalse(sw.overlaps(10, 90));
+    assertTrue(sw.overlaps(2, 90));
+    assertTrue(sw.subset(10, 90).isEmpty());
+
+    SegmentedWave sub = sw.subset(1, 101);
+    assertEquals(2, sub.numSegments());
+    assertEquals(1, sub.getStartTime(), DELTA);
+    assertEquals(3, sub.numStoredSamples());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_samplingRateDiffers_then_rejected() {
+    SegmentedWave sw = new SegmentedWave(wave(0, 1, 2, 3));
+    assertFalse(sw.add(new Wave(new int[] {1}, 10, 2)));
+    assertEquals(1, sw.numSegments());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_oneSegmentMaterialized_then_copyReturned() {
+    SegmentedWave sw = new SegmentedWave(wave(0, 1, 2, 3));
+    Wave wave = sw.toWave();
+    wave.buffer[0] = 100;
+    assertEquals(1, sw.getSample(0));
+    assertArrayEquals(new int[] {1, 2, 3}, sw.toWave().buffer);
+  }
+}
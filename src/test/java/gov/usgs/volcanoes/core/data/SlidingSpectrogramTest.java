@@ -0,0 +1,126 @@
+package gov.usgs.volcanoes.core.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SlidingSpectrogramTest {
+
+  private static final int NFFT = 64;
+  private static final int BIN_SIZE = 64;
+  private static final int OVERLAP = 48;
+
+  private static int[] noise(int n) {
+    Random random = new Random(1);
+    int[] samples = new int[n];
+    for (int i = 0; i < n; i++) {
+      samples[i] = random.nextInt(2000) - 1000;
+    }
+    return samples;
+  }
+
+  private static void assertColumn(float[] expected, float[] actual, double relative) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], actual[i], Math.abs(expected[i]) * relative);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_chunked_then_matchesWhole() {
+    int[] samples = noise(3000);
+    SlidingSpectrogram whole = new SlidingSpectrogram(NFFT, BIN_SIZE, OVERLAP, 5, 100);
+    int columns = whole.add(new Wave(samples, 10, 100));
+    // the first column starts at sample 1008, the first multiple of the step
+    assertEquals((4000 - 1008 - BIN_SIZE) / 16 + 1, columns);
+
+    SlidingSpectrogram chunked = new SlidingSpectrogram(NFFT, BIN_SIZE, OVERLAP, 5, 100);
+    int total = 0;
+    for (int i = 0; i < samples.length; i += 37) {
+      int n = Math.min(37, samples.length - i);
+      total += chunked.add(new Wave(Arrays.copyOfRange(samples, i, i + n), 10 + i / 100.0, 100));
+    }
+    assertEquals(columns, total);
+    assertEquals(whole.getLatestColumn(), chunked.getLatestColumn());
+
+    float[] a = new float[whole.getNFrequencyBins()];
+    float[] b = new float[whole.getNFrequencyBins()];
+    for (long k = 63; k <= whole.getLatestColumn(); k++) {
+      assertTrue(whole.getColumn(k, a));
+      assertTrue(chunked.getColumn(k, b));
+      assertColumn(a, b, 0);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_columnComputed_then_matchesSpectrogramOfDemeanedBin() {
+    int[] samples = noise(BIN_SIZE);
+    SlidingSpectrogram sliding = new SlidingSpectrogram(NFFT, BIN_SIZE, OVERLAP, 5, 100);
+    assertEquals(1, sliding.add(new Wave(samples, 0, 100)));
+
+    double mean = 0;
+    for (int v : samples) {
+      mean += v;
+    }
+    mean /= samples.length;
+    double[] signal = new double[samples.length];
+    for (int i = 0; i < signal.length; i++) {
+      signal[i] = samples[i] - mean;
+    }
+    float[] expected = new Spectrogram(signal, 100, NFFT, BIN_SIZE, OVERLAP, 5).getSpectra();
+
+    float[] column = new float[sliding.getNFrequencyBins()];
+    assertTrue(sliding.getColumn(0, column));
+    assertColumn(expected, column, 1E-5);
+    assertEquals(0.32, sliding.getColumnTime(0), 1E-9);
+    assertEquals(0, sliding.columnAt(0.32));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_gapOrNoData_then_columnsMissing() {
+    SlidingSpectrogram sliding = new SlidingSpectrogram(NFFT, BIN_SIZE, OVERLAP, 5, 100);
+    sliding.add(new Wave(noise(200), 0, 100));
+    long before = sliding.getLatestColumn();
+    int[] samples = noise(200);
+    samples[100] = Wave.NO_DATA;
+    sliding.add(new Wave(samples, 3, 100));
+
+    float[] column = new float[sliding.getNFrequencyBins()];
+    // columns spanning the gap between 2 s and 3 s
+    assertFalse(sliding.getColumn(before + 1, column));
+    // a column after the gap, and one covering the NO_DATA sample at 4 s
+    assertTrue(sliding.getColumn(300 / 16 + 1, column));
+    assertFalse(sliding.getColumn(400 / 16 - 1, column));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_durationPassed_then_oldColumnsEvicted() {
+    SlidingSpectrogram sliding = new SlidingSpectrogram(NFFT, BIN_SIZE, OVERLAP, 5, 10);
+    sliding.add(new Wave(noise(5000), 0, 100));
+    float[] column = new float[sliding.getNFrequencyBins()];
+    long latest = sliding.getLatestColumn();
+    assertTrue(sliding.getColumn(latest - 10 * 100 / 16, column));
+    assertFalse(sliding.getColumn(0, column));
+
+    // data older than the ring holds is ignored
+    assertEquals(0, sliding.add(new Wave(noise(500), -100, 100)));
+    assertTrue(sliding.getColumn(latest, column));
+  }
+}
@@ -0,0 +1,165 @@
+package gov.usgs.volcanoes.core.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gov.usgs.volcanoes.core.math.Spectra;
+import gov.usgs.volcanoes.core.math.Util;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+public class SpectralDensityTest {
+
+  private static final double SAMPLING_RATE = 100;
+
+  private static int[] noise(Random random, int n, double sigma) {
+    int[] samples = new int[n];
+    for (int i = 0; i < n; i++) {
+      samples[i] = (int) Math.round(random.nextGaussian() * sigma);
+    }
+    return samples;
+  }
+
+  private static double variance(int[] samples) {
+    double mean = 0;
+    for (int s : samples) {
+      mean += s;
+    }
+    mean /= samples.length;
+    double variance = 0;
+    for (int s : samples) {
+      variance += (s - mean) * (s - mean);
+    }
+    return variance / samples.length;
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_whiteNoise_then_levelMatchesVariance() {
+    int[] samples = noise(new Random(1), 200000, 100);
+    double variance = variance(samples);
+
+    SpectralDensity welch = new SpectralDensity(1000, 500, Util.hann(1000));
+    assertEquals(399, welch.add(new Wave(samples, 0, SAMPLING_RATE)));
+    Spectra spectra = welch.getSpectra();
+    double[] psd = spectra.getPower();
+
+    // integrating over frequency gives the variance
+    double df = SAMPLING_RATE / spectra.getNfft();
+    double total = 0;
+    for (double p : psd) {
+      total += p * df;
+    }
+    assertEquals(variance, total, variance * 0.02);
+    assertEquals(2 * variance / SAMPLING_RATE, psd[123], 2 * variance / SAMPLING_RATE * 0.3);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_addedInChunks_then_matchesWhole() {
+    Random random = new Random(2);
+    int[] samples = noise(random, 50000, 10);
+    SpectralDensity whole = SpectralDensity.multitaper(512, 128, 3, 5);
+    whole.add(new Wave(samples, 10, SAMPLING_RATE));
+
+    SpectralDensity chunked = SpectralDensity.multitaper(512, 128, 3, 5);
+    int i = 0;
+    while (i < samples.length) {
+      int n = Math.min(1 + random.nextInt(1500), samples.length - i);
+      chunked.add(new Wave(Arrays.copyOfRange(samples, i, i + n), 10 + i / SAMPLING_RATE,
+          SAMPLING_RATE));
+      // resend part of the chunk, as an overlapping packet would
+      int back = random.nextInt(n);
+      chunked.add(new Wave(Arrays.copyOfRange(samples, i + back, i + n),
+          10 + (i + back) / SAMPLING_RATE, SAMPLING_RATE));
+      i += n;
+    }
+
+    assertEquals((50000 - 512) / 384 + 1, whole.getSegmentCount());
+    assertEquals(whole.getSegmentCount(), chunked.getSegmentCount());
+    double[] expected = whole.getSpectra().getPower();
+    double[] actual = chunked.getSpectra().getPower();
+    for (int j = 0; j < expected.length; j++) {
+      assertEquals(expected[j], actual[j], expected[j] * 1E-9);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_gapsAndNoData_then_segmentsSkipped() {
+    int[] samples = noise(new Random(3), 10000, 10);
+    samples[5000] = Wave.NO_DATA;
+    SpectralDensity welch = new SpectralDensity(1000, 0, Util.hamming(1000));
+
+    // segments 0-4 and 6-9 of the first wave, then a second wave 10.5 s after the first ends
+    assertEquals(9, welch.add(new Wave(samples, 0, SAMPLING_RATE)));
+    assertEquals(1, welch.add(new Wave(Arrays.copyOf(samples, 1500), 110.5, SAMPLING_RATE)));
+    assertEquals(10, welch.getSegmentCount());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_sinusoid_then_peakAtItsFrequency() {
+    int n = 60000;
+    Random random = new Random(4);
+    int[] samples = new int[n];
+    for (int i = 0; i < n; i++) {
+      samples[i] = (int) Math.round(
+          1000 * Math.sin(2 * Math.PI * 12.5 * i / SAMPLING_RATE) + random.nextGaussian() * 10);
+    }
+    SpectralDensity mt = SpectralDensity.multitaper(800, 400, 4, 7);
+    mt.add(new Wave(samples, 0, SAMPLING_RATE));
+    Spectra spectra = mt.getSpectra();
+    double[] psd = spectra.getPower();
+
+    int peak = 0;
+    for (int j = 1; j < psd.length; j++) {
+      if (psd[j] > psd[peak]) {
+        peak = j;
+      }
+    }
+    assertEquals(12.5, spectra.getFrequency()[peak], 0);
+
+    // the sinusoid's power, 1000^2 / 2, lies within the taper bandwidth of the peak
+    double df = SAMPLING_RATE / 800;
+    double band = 0;
+    for (int j = peak - 4; j <= peak + 4; j++) {
+      band += psd[j] * df;
+    }
+    assertEquals(500000, band, 500000 * 0.01);
+    assertEquals(2 * 100 / SAMPLING_RATE, psd[peak + 100], 2 * 100 / SAMPLING_RATE * 0.3);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_interrupted_then_estimateUnchanged() {
+    int[] samples = noise(new Random(5), 200000, 10);
+    SpectralDensity mt = SpectralDensity.multitaper(1000, 500, 3, 5);
+    Thread.currentThread().interrupt();
+    try {
+      mt.add(new Wave(samples, 0, SAMPLING_RATE));
+      fail();
+    } catch (CancellationException e) {
+      assertTrue(Thread.interrupted());
+    }
+    assertEquals(0, mt.getSegmentCount());
+
+    // the same wave may be added again
+    assertEquals(399, mt.add(new Wave(samples, 0, SAMPLING_RATE)));
+  }
+}
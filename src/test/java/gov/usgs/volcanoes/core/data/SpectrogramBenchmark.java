@@ -0,0 +1,110 @@
+package gov.usgs.volcanoes.core.data;
+
+import gov.usgs.volcanoes.core.math.Util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+
+/**
+ * Compare the tiled, plan-cached spectrogram to the column by column computation previously used
+ * by <code>Spectrogram</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class SpectrogramBenchmark {
+
+  @Param({"256", "1024"})
+  private int nfft;
+
+  @Param({"60000", "360000"})
+  private int samples;
+
+  private double[] signal;
+  private int overlap;
+
+  /**
+   * Create a synthetic signal.
+   */
+  @Setup
+  public void setup() {
+    Random random = new Random(1);
+    signal = new double[samples];
+    for (int i = 0; i < samples; i++) {
+      signal[i] = random.nextGaussian() * 1000;
+    }
+    overlap = (int) (nfft * 0.86);
+  }
+
+  /**
+   * Compute as Spectrogram did before, with a new FFT for every column and amplitudes written a
+   * column at a time into a jagged array.
+   *
+   * @return one of the amplitudes
+   */
+  @Benchmark
+  public double legacy() {
+    int nRows = nfft / 2 + 1;
+    int nColumns = (signal.length - overlap) / (nfft - overlap);
+    double[] window = Util.kaiser(nfft, Spectrogram.DEFAULT_BETA);
+    double[][] specAmp = new double[nRows][nColumns];
+    double[] bin = new double[nfft];
+    int c = 0;
+    for (int i = 0; i < nColumns; i++) {
+      for (int j = 0; j < nfft; j++) {
+        bin[j] = signal[c] * window[j];
+        c++;
+      }
+      c = c - overlap;
+      DoubleFFT_1D transform = new DoubleFFT_1D(nfft);
+      transform.realForward(bin);
+      specAmp[0][i] = Math.abs(bin[0]);
+      specAmp[nfft / 2][i] = Math.abs(bin[1]);
+      for (int j = 2; j < nfft; j = j + 2) {
+        specAmp[j / 2][i] = Math.sqrt(bin[j] * bin[j] + bin[j + 1] * bin[j + 1]);
+        bin[j] = 0;
+        bin[j + 1] = 0;
+      }
+    }
+    return specAmp[1][nColumns - 1];
+  }
+
+  /**
+   * Compute with Spectrogram.
+   *
+   * @return one of the amplitudes
+   */
+  @Benchmark
+  public double spectrogram() {
+    Spectrogram spectrogram =
+        new Spectrogram(signal, 100, nfft, nfft, overlap, Spectrogram.DEFAULT_BETA);
+    return spectrogram.getSpectra()[spectrogram.getNTimeBins() * 2 - 1];
+  }
+
+  /**
+   * Run benchmark from the command line.
+   *
+   * @param args ignored
+   * @throws RunnerException when things go wrong
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(SpectrogramBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
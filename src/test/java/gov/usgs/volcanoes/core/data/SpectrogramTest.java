@@ -0,0 +1,100 @@
+package gov.usgs.volcanoes.core.data;
+
+import static org.junit.Assert.assertEquals;
+
+import gov.usgs.volcanoes.core.math.Util;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+
+public class SpectrogramTest {
+
+  /**
+   * Spectra as computed before amplitudes were kept in a flat array.
+   */
+  private static double[][] legacySpectra(double[] signal, int nfft, int binSize, int overlap,
+      double beta) {
+    int nRows = nfft / 2 + 1;
+    int nColumns = (signal.length - overlap) / (binSize - overlap);
+    double[] window = Util.kaiser(binSize, beta);
+    double[][] specAmp = new double[nRows][nColumns];
+    double[] bin = new double[nfft];
+    int c = 0;
+    for (int i = 0; i < nColumns; i++) {
+      for (int j = 0; j < binSize; j++) {
+        bin[j] = signal[c] * window[j];
+        c++;
+      }
+      c = c - overlap;
+      new DoubleFFT_1D(nfft).realForward(bin);
+      specAmp[0][i] = Math.abs(bin[0]);
+      specAmp[nfft / 2][i] = Math.abs(bin[1]);
+      for (int j = 2; j < nfft; j = j + 2) {
+        specAmp[j / 2][i] = Math.sqrt(bin[j] * bin[j] + bin[j + 1] * bin[j + 1]);
+        bin[j] = 0;
+        bin[j + 1] = 0;
+      }
+    }
+    return specAmp;
+  }
+
+  private static double[] noise(int n) {
+    Random random = new Random(1);
+    double[] signal = new double[n];
+    for (int i = 0; i < n; i++) {
+      signal[i] = random.nextGaussian() * 1000;
+    }
+    return signal;
+  }
+
+  private static void assertSpectra(double[][] expected, Spectrogram spectrogram) {
+    float[] spectra = spectrogram.getSpectra();
+    int columns = spectrogram.getNTimeBins();
+    assertEquals(expected.length, spectrogram.getNFrequencyBins());
+    assertEquals(expected[0].length, columns);
+    for (int i = 0; i < expected.length; i++) {
+      for (int j = 0; j < columns; j++) {
+        double e = expected[i][j];
+        assertEquals(e, spectra[i * columns + j], Math.abs(e) * 1E-6 + 1E-6);
+      }
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_fewColumns_then_matchesLegacy() {
+    double[] signal = noise(2000);
+    Spectrogram spectrogram = new Spectrogram(signal, 100, 128, 100, 60, 5);
+    assertSpectra(legacySpectra(signal, 128, 100, 60, 5), spectrogram);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_manyTiles_then_matchesLegacy() {
+    double[] signal = noise(20000);
+    Spectrogram spectrogram = new Spectrogram(signal, 100, 64, 64, 40, 5);
+    assertSpectra(legacySpectra(signal, 64, 64, 40, 5), spectrogram);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_copied_then_indexedByFrequencyThenTime() {
+    double[] signal = noise(3000);
+    Spectrogram spectrogram = new Spectrogram(signal, 100, 64, 64, 32, 5);
+    double[][] amplitude = spectrogram.getSpectraAmplitude();
+    double[][] log = spectrogram.getLogSpectraAmplitude();
+    float[] spectra = spectrogram.getSpectra();
+    int columns = spectrogram.getNTimeBins();
+    assertEquals(spectra[5 * columns + 7], amplitude[5][7], 0);
+    assertEquals(20 * Math.log10(amplitude[5][7]), log[5][7], 1E-9);
+  }
+}
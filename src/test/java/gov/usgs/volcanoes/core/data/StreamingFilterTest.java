@@ -0,0 +1,139 @@
+package gov.usgs.volcanoes.core.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.volcanoes.core.data.StreamingFilter.GapPolicy;
+import gov.usgs.volcanoes.core.math.Butterworth;
+import gov.usgs.volcanoes.core.math.Butterworth.FilterType;
+import gov.usgs.volcanoes.core.math.SosFilter;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StreamingFilterTest {
+
+  private static final double DELTA = 1E-9;
+
+  private static final Butterworth BANDPASS = new Butterworth(FilterType.BANDPASS, 4, 50, 1, 10);
+
+  private static int[] noise(int n) {
+    Random random = new Random(1);
+    int[] samples = new int[n];
+    for (int i = 0; i < n; i++) {
+      samples[i] = random.nextInt(2000) - 1000;
+    }
+    return samples;
+  }
+
+  private static double[] array(Wave wave) {
+    return ((SampleBuffer.Doubles) wave.getSamples()).array();
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_contiguousChunks_then_matchesWholeBuffer() {
+    int[] samples = noise(1000);
+    double[] expected = new double[samples.length];
+    for (int i = 0; i < samples.length; i++) {
+      expected[i] = samples[i];
+    }
+    Butterworth bw = new Butterworth(BANDPASS);
+    bw.setSamplingRate(100);
+    SosFilter.forButterworth(bw).filter(expected, 0, expected.length);
+
+    StreamingFilter filter = new StreamingFilter(BANDPASS, GapPolicy.RESET);
+    int i = 0;
+    int chunk = 1;
+    while (i < samples.length) {
+      int n = Math.min(chunk, samples.length - i);
+      Wave out = filter.filter(new Wave(Arrays.copyOfRange(samples, i, i + n), i / 100.0, 100));
+      assertEquals(i / 100.0, out.getStartTime(), DELTA);
+      double[] y = array(out);
+      for (int j = 0; j < n; j++) {
+        assertEquals(expected[i + j], y[j], 1E-6);
+      }
+      i += n;
+      chunk = chunk * 2 + 1;
+    }
+    assertEquals(10, filter.getNextTime(), DELTA);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_warmedUp_then_noStepTransient() {
+    int[] samples = new int[200];
+    Arrays.fill(samples, 5000);
+    Butterworth lowpass = new Butterworth(FilterType.LOWPASS, 4, 100, 5, 0);
+
+    StreamingFilter filter = new StreamingFilter(lowpass);
+    double[] y = array(filter.filter(new Wave(samples, 0, 100)));
+    for (double v : y) {
+      assertEquals(5000, v, 1E-6);
+    }
+
+    StreamingFilter cold = new StreamingFilter(lowpass, GapPolicy.RESET);
+    y = array(cold.filter(new Wave(samples, 0, 100)));
+    assertTrue(Math.abs(y[0] - 5000) > 1000);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_overlappingChunk_then_trimmed() {
+    StreamingFilter filter = new StreamingFilter(BANDPASS);
+    filter.filter(new Wave(noise(100), 0, 100));
+
+    assertNull(filter.filter(new Wave(noise(50), 0.2, 100)));
+
+    Wave out = filter.filter(new Wave(noise(100), 0.5, 100));
+    assertEquals(1, out.getStartTime(), DELTA);
+    assertEquals(50, out.numSamples());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_gap_then_restarted() {
+    int[] samples = new int[50];
+    Arrays.fill(samples, 100);
+    Butterworth lowpass = new Butterworth(FilterType.LOWPASS, 2, 100, 5, 0);
+    StreamingFilter filter = new StreamingFilter(lowpass);
+    filter.filter(new Wave(samples, 0, 100));
+
+    Arrays.fill(samples, -300);
+    samples[10] = Wave.NO_DATA;
+    double[] y = array(filter.filter(new Wave(samples, 10, 100)));
+    assertEquals(-300, y[0], 1E-6);
+    assertTrue(Double.isNaN(y[10]));
+    assertEquals(-300, y[11], 1E-6);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_bankFiltersChannels_then_stateKeptPerChannel() {
+    StreamingFilter.Bank bank = new StreamingFilter.Bank(BANDPASS, GapPolicy.RESET);
+    int[] samples = noise(200);
+
+    Wave a1 = bank.filter("A", new Wave(Arrays.copyOfRange(samples, 0, 100), 0, 100));
+    bank.filter("B", new Wave(noise(100), 0, 100));
+    Wave a2 = bank.filter("A", new Wave(Arrays.copyOfRange(samples, 100, 200), 1, 100));
+
+    double[] whole = array(new StreamingFilter(BANDPASS, GapPolicy.RESET)
+        .filter(new Wave(samples, 0, 100)));
+    assertEquals(whole[99], array(a1)[99], DELTA);
+    assertEquals(whole[150], array(a2)[50], 1E-6);
+    assertEquals(2, bank.getChannels().size());
+  }
+}
@@ -0,0 +1,127 @@
+package gov.usgs.volcanoes.core.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class WavePyramidTest {
+
+  private static int[] noise(Random random, int n) {
+    int[] samples = new int[n];
+    for (int i = 0; i < n; i++) {
+      samples[i] = random.nextInt(10) == 0 ? Wave.NO_DATA : random.nextInt(20000) - 10000;
+    }
+    return samples;
+  }
+
+  private static void assertSummaries(Wave wave, Random random) {
+    WavePyramid pyramid = wave.getPyramid();
+    int n = wave.numSamples();
+    for (int k = 0; k < 200; k++) {
+      int from = random.nextInt(n);
+      int to = from + random.nextInt(n - from + 1);
+      WaveStatistics expected = WaveStatistics.compute(wave.buffer, from, to);
+      if (expected.dataCount() == 0) {
+        assertTrue(Double.isNaN(pyramid.min(from, to)));
+        continue;
+      }
+      assertEquals(expected.min(), pyramid.min(from, to), 0);
+      assertEquals(expected.max(), pyramid.max(from, to), 0);
+      assertEquals((double) expected.sum() / expected.dataCount(), pyramid.mean(from, to), 1E-9);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_rangeQueried_then_matchesScan() {
+    Random random = new Random(1);
+    assertSummaries(new Wave(noise(random, 100000), 0, 100), random);
+    assertSummaries(new Wave(noise(random, 70), 0, 100), random);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_combined_then_pyramidFollows() {
+    Random random = new Random(2);
+    Wave wave = new Wave(noise(random, 1000), 0, 100);
+    wave.getPyramid().min(0, 1000);
+
+    // append packets, including one which overlaps the end of the wave
+    for (int i = 0; i < 50; i++) {
+      double start = wave.getEndTime() - (i % 7 == 0 ? 0.5 : 0);
+      wave = wave.combine(new Wave(noise(random, 1 + random.nextInt(3000)), start, 100));
+    }
+    assertTrue(wave.hasPyramid());
+    assertSummaries(wave, random);
+
+    // prepend
+    wave = wave.combine(new Wave(noise(random, 500), wave.getStartTime() - 5, 100));
+    assertSummaries(wave, random);
+
+    wave.trunc(wave.numSamples() / 3);
+    assertSummaries(wave, random);
+
+    wave.buffer[17] = 1000000;
+    wave.invalidateStatistics();
+    assertEquals(1000000, wave.getPyramid().max(0, 100), 0);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_binned_then_matchesSliceScan() {
+    Random random = new Random(3);
+    double[] samples = new double[20000];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = random.nextInt(8) == 0 ? Double.NaN : random.nextGaussian();
+    }
+    Wave wave = new Wave(samples, 1000, 50);
+    SliceWave slice = new SliceWave(wave);
+    slice.setSlice(1010, 1300);
+
+    double[] scanMin = new double[333];
+    double[] scanMax = new double[333];
+    slice.bin(1005.3, 0.9, scanMin, scanMax);
+
+    wave.getPyramid();
+    double[] min = new double[333];
+    double[] max = new double[333];
+    slice.bin(1005.3, 0.9, min, max);
+
+    assertTrue(Arrays.equals(scanMin, min));
+    assertTrue(Arrays.equals(scanMax, max));
+    assertTrue(Double.isNaN(min[0]));
+    assertFalse(Double.isNaN(min[100]));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_sliceHasPyramid_then_statisticsMatch() {
+    Random random = new Random(4);
+    Wave wave = new Wave(noise(random, 50000), 0, 100);
+    SliceWave scanned = new SliceWave(wave);
+    scanned.setSlice(12.34, 345.67);
+    double min = scanned.min();
+    double max = scanned.max();
+    double mean = scanned.mean();
+
+    wave.getPyramid();
+    SliceWave summarized = new SliceWave(wave);
+    summarized.setSlice(12.34, 345.67);
+    assertEquals(min, summarized.min(), 0);
+    assertEquals(max, summarized.max(), 0);
+    assertEquals(mean, summarized.mean(), 1E-9);
+  }
+}
@@ -0,0 +1,108 @@
+package gov.usgs.volcanoes.core.data;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare the single pass statistics kernel to the branchy scan previously used by
+ * <code>Wave</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class WaveStatisticsBenchmark {
+
+  @Param({"6000", "360000"})
+  private int samples;
+
+  @Param({"0", "5"})
+  private int noDataPercent;
+
+  private int[] buffer;
+
+  /**
+   * Create a synthetic buffer.
+   */
+  @Setup
+  public void setup() {
+    Random random = new Random(1);
+    buffer = new int[samples];
+    for (int i = 0; i < samples; i++) {
+      buffer[i] = random.nextInt(20000) - 10000;
+      if (random.nextInt(100) < noDataPercent) {
+        buffer[i] = Wave.NO_DATA;
+      }
+    }
+  }
+
+  /**
+   * Scan as Wave did before WaveStatistics.
+   *
+   * @return mean plus rsam
+   */
+  @Benchmark
+  public double legacyScan() {
+    int noDatas = 0;
+    long sum = 0;
+    long rs = 0;
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    int first = Wave.NO_DATA;
+    boolean firstSet = false;
+    for (int i = 0; i < buffer.length; i++) {
+      int d = buffer[i];
+      if (d != Wave.NO_DATA) {
+        sum += d;
+        rs += Math.abs(d);
+        min = Math.min(min, d);
+        max = Math.max(max, d);
+        if (!firstSet) {
+          first = d;
+          firstSet = true;
+        }
+      } else {
+        noDatas++;
+      }
+    }
+    int[] dataRange = new int[] {min, max};
+    double mean = (double) sum / (double) (buffer.length - noDatas);
+    double rsam = (double) rs / (double) (buffer.length - noDatas);
+    return mean + rsam + dataRange[0] + first;
+  }
+
+  /**
+   * Scan with WaveStatistics.
+   *
+   * @return mean plus rsam
+   */
+  @Benchmark
+  public double statistics() {
+    WaveStatistics stats = WaveStatistics.compute(buffer);
+    return stats.mean() + stats.rsam() + stats.min() + stats.first();
+  }
+
+  /**
+   * Run benchmark from the command line.
+   *
+   * @param args ignored
+   * @throws RunnerException when things go wrong
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(WaveStatisticsBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
@@ -0,0 +1,139 @@
+package gov.usgs.volcanoes.core.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class WaveStatisticsTest {
+
+  private static final double DELTA = 1E-9;
+
+  private static int[] randomBuffer(int length, long seed) {
+    Random random = new Random(seed);
+    int[] buffer = new int[length];
+    for (int i = 0; i < length; i++) {
+      buffer[i] = random.nextInt(2000) - 1000;
+      if (random.nextInt(10) == 0) {
+        buffer[i] = Wave.NO_DATA;
+      }
+    }
+    return buffer;
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_givenMixedBuffer_then_matchSimpleScan() {
+    for (int length = 0; length < 37; length++) {
+      int[] buffer = randomBuffer(length, length);
+      WaveStatistics stats = WaveStatistics.compute(buffer);
+
+      long sum = 0;
+      long abs = 0;
+      int count = 0;
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      int first = Wave.NO_DATA;
+      for (int d : buffer) {
+        if (d == Wave.NO_DATA) {
+          continue;
+        }
+        if (count == 0) {
+          first = d;
+        }
+        count++;
+        sum += d;
+        abs += Math.abs(d);
+        min = Math.min(min, d);
+        max = Math.max(max, d);
+      }
+
+      assertEquals(length, stats.count());
+      assertEquals(count, stats.dataCount());
+      assertEquals(sum, stats.sum());
+      assertEquals(abs, stats.absSum());
+      if (count > 0) {
+        assertEquals(min, stats.min());
+        assertEquals(max, stats.max());
+        assertEquals(first, stats.first());
+      }
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_allNoData_then_meanIsNaN() {
+    int[] buffer = new int[] {Wave.NO_DATA, Wave.NO_DATA, Wave.NO_DATA};
+    WaveStatistics stats = WaveStatistics.compute(buffer);
+
+    assertEquals(3, stats.noDataCount());
+    assertEquals(Double.NaN, stats.mean(), DELTA);
+    assertEquals(Wave.NO_DATA, stats.first());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_appended_then_matchFullScan() {
+    int[] buffer = randomBuffer(1001, 42);
+    WaveStatistics left = WaveStatistics.compute(buffer, 0, 400);
+    WaveStatistics right = WaveStatistics.compute(buffer, 400, buffer.length);
+    WaveStatistics all = WaveStatistics.compute(buffer);
+    WaveStatistics joined = left.append(right);
+
+    assertEquals(all.sum(), joined.sum());
+    assertEquals(all.absSum(), joined.absSum());
+    assertEquals(all.sumOfSquares(), joined.sumOfSquares(), DELTA);
+    assertEquals(all.noDataCount(), joined.noDataCount());
+    assertArrayEquals(all.dataRange(), joined.dataRange());
+    assertEquals(all.first(), joined.first());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_tailHoldsExtreme_then_cannotRemove() {
+    int[] buffer = new int[] {1, 2, 3, 10};
+    WaveStatistics all = WaveStatistics.compute(buffer);
+
+    assertNull(all.withoutTail(WaveStatistics.compute(buffer, 3, 4)));
+
+    buffer = new int[] {10, 1, 3, 2};
+    all = WaveStatistics.compute(buffer);
+    WaveStatistics head = all.withoutTail(WaveStatistics.compute(buffer, 3, 4));
+    assertEquals(14, head.sum());
+    assertEquals(3, head.count());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_waveCombinedAndSubtracted_then_statisticsFollow() {
+    Wave left = new Wave(new int[] {1, 2, 3, 4}, 0, 1);
+    Wave right = new Wave(new int[] {5, 6, 7, 8}, 4, 1);
+    assertEquals(2.5, left.mean(), DELTA);
+
+    Wave combined = left.combine(right);
+    assertEquals(4.5, combined.mean(), DELTA);
+    assertEquals(8, combined.max());
+
+    combined.subtract(10);
+    assertEquals(-5.5, combined.mean(), DELTA);
+    assertEquals(5.5, combined.rsam(), DELTA);
+    assertEquals(-9, combined.min());
+    assertEquals(-9, combined.first());
+
+    combined.trunc(6);
+    assertEquals(-6.5, combined.mean(), DELTA);
+  }
+}
@@ -0,0 +1,112 @@
+package gov.usgs.volcanoes.core.data.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FloatingPointWriteTest {
+
+  private static final double START = J2kSec.fromEpoch(1577836800000L);
+
+  private Wave wave;
+  private int[] rounded;
+
+  private static File temp(String suffix) throws IOException {
+    File f = File.createTempFile("FloatingPointWriteTest", suffix);
+    f.deleteOnExit();
+    return f;
+  }
+
+  /**
+   * Write a SAC file of fractional samples and read it back without rounding.
+   *
+   * @throws IOException never
+   */
+  @Before
+  public void setup() throws IOException {
+    Random random = new Random(1);
+    float[] samples = new float[2000];
+    rounded = new int[samples.length];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = (float) (random.nextGaussian() * 1000);
+      rounded[i] = Math.round(samples[i]);
+    }
+
+    File f = temp(".sac");
+    SacDataFile out = new SacDataFile(f.getPath());
+    out.putWave("ST0$EHZ$AV", new Wave(samples, START, 100));
+    out.write();
+
+    SacDataFile in = new SacDataFile(f.getPath());
+    in.setFloatingPoint(true);
+    in.read();
+    assertEquals(1, in.getChannels().size());
+    wave = in.getWave(in.getChannels().iterator().next());
+    assertTrue(wave.isFloatingPoint());
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_seisanWritten_then_samplesRounded() throws IOException {
+    File f = temp(".seisan");
+    SeisanDataFile out = new SeisanDataFile(f.getPath());
+    out.putWave("ST0 EHZ AV", wave);
+    out.write();
+
+    SeisanDataFile in = new SeisanDataFile(f.getPath());
+    in.read();
+    assertArrayEquals(rounded, in.getWave("ST0$EHZ$AV").buffer);
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_seedWritten_then_samplesRounded() throws IOException {
+    File f = temp(".mseed");
+    SeedDataFile out = new SeedDataFile(f.getPath());
+    out.putWave("ST0 EHZ AV", wave);
+    out.write();
+
+    SeedDataFile in = new SeedDataFile(f.getPath());
+    in.read();
+    assertEquals(1, in.getChannels().size());
+    Wave read = in.getWave(in.getChannels().iterator().next());
+    assertArrayEquals(rounded, read.buffer);
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_textWritten_then_samplesRounded() throws IOException {
+    File f = temp(".txt");
+    TextDataFile out = new TextDataFile(f.getPath());
+    out.putWave("ST0$EHZ$AV", wave);
+    out.write();
+
+    BufferedReader in = new BufferedReader(new FileReader(f));
+    try {
+      for (int i = 0; i < rounded.length; i++) {
+        String line = in.readLine();
+        assertEquals(rounded[i], Integer.parseInt(line.substring(line.indexOf(' ') + 1)));
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
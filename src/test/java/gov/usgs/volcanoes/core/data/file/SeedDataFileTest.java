@@ -0,0 +1,61 @@
+package gov.usgs.volcanoes.core.data.file;
+
+import static org.junit.Assert.assertEquals;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class SeedDataFileTest {
+
+  private static File write(Wave wave) throws IOException {
+    File f = File.createTempFile("SeedDataFileTest", ".mseed");
+    f.deleteOnExit();
+    SeedDataFile out = new SeedDataFile(f.getPath());
+    out.putWave("ST0 EHZ AV", wave);
+    out.write();
+    return f;
+  }
+
+  private static Wave ramp(int n, double start, double samplingRate) {
+    int[] samples = new int[n];
+    for (int i = 0; i < n; i++) {
+      samples[i] = i;
+    }
+    return new Wave(samples, start, samplingRate);
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_samplingRateChanges_then_otherRecordsSkipped() throws IOException {
+    double start = J2kSec.fromEpoch(1577836800000L);
+    File first = write(ramp(1000, start, 100));
+    File second = write(ramp(1000, start + 10, 50));
+
+    File both = File.createTempFile("SeedDataFileTest", ".mseed");
+    both.deleteOnExit();
+    OutputStream out = new FileOutputStream(both);
+    try {
+      out.write(Files.readAllBytes(first.toPath()));
+      out.write(Files.readAllBytes(second.toPath()));
+    } finally {
+      out.close();
+    }
+
+    SeedDataFile in = new SeedDataFile(both.getPath());
+    in.read();
+    assertEquals(1, in.getChannels().size());
+    Wave wave = in.getWave(in.getChannels().iterator().next());
+    assertEquals(100, wave.getSamplingRate(), 1E-9);
+    assertEquals(1000, wave.numSamples());
+  }
+}
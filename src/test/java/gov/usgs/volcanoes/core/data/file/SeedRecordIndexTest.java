@@ -0,0 +1,265 @@
+package gov.usgs.volcanoes.core.data.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gov.usgs.volcanoes.core.data.SegmentedWave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.iris.dmc.seedcodec.B1000Types;
+
+public class SeedRecordIndexTest {
+
+  private static final double DELTA = 1E-9;
+
+  // 2020-01-01T01:00:00Z
+  private static final long EPOCH = 18262L * 86400 + 3600;
+
+  /**
+   * Write a 512 byte record of 100 uncompressed samples at 100 Hz.
+   */
+  private static void record(OutputStream out, String station, int second, int first,
+      boolean littleEndian) throws IOException {
+    record(out, station, second, first, littleEndian, true);
+  }
+
+  private static void record(OutputStream out, String station, int second, int first,
+      boolean littleEndian, boolean b1000) throws IOException {
+    record(out, station, second, first, littleEndian, b1000, 0, false);
+  }
+
+  private static void record(OutputStream out, String station, int second, int first,
+      boolean littleEndian, boolean b1000, int correction, boolean applied) throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(512);
+    if (littleEndian) {
+      b.order(ByteOrder.LITTLE_ENDIAN);
+    }
+    b.put("000001D ".getBytes());
+    b.put(String.format("%-5s  EHZAV", station).getBytes());
+    b.putShort((short) 2020).putShort((short) 1);
+    b.put((byte) 1).put((byte) (second / 60)).put((byte) (second % 60)).put((byte) 0);
+    b.putShort((short) 0);
+    b.putShort((short) 100).putShort((short) 100).putShort((short) 1);
+    b.put(new byte[] {(byte) (applied ? 2 : 0), 0, 0, (byte) (b1000 ? 1 : 0)});
+    b.putInt(correction);
+    b.putShort((short) 64).putShort((short) (b1000 ? 48 : 0));
+    if (b1000) {
+      // blockette 1000: INT32, 512 byte records
+      b.putShort((short) 1000).putShort((short) 0);
+      b.put(new byte[] {3, (byte) (littleEndian ? 0 : 1), 9, 0});
+    }
+    b.position(64);
+    for (int i = 0; i < 100; i++) {
+      b.putInt(first + i);
+    }
+    out.write(b.array());
+  }
+
+  /**
+   * Write a 512 byte control header of full SEED.
+   */
+  private static void control(OutputStream out, int sequence, char type, String blockettes)
+      throws IOException {
+    byte[] b = new byte[512];
+    Arrays.fill(b, (byte) ' ');
+    byte[] text = (String.format("%06d%c ", sequence, type) + blockettes).getBytes();
+    System.arraycopy(text, 0, b, 0, text.length);
+    out.write(b);
+  }
+
+  /**
+   * Write a full SEED volume whose data records have no blockette 1000.
+   */
+  private static File volume(String format) throws IOException {
+    File f = File.createTempFile("SeedRecordIndexTest", ".seed");
+    f.deleteOnExit();
+    new File(f.getPath() + SeedRecordIndex.SIDECAR_SUFFIX).deleteOnExit();
+    OutputStream out = new FileOutputStream(f);
+    try {
+      // blockette 10: SEED 2.3, 512 byte records
+      control(out, 1, 'V', "0100030" + "02.3" + "09" + "2020,001~2020,002~~");
+      if (format != null) {
+        control(out, 2, 'A', String.format("030%04d", format.length() + 7) + format);
+      }
+      for (int r = 0; r < 10; r++) {
+        record(out, "AUL", r, r * 100, false, false);
+      }
+    } finally {
+      out.close();
+    }
+    return f;
+  }
+
+  private static File file() throws IOException {
+    File f = File.createTempFile("SeedRecordIndexTest", ".mseed");
+    f.deleteOnExit();
+    new File(f.getPath() + SeedRecordIndex.SIDECAR_SUFFIX).deleteOnExit();
+    OutputStream out = new FileOutputStream(f);
+    try {
+      for (int r = 0; r < 600; r++) {
+        record(out, "AUL", r, r * 100, r % 3 == 0);
+        record(out, "SPU", r, -r * 100, false);
+        if (r == 300) {
+          // preallocated space
+          out.write(new byte[1000]);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    return f;
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_indexed_then_everyRecordFound() throws IOException {
+    SeedRecordIndex index = SeedRecordIndex.open(file().getPath());
+
+    assertEquals(2, index.getChannels().size());
+    assertEquals(600, index.getRecordCount("AUL$EHZ$AV"));
+    assertEquals(600, index.getRecordCount("SPU$EHZ$AV"));
+    assertEquals(EPOCH + J2kSec.UNIXZERO, index.getStartTime("AUL$EHZ$AV"), DELTA);
+    assertEquals(EPOCH + 600 + J2kSec.UNIXZERO, index.getEndTime("AUL$EHZ$AV"), DELTA);
+    assertNull(index.read("XXX$EHZ$AV", 0, 1));
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_windowRead_then_onlyWindowReturned() throws IOException {
+    SeedRecordIndex index = SeedRecordIndex.open(file().getPath());
+    double t0 = EPOCH + J2kSec.UNIXZERO;
+
+    SegmentedWave wave = index.read("AUL$EHZ$AV", t0 + 100.5, t0 + 450.25);
+    assertEquals(1, wave.numSegments());
+    assertEquals(34975, wave.numSamples());
+    assertEquals(10050, wave.getSample(0));
+    assertEquals(45024, wave.getSample(wave.numSamples() - 1));
+
+    SegmentedWave serial = index.read("SPU$EHZ$AV", t0 + 10, t0 + 10.5, null);
+    assertEquals(50, serial.numSamples());
+    assertEquals(-1000, serial.getSample(0));
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_persisted_then_sidecarReused() throws IOException {
+    File f = file();
+    SeedRecordIndex.open(f.getPath(), true);
+    File sidecar = new File(f.getPath() + SeedRecordIndex.SIDECAR_SUFFIX);
+    assertTrue(sidecar.exists());
+
+    SeedRecordIndex index = SeedRecordIndex.open(f.getPath());
+    assertEquals(600, index.getRecordCount("SPU$EHZ$AV"));
+    assertEquals(50, index.read("SPU$EHZ$AV", EPOCH + J2kSec.UNIXZERO, EPOCH + J2kSec.UNIXZERO + 0.5)
+        .numSamples());
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_noBlockette1000_then_volumeFormatUsed() throws IOException {
+    File f = volume("32-bit integers~0001000" + "02M0~W4 D0-31 C2~");
+    SeedRecordIndex index = SeedRecordIndex.open(f.getPath(), true);
+    assertEquals(10, index.getRecordCount("AUL$EHZ$AV"));
+    // just the control headers
+    assertEquals(2, index.getSkippedCount());
+
+    // again from the sidecar
+    index = SeedRecordIndex.open(f.getPath());
+    double t0 = EPOCH + J2kSec.UNIXZERO;
+    SegmentedWave wave = index.read("AUL$EHZ$AV", t0, t0 + 10);
+    assertEquals(1000, wave.numSamples());
+    assertEquals(999, wave.getSample(999));
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_noEncodingAnywhere_then_defaultUsedOrSkipped() throws IOException {
+    File f = volume(null);
+    SeedRecordIndex index = SeedRecordIndex.open(f.getPath());
+    assertTrue(index.getChannels().isEmpty());
+    assertEquals(11, index.getSkippedCount());
+
+    index = SeedRecordIndex.open(f.getPath(), false, B1000Types.INTEGER);
+    assertEquals(10, index.getRecordCount("AUL$EHZ$AV"));
+    double t0 = EPOCH + J2kSec.UNIXZERO;
+    assertEquals(499, index.read("AUL$EHZ$AV", t0, t0 + 5).getSample(499));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_blockette30_then_formatRecognized() {
+    assertEquals(B1000Types.STEIM2,
+        SeedRecordIndex.format("Steim2 Integer Compression Format~0002050" + "01F1 P4 W4 D C2~"));
+    assertEquals(B1000Types.STEIM1, SeedRecordIndex.format("STEIM-1 Compression~0003050" + "00"));
+    assertEquals(B1000Types.SHORT, SeedRecordIndex.format("16-bit~0004000" + "02M0~W2 D0-15 C2~"));
+    assertEquals(-1, SeedRecordIndex.format("Unknown~0005099" + "00"));
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_timeCorrection_then_appliedUnlessFlagged() throws IOException {
+    File f = File.createTempFile("SeedRecordIndexTest", ".mseed");
+    f.deleteOnExit();
+    OutputStream out = new FileOutputStream(f);
+    try {
+      // half a second late, and already applied
+      record(out, "AUL", 0, 0, false, true, 5000, false);
+      record(out, "SPU", 0, 0, true, true, 5000, true);
+    } finally {
+      out.close();
+    }
+
+    SeedRecordIndex index = SeedRecordIndex.open(f.getPath());
+    double t0 = EPOCH + J2kSec.UNIXZERO;
+    assertEquals(t0 + 0.5, index.getStartTime("AUL$EHZ$AV"), DELTA);
+    assertEquals(t0, index.getStartTime("SPU$EHZ$AV"), DELTA);
+    assertEquals(t0 + 0.5, index.read("AUL$EHZ$AV", t0, t0 + 2).getStartTime(), DELTA);
+    index.close();
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_closed_then_readFails() throws IOException {
+    SeedRecordIndex index = SeedRecordIndex.open(file().getPath());
+    double t0 = EPOCH + J2kSec.UNIXZERO;
+    assertEquals(50, index.read("SPU$EHZ$AV", t0, t0 + 0.5).numSamples());
+
+    index.close();
+    index.close();
+    assertEquals(600, index.getRecordCount("SPU$EHZ$AV"));
+    try {
+      index.read("SPU$EHZ$AV", t0, t0 + 0.5);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
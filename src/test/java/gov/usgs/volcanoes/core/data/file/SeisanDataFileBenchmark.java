@@ -0,0 +1,80 @@
+package gov.usgs.volcanoes.core.data.file;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Read a Seisan event file of three channels of an hour at 100 Hz, written by
+ * <code>SeisanDataFile.write()</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class SeisanDataFileBenchmark {
+
+  private File file;
+
+  /**
+   * Write the file.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  @Setup
+  public void setup() throws IOException {
+    file = File.createTempFile("SeisanDataFileBenchmark", ".seisan");
+    file.deleteOnExit();
+    Random random = new Random(1);
+    SeisanDataFile seisan = new SeisanDataFile(file.getPath());
+    for (int c = 0; c < 3; c++) {
+      int[] samples = new int[360000];
+      for (int i = 0; i < samples.length; i++) {
+        samples[i] = random.nextInt(20000) - 10000;
+      }
+      seisan.putWave("STA EH" + "ZNE".charAt(c) + " AV",
+          new Wave(samples, J2kSec.fromEpoch(1577836800000L), 100));
+    }
+    seisan.write();
+  }
+
+  /**
+   * Read every channel.
+   *
+   * @return number of channels read
+   * @throws IOException if the file cannot be read
+   */
+  @Benchmark
+  public int read() throws IOException {
+    SeisanDataFile seisan = new SeisanDataFile(file.getPath());
+    seisan.read();
+    return seisan.getChannels().size();
+  }
+
+  /**
+   * Run benchmark from the command line.
+   *
+   * @param args ignored
+   * @throws RunnerException when things go wrong
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(SeisanDataFileBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
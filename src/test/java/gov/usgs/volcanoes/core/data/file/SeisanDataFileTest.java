@@ -0,0 +1,48 @@
+package gov.usgs.volcanoes.core.data.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SeisanDataFileTest {
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_written_then_readBack() throws IOException {
+    File f = File.createTempFile("SeisanDataFileTest", ".seisan");
+    f.deleteOnExit();
+    Random random = new Random(1);
+    double start = J2kSec.fromEpoch(1577836800000L);
+
+    SeisanDataFile out = new SeisanDataFile(f.getPath());
+    int[][] samples = new int[2][];
+    for (int c = 0; c < 2; c++) {
+      samples[c] = new int[5000 + c];
+      for (int i = 0; i < samples[c].length; i++) {
+        samples[c][i] = random.nextInt();
+      }
+      out.putWave("ST" + c + " EHZ AV", new Wave(samples[c], start, 100));
+    }
+    out.write();
+
+    SeisanDataFile in = new SeisanDataFile(f.getPath());
+    in.read();
+
+    for (int c = 0; c < 2; c++) {
+      Wave wave = in.getWave("ST" + c + "$EHZ$AV");
+      assertEquals(start, wave.getStartTime(), 1E-3);
+      assertEquals(100, wave.getSamplingRate(), 1E-9);
+      assertArrayEquals(samples[c], wave.buffer);
+    }
+  }
+}
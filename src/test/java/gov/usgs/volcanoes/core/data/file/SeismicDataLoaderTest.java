@@ -0,0 +1,109 @@
+package gov.usgs.volcanoes.core.data.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.volcanoes.core.data.SegmentedWave;
+import gov.usgs.volcanoes.core.util.ProgressListener;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SeismicDataLoaderTest {
+
+  /**
+   * Write a text file of 100 samples at 100 Hz in a directory of its own.
+   */
+  private static File textFile(String name, long startMillis) throws IOException {
+    File dir = File.createTempFile("SeismicDataLoaderTest", "");
+    dir.delete();
+    dir.mkdir();
+    dir.deleteOnExit();
+    File f = new File(dir, name);
+    f.deleteOnExit();
+    PrintWriter out = new PrintWriter(new FileWriter(f));
+    try {
+      for (int i = 0; i < 100; i++) {
+        out.println((startMillis + i * 10) + " " + i);
+      }
+    } finally {
+      out.close();
+    }
+    return f;
+  }
+
+  private static List<File> files() throws IOException {
+    List<File> files = new ArrayList<File>();
+    for (int i = 0; i < 6; i++) {
+      files.add(textFile("AUL_EHZ_AV.txt", 1500000000000L + i * 60000));
+    }
+    files.add(textFile("SPU_EHZ_AV.txt", 1500000000000L));
+    return files;
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_loaded_then_channelsMerged() throws IOException {
+    SeismicDataLoader loader = new SeismicDataLoader(4, SeismicDataLoader.DEFAULT_MEMORY_BUDGET);
+    final List<Float> progress = new ArrayList<Float>();
+    loader.addProgressListener(new ProgressListener() {
+      @Override
+      public synchronized void progressDone(float portionDone) {
+        progress.add(portionDone);
+      }
+    });
+
+    Map<String, SegmentedWave> channels = loader.load(files());
+
+    assertEquals(2, channels.size());
+    assertEquals(6, channels.get("AUL$EHZ$AV").numSegments());
+    assertEquals(1, channels.get("SPU$EHZ$AV").numSegments());
+    assertEquals(7, progress.size());
+    assertTrue(progress.contains(1f));
+    assertEquals(0, loader.getMemoryInUse());
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_budgetSpent_then_stillCompletes() throws IOException {
+    SeismicDataLoader loader = new SeismicDataLoader(4, 1);
+    final int[] count = new int[1];
+    loader.load(files(), new SeismicDataLoader.FileHandler() {
+      @Override
+      public void fileRead(SeismicDataFile file) {
+        count[0]++;
+      }
+    });
+
+    assertEquals(7, count[0]);
+    assertEquals(0, loader.getMemoryInUse());
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_unreadable_then_reportedAndSkipped() throws IOException {
+    List<File> files = files();
+    files.add(textFile("notes.doc", 0));
+    files.add(textFile("empty.txt", 0));
+    new PrintWriter(files.get(files.size() - 1)).close();
+
+    SeismicDataLoader loader = new SeismicDataLoader(2, SeismicDataLoader.DEFAULT_MEMORY_BUDGET);
+    Map<String, SegmentedWave> channels = loader.load(files);
+
+    assertEquals(2, channels.size());
+    assertEquals(2, loader.getFailedFiles().size());
+  }
+}
@@ -0,0 +1,68 @@
+package gov.usgs.volcanoes.core.data.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Read a synthetic WIN file of ten minutes of five 100 Hz channels, one for each sample size. WIN
+ * files cannot be written by <code>WinDataFile</code>, so the file is encoded by
+ * <code>WinDataFileTest</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class WinDataFileBenchmark {
+
+  private File file;
+
+  /**
+   * Write the file.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  @Setup
+  public void setup() throws IOException {
+    int[][][] data = WinDataFileTest.data(new Random(1), 600, 100);
+    file = WinDataFileTest.write(WinDataFileTest.synthesize(data, new int[] {0, 1, 2, 3, 4}));
+    WinDataFile.configFile = null;
+  }
+
+  /**
+   * Read every channel.
+   *
+   * @return number of channels read
+   * @throws IOException if the file cannot be read
+   */
+  @Benchmark
+  public int read() throws IOException {
+    WinDataFile win = new WinDataFile(file.getPath());
+    win.read();
+    return win.getChannels().size();
+  }
+
+  /**
+   * Run benchmark from the command line.
+   *
+   * @param args ignored
+   * @throws RunnerException when things go wrong
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(WinDataFileBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
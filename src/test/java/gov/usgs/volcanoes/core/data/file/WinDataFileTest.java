@@ -0,0 +1,161 @@
+package gov.usgs.volcanoes.core.data.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class WinDataFileTest {
+
+  // 2020-01-01T00:00:00Z
+  private static final double START = J2kSec.fromEpoch(1577836800000L);
+
+  private static int bcd(int v) {
+    return ((v / 10) << 4) | (v % 10);
+  }
+
+  /**
+   * Synthesize samples whose differences need a given number of bytes, 0 for 4 bits.
+   */
+  static int[] samples(Random random, int count, int dataSize) {
+    int range = dataSize == 0 ? 8 : 1 << Math.min(30, dataSize * 8 - 1);
+    int[] samples = new int[count];
+    int accum = random.nextInt(1000);
+    for (int i = 0; i < count; i++) {
+      samples[i] = accum;
+      accum += random.nextInt(range) - range / 2;
+    }
+    return samples;
+  }
+
+  /**
+   * Encode one second blocks of WIN data, with one channel per sample size.
+   *
+   * @param data data[channel][second] holding one second of samples
+   * @param dataSizes sample size of each channel
+   * @return the file contents
+   */
+  static byte[] synthesize(int[][][] data, int[] dataSizes) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int seconds = data[0].length;
+    for (int s = 0; s < seconds; s++) {
+      ByteBuffer block = ByteBuffer.allocate(10 + data.length * (8 + 4 * data[0][s].length));
+      block.putInt(0);
+      block.put(new byte[] {(byte) bcd(20), (byte) bcd(1), (byte) bcd(1), 0, (byte) bcd(s / 60),
+          (byte) bcd(s % 60)});
+      for (int c = 0; c < data.length; c++) {
+        int[] samples = data[c][s];
+        int rate = samples.length;
+        int size = dataSizes[c];
+        block.put((byte) 0).put((byte) c);
+        block.put((byte) ((size << 4) | (rate >> 8))).put((byte) rate);
+        block.putInt(samples[0]);
+        for (int i = 1; i < rate; i++) {
+          int delta = samples[i] - samples[i - 1];
+          if (size == 0) {
+            if (i % 2 == 1) {
+              block.put((byte) (delta << 4));
+            } else {
+              int p = block.position() - 1;
+              block.put(p, (byte) (block.get(p) | (delta & 0x0f)));
+            }
+          } else if (size == 1) {
+            block.put((byte) delta);
+          } else if (size == 2) {
+            block.putShort((short) delta);
+          } else if (size == 3) {
+            block.put((byte) (delta >> 16)).put((byte) (delta >> 8)).put((byte) delta);
+          } else {
+            block.putInt(delta);
+          }
+        }
+      }
+      block.putInt(0, block.position());
+      out.write(block.array(), 0, block.position());
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Synthesize a file of five channels, one for each sample size.
+   */
+  static int[][][] data(Random random, int seconds, int rate) {
+    int[][][] data = new int[5][seconds][];
+    for (int c = 0; c < 5; c++) {
+      for (int s = 0; s < seconds; s++) {
+        data[c][s] = samples(random, rate, c);
+      }
+    }
+    return data;
+  }
+
+  static File write(byte[] bytes) throws IOException {
+    File f = File.createTempFile("WinDataFileTest", ".win");
+    f.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+    return f;
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_read_then_everySampleSizeDecoded() throws IOException {
+    int[][][] data = data(new Random(1), 3, 101);
+    File f = write(synthesize(data, new int[] {0, 1, 2, 3, 4}));
+
+    WinDataFile.configFile = null;
+    WinDataFile win = new WinDataFile(f.getPath());
+    win.read();
+
+    assertEquals(5, win.getChannels().size());
+    for (int c = 0; c < 5; c++) {
+      Wave wave = win.getWave(Integer.toString(c));
+      assertEquals(START, wave.getStartTime(), 1E-6);
+      assertEquals(101, wave.getSamplingRate(), 1E-9);
+      assertEquals(1, win.getSegmentedWave(Integer.toString(c)).numSegments());
+      int[] expected = new int[303];
+      for (int s = 0; s < 3; s++) {
+        System.arraycopy(data[c][s], 0, expected, s * 101, 101);
+      }
+      assertArrayEquals(expected, wave.buffer);
+    }
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_secondMissing_then_gap() throws IOException {
+    int[][][] data = data(new Random(2), 3, 100);
+    byte[] bytes = synthesize(data, new int[] {0, 1, 2, 3, 4});
+    int block = bytes.length / 3;
+    byte[] gappy = new byte[block * 2];
+    System.arraycopy(bytes, 0, gappy, 0, block);
+    System.arraycopy(bytes, block * 2, gappy, block, block);
+
+    WinDataFile win = new WinDataFile(write(gappy).getPath());
+    win.read();
+
+    assertEquals(2, win.getSegmentedWave("0").numSegments());
+    Wave wave = win.getWave("0");
+    assertEquals(300, wave.numSamples());
+    assertEquals(Wave.NO_DATA, wave.buffer[150]);
+    assertEquals(data[0][2][0], wave.buffer[200]);
+  }
+}
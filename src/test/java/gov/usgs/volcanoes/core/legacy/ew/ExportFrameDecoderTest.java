@@ -0,0 +1,97 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ExportFrameDecoderTest {
+
+  private static class Collector implements ExportFrameDecoder.FrameHandler {
+    final List<String> bodies = new ArrayList<String>();
+    final List<Integer> seqs = new ArrayList<Integer>();
+
+    @Override
+    public void frame(byte[] frame, int length, int seq) {
+      assertEquals(0, frame[length - 1]);
+      bodies.add(new String(frame, 0, length - 1));
+      seqs.add(seq);
+    }
+  }
+
+  private static byte[] stream() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // leading noise, then a message with an escaped ETX
+    out.write(new byte[] {'x', 'y'});
+    out.write(ExportFrameDecoder.STX);
+    out.write("000000003hb".getBytes());
+    out.write(ExportFrameDecoder.ESC);
+    out.write(ExportFrameDecoder.ETX);
+    out.write(ExportFrameDecoder.ETX);
+    // a message with a sequence number
+    out.write(ExportFrameDecoder.STX);
+    out.write("SQ: 42000000003alive".getBytes());
+    out.write(ExportFrameDecoder.ETX);
+    return out.toByteArray();
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_decoded_then_unescaped() throws IOException {
+    ExportFrameDecoder decoder = new ExportFrameDecoder();
+    Collector c = new Collector();
+    byte[] b = stream();
+
+    assertEquals(2, decoder.decode(b, 0, b.length, c));
+    assertEquals("000000003hb\u0003", c.bodies.get(0));
+    assertEquals(Integer.MIN_VALUE, (int) c.seqs.get(0));
+    assertEquals("000000003alive", c.bodies.get(1));
+    assertEquals(42, (int) c.seqs.get(1));
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_splitAnywhere_then_sameMessages() throws IOException {
+    byte[] b = stream();
+    for (int split = 0; split <= b.length; split++) {
+      ExportFrameDecoder decoder = new ExportFrameDecoder();
+      Collector c = new Collector();
+      decoder.decode(b, 0, split, c);
+      decoder.decode(b, split, b.length - split, c);
+
+      assertEquals(2, c.bodies.size());
+      assertEquals("000000003hb\u0003", c.bodies.get(0));
+      assertEquals("000000003alive", c.bodies.get(1));
+      assertEquals(42, (int) c.seqs.get(1));
+    }
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_tooLong_then_dropped() throws IOException {
+    ExportFrameDecoder decoder = new ExportFrameDecoder(16);
+    Collector c = new Collector();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(ExportFrameDecoder.STX);
+    out.write("000000003this message is too long".getBytes());
+    out.write(ExportFrameDecoder.ETX);
+    out.write(ExportFrameDecoder.STX);
+    out.write("000000003ok".getBytes());
+    out.write(ExportFrameDecoder.ETX);
+    byte[] b = out.toByteArray();
+
+    assertEquals(1, decoder.decode(b, 0, b.length, c));
+    assertEquals("000000003ok", c.bodies.get(0));
+    assertEquals(1, decoder.getOverflowCount());
+  }
+}
@@ -0,0 +1,194 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.legacy.ew.message.MessageFactory;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Replay an export_generic stream through the byte at a time loop previously used by
+ * <code>ImportGeneric</code> and through <code>ExportFrameDecoder</code>. A captured stream can be
+ * given with -Dcapture=file; otherwise a stream of TRACEBUF2 messages is synthesized.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class ImportGenericBenchmark {
+
+  private static final byte STX = ExportFrameDecoder.STX;
+  private static final byte ETX = ExportFrameDecoder.ETX;
+  private static final byte ESC = ExportFrameDecoder.ESC;
+
+  @Param({"false", "true"})
+  private boolean parse;
+
+  private byte[] stream;
+
+  /**
+   * Load or synthesize the stream.
+   *
+   * @throws IOException if the capture cannot be read
+   */
+  @Setup
+  public void setup() throws IOException {
+    String capture = System.getProperty("capture");
+    if (capture != null) {
+      stream = Files.readAllBytes(Paths.get(capture));
+      return;
+    }
+
+    Random random = new Random(1);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int m = 0; m < 5000; m++) {
+      int[] samples = new int[100];
+      for (int i = 0; i < samples.length; i++) {
+        samples[i] = random.nextInt(2000) - 1000;
+      }
+      TraceBuf tb = new TraceBuf("STA" + (m % 50) + "$EHZ$AV$--", new Wave(samples, m, 100));
+      tb.createBytes();
+
+      out.write(STX);
+      if (m % 10 == 0) {
+        out.write(String.format("SQ:%3d", m % 1000).getBytes());
+      }
+      out.write("000000019".getBytes());
+      // the terminating zero is added by the reader
+      for (int i = 0; i < tb.bytes.length - 1; i++) {
+        byte b = tb.bytes[i];
+        if (b == STX || b == ETX || b == ESC) {
+          out.write(ESC);
+        }
+        out.write(b);
+      }
+      out.write(ETX);
+    }
+    stream = out.toByteArray();
+  }
+
+  /**
+   * Read as ImportGeneric did before ExportFrameDecoder.
+   *
+   * @return number of messages
+   * @throws IOException never
+   */
+  @Benchmark
+  public int byteAtATime() throws IOException {
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(stream)));
+    byte[] msgBuf = new byte[65000];
+    int count = 0;
+    // ImportGeneric started with ESC here, which skipped the first message
+    byte lastByte = 0;
+    try {
+      while (true) {
+        boolean start = false;
+        byte b = in.readByte();
+        if (b == STX) {
+          if (lastByte != ESC) {
+            start = true;
+          } else {
+            lastByte = b;
+          }
+        }
+
+        if (start) {
+          int i = 0;
+          int seq = Integer.MAX_VALUE;
+          boolean done = false;
+          boolean escape = false;
+          while (!done) {
+            byte b3 = in.readByte();
+            if (!escape && b3 == ETX) {
+              done = true;
+            } else if (!escape && b3 == ESC) {
+              escape = true;
+            } else {
+              msgBuf[i++] = b3;
+              escape = false;
+            }
+
+            if (i == 6 && seq == Integer.MAX_VALUE) {
+              String s = new String(msgBuf, 0, 6);
+              seq = s.startsWith("SQ:") ? Integer.parseInt(s.substring(3, 6).trim())
+                  : Integer.MIN_VALUE;
+              if (seq != Integer.MIN_VALUE) {
+                i = 0;
+              }
+            }
+          }
+          msgBuf[i++] = 0;
+          if (parse) {
+            MessageFactory.createMessage(msgBuf, i, seq);
+          }
+          count++;
+        }
+      }
+    } catch (EOFException e) {
+      return count;
+    }
+  }
+
+  /**
+   * Read with ExportFrameDecoder.
+   *
+   * @return number of messages
+   * @throws IOException never
+   */
+  @Benchmark
+  public int frameDecoder() throws IOException {
+    ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(stream));
+    ExportFrameDecoder decoder = new ExportFrameDecoder();
+    ExportFrameDecoder.FrameHandler handler = new ExportFrameDecoder.FrameHandler() {
+      @Override
+      public void frame(byte[] frame, int length, int seq) throws IOException {
+        if (parse) {
+          MessageFactory.createMessage(frame, length, seq);
+        }
+      }
+    };
+
+    int count = 0;
+    int n;
+    while ((n = decoder.read(channel, handler)) != -1) {
+      count += n;
+    }
+    return count;
+  }
+
+  /**
+   * Run benchmark from the command line.
+   *
+   * @param args ignored
+   * @throws RunnerException when things go wrong
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(ImportGenericBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
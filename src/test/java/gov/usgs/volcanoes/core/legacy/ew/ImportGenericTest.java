@@ -0,0 +1,123 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.volcanoes.core.legacy.ew.message.Message;
+import gov.usgs.volcanoes.core.legacy.ew.message.MessageType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ImportGenericTest {
+
+  private static final byte[] HEARTBEAT = "000000003alive\0".getBytes();
+
+  /**
+   * Remembers the threads it was called on.
+   */
+  private static final class Recorder implements MessageListener {
+    private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    private final CountDownLatch received;
+
+    Recorder(int messages) {
+      received = new CountDownLatch(messages);
+    }
+
+    @Override
+    public void messageReceived(Message msg) {
+      threads.add(Thread.currentThread());
+      received.countDown();
+    }
+  }
+
+  /**
+   * Counts messages passing through <code>dispatchMessage()</code>.
+   */
+  private static final class CountingImport extends ImportGeneric {
+    private int dispatched;
+
+    @Override
+    public void dispatchMessage(Message msg) {
+      dispatched++;
+      super.dispatchMessage(msg);
+    }
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_default_then_listenersCalledOnReadingThread() throws Exception {
+    CountingImport imp = new CountingImport();
+    Recorder recorder = new Recorder(2);
+    imp.addListener(MessageType.TYPE_HEARTBEAT, recorder);
+    assertNull(imp.ring);
+
+    byte[] frame = HEARTBEAT.clone();
+    imp.handleFrame(frame, frame.length, Integer.MIN_VALUE);
+    imp.handleFrame(frame, frame.length, Integer.MIN_VALUE);
+
+    assertEquals(2, imp.dispatched);
+    assertEquals(2, recorder.threads.size());
+    assertSame(Thread.currentThread(), recorder.threads.get(0));
+    assertSame(frame, imp.msgBuf);
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_ringSet_then_dispatchedThroughHookToListenerThread() throws Exception {
+    CountingImport imp = new CountingImport();
+    imp.setDispatchRingSize(16);
+    Recorder recorder = new Recorder(3);
+    imp.addListener(MessageType.TYPE_HEARTBEAT, recorder);
+    try {
+      for (int i = 0; i < 3; i++) {
+        imp.handleFrame(HEARTBEAT, HEARTBEAT.length, i);
+      }
+
+      assertEquals(3, imp.dispatched);
+      assertTrue(recorder.received.await(10, TimeUnit.SECONDS));
+      assertNotSame(Thread.currentThread(), recorder.threads.get(0));
+    } finally {
+      imp.ring.shutdown();
+    }
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_dispatchOverridden_then_ringBypassed() throws Exception {
+    final List<Message> intercepted = new ArrayList<Message>();
+    ImportGeneric imp = new ImportGeneric() {
+      @Override
+      public void dispatchMessage(Message msg) {
+        intercepted.add(msg);
+      }
+    };
+    imp.setDispatchRingSize(16);
+    Recorder recorder = new Recorder(1);
+    imp.addListener(MessageType.TYPE_HEARTBEAT, recorder);
+    try {
+      imp.handleFrame(HEARTBEAT, HEARTBEAT.length, Integer.MIN_VALUE);
+
+      assertEquals(1, intercepted.size());
+      assertEquals(MessageType.TYPE_HEARTBEAT, intercepted.get(0).logo.getType());
+      assertFalse(recorder.received.await(100, TimeUnit.MILLISECONDS));
+    } finally {
+      imp.ring.shutdown();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class IngestHubTest {
+
+  private static byte[] frame(String code, double start) {
+    TraceBuf tb = new TraceBuf(code, new Wave(new int[] {1, 2, 3, 4}, start, 100));
+    tb.createBytes();
+    byte[] frame = new byte[9 + tb.bytes.length];
+    System.arraycopy("000000019".getBytes(), 0, frame, 0, 9);
+    System.arraycopy(tb.bytes, 0, frame, 9, tb.bytes.length);
+    return frame;
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_timeRepeated_then_notAdded() {
+    IngestHub.TimeIndex index = new IngestHub.TimeIndex(4);
+
+    assertTrue(index.add(10));
+    assertTrue(index.add(30));
+    assertTrue(index.add(20));
+    assertFalse(index.add(20));
+    assertTrue(index.add(40));
+    assertTrue(index.add(50));
+    assertEquals(4, index.size());
+
+    // 10 has been forgotten, the rest are still known
+    assertFalse(index.add(30));
+    assertFalse(index.add(50));
+    for (int i = 0; i < 100; i++) {
+      assertTrue(index.add(60 + i));
+    }
+    assertEquals(4, index.size());
+    assertFalse(index.add(159));
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_sameFromTwoFeeds_then_deliveredOnce() throws IOException {
+    IngestHub hub = new IngestHub(0, 16, 64);
+    byte[] a1 = frame("STA$EHZ$AV$--", 0);
+    byte[] a2 = frame("STA$EHZ$AV$--", 0.04);
+    byte[] b1 = frame("STB$EHZ$AV$--", 0);
+
+    assertTrue(hub.ingest(a1, a1.length, Integer.MIN_VALUE));
+    assertTrue(hub.ingest(b1, b1.length, Integer.MIN_VALUE));
+    assertTrue(hub.ingest(a1.clone(), a1.length, Integer.MIN_VALUE));
+    assertTrue(hub.ingest(a2, a2.length, Integer.MIN_VALUE));
+    assertTrue(hub.ingest(a2, a2.length, Integer.MIN_VALUE));
+
+    assertEquals(5, hub.getReceivedCount());
+    assertEquals(2, hub.getDuplicateCount());
+    assertEquals(3, hub.getDeliveredCount());
+    assertEquals(2, hub.getChannelCount());
+
+    byte[] heartbeat = "000000003alive\0".getBytes();
+    assertFalse(hub.ingest(heartbeat, heartbeat.length, Integer.MIN_VALUE));
+    hub.shutdown();
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_outOfOrderWithinWindow_then_notLate() throws IOException {
+    IngestHub hub = new IngestHub(60000, 16, 64);
+    byte[] a1 = frame("STA$EHZ$AV$--", 0);
+    byte[] a2 = frame("STA$EHZ$AV$--", 0.04);
+    byte[] a3 = frame("STA$EHZ$AV$--", 0.08);
+
+    hub.ingest(a2, a2.length, Integer.MIN_VALUE);
+    hub.ingest(a1, a1.length, Integer.MIN_VALUE);
+    hub.flush(System.currentTimeMillis(), false);
+    assertEquals(0, hub.getDeliveredCount());
+
+    hub.flush(0, true);
+    assertEquals(2, hub.getDeliveredCount());
+    assertEquals(0, hub.getLateCount());
+
+    // too late to reorder
+    hub.ingest(a3, a3.length, Integer.MIN_VALUE);
+    hub.ingest(frame("STA$EHZ$AV$--", -0.04), a1.length, Integer.MIN_VALUE);
+    hub.shutdown();
+    assertEquals(4, hub.getDeliveredCount());
+    assertEquals(1, hub.getLateCount());
+  }
+}
@@ -0,0 +1,96 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.volcanoes.core.data.Scnl;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class MenuTest {
+
+  private static final String MENU = "ID  1 STA EHZ AV -- 100.0 200.0 s4  2 STB EHZ AV 01 150.0 "
+      + "400.0 s4  3 STC BHZ AV -- 300.0 350.0 i4 ";
+
+  private static final String UPDATED = "ID  1 STA EHZ AV -- 100.0 200.0 s4  2 STB EHZ AV 01 150.0 "
+      + "410.0 s4  4 STD EHZ AV -- 0.0 50.0 s4 ";
+
+  /**
+   *
+   */
+  @Test
+  public void when_lookupByScnl_then_found() {
+    Menu menu = new Menu(MENU);
+
+    assertTrue(menu.isSCNL());
+    assertTrue(menu.channelExists("STA$EHZ$AV"));
+    assertTrue(menu.channelExists("STB$EHZ$AV$01"));
+    assertFalse(menu.channelExists("STB$EHZ$AV"));
+    assertFalse(menu.channelExists("junk"));
+    assertEquals(3, menu.getItem(new Scnl("STC", "BHZ", "AV")).pin);
+    assertNull(menu.getItem(new Scnl("STC", "BHZ", "AK")));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_channelNotWrittenAsMenuName_then_notFound() {
+    Menu menu = new Menu(MENU);
+
+    // names must match MenuItem.getSCNSCNL("$") exactly
+    assertFalse(menu.channelExists("STA EHZ AV"));
+    assertFalse(menu.channelExists("STA$EHZ$AV$--"));
+    assertFalse(menu.channelExists("STB$EHZ$AV$01$extra"));
+    assertTrue(menu.update(UPDATED).channelExists("STD$EHZ$AV"));
+    assertFalse(menu.update(UPDATED).channelExists("STC$BHZ$AV"));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_timeWindow_then_overlappingItems() {
+    Menu menu = new Menu(MENU);
+
+    assertEquals(0, menu.getItems(0, 99).size());
+    assertEquals(1, menu.getItems(0, 100).size());
+
+    List<MenuItem> items = menu.getItems(190, 310);
+    assertEquals(3, items.size());
+    assertEquals(1, items.get(0).pin);
+
+    items = menu.getItems(360, 1000);
+    assertEquals(1, items.size());
+    assertEquals(2, items.get(0).pin);
+
+    assertTrue(menu.hasData(new Scnl("STC", "BHZ", "AV"), 340, 400));
+    assertFalse(menu.hasData(new Scnl("STC", "BHZ", "AV"), 351, 400));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_updated_then_unchangedItemsShared() {
+    Menu menu = new Menu(MENU);
+    Menu updated = menu.update(UPDATED);
+
+    assertSame(menu.getItem(new Scnl("STA", "EHZ", "AV")),
+        updated.getItem(new Scnl("STA", "EHZ", "AV")));
+
+    MenuDiff diff = updated.diff(menu);
+    assertEquals(1, diff.getAdded().size());
+    assertEquals(4, diff.getAdded().get(0).pin);
+    assertEquals(1, diff.getChanged().size());
+    assertEquals(410.0, diff.getChanged().get(0).endTime, 0);
+    assertEquals(1, diff.getRemoved().size());
+    assertEquals(3, diff.getRemoved().get(0).pin);
+    assertTrue(updated.diff(updated).isEmpty());
+  }
+}
@@ -0,0 +1,442 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WaveServerClientTest {
+
+  private static final int[] SAMPLES = new int[400];
+
+  static {
+    for (int i = 0; i < SAMPLES.length; i++) {
+      SAMPLES[i] = i * 3 - 500;
+    }
+  }
+
+  /**
+   * Builds the reply to one request line, or returns null to drop the connection.
+   */
+  private interface Responder {
+    byte[] reply(String[] request) throws IOException;
+  }
+
+  /**
+   * A wave server on the loopback interface, one thread per connection.
+   */
+  private static final class FakeServer {
+    private final ServerSocket socket;
+    private final List<Socket> clients = new ArrayList<Socket>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    FakeServer(final Responder responder) throws IOException {
+      socket = new ServerSocket(0);
+      Thread acceptor = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              final Socket client = socket.accept();
+              synchronized (clients) {
+                clients.add(client);
+              }
+              connections.incrementAndGet();
+              Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                  serve(client, responder);
+                }
+              });
+              t.setDaemon(true);
+              t.start();
+            }
+          } catch (IOException e) {
+            // closed
+          }
+        }
+      });
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    private void serve(Socket client, Responder responder) {
+      try {
+        InputStream in = client.getInputStream();
+        OutputStream out = client.getOutputStream();
+        String line;
+        while ((line = readLine(in)) != null) {
+          requests.incrementAndGet();
+          byte[] reply = responder.reply(line.split(" "));
+          if (reply == null) {
+            break;
+          }
+          out.write(reply);
+          out.flush();
+        }
+      } catch (IOException e) {
+        // client went away
+      } finally {
+        try {
+          client.close();
+        } catch (IOException e) {
+          // Do nothing
+        }
+      }
+    }
+
+    String address() {
+      return "127.0.0.1:" + socket.getLocalPort();
+    }
+
+    void close() throws IOException {
+      socket.close();
+      synchronized (clients) {
+        for (Socket client : clients) {
+          client.close();
+        }
+      }
+    }
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b < 0) {
+        return null;
+      }
+      line.write(b);
+    }
+    return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * A GETSCNRAW reply holding SAMPLES in packets of 100.
+   *
+   * @param request the request, split on spaces
+   * @return the reply
+   */
+  private static byte[] waveReply(String[] request) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    for (int i = 0; i < SAMPLES.length; i += 100) {
+      TraceBuf tb = new TraceBuf(request[2] + "$" + request[3] + "$" + request[4],
+          new Wave(Arrays.copyOfRange(SAMPLES, i, i + 100), i / 100.0, 100));
+      tb.createBytes();
+      // without the message terminator
+      body.write(tb.bytes, 0, tb.bytes.length - 1);
+    }
+    return waveReply(request, body.toByteArray(), body.size());
+  }
+
+  /**
+   * A GETSCNRAW reply with any body, claiming any length.
+   */
+  private static byte[] waveReply(String[] request, byte[] body, long length) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    String line = request[1] + " 0 " + request[2] + " " + request[3] + " " + request[4]
+        + " F s4 0.0 4.0 " + length + "\n";
+    out.write(line.getBytes(StandardCharsets.US_ASCII));
+    out.write(body);
+    return out.toByteArray();
+  }
+
+  private FakeServer server;
+  private WaveServerClient client;
+
+  /**
+   * @throws IOException never
+   */
+  @Before
+  public void setUp() throws IOException {
+    client = new WaveServerClient(2, 4);
+    client.setTimeout(5000);
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @After
+  public void tearDown() throws IOException {
+    client.close();
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private static <T> T get(CompletableFuture<T> future) throws Exception {
+    return future.get(10, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_waveRequested_then_packetsAssembled() throws Exception {
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request) throws IOException {
+        return waveReply(request);
+      }
+    });
+
+    Wave wave = get(client.getRawData(server.address(), "STA", "EHZ", "NT", 0, 4));
+    assertArrayEquals(SAMPLES, wave.buffer);
+    assertEquals(100, wave.getSamplingRate(), 1E-9);
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_manyRequests_then_pipelinedInOrder() throws Exception {
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request) throws IOException {
+        return waveReply(request);
+      }
+    });
+
+    List<CompletableFuture<Wave>> futures = new ArrayList<CompletableFuture<Wave>>();
+    for (int i = 0; i < 20; i++) {
+      futures.add(client.getRawData(server.address(), "S" + i, "EHZ", "NT", 0, 4));
+    }
+    for (int i = 0; i < 20; i++) {
+      assertArrayEquals(SAMPLES, get(futures.get(i)).buffer);
+    }
+    assertTrue(server.connections.get() <= 2);
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_noData_then_null() throws Exception {
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request) {
+        String line = request[1] + " 0 " + request[2] + " " + request[3] + " " + request[4]
+            + " FN\n";
+        return line.getBytes(StandardCharsets.US_ASCII);
+      }
+    });
+
+    assertNull(get(client.getRawData(server.address(), "STA", "EHZ", "NT", 0, 4)));
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_menuRequested_then_parsed() throws Exception {
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request) {
+        String line = request[1] + "  1 STA EHZ NT 1.0 2.0 s4  2 STB EHZ NT 3.0 4.0 s4 \n";
+        return line.getBytes(StandardCharsets.US_ASCII);
+      }
+    });
+
+    Menu menu = get(client.getMenu(server.address()));
+    assertEquals(2, menu.getItems().size());
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_packetLengthCorrupt_then_requestFailsAndOthersServed() throws Exception {
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request) throws IOException {
+        if (!request[2].equals("BAD")) {
+          return waveReply(request);
+        }
+        // a packet claiming more samples than the reply holds, or than may be buffered
+        ByteBuffer packet = ByteBuffer.allocate(64);
+        packet.putInt(0);
+        packet.putInt(request[3].equals("EHZ") ? 1000 : 2000000);
+        return waveReply(request, packet.array(), request[3].equals("EHZ") ? 64 : 100000000);
+      }
+    });
+
+    for (String comp : new String[] {"EHZ", "EHN"}) {
+      CompletableFuture<Wave> bad = client.getRawData(server.address(), "BAD", comp, "NT", 0, 4);
+      CompletableFuture<Wave> good = client.getRawData(server.address(), "STA", comp, "NT", 0, 4);
+      try {
+        get(bad);
+        fail();
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IOException);
+      }
+      assertArrayEquals(SAMPLES, get(good).buffer);
+    }
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_replyNeverEnds_then_requestFails() throws Exception {
+    final byte[] garbage = new byte[64 * 1024];
+    Arrays.fill(garbage, (byte) 'x');
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request) throws IOException {
+        // a reply line without a newline, larger than the client will buffer
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 260; i++) {
+          out.write(garbage);
+        }
+        return out.toByteArray();
+      }
+    });
+
+    try {
+      get(client.getMenu(server.address()));
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    assertEquals(1, server.requests.get());
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_connectionDrops_then_retriedThenFails() throws Exception {
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request) {
+        return null;
+      }
+    });
+    client.setMaxRetries(2);
+
+    try {
+      get(client.getRawData(server.address(), "STA", "EHZ", "NT", 0, 4));
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    assertEquals(3, server.requests.get());
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_menuLarge_then_parsed() throws Exception {
+    final StringBuilder items = new StringBuilder();
+    for (int i = 0; i < 40000; i++) {
+      items.append("  ").append(i + 1).append(" S").append(i).append(" EHZ NT 1.0 2.0 s4");
+    }
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request) throws IOException {
+        if (!"MENU:".equals(request[0])) {
+          return waveReply(request);
+        }
+        return (request[1] + items + " \n").getBytes(StandardCharsets.US_ASCII);
+      }
+    });
+
+    Menu menu = get(client.getMenu(server.address()));
+    assertEquals(40000, menu.getItems().size());
+    assertArrayEquals(SAMPLES,
+        get(client.getRawData(server.address(), "STA", "EHZ", "NT", 0, 4)).buffer);
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_callbackBlocks_then_otherRequestsServed() throws Exception {
+    final CountDownLatch registered = new CountDownLatch(1);
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request) throws IOException {
+        try {
+          // hold the first reply until its callback is attached
+          registered.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return waveReply(request);
+      }
+    });
+
+    final CountDownLatch second = new CountDownLatch(1);
+    CompletableFuture<Wave> first = client.getRawData(server.address(), "STA", "EHZ", "NT", 0, 4);
+    CompletableFuture<Void> blocked = first.thenAccept(new Consumer<Wave>() {
+      @Override
+      public void accept(Wave wave) {
+        try {
+          // released only once another request completes
+          second.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    registered.countDown();
+    get(first);
+
+    Wave wave = get(client.getRawData(server.address(), "STB", "EHZ", "NT", 0, 4));
+    second.countDown();
+    assertArrayEquals(SAMPLES, wave.buffer);
+    get(blocked);
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_hostUnknown_then_failsAndOthersServed() throws Exception {
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request) throws IOException {
+        return waveReply(request);
+      }
+    });
+
+    CompletableFuture<Wave> bad =
+        client.getRawData("no-such-host.invalid:16022", "STA", "EHZ", "NT", 0, 4);
+    CompletableFuture<Wave> good = client.getRawData(server.address(), "STA", "EHZ", "NT", 0, 4);
+    try {
+      get(bad);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    assertArrayEquals(SAMPLES, get(good).buffer);
+  }
+}
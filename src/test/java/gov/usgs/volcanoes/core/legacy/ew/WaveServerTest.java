@@ -0,0 +1,207 @@
+package gov.usgs.volcanoes.core.legacy.ew;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class WaveServerTest {
+
+  private static final int[] SAMPLES = new int[400];
+
+  static {
+    for (int i = 0; i < SAMPLES.length; i++) {
+      SAMPLES[i] = i * 7 - 1000;
+    }
+  }
+
+  /**
+   * Builds the reply to one request line.
+   */
+  private interface Responder {
+    byte[] reply(String[] request, int count) throws IOException;
+  }
+
+  /**
+   * A wave server on the loopback interface, one connection at a time.
+   */
+  private static final class FakeServer extends Thread {
+    private final ServerSocket socket;
+    private final Responder responder;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    FakeServer(Responder responder) throws IOException {
+      socket = new ServerSocket(0);
+      this.responder = responder;
+      setDaemon(true);
+      start();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Socket client = socket.accept();
+          try {
+            InputStream in = client.getInputStream();
+            OutputStream out = client.getOutputStream();
+            String line;
+            while ((line = readLine(in)) != null) {
+              out.write(responder.reply(line.split(" "), requests.incrementAndGet()));
+              out.flush();
+            }
+          } catch (IOException e) {
+            // client went away
+          } finally {
+            client.close();
+          }
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b < 0) {
+        return null;
+      }
+      line.write(b);
+    }
+    return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * A GETSCNRAW reply holding SAMPLES in packets of 100, cut short by some bytes.
+   */
+  private static byte[] waveReply(String[] request, int cut) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    for (int i = 0; i < SAMPLES.length; i += 100) {
+      TraceBuf tb = new TraceBuf(request[2] + "$" + request[3] + "$" + request[4],
+          new Wave(Arrays.copyOfRange(SAMPLES, i, i + 100), i / 100.0, 100));
+      tb.createBytes();
+      // without the message terminator
+      body.write(tb.bytes, 0, tb.bytes.length - 1);
+    }
+    int length = body.size() - cut;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write((request[1] + " 0 " + request[2] + " " + request[3] + " " + request[4]
+        + " F s4 0.0 4.0 " + length + "\n").getBytes(StandardCharsets.US_ASCII));
+    out.write(body.toByteArray(), 0, length);
+    return out.toByteArray();
+  }
+
+  private FakeServer server;
+
+  /**
+   * @throws IOException never
+   */
+  @After
+  public void tearDown() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private WaveServer connect() {
+    WaveServer ws = new WaveServer("127.0.0.1", server.socket.getLocalPort());
+    ws.setTimeout(5000);
+    return ws;
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_replyTruncated_then_retried() throws Exception {
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request, int count) throws IOException {
+        return waveReply(request, count == 1 ? 50 : 0);
+      }
+    });
+    WaveServer ws = connect();
+
+    List<TraceBuf> tbs = ws.getTraceBufs("STA", "EHZ", "NT", 0, 4);
+    assertEquals(2, server.requests.get());
+    assertEquals(4, tbs.size());
+
+    List<Integer> samples = new ArrayList<Integer>();
+    for (TraceBuf tb : tbs) {
+      for (int s : tb.samples()) {
+        samples.add(s);
+      }
+    }
+    assertEquals(SAMPLES.length, samples.size());
+    ws.close();
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_waveReplyTruncated_then_retried() throws Exception {
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request, int count) throws IOException {
+        return waveReply(request, count == 1 ? 50 : 0);
+      }
+    });
+    WaveServer ws = connect();
+
+    Wave wave = ws.getRawData("STA", "EHZ", "NT", 0, 4);
+    assertEquals(2, server.requests.get());
+    assertArrayEquals(SAMPLES, wave.buffer);
+    ws.close();
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_menuFormatsAlternate_then_eachCacheKept() throws Exception {
+    server = new FakeServer(new Responder() {
+      @Override
+      public byte[] reply(String[] request, int count) {
+        String menu = request.length > 2
+            ? "  1 STA EHZ NT -- 1.0 2.0 s4  2 STB EHZ NT 01 3.0 4.0 s4 \n"
+            : "  1 STA EHZ NT 1.0 2.0 s4  2 STB EHZ NT 3.0 4.0 s4 \n";
+        return (request[1] + menu).getBytes(StandardCharsets.US_ASCII);
+      }
+    });
+    WaveServer ws = connect();
+
+    Menu scn = ws.getMenu();
+    Menu scnl = ws.getMenuSCNL();
+    assertTrue(scnl.isSCNL());
+    // unchanged entries are shared with the last menu of the same format
+    assertSame(scn.getItems().get(0), ws.getMenu().getItems().get(0));
+    assertSame(scnl.getItems().get(1), ws.getMenuSCNL().getItems().get(1));
+    ws.close();
+  }
+}
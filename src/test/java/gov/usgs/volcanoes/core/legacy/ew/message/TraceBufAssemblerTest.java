@@ -0,0 +1,231 @@
+package gov.usgs.volcanoes.core.legacy.ew.message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TraceBufAssemblerTest {
+
+  private static final double SAMPLING_RATE = 100;
+
+  private static final int[] SAMPLES = new int[1000];
+
+  static {
+    Random random = new Random(1);
+    for (int i = 0; i < SAMPLES.length; i++) {
+      SAMPLES[i] = random.nextInt(20000) - 10000;
+    }
+  }
+
+  /**
+   * A packet of SAMPLES.
+   *
+   * @param from index of the first sample
+   * @param to index after the last sample
+   * @return the packet
+   */
+  private static TraceBuf packet(int from, int to) {
+    return packet(from, to, SAMPLING_RATE);
+  }
+
+  private static TraceBuf packet(int from, int to, double samplingRate) {
+    return new TraceBuf("ST0$EHZ$AV",
+        new Wave(Arrays.copyOfRange(SAMPLES, from, to), from / samplingRate, samplingRate));
+  }
+
+  private static int[] expected(int from, int to) {
+    return Arrays.copyOfRange(SAMPLES, from, to);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_noPackets_then_noWave() {
+    assertNull(new TraceBufAssembler().getWave());
+    assertNull(TraceBuf.traceBufToWave(new ArrayList<TraceBuf>()));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_contiguous_then_samplesJoined() {
+    TraceBufAssembler assembler = new TraceBufAssembler(10);
+    TraceBuf first = packet(0, 100);
+    assembler.add(first);
+    assembler.add(packet(100, 250));
+    assembler.add(packet(250, 1000));
+
+    Wave wave = assembler.getWave();
+    assertArrayEquals(SAMPLES, wave.buffer);
+    assertEquals(first.getStartTime(), wave.getStartTime(), 1E-6);
+    assertEquals(SAMPLING_RATE, wave.getSamplingRate(), 1E-9);
+    assertEquals(0, assembler.getGapCount());
+    assertEquals(0, assembler.getOverlapCount());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_gap_then_noDataFilled() {
+    TraceBufAssembler assembler = new TraceBufAssembler();
+    assembler.add(packet(0, 100));
+    assembler.add(packet(130, 200));
+
+    int[] expected = expected(0, 200);
+    Arrays.fill(expected, 100, 130, Wave.NO_DATA);
+    assertArrayEquals(expected, assembler.getWave().buffer);
+    assertEquals(1, assembler.getGapCount());
+    assertEquals(30, assembler.getGapSamples());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_overlap_then_laterPacketWins() {
+    TraceBuf later = packet(80, 150);
+    Arrays.fill(later.data, 7);
+    TraceBufAssembler assembler = new TraceBufAssembler();
+    assembler.add(packet(0, 100));
+    assembler.add(later);
+
+    int[] expected = expected(0, 150);
+    Arrays.fill(expected, 80, 150, 7);
+    assertArrayEquals(expected, assembler.getWave().buffer);
+    assertEquals(1, assembler.getOverlapCount());
+    assertEquals(20, assembler.getOverlapSamples());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_packetBeforeFirst_then_samplesMoved() {
+    TraceBufAssembler assembler = new TraceBufAssembler();
+    TraceBuf first = packet(0, 100);
+    assembler.add(packet(300, 400));
+    assembler.add(packet(100, 300));
+    assembler.add(first);
+
+    Wave wave = assembler.getWave();
+    assertArrayEquals(expected(0, 400), wave.buffer);
+    assertEquals(first.getStartTime(), wave.getStartTime(), 1E-6);
+    assertEquals(0, assembler.getGapCount());
+    assertEquals(0, assembler.getOverlapCount());
+    assertEquals(0, assembler.getRejectedCount());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_packetBeforeFirstWithGapOrOverlap_then_counted() {
+    TraceBufAssembler assembler = new TraceBufAssembler();
+    assembler.add(packet(500, 600));
+    assembler.add(packet(100, 200));
+
+    int[] expected = expected(100, 600);
+    Arrays.fill(expected, 100, 400, Wave.NO_DATA);
+    assertArrayEquals(expected, assembler.getWave().buffer);
+    assertEquals(1, assembler.getGapCount());
+    assertEquals(300, assembler.getGapSamples());
+
+    TraceBuf earlier = packet(50, 150);
+    Arrays.fill(earlier.data, 7);
+    assembler = new TraceBufAssembler();
+    assembler.add(packet(100, 200));
+    assembler.add(earlier);
+
+    expected = expected(50, 200);
+    Arrays.fill(expected, 0, 100, 7);
+    assertArrayEquals(expected, assembler.getWave().buffer);
+    assertEquals(1, assembler.getOverlapCount());
+    assertEquals(50, assembler.getOverlapSamples());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_samplingRateDiffers_then_rejected() {
+    TraceBufAssembler assembler = new TraceBufAssembler();
+    assembler.add(packet(0, 100));
+    assembler.add(packet(100, 200, 50));
+
+    assertEquals(1, assembler.getRejectedCount());
+    assertArrayEquals(expected(0, 100), assembler.getWave().buffer);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_listUnsorted_then_sameAsSorted() {
+    List<TraceBuf> packets = new ArrayList<TraceBuf>();
+    for (int i = 0; i < SAMPLES.length; i += 50) {
+      packets.add(packet(i, i + 50));
+    }
+    TraceBuf first = packets.get(0);
+    Collections.shuffle(packets, new Random(2));
+    packets.add(packet(0, 100, 50));
+
+    Wave wave = TraceBuf.traceBufToWave(packets);
+    assertArrayEquals(SAMPLES, wave.buffer);
+    assertEquals(first.getStartTime(), wave.getStartTime(), 1E-6);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_lastPacketRegisteredLater_then_wholeWave() {
+    // starts 0.6 samples late, so registers a whole sample after the first packet ends
+    TraceBuf late = new TraceBuf("ST0$EHZ$AV",
+        new Wave(expected(100, 200), 100.6 / SAMPLING_RATE, SAMPLING_RATE));
+    List<TraceBuf> packets = new ArrayList<TraceBuf>();
+    packets.add(late);
+    packets.add(packet(0, 100));
+
+    int[] expected = new int[201];
+    System.arraycopy(SAMPLES, 0, expected, 0, 100);
+    expected[100] = Wave.NO_DATA;
+    System.arraycopy(SAMPLES, 100, expected, 101, 100);
+    assertArrayEquals(expected, TraceBuf.traceBufToWave(packets).buffer);
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @Test
+  public void when_rawStreamUnsorted_then_samplesJoined() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = SAMPLES.length; i > 0; i -= 200) {
+      TraceBuf tb = packet(i - 200, i);
+      tb.createBytes();
+      // without the message terminator, as in a wave server reply
+      out.write(tb.bytes, 0, tb.bytes.length - 1);
+    }
+
+    TraceBufAssembler assembler = new TraceBufAssembler();
+    assembler.addAll(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), false);
+    assertArrayEquals(SAMPLES, assembler.getWave().buffer);
+    assertEquals(0, assembler.getRejectedCount());
+  }
+}
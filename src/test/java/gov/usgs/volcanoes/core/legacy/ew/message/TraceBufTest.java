@@ -0,0 +1,22 @@
+package gov.usgs.volcanoes.core.legacy.ew.message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+import org.junit.Test;
+
+public class TraceBufTest {
+
+  /**
+   *
+   */
+  @Test
+  public void when_floatingPointWave_then_samplesRounded() {
+    Wave wave = new Wave(new double[] {1.4, -2.6, 1E6 + 0.5}, 0, 100);
+    TraceBuf tb = new TraceBuf("ST0$EHZ$AV", wave);
+    assertEquals(3, tb.numSamples(), 0);
+    assertArrayEquals(new int[] {1, -3, 1000001}, tb.samples());
+  }
+}
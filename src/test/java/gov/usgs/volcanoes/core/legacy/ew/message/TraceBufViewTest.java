@@ -0,0 +1,125 @@
+package gov.usgs.volcanoes.core.legacy.ew.message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import org.junit.Test;
+
+public class TraceBufViewTest {
+
+  private static final double DELTA = 1E-9;
+
+  private static final int[] SAMPLES = new int[] {1, -2, 300, -4000, 5, 6};
+
+  private static ByteBuffer message(ByteBuffer bb, String dataType) {
+    int start = bb.position();
+    bb.order(dataType.charAt(0) == 'i' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    bb.putInt(7);
+    bb.putInt(SAMPLES.length);
+    bb.putDouble(1.5E9);
+    bb.putDouble(1.5E9 + (SAMPLES.length - 1) / 100.0);
+    bb.putDouble(100);
+    putCode(bb, "STA", 7);
+    putCode(bb, "NT", 9);
+    putCode(bb, "EHZ", 4);
+    putCode(bb, "01", 3);
+    putCode(bb, "", 2);
+    putCode(bb, dataType, 3);
+    putCode(bb, "", 4);
+    for (int d : SAMPLES) {
+      if (dataType.charAt(1) == '2') {
+        bb.putShort((short) d);
+      } else {
+        bb.putInt(d);
+      }
+    }
+    bb.flip();
+    bb.position(start);
+    return bb;
+  }
+
+  private static void putCode(ByteBuffer bb, String code, int length) {
+    for (int i = 0; i < length; i++) {
+      bb.put(i < code.length() ? (byte) code.charAt(i) : 0);
+    }
+  }
+
+  private static TraceBuf legacy(ByteBuffer bb) throws IOException {
+    byte[] b = new byte[bb.remaining()];
+    bb.duplicate().get(b);
+    TraceBuf tb = new TraceBuf();
+    tb.processBytes(new DataInputStream(new ByteArrayInputStream(b)), true);
+    return tb;
+  }
+
+  /**
+   * @throws IOException when things go wrong
+   */
+  @Test
+  public void when_anyDataType_then_matchProcessBytes() throws IOException {
+    for (String dataType : new String[] {"s4", "i4", "s2", "i2"}) {
+      ByteBuffer bb = message(ByteBuffer.allocate(256), dataType);
+      TraceBuf expected = legacy(bb);
+      TraceBufView view = new TraceBufView().wrap(bb, true);
+
+      assertEquals(7, view.pin());
+      assertEquals(expected.numSamples, view.numSamples());
+      assertEquals(expected.firstSampleTime, view.firstSampleTimeMicros());
+      assertEquals(expected.samplingPeriod, view.samplingPeriodMicros());
+      assertEquals(expected.station, view.station());
+      assertEquals(expected.network, view.network());
+      assertEquals(expected.channel, view.channel());
+      assertEquals(expected.location, view.location());
+      assertEquals(dataType, view.dataType());
+
+      int[] samples = new int[SAMPLES.length + 2];
+      assertEquals(SAMPLES.length, view.copySamples(samples, 2));
+      assertEquals(SAMPLES[3], samples[5]);
+
+      TraceBuf tb = view.toTraceBuf();
+      assertArrayEquals(expected.samples(), tb.samples());
+      assertEquals(expected.toWinstonString(), tb.toWinstonString());
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_directBufferAtOffset_then_viewSamples() {
+    ByteBuffer bb = ByteBuffer.allocateDirect(512);
+    bb.position(100);
+    message(bb, "i4");
+    TraceBufView view = new TraceBufView().wrap(bb, 100, true);
+
+    IntBuffer samples = view.samples();
+    assertEquals(SAMPLES.length, samples.remaining());
+    for (int i = 0; i < SAMPLES.length; i++) {
+      assertEquals(SAMPLES[i], samples.get(i));
+    }
+    assertEquals(100.0, view.samplingRate(), DELTA);
+    assertEquals(TraceBufView.HEADER_LENGTH + 4 * SAMPLES.length, view.length());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_codesRepeat_then_sameString() {
+    TraceBufView view = new TraceBufView();
+    String first = view.wrap(message(ByteBuffer.allocate(256), "s4"), true).station();
+    String second = view.wrap(message(ByteBuffer.allocate(256), "i2"), true).station();
+
+    assertSame(first, second);
+    assertNull(view.samples());
+  }
+}
@@ -0,0 +1,175 @@
+package gov.usgs.volcanoes.core.legacy.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommandDispatcherTest {
+
+  private static final class TestServer extends Server {
+    TestServer(int handlers, Command command) {
+      for (int i = 0; i < handlers; i++) {
+        addCommandHandler(new TestHandler(this, command));
+      }
+    }
+  }
+
+  private static final class TestHandler extends CommandHandler {
+    TestHandler(Server server, Command command) {
+      super(server, "TestHandler");
+      addCommand("RUN", command);
+    }
+
+    @Override
+    protected void setupCommandHandlers() {}
+  }
+
+  private final List<SocketChannel> channels = new ArrayList<SocketChannel>();
+  private CommandDispatcher dispatcher;
+
+  private SocketChannel channel() throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    channels.add(channel);
+    return channel;
+  }
+
+  /**
+   *
+   */
+  @Before
+  public void setUp() {
+    channels.clear();
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @After
+  public void tearDown() throws Exception {
+    if (dispatcher != null) {
+      dispatcher.shutdown(1000);
+    }
+    for (SocketChannel channel : channels) {
+      channel.close();
+    }
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_handlersBusyAtStart_then_threadForEveryHandler() throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(3);
+    final AtomicInteger met = new AtomicInteger();
+    TestServer server = new TestServer(3, new Command() {
+      @Override
+      public void doCommand(Object info, SocketChannel channel) {
+        try {
+          barrier.await(5, TimeUnit.SECONDS);
+          met.incrementAndGet();
+        } catch (Exception e) {
+          // too few threads to meet
+        }
+      }
+    });
+
+    // two handlers are running commands when the dispatcher is made
+    CommandHandler a = server.checkoutCommandHandler();
+    CommandHandler b = server.checkoutCommandHandler();
+    assertEquals(1, server.getPoolSize());
+    assertEquals(3, server.getMaxPoolSize());
+    dispatcher = new CommandDispatcher(server, 10);
+    server.addCommandHandler(a);
+    server.addCommandHandler(b);
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(dispatcher.dispatch(channel(), null, "RUN"));
+    }
+    dispatcher.shutdown(10000);
+    assertEquals(3, met.get());
+    assertEquals(3, dispatcher.getCompletedCount());
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_sameConnection_then_commandsRunInOrder() throws Exception {
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger overlapped = new AtomicInteger();
+    TestServer server = new TestServer(4, new Command() {
+      @Override
+      public void doCommand(Object info, SocketChannel channel) {
+        if (running.incrementAndGet() > 1) {
+          overlapped.incrementAndGet();
+        }
+        try {
+          Thread.sleep(2);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        order.add((String) info);
+        running.decrementAndGet();
+      }
+    });
+    dispatcher = new CommandDispatcher(server, 100);
+
+    SocketChannel channel = channel();
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 20; i++) {
+      expected.add("RUN " + i);
+      assertTrue(dispatcher.dispatch(channel, null, "RUN " + i));
+    }
+    dispatcher.shutdown(10000);
+    assertEquals(expected, order);
+    assertEquals(0, overlapped.get());
+    assertEquals(0, dispatcher.getQueueDepth());
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_queueFull_then_rejected() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    TestServer server = new TestServer(1, new Command() {
+      @Override
+      public void doCommand(Object info, SocketChannel channel) {
+        started.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    dispatcher = new CommandDispatcher(server, 2);
+
+    assertTrue(dispatcher.dispatch(channel(), null, "RUN"));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertTrue(dispatcher.dispatch(channel(), null, "RUN"));
+    assertFalse(dispatcher.dispatch(channel(), null, "RUN"));
+    assertEquals(1, dispatcher.getRejectedCount());
+    assertEquals(2, dispatcher.getQueueDepth());
+
+    release.countDown();
+    dispatcher.shutdown(10000);
+    assertEquals(2, dispatcher.getCompletedCount());
+  }
+}
@@ -0,0 +1,209 @@
+package gov.usgs.volcanoes.core.legacy.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionsTest {
+
+  private final Connections connections = Connections.getInstance();
+  private final List<SocketChannel> channels = new ArrayList<SocketChannel>();
+
+  private SocketChannel channel() throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    channels.add(channel);
+    connections.getConnectionStatistics(channel);
+    return channel;
+  }
+
+  /**
+   * Our connections, least recently used first.
+   */
+  private List<SocketChannel> idle() {
+    List<SocketChannel> idle = new ArrayList<SocketChannel>();
+    for (SocketChannel channel : connections.getIdleConnections(-60000)) {
+      if (channels.contains(channel)) {
+        idle.add(channel);
+      }
+    }
+    return idle;
+  }
+
+  private static void nextMillisecond() throws InterruptedException {
+    long now = System.currentTimeMillis();
+    while (System.currentTimeMillis() == now) {
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   *
+   */
+  @Before
+  public void setUp() {
+    channels.clear();
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @After
+  public void tearDown() throws IOException {
+    for (SocketChannel channel : channels) {
+      connections.remove(channel);
+      channel.close();
+    }
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_touched_then_movedToEnd() throws Exception {
+    SocketChannel a = channel();
+    SocketChannel b = channel();
+    SocketChannel c = channel();
+    ConnectionStatistics cs = connections.getConnectionStatistics(a);
+    assertEquals(cs.connectTime, cs.getLastRequestTime());
+
+    nextMillisecond();
+    cs.touch();
+    assertTrue(cs.getLastRequestTime() > cs.connectTime);
+    List<SocketChannel> expected = new ArrayList<SocketChannel>();
+    expected.add(b);
+    expected.add(c);
+    expected.add(a);
+    assertEquals(expected, idle());
+
+    nextMillisecond();
+    connections.getConnectionStatistics(b).touch();
+    expected.remove(b);
+    expected.add(b);
+    assertEquals(expected, idle());
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_removed_then_touchDoesNotIndex() throws Exception {
+    SocketChannel a = channel();
+    SocketChannel b = channel();
+    ConnectionStatistics cs = connections.getConnectionStatistics(a);
+    connections.remove(a);
+
+    nextMillisecond();
+    cs.touch();
+    assertFalse(connections.getIdleConnections(-60000).contains(a));
+    assertEquals(1, idle().size());
+    assertEquals(b, idle().get(0));
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_touchedFromManyThreads_then_indexConsistent() throws Exception {
+    final List<ConnectionStatistics> css = new ArrayList<ConnectionStatistics>();
+    for (int i = 0; i < 16; i++) {
+      css.add(connections.getConnectionStatistics(channel()));
+    }
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 4; i++) {
+      final int offset = i;
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          long end = System.currentTimeMillis() + 200;
+          for (int j = offset; System.currentTimeMillis() < end; j++) {
+            css.get(j % css.size()).touch();
+          }
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    List<SocketChannel> idle = idle();
+    assertEquals(channels.size(), idle.size());
+    assertTrue(idle.containsAll(channels));
+    long last = 0;
+    for (SocketChannel channel : idle) {
+      long time = connections.getConnectionStatistics(channel).getLastRequestTime();
+      assertTrue(time >= last);
+      last = time;
+    }
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_countedFromManyThreads_then_totalsExact() throws Exception {
+    final SocketChannel channel = channel();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            connections.read(channel, 2);
+            connections.sent(channel, 3);
+          }
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    ConnectionStatistics cs = connections.getConnectionStatistics(channel);
+    assertEquals(8 * 10000 * 2L, cs.getNumBytesReceived());
+    assertEquals(8 * 10000 * 3L, cs.getNumBytesSent());
+
+    ConnectionStatistics snapshot = cs.snapshot();
+    connections.sent(channel, 5);
+    assertEquals(8 * 10000 * 3L, snapshot.getNumBytesSent());
+    assertEquals(cs.getLastRequestTime(), snapshot.getLastRequestTime());
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @SuppressWarnings("deprecation")
+  @Test
+  public void when_updated_then_publicFieldsFollow() throws Exception {
+    SocketChannel a = channel();
+    SocketChannel b = channel();
+    ConnectionStatistics cs = connections.getConnectionStatistics(b);
+    nextMillisecond();
+    cs.touch();
+    connections.read(b, 2);
+    connections.sent(b, 3);
+    assertEquals(cs.getLastRequestTime(), cs.lastRequestTime);
+    assertEquals(2, cs.numBytesReceived);
+    assertEquals(3, cs.numBytesSent);
+    assertEquals(cs.lastRequestTime, cs.snapshot().lastRequestTime);
+    assertEquals(3, cs.snapshot().numBytesSent);
+
+    // writing the old fields does not disturb the idle index
+    cs.lastRequestTime = 0;
+    assertEquals(a, idle().get(0));
+    assertTrue(cs.getLastRequestTime() > cs.connectTime);
+  }
+}
@@ -0,0 +1,184 @@
+package gov.usgs.volcanoes.core.legacy.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NetToolsTest {
+
+  private static final int TOTAL = 1 << 20;
+
+  private SocketChannel client;
+  private SocketChannel accepted;
+
+  /**
+   * @throws IOException never
+   */
+  @Before
+  public void setUp() throws IOException {
+    ServerSocketChannel listener = ServerSocketChannel.open();
+    listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    // small socket buffers, so writers soon meet a full socket
+    client = SocketChannel.open();
+    client.setOption(StandardSocketOptions.SO_RCVBUF, 8192);
+    client.connect(listener.getLocalAddress());
+    accepted = listener.accept();
+    accepted.setOption(StandardSocketOptions.SO_SNDBUF, 8192);
+    accepted.configureBlocking(false);
+    listener.close();
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @After
+  public void tearDown() throws IOException {
+    client.close();
+    accepted.close();
+  }
+
+  private static ByteBuffer payload() {
+    ByteBuffer bb = ByteBuffer.allocate(TOTAL);
+    for (int i = 0; i < TOTAL; i++) {
+      bb.put(i, (byte) i);
+    }
+    return bb;
+  }
+
+  /**
+   * Read from the client, pausing between reads.
+   */
+  private Thread reader(final AtomicLong received, final AtomicLong errors) {
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        ByteBuffer bb = ByteBuffer.allocate(65536);
+        try {
+          Thread.sleep(200);
+          while (true) {
+            bb.clear();
+            int n = client.read(bb);
+            if (n < 0) {
+              return;
+            }
+            long offset = received.get();
+            for (int i = 0; i < n; i++) {
+              if (bb.get(i) != (byte) (offset + i)) {
+                errors.incrementAndGet();
+              }
+            }
+            received.addAndGet(n);
+            Thread.sleep(1);
+          }
+        } catch (Exception e) {
+          // closed
+        }
+      }
+    });
+    reader.setDaemon(true);
+    reader.start();
+    return reader;
+  }
+
+  private static int openFiles() {
+    String[] fds = new File("/proc/self/fd").list();
+    return fds == null ? -1 : fds.length;
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_clientSlow_then_everyByteWritten() throws Exception {
+    AtomicLong received = new AtomicLong();
+    AtomicLong errors = new AtomicLong();
+    reader(received, errors);
+
+    NetTools netTools = new NetTools();
+    assertEquals(TOTAL, netTools.writeByteBuffer(payload(), accepted));
+    assertEquals(TOTAL, awaitReceived(received, TOTAL));
+    assertEquals(0, errors.get());
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_writersWait_then_selectorReused() throws Exception {
+    assumeTrue(openFiles() > 0);
+    AtomicLong received = new AtomicLong();
+    reader(received, new AtomicLong());
+
+    final NetTools netTools = new NetTools();
+    int before = 0;
+    for (int i = 0; i < 5; i++) {
+      if (i == 1) {
+        // the first writer opened the selector the others share
+        before = openFiles();
+      }
+      // each from a thread of its own, as handlers come and go
+      Thread writer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          netTools.writeByteBuffer(payload(), accepted);
+        }
+      });
+      writer.start();
+      writer.join(30000);
+    }
+    assertEquals(5L * TOTAL, awaitReceived(received, 5L * TOTAL));
+    assertEquals(before, openFiles());
+    assertEquals(1, netTools.idleSelectors());
+  }
+
+  private static long awaitReceived(AtomicLong received, long expected)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (received.get() < expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    return received.get();
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_sentFromManyThreads_then_totalExact() throws Exception {
+    final Server server = new Server() {};
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 100000; j++) {
+            server.recordSent(null, 3);
+          }
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(8 * 100000 * 3L, server.getTotalBytesSent());
+    assertEquals(8 * 100000 * 3L, server.totalBytesSent);
+  }
+}
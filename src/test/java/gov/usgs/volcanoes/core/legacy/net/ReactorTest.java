@@ -0,0 +1,265 @@
+package gov.usgs.volcanoes.core.legacy.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.volcanoes.core.legacy.util.Pool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ReactorTest {
+
+  private static int port;
+
+  /**
+   * Replies to ECHO with its argument, after a random pause, and to POST with the length of the
+   * request body.
+   */
+  private static final class TestServer extends Server {
+    TestServer(int port) {
+      super(InetAddress.getLoopbackAddress(), port);
+      setReaderThreads(2);
+      final Random random = new Random(1);
+      Command echo = new Command() {
+        @Override
+        public void doCommand(Object info, SocketChannel channel) {
+          int pause;
+          synchronized (random) {
+            pause = random.nextInt(3);
+          }
+          try {
+            Thread.sleep(pause);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          netTools.writeString(((String) info).substring(5) + "\n", channel);
+        }
+      };
+      Command post = new Command() {
+        @Override
+        public void doCommand(Object info, SocketChannel channel) {
+          String request = (String) info;
+          int body = request.indexOf("\r\n\r\n") + 4;
+          netTools.writeString((request.length() - body) + "\n", channel);
+        }
+      };
+      for (int i = 0; i < 4; i++) {
+        addCommandHandler(new TestHandler(this, echo, post));
+      }
+    }
+  }
+
+  private static final class TestHandler extends CommandHandler {
+    TestHandler(Server server, Command echo, Command post) {
+      super(server, "TestHandler");
+      addCommand("ECHO", echo);
+      addCommand("POST", post);
+    }
+
+    @Override
+    protected void setupCommandHandlers() {}
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @BeforeClass
+  public static void startServer() throws Exception {
+    ServerSocket probe = new ServerSocket(0);
+    port = probe.getLocalPort();
+    probe.close();
+
+    final TestServer server = new TestServer(port);
+    Thread listener = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        server.startListening();
+      }
+    });
+    listener.setDaemon(true);
+    listener.start();
+
+    // wait for the server to bind
+    for (int i = 0; i < 100; i++) {
+      try {
+        new Socket(InetAddress.getLoopbackAddress(), port).close();
+        return;
+      } catch (IOException e) {
+        Thread.sleep(50);
+      }
+    }
+  }
+
+  private static Socket connect() throws IOException {
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+    socket.setSoTimeout(10000);
+    return socket;
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b < 0) {
+        return null;
+      }
+      line.write(b);
+    }
+    return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_commandsPipelined_then_repliesInOrder() throws Exception {
+    Socket socket = connect();
+    try {
+      StringBuilder commands = new StringBuilder();
+      for (int i = 0; i < 100; i++) {
+        commands.append("ECHO ").append(i).append('\n');
+      }
+      socket.getOutputStream().write(commands.toString().getBytes(StandardCharsets.US_ASCII));
+
+      InputStream in = socket.getInputStream();
+      for (int i = 0; i < 100; i++) {
+        assertEquals(Integer.toString(i), readLine(in));
+      }
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_postLargerThanBuffer_then_served() throws Exception {
+    int length = 5 * Reactor.BUFFER_SIZE;
+    byte[] body = new byte[length];
+    Arrays.fill(body, (byte) 'x');
+
+    Socket socket = connect();
+    try {
+      OutputStream out = socket.getOutputStream();
+      out.write(("POST /data HTTP/1.1\r\nContent-Length: " + length + "\r\n\r\n")
+          .getBytes(StandardCharsets.US_ASCII));
+      out.write(body);
+      out.write("ECHO after\n".getBytes(StandardCharsets.US_ASCII));
+
+      InputStream in = socket.getInputStream();
+      assertEquals(Integer.toString(length), readLine(in));
+      assertEquals("after", readLine(in));
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_commandTooLong_then_closed() throws Exception {
+    byte[] junk = new byte[Reactor.MAX_COMMAND_SIZE + Reactor.BUFFER_SIZE];
+    Arrays.fill(junk, (byte) 'x');
+
+    Socket socket = connect();
+    try {
+      try {
+        socket.getOutputStream().write(junk);
+      } catch (IOException e) {
+        // closed while writing
+      }
+      assertEquals(-1, socket.getInputStream().read());
+    } catch (IOException e) {
+      // reset, also closed
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * @throws Exception when things go wrong
+   */
+  @Test
+  public void when_clientSlow_then_outputBounded() throws Exception {
+    ServerSocketChannel listener = ServerSocketChannel.open();
+    listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    final SocketChannel client = SocketChannel.open(listener.getLocalAddress());
+    SocketChannel accepted = listener.accept();
+    accepted.configureBlocking(false);
+    listener.close();
+
+    Server server = new Server() {};
+    Reactor reactor = new Reactor(server, "test", new Pool<ByteBuffer>());
+    final ConnectionContext context = new ConnectionContext(accepted, reactor, null);
+
+    final int total = 32 * ConnectionContext.MAX_OUTSTANDING;
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < 16; i++) {
+            context.write(ByteBuffer.allocate(total / 16));
+          }
+        } catch (IOException e) {
+          // checked below
+        }
+      }
+    });
+    writer.start();
+
+    // nothing read until the writer is blocked
+    long deadline = System.currentTimeMillis() + 10000;
+    while (writer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(Thread.State.WAITING, writer.getState());
+    assertTrue(context.getOutstandingBytes() <= ConnectionContext.MAX_OUTSTANDING);
+
+    // read everything, flushing as the reactor would
+    final AtomicLong received = new AtomicLong();
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        ByteBuffer bb = ByteBuffer.allocate(65536);
+        try {
+          while (received.get() < total) {
+            bb.clear();
+            received.addAndGet(client.read(bb));
+          }
+        } catch (IOException e) {
+          // checked below
+        }
+      }
+    });
+    reader.start();
+    while (writer.isAlive() || context.getOutstandingBytes() > 0) {
+      context.flush();
+      assertTrue(context.getOutstandingBytes() <= ConnectionContext.MAX_OUTSTANDING);
+      Thread.sleep(1);
+    }
+    reader.join(10000);
+    assertEquals(total, received.get());
+
+    client.close();
+    accepted.close();
+  }
+}
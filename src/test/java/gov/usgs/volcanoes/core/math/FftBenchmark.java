@@ -0,0 +1,185 @@
+package gov.usgs.volcanoes.core.math;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare the FFT backends with each other and with the radix-2 transform previously in
+ * <code>FFT.fft()</code>, at lengths typical of seismic work: spectrogram bins, and a minute of data
+ * at 100 Hz, which is not a power of two.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class FftBenchmark {
+
+  private static final int BATCH = 64;
+
+  @Param({"built-in", "JTransforms"})
+  private String backend;
+
+  @Param({"256", "1000", "1024", "4096", "6000", "65536"})
+  private int n;
+
+  private FftPlan plan;
+  private double[] signal;
+  private double[] signals;
+  private double[] complex;
+  private double[] spectrum;
+  private double[] spectra;
+  private double[] padded;
+
+  /**
+   * Create a synthetic signal and a plan.
+   */
+  @Setup
+  public void setup() {
+    plan = Fft.plan(backend.equals(Fft.BUILT_IN.getName()) ? Fft.BUILT_IN : Fft.JTRANSFORMS, n);
+
+    Random random = new Random(1);
+    signals = new double[n * BATCH];
+    for (int i = 0; i < signals.length; i++) {
+      signals[i] = random.nextGaussian() * 1000;
+    }
+    signal = new double[n];
+    System.arraycopy(signals, 0, signal, 0, n);
+    complex = new double[2 * n];
+    spectrum = new double[2 * FftPlan.spectrumLength(n)];
+    spectra = new double[spectrum.length * BATCH];
+    padded = new double[2 * Fft.nextPowerOf2(n)];
+  }
+
+  /**
+   * Transform one real signal.
+   *
+   * @return one of the values
+   */
+  @Benchmark
+  public double realForward() {
+    plan.realForward(signal, 0, spectrum, 0);
+    return spectrum[2];
+  }
+
+  /**
+   * Transform one real signal as a complex one.
+   *
+   * @return one of the values
+   */
+  @Benchmark
+  public double complexForward() {
+    for (int i = 0; i < n; i++) {
+      complex[2 * i] = signal[i];
+      complex[2 * i + 1] = 0;
+    }
+    plan.complexForward(complex, 0);
+    return complex[2];
+  }
+
+  /**
+   * Transform a batch of real signals.
+   *
+   * @return one of the values
+   */
+  @Benchmark
+  public double realForwardBatch() {
+    plan.realForwardBatch(signals, spectra, BATCH);
+    return spectra[2];
+  }
+
+  /**
+   * Transform as <code>FFT.fft()</code> did before, padding to a power of two and computing the
+   * twiddle factors by recurrence. The backend parameter does not apply.
+   *
+   * @return one of the values
+   */
+  @Benchmark
+  public double legacy() {
+    Arrays.fill(padded, 0);
+    for (int i = 0; i < n; i++) {
+      padded[2 * i] = signal[i];
+    }
+    legacyFft(padded);
+    return padded[2];
+  }
+
+  private static void legacyFft(double[] array) {
+    double u_r, u_i, w_r, w_i, t_r, t_i;
+    int ln, nv2, k, l, le, le1, j, ip, i, n, p, q;
+
+    n = array.length / 2;
+    ln = (int) (Math.log((double) n) / Math.log(2) + 0.5);
+    nv2 = n / 2;
+    j = 1;
+
+    for (i = 1; i < n; i++) {
+      if (i < j) {
+        t_r = array[2 * (i - 1)];
+        t_i = array[2 * (i - 1) + 1];
+
+        array[2 * (i - 1)] = array[2 * (j - 1)];
+        array[2 * (i - 1) + 1] = array[2 * (j - 1) + 1];
+
+        array[2 * (j - 1)] = t_r;
+        array[2 * (j - 1) + 1] = t_i;
+      }
+      k = nv2;
+      while (k < j) {
+        j = j - k;
+        k = k / 2;
+      }
+      j = j + k;
+    }
+
+    for (l = 1; l <= ln; l++) {
+      le = (int) (Math.exp((double) l * Math.log(2)) + 0.5);
+      le1 = le / 2;
+      u_r = 1.0;
+      u_i = 0.0;
+      w_r = Math.cos(Math.PI / (double) le1);
+      w_i = -Math.sin(Math.PI / (double) le1);
+      for (j = 1; j <= le1; j++) {
+        for (i = j, p = 2 * (i - 1); i <= n; i += le, p += 2 * le) {
+          ip = i + le1;
+          q = 2 * (ip - 1);
+
+          t_r = array[q] * u_r - u_i * array[q + 1];
+          t_i = array[q + 1] * u_r + u_i * array[q];
+
+          array[q] = array[p] - t_r;
+          array[q + 1] = array[p + 1] - t_i;
+
+          array[p] = array[p] + t_r;
+          array[p + 1] = array[p + 1] + t_i;
+        }
+        t_r = u_r * w_r - w_i * u_i;
+        u_i = w_r * u_i + w_i * u_r;
+        u_r = t_r;
+      }
+    }
+  }
+
+  /**
+   * Run benchmark from the command line.
+   *
+   * @param args ignored
+   * @throws RunnerException when things go wrong
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(FftBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,150 @@
+package gov.usgs.volcanoes.core.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FftTest {
+
+  private static final int[] SIZES = {1, 2, 3, 4, 5, 6, 8, 12, 100, 256, 1000, 1024};
+
+  private static double[] dft(double[] x) {
+    int n = x.length / 2;
+    double[] y = new double[2 * n];
+    for (int k = 0; k < n; k++) {
+      for (int j = 0; j < n; j++) {
+        double a = -2 * Math.PI * ((long) j * k % n) / n;
+        y[2 * k] += x[2 * j] * Math.cos(a) - x[2 * j + 1] * Math.sin(a);
+        y[2 * k + 1] += x[2 * j] * Math.sin(a) + x[2 * j + 1] * Math.cos(a);
+      }
+    }
+    return y;
+  }
+
+  private static double[] random(Random random, int n) {
+    double[] x = new double[n];
+    for (int i = 0; i < n; i++) {
+      x[i] = random.nextGaussian();
+    }
+    return x;
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_complexForward_then_matchesDft() {
+    Random random = new Random(1);
+    for (int n : SIZES) {
+      double[] x = random(random, 2 * n);
+      double[] expected = dft(x);
+      double[] y = x.clone();
+      Fft.plan(Fft.BUILT_IN, n).complexForward(x, 0);
+      assertArrayEquals("n = " + n, expected, x, 1E-9 * n);
+      Fft.plan(Fft.JTRANSFORMS, n).complexForward(y, 0);
+      assertArrayEquals("n = " + n, expected, y, 1E-9 * n);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_offset_then_onlyThatSignalTransformed() {
+    Random random = new Random(5);
+    int n = 100;
+    for (FftBackend backend : new FftBackend[] {Fft.BUILT_IN, Fft.JTRANSFORMS}) {
+      double[] a = random(random, 6 * n);
+      double[] x = new double[2 * n];
+      System.arraycopy(a, 2 * n, x, 0, 2 * n);
+      double[] expected = a.clone();
+      System.arraycopy(dft(x), 0, expected, 2 * n, 2 * n);
+      Fft.plan(backend, n).complexForward(a, 2 * n);
+      assertArrayEquals(backend.getName(), expected, a, 1E-9 * n);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_realForward_then_matchesComplex() {
+    Random random = new Random(2);
+    for (int n : SIZES) {
+      double[] x = random(random, n);
+      double[] complex = new double[2 * n];
+      for (int i = 0; i < n; i++) {
+        complex[2 * i] = x[i];
+      }
+      double[] expected = new double[2 * FftPlan.spectrumLength(n)];
+      System.arraycopy(dft(complex), 0, expected, 0, expected.length);
+
+      assertArrayEquals("n = " + n, expected, Fft.plan(Fft.BUILT_IN, n).realForward(x), 1E-9 * n);
+      assertArrayEquals("n = " + n, expected, Fft.plan(Fft.JTRANSFORMS, n).realForward(x),
+          1E-9 * n);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_inverted_then_roundTrips() {
+    Random random = new Random(3);
+    for (int n : SIZES) {
+      double[] x = random(random, 2 * n);
+      double[] y = x.clone();
+      FftPlan plan = Fft.plan(Fft.BUILT_IN, n);
+      plan.complexForward(y, 0);
+      plan.complexInverse(y, 0, true);
+      assertArrayEquals("n = " + n, x, y, 1E-12 * n);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_batched_then_matchesSingle() {
+    Random random = new Random(4);
+    int n = 600;
+    int count = 300;
+    FftPlan plan = Fft.plan(Fft.BUILT_IN, n);
+    double[] signals = random(random, n * count);
+    int stride = 2 * FftPlan.spectrumLength(n);
+    double[] spectra = new double[stride * count];
+    plan.realForwardBatch(signals, spectra, count);
+
+    double[] expected = new double[stride];
+    double[] actual = new double[stride];
+    for (int i = 0; i < count; i += 37) {
+      plan.realForward(signals, i * n, expected, 0);
+      System.arraycopy(spectra, i * stride, actual, 0, stride);
+      assertArrayEquals(expected, actual, 0);
+    }
+    assertSame(plan, Fft.plan(Fft.BUILT_IN, n));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_manyLengths_then_leastRecentlyUsedDropped() {
+    Fft.clearPlans();
+    FftPlan first = Fft.plan(Fft.JTRANSFORMS, 7);
+    FftPlan second = Fft.plan(Fft.JTRANSFORMS, 9);
+    for (int n = 1000; n < 1000 + Fft.MAX_PLANS - 1; n++) {
+      Fft.plan(Fft.JTRANSFORMS, n);
+      assertSame(first, Fft.plan(Fft.JTRANSFORMS, 7));
+    }
+    assertSame(first, Fft.plan(Fft.JTRANSFORMS, 7));
+    assertNotSame(second, Fft.plan(Fft.JTRANSFORMS, 9));
+
+    Fft.release(Fft.JTRANSFORMS, 7);
+    assertNotSame(first, Fft.plan(Fft.JTRANSFORMS, 7));
+  }
+}
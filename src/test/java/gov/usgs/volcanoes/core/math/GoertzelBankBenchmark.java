@@ -0,0 +1,97 @@
+package gov.usgs.volcanoes.core.math;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare a Goertzel bank with one call of <code>Goertzel.goertzel()</code> per frequency and
+ * channel, for a minute of data at 100 Hz.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class GoertzelBankBenchmark {
+
+  private static final int LENGTH = 6000;
+  private static final double SAMPLING_RATE = 100;
+
+  @Param({"10", "50"})
+  private int frequencies;
+
+  @Param({"200"})
+  private int channels;
+
+  private double[] bands;
+  private int[][] signals;
+  private GoertzelBank bank;
+
+  /**
+   * Create synthetic channels.
+   */
+  @Setup
+  public void setup() {
+    Random random = new Random(1);
+    signals = new int[channels][LENGTH];
+    for (int c = 0; c < channels; c++) {
+      for (int i = 0; i < LENGTH; i++) {
+        signals[c][i] = random.nextInt(20000) - 10000;
+      }
+    }
+    bands = new double[frequencies];
+    for (int f = 0; f < frequencies; f++) {
+      bands[f] = 0.5 + f * 0.2;
+    }
+    bank = new GoertzelBank(bands, SAMPLING_RATE, LENGTH, true);
+  }
+
+  /**
+   * One pass per frequency and channel, windowing a copy of the channel each time.
+   *
+   * @return one of the powers
+   */
+  @Benchmark
+  public double legacy() {
+    double last = 0;
+    for (int c = 0; c < channels; c++) {
+      for (int f = 0; f < frequencies; f++) {
+        last = Goertzel.goertzel(bands[f], SAMPLING_RATE, signals[c].clone(), true);
+      }
+    }
+    return last;
+  }
+
+  /**
+   * One pass per channel, channels in parallel.
+   *
+   * @return one of the powers
+   */
+  @Benchmark
+  public double bank() {
+    return bank.power(signals)[channels - 1][frequencies - 1];
+  }
+
+  /**
+   * Run benchmark from the command line.
+   *
+   * @param args ignored
+   * @throws RunnerException when things go wrong
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(GoertzelBankBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
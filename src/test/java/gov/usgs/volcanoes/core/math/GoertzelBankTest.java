@@ -0,0 +1,119 @@
+package gov.usgs.volcanoes.core.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GoertzelBankTest {
+
+  private static final double SAMPLING_RATE = 100;
+  private static final double[] FREQUENCIES = {0.5, 1, 2.25, 5, 7.7, 12.5, 30};
+
+  private static int[] noise(Random random, int n) {
+    int[] samples = new int[n];
+    for (int i = 0; i < n; i++) {
+      samples[i] = random.nextInt(2000) - 1000;
+    }
+    return samples;
+  }
+
+  private static double[] direct(double[] x, int offset, int n, boolean hamming) {
+    double[] window = hamming ? Util.hamming(n) : null;
+    double[] power = new double[FREQUENCIES.length];
+    for (int f = 0; f < FREQUENCIES.length; f++) {
+      double re = 0;
+      double im = 0;
+      for (int m = 0; m < n; m++) {
+        double v = x[offset + m] * (hamming ? window[m] : 1);
+        double a = 2 * Math.PI * FREQUENCIES[f] / SAMPLING_RATE * m;
+        re += v * Math.cos(a);
+        im -= v * Math.sin(a);
+      }
+      power[f] = re * re + im * im;
+    }
+    return power;
+  }
+
+  private static void assertPower(double[] expected, double[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], actual[i], 1E-7 * Math.max(1, expected[i]));
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_block_then_matchesSingleGoertzel() {
+    int[] signal = noise(new Random(1), 3000);
+    double[] power = new GoertzelBank(FREQUENCIES, SAMPLING_RATE, 3000, false).power(signal);
+    for (int f = 0; f < FREQUENCIES.length; f++) {
+      double expected = Goertzel.goertzel(FREQUENCIES[f], SAMPLING_RATE, signal, false);
+      assertEquals(expected, power[f], expected * 1E-9);
+    }
+
+    double[] x = new double[signal.length];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = signal[i];
+    }
+    double[] windowed = new double[FREQUENCIES.length];
+    new GoertzelBank(FREQUENCIES, SAMPLING_RATE, 2500, true).power(x, 300, windowed);
+    assertPower(direct(x, 300, 2500, true), windowed);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_manyChannels_then_matchesOneAtATime() {
+    Random random = new Random(2);
+    int[][] channels = new int[40][];
+    for (int c = 0; c < channels.length; c++) {
+      channels[c] = noise(random, 6000);
+    }
+    GoertzelBank bank = new GoertzelBank(FREQUENCIES, SAMPLING_RATE, 6000, true);
+    double[][] power = bank.power(channels);
+    for (int c = 0; c < channels.length; c++) {
+      assertArrayEquals(bank.power(channels[c]), power[c], 0);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_sliding_then_matchesLatestBlock() {
+    for (boolean hamming : new boolean[] {false, true}) {
+      Random random = new Random(3);
+      int length = 500;
+      GoertzelBank bank = new GoertzelBank(FREQUENCIES, SAMPLING_RATE, length, hamming);
+      GoertzelBank.Sliding sliding = bank.slide();
+
+      double[] x = new double[20000];
+      for (int i = 0; i < x.length; i++) {
+        x[i] = random.nextGaussian() * 100 + 50 * Math.sin(i / 7.0);
+      }
+      double[] power = new double[FREQUENCIES.length];
+      int added = 0;
+      while (added < x.length) {
+        int n = Math.min(x.length - added, random.nextInt(10) == 0 ? 800 : random.nextInt(60));
+        sliding.add(x, added, n);
+        added += n;
+
+        sliding.getPower(power);
+        if (added < length) {
+          assertFalse(sliding.isFull());
+          assertTrue(Double.isNaN(power[0]));
+        } else {
+          assertPower(direct(x, added - length, length, hamming), power);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package gov.usgs.volcanoes.core.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import gov.usgs.volcanoes.core.math.RollingWindow.Statistic;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RollingWindowTest {
+
+  private static final double DELTA = 1E-9;
+
+  private static double median(ArrayDeque<Double> values) {
+    double[] sorted = new double[values.size()];
+    int i = 0;
+    for (double v : values) {
+      sorted[i++] = v;
+    }
+    Arrays.sort(sorted);
+    int n = sorted.length;
+    return n % 2 == 0 ? (sorted[n / 2 - 1] + sorted[n / 2]) / 2 : sorted[n / 2];
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_addedAndRemoved_then_matchesSortedWindow() {
+    Random random = new Random(1);
+    RollingWindow median = RollingWindow.create(Statistic.MEDIAN);
+    RollingWindow mean = RollingWindow.create(Statistic.MEAN);
+    ArrayDeque<Double> expected = new ArrayDeque<Double>();
+
+    for (int i = 0; i < 5000; i++) {
+      // let the window wander between empty and a few hundred samples
+      boolean add = expected.isEmpty() || random.nextInt(1000) < 500 + 400 * Math.sin(i / 300.0);
+      if (add) {
+        double x = random.nextInt(50);
+        median.add(x);
+        mean.add(x);
+        expected.addLast(x);
+      } else {
+        double x = expected.removeFirst();
+        assertEquals(x, median.removeOldest(), 0);
+        assertEquals(x, mean.removeOldest(), 0);
+      }
+      assertEquals(expected.size(), median.size());
+      if (!expected.isEmpty()) {
+        assertEquals(median(expected), median.value(), DELTA);
+        double sum = 0;
+        for (double v : expected) {
+          sum += v;
+        }
+        assertEquals(sum / expected.size(), mean.value(), 1E-6);
+      }
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_rolled_then_windowSpansPeriod() {
+    double[] data = {5, 1, 9, 3, 7, 2};
+    RollingWindow.roll(Statistic.MEDIAN, data, data, null, 1, 2, false, false);
+
+    // windows are {5}, {5 1}, {5 1 9}, {1 9 3}, {9 3 7}, {3 7 2}
+    assertArrayEquals(new double[] {5, 3, 5, 3, 7, 3}, data, DELTA);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_nanSkipped_then_leftInPlace() {
+    double[] times = {0, 1, 2, 3, 10, 11};
+    double[] data = {2, Double.NaN, 4, 6, 8, 10};
+    RollingWindow.roll(Statistic.MEAN, data, data, times, 0, 2, true, false);
+
+    assertArrayEquals(new double[] {2, Double.NaN, 3, 5, 8, 9}, data, DELTA);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_parallel_then_matchesSerial() {
+    Random random = new Random(2);
+    double[] data = new double[300000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = random.nextInt(1000);
+    }
+    double[] serial = data.clone();
+    RollingWindow.roll(Statistic.MEDIAN, serial, serial, null, 100, 5, false, false);
+    RollingWindow.roll(Statistic.MEDIAN, data, data, null, 100, 5, false, true);
+
+    assertArrayEquals(serial, data, 0);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_nanKept_then_onlyItsWindowsPoisoned() {
+    double[] data = {2, Double.NaN, 4, 6, 8, Double.POSITIVE_INFINITY, 10, 12, 14};
+    RollingWindow.roll(Statistic.MEAN, data, data, null, 1, 1, false, false);
+
+    assertArrayEquals(new double[] {2, Double.NaN, Double.NaN, 5, 7, Double.POSITIVE_INFINITY,
+        Double.POSITIVE_INFINITY, 11, 13}, data, DELTA);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_meanRolledLong_then_noDrift() {
+    RollingWindow mean = RollingWindow.create(Statistic.MEAN);
+    mean.add(1E12);
+    for (int i = 0; i < 3; i++) {
+      mean.add(0.1);
+    }
+    mean.removeOldest();
+    for (int i = 0; i < 1000000; i++) {
+      mean.add(0.1 * (i % 7));
+      mean.removeOldest();
+    }
+    // the window now holds 0.1 * {5, 6, 0}
+    assertEquals(1.1 / 3, mean.value(), 1E-12);
+  }
+}
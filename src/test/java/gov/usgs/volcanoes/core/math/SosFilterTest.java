@@ -0,0 +1,100 @@
+package gov.usgs.volcanoes.core.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import gov.usgs.volcanoes.core.math.Butterworth.FilterType;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SosFilterTest {
+
+  private static double[] noise(int n) {
+    Random random = new Random(1);
+    double[] data = new double[n];
+    for (int i = 0; i < n; i++) {
+      data[i] = random.nextGaussian() * 1000 + 200;
+    }
+    return data;
+  }
+
+  private static void assertMatchesDirectForm(Butterworth bw) {
+    double[] expected = noise(4000);
+    double[] actual = expected.clone();
+
+    Butterworth direct = new Butterworth(bw);
+    direct.create();
+    Filter.filter(expected, direct.getSize(), direct.getXCoeffs(), direct.getYCoeffs(),
+        direct.getGain(), 0, 0);
+    SosFilter.forButterworth(bw).filter(actual, 0, actual.length);
+
+    // the direct form zeroes its first output
+    for (int i = 1; i < expected.length; i++) {
+      assertEquals(expected[i], actual[i], 1E-6 * (1 + Math.abs(expected[i])));
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_designed_then_matchesDirectForm() {
+    assertMatchesDirectForm(new Butterworth(FilterType.LOWPASS, 4, 100, 5, 0));
+    assertMatchesDirectForm(new Butterworth(FilterType.LOWPASS, 3, 100, 10, 0));
+    assertMatchesDirectForm(new Butterworth(FilterType.HIGHPASS, 2, 50, 1, 0));
+    assertMatchesDirectForm(new Butterworth(FilterType.BANDPASS, 4, 100, 1, 10));
+    assertMatchesDirectForm(new Butterworth(FilterType.BANDPASS, 3, 40, 2, 8));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_designed_then_unitGainInPassband() {
+    SosFilter lowpass = SosFilter.forButterworth(new Butterworth(FilterType.LOWPASS, 5, 100, 5, 0));
+    assertEquals(3, lowpass.getSectionCount());
+    assertEquals(1, lowpass.getGain(0), 1E-9);
+    assertEquals(Math.sqrt(0.5), lowpass.getGain(0.05), 1E-9);
+
+    SosFilter bandpass =
+        SosFilter.forButterworth(new Butterworth(FilterType.BANDPASS, 4, 100, 1, 10));
+    assertEquals(4, bandpass.getSectionCount());
+    assertEquals(0, bandpass.getGain(0), 1E-9);
+    assertEquals(0, bandpass.getGain(0.5), 1E-9);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_sameParameters_then_designCached() {
+    Butterworth bw = new Butterworth(FilterType.HIGHPASS, 4, 100, 0.5, 0);
+    SosFilter filter = SosFilter.forButterworth(bw);
+
+    assertSame(filter, SosFilter.forButterworth(new Butterworth(bw)));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_zeroPhase_then_matchesReversedCopy() {
+    SosFilter filter = SosFilter.forButterworth(new Butterworth(FilterType.BANDPASS, 2, 100, 1, 5));
+    double[] data = noise(1000);
+    double[] expected = data.clone();
+
+    filter.filter(expected, 0, expected.length);
+    double[] reversed = new double[expected.length];
+    for (int i = 0; i < expected.length; i++) {
+      reversed[expected.length - 1 - i] = expected[i];
+    }
+    filter.filter(reversed, 0, reversed.length);
+
+    filter.filterZeroPhase(data, 0, data.length);
+    for (int i = 0; i < data.length; i++) {
+      assertEquals(reversed[data.length - 1 - i], data[i], 1E-9);
+    }
+  }
+}
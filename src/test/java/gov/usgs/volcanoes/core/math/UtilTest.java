@@ -0,0 +1,60 @@
+package gov.usgs.volcanoes.core.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class UtilTest {
+
+  /**
+   *
+   */
+  @Test
+  public void when_dpss_then_orthonormalAndConcentrated() {
+    int n = 128;
+    double nw = 4;
+    double[][] tapers = Util.dpss(n, nw, 7);
+
+    for (int k = 0; k < tapers.length; k++) {
+      for (int j = 0; j <= k; j++) {
+        double dot = 0;
+        for (int i = 0; i < n; i++) {
+          dot += tapers[k][i] * tapers[j][i];
+        }
+        assertEquals(j == k ? 1 : 0, dot, 1E-12);
+      }
+
+      // even tapers are symmetric, odd ones antisymmetric
+      double parity = k % 2 == 0 ? 1 : -1;
+      for (int i = 0; i < n / 2; i++) {
+        assertEquals(tapers[k][i], parity * tapers[k][n - 1 - i], 1E-9);
+      }
+    }
+
+    // fraction of the first taper's energy within the band |f| < nw / n
+    double w = nw / n;
+    double concentration = 0;
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        double a = i == j ? 2 * w : Math.sin(2 * Math.PI * w * (i - j)) / (Math.PI * (i - j));
+        concentration += tapers[0][i] * a * tapers[0][j];
+      }
+    }
+    assertEquals(1, concentration, 1E-9);
+    assertTrue(tapers[0][n / 2] > 0);
+    assertTrue(tapers[1][0] > 0);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_hann_then_zeroAtEndsAndOneAtCenter() {
+    double[] window = Util.hann(9);
+    assertEquals(0, window[0], 0);
+    assertEquals(1, window[4], 1E-15);
+    assertEquals(0, window[8], 1E-15);
+    assertEquals(0.08, Util.hamming(9)[0], 1E-15);
+  }
+}
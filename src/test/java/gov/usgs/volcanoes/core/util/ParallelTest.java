@@ -0,0 +1,83 @@
+package gov.usgs.volcanoes.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+public class ParallelTest {
+
+  private static final Parallel.Range<int[]> BOUNDS = new Parallel.Range<int[]>() {
+    @Override
+    public int[] run(int from, int to) {
+      return new int[] {from, to};
+    }
+  };
+
+  /**
+   *
+   */
+  @Test
+  public void when_split_then_piecesCoverRangeInOrder() {
+    List<int[]> pieces = Parallel.split(3, 103, 7, BOUNDS);
+    assertEquals(7, pieces.size());
+    int next = 3;
+    for (int[] piece : pieces) {
+      assertEquals(next, piece[0]);
+      assertTrue(piece[1] > piece[0]);
+      next = piece[1];
+    }
+    assertEquals(103, next);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_oneTask_then_runsWhole() {
+    List<int[]> pieces = Parallel.split(0, 10, 1, BOUNDS);
+    assertEquals(1, pieces.size());
+    assertEquals(10, pieces.get(0)[1]);
+    assertEquals(3, Parallel.split(0, 3, 8, BOUNDS).size());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_taskThrows_then_exceptionRethrown() {
+    List<Callable<Void>> work = new ArrayList<Callable<Void>>();
+    work.add(new Callable<Void>() {
+      @Override
+      public Void call() {
+        throw new IllegalStateException("bad");
+      }
+    });
+    try {
+      Parallel.invokeAll(work);
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("bad", e.getMessage());
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void when_interrupted_then_throwsAndKeepsStatus() {
+    Thread.currentThread().interrupt();
+    try {
+      Parallel.split(0, 100, 4, BOUNDS);
+      fail();
+    } catch (CancellationException e) {
+      assertTrue(Thread.interrupted());
+    }
+  }
+}